@@ -0,0 +1,107 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.commons.file.FileUtil;
+import org.docheinstein.commons.http.HttpDownloader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the download loops against a {@link LocalHttpServer}:
+ * the single stream loop of {@link HttpDownloader} for different buffer
+ * sizes and the ranged download of {@link ParallelHttpDownloader} for
+ * different amounts of connections.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HttpDownloadBenchmark {
+
+    /**
+     * Server of the resource and file the resource is downloaded to.
+     */
+    @State(Scope.Benchmark)
+    public static class Resource {
+        /** Size of the served resource. */
+        @Param({"16", "128"})
+        public int fileSizeMB;
+
+        LocalHttpServer server;
+
+        File outputFile;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = new LocalHttpServer(fileSizeMB * 1024 * 1024);
+            outputFile = Files.createTempFile("http-download-benchmark", ".mp4").toFile();
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.stop();
+            FileUtil.delete(outputFile);
+        }
+    }
+
+    /**
+     * Buffer size of the single stream download.
+     */
+    @State(Scope.Benchmark)
+    public static class Buffer {
+        @Param({"8192", "65536", "1048576"})
+        public int bufferSize;
+    }
+
+    /**
+     * Connections of the parallel download.
+     */
+    @State(Scope.Benchmark)
+    public static class Parallelism {
+        @Param({"1", "4", "8"})
+        public int connections;
+    }
+
+    @Benchmark
+    public long httpDownloader(Resource resource, Buffer buffer) throws IOException {
+        FileUtil.delete(resource.outputFile);
+
+        new HttpDownloader().download(
+            resource.server.getUrl(),
+            resource.outputFile.getAbsolutePath(),
+            downloadedBytes -> {},
+            buffer.bufferSize
+        );
+
+        return resource.outputFile.length();
+    }
+
+    @Benchmark
+    public long parallelHttpDownloader(Resource resource, Parallelism parallelism)
+        throws IOException {
+        new ParallelHttpDownloader(
+            resource.server.getUrl(),
+            resource.outputFile,
+            resource.server.getSize(),
+            parallelism.connections,
+            null
+        ).download(null, 1024 * 1024);
+
+        return resource.outputFile.length();
+    }
+}
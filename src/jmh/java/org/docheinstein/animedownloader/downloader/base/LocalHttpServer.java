@@ -0,0 +1,110 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process HTTP server that serves a synthetic resource of a given size,
+ * honoring single byte range requests; used for benchmark the download
+ * loops without depending on the network.
+ */
+public class LocalHttpServer {
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private static final String PATH = "/video.mp4";
+
+    private final byte[] mContent;
+
+    private final HttpServer mServer;
+
+    private final ExecutorService mExecutor;
+
+    /**
+     * Creates and starts a server for a resource of the given size.
+     * @param size the size of the served resource
+     * @throws IOException if the server can't be started
+     */
+    public LocalHttpServer(int size) throws IOException {
+        mContent = new byte[size];
+        new Random(0).nextBytes(mContent);
+
+        mServer = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mExecutor = Executors.newFixedThreadPool(16);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext(PATH, this::handle);
+        mServer.start();
+    }
+
+    /**
+     * Returns the url of the served resource.
+     * @return the url of the resource
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * Returns the size of the served resource.
+     * @return the size of the resource
+     */
+    public long getSize() {
+        return mContent.length;
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int start = 0;
+        int end = mContent.length - 1;
+        int status = 200;
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            Matcher matcher = RANGE_PATTERN.matcher(range);
+            if (matcher.matches()) {
+                start = Integer.parseInt(matcher.group(1));
+                if (!matcher.group(2).isEmpty())
+                    end = Math.min(end, Integer.parseInt(matcher.group(2)));
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + start + "-" + end + "/" + mContent.length);
+            }
+        }
+
+        int length = end - start + 1;
+
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.sendResponseHeaders(status, length);
+
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(mContent, start, length);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.commons.file.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the ways the segments of a VVVVID video can be joined into
+ * a single .ts file: writing each segment to its own file and merging them
+ * afterwards (as it was done before {@link SegmentFileSink}) against
+ * appending each segment to the output file as soon as it is available.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SegmentMergeBenchmark {
+
+    /** Size of the whole video. */
+    @Param({"16", "128"})
+    public int fileSizeMB;
+
+    /** Amount of segments the video is split into. */
+    @Param({"64", "512"})
+    public int segments;
+
+    private byte[] mSegment;
+
+    private File mFolder;
+
+    private File mOutputFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        mSegment = new byte[(int) ((long) fileSizeMB * 1024 * 1024 / segments)];
+        new Random(0).nextBytes(mSegment);
+
+        mFolder = Files.createTempDirectory("segment-merge-benchmark").toFile();
+        mOutputFile = new File(mFolder, "video.ts");
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtil.deleteRecursive(mFolder);
+    }
+
+    @Benchmark
+    public long writeSegmentFilesAndMerge() throws IOException {
+        File[] segmentFiles = new File[segments];
+
+        for (int i = 0; i < segments; i++) {
+            segmentFiles[i] = new File(mFolder, String.format("%05d.ts", i));
+            try (FileOutputStream fos = new FileOutputStream(segmentFiles[i])) {
+                fos.write(mSegment);
+            }
+        }
+
+        FileUtil.mergeFiles(mOutputFile, segmentFiles);
+
+        for (File segmentFile : segmentFiles)
+            FileUtil.delete(segmentFile);
+
+        return mOutputFile.length();
+    }
+
+    @Benchmark
+    public long appendToSegmentFileSink() throws IOException {
+        try (SegmentFileSink sink = new SegmentFileSink(mOutputFile)) {
+            for (int i = 0; i < segments; i++)
+                sink.onSegmentDownloaded(i, mSegment);
+
+            return sink.getWrittenBytes();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.docheinstein.animedownloader.downloader.vvvvid;
+
+import org.docheinstein.animedownloader.downloader.base.PerformanceLogScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.logging.LogEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Benchmarks the parsing done by {@link VVVVIDMarionette} before the
+ * download starts: the search of the index file among the PERFORMANCE logs
+ * of the driver and the parsing of the index file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VVVVIDParsingBenchmark {
+
+    /** Amount of segments listed by the index file. */
+    @Param({"500", "5000"})
+    public int segments;
+
+    /** Amount of PERFORMANCE log entries preceding the index request. */
+    @Param({"1000", "20000"})
+    public int logEntries;
+
+    /** Fragment of the url of the index file request, as searched by the marionette. */
+    private static final String INDEX_URL_FRAGMENT = "index";
+
+    private String mIndexContent;
+
+    private List<LogEntry> mLogEntries;
+
+    @Setup
+    public void setUp() {
+        mIndexContent = createIndexContent(segments);
+        mLogEntries = createLogEntries(logEntries);
+    }
+
+    @Benchmark
+    public List<String> getSegmentsFromIndexContent() {
+        return VVVVIDMarionette.getSegmentsFromIndexContent(mIndexContent);
+    }
+
+    @Benchmark
+    public String getIndexFileLink() {
+        return new PerformanceLogScanner(INDEX_URL_FRAGMENT).scan(mLogEntries);
+    }
+
+    /**
+     * Creates an HLS playlist with the given amount of segments.
+     * @param segments the amount of segments
+     * @return the content of the playlist
+     */
+    private static String createIndexContent(int segments) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:3\n");
+        sb.append("#EXT-X-TARGETDURATION:10\n");
+        sb.append("#EXT-X-MEDIA-SEQUENCE:1\n");
+
+        for (int i = 1; i <= segments; i++) {
+            sb.append("#EXTINF:10.000,\n");
+            sb.append("https://vvvvid-vh.akamaihd.net/i/Dynit/Anime/episode_,.mp4,.csmil/segment")
+                .append(i).append("_0_av.ts?null=0\n");
+        }
+
+        sb.append("#EXT-X-ENDLIST\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Creates a dump of PERFORMANCE log entries, similar to the one produced
+     * by chrome while the video page is loaded, with the index request as
+     * last entry.
+     * @param entries the amount of entries before the index request
+     * @return the log entries
+     */
+    private static List<LogEntry> createLogEntries(int entries) {
+        List<LogEntry> logEntries = new ArrayList<>(entries + 1);
+
+        for (int i = 0; i < entries; i++) {
+            String message;
+
+            switch (i % 4) {
+            case 0:
+                message = createRequestMessage(i, "https://www.vvvvid.it/assets/img/thumb" + i + ".jpg");
+                break;
+            case 1:
+                message = "{\"message\":{\"method\":\"Network.responseReceived\",\"params\":{" +
+                    "\"requestId\":\"1000." + i + "\",\"response\":{\"status\":200," +
+                    "\"headers\":{\"content-type\":\"image/jpeg\",\"cache-control\":\"max-age=3600\"}," +
+                    "\"url\":\"https://www.vvvvid.it/assets/img/thumb" + i + ".jpg\"}," +
+                    "\"timestamp\":" + i + ".5,\"type\":\"Image\"}},\"webview\":\"ABCDEF\"}";
+                break;
+            case 2:
+                message = "{\"message\":{\"method\":\"Network.dataReceived\",\"params\":{" +
+                    "\"dataLength\":65536,\"encodedDataLength\":65600," +
+                    "\"requestId\":\"1000." + i + "\",\"timestamp\":" + i + ".7}},\"webview\":\"ABCDEF\"}";
+                break;
+            default:
+                message = "{\"message\":{\"method\":\"Page.frameNavigated\",\"params\":{" +
+                    "\"frame\":{\"id\":\"F" + i + "\",\"loaderId\":\"L" + i + "\"," +
+                    "\"url\":\"https://ads.example.com/frame" + i + "\"}}},\"webview\":\"ABCDEF\"}";
+                break;
+            }
+
+            logEntries.add(new LogEntry(Level.INFO, i, message));
+        }
+
+        logEntries.add(new LogEntry(Level.INFO, entries, createRequestMessage(
+            entries,
+            "https://vvvvid-vh.akamaihd.net/i/Dynit/Anime/episode_,.mp4,.csmil/index_0_av.m3u8?null=0")));
+
+        return logEntries;
+    }
+
+    private static String createRequestMessage(int i, String url) {
+        return "{\"message\":{\"method\":\"Network.requestWillBeSent\",\"params\":{" +
+            "\"documentURL\":\"https://www.vvvvid.it/show/1/anime/1/1/episode\"," +
+            "\"frameId\":\"F0\",\"loaderId\":\"L0\",\"requestId\":\"1000." + i + "\"," +
+            "\"request\":{\"headers\":{\"Referer\":\"https://www.vvvvid.it/\"," +
+            "\"User-Agent\":\"Mozilla/5.0 (X11; Linux x86_64) Chrome/69.0\"}," +
+            "\"method\":\"GET\",\"mixedContentType\":\"none\"," +
+            "\"url\":\"" + url + "\"},\"timestamp\":" + i + ".1,\"type\":\"Other\"," +
+            "\"wallTime\":1537000000." + i + "}},\"webview\":\"ABCDEF\"}";
+    }
+}
@@ -0,0 +1,60 @@
+package org.docheinstein.animedownloader.api;
+
+import com.google.gson.JsonObject;
+import org.docheinstein.animedownloader.core.VideoDownload;
+import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+
+/**
+ * Representation of the videos of the queue in the control API.
+ */
+class ApiJson {
+
+    private ApiJson() {}
+
+    /**
+     * Returns the current snapshot of a video, with the fields:
+     * id, url, provider, state, title, size, sizeCertain, bytes, bytesPerSecond,
+     * resumable (whether the download can be paused).
+     * @param download the video
+     * @return the json object of the video
+     */
+    static JsonObject video(VideoDownload download) {
+        DownloadableVideoInfo videoInfo = download.getVideoInfo();
+
+        JsonObject json = new JsonObject();
+        json.addProperty("id", download.getIdentifier());
+        json.addProperty("url", download.getUrl());
+        json.addProperty("provider",
+            download.hasValidProvider() ? download.getProvider().name() : null);
+        json.addProperty("state", download.getState().name());
+        json.addProperty("title", videoInfo != null ? videoInfo.title : null);
+        json.addProperty("size", videoInfo != null ? videoInfo.size : 0);
+        json.addProperty("sizeCertain", download.isSizeCertain());
+        json.addProperty("bytes", download.getDownloadedBytes());
+        json.addProperty("bytesPerSecond", download.getInstantBandwidth());
+        json.addProperty("resumable", download.isResumable());
+        return json;
+    }
+
+    /**
+     * Returns the json object of a removed video.
+     * @param identifier the identifier of the video
+     * @return the json object of the removed video
+     */
+    static JsonObject removed(String identifier) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", identifier);
+        return json;
+    }
+
+    /**
+     * Returns the json object of an error.
+     * @param message the description of the error
+     * @return the json object of the error
+     */
+    static JsonObject error(String message) {
+        JsonObject json = new JsonObject();
+        json.addProperty("error", message);
+        return json;
+    }
+}
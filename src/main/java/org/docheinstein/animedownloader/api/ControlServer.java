@@ -0,0 +1,387 @@
+package org.docheinstein.animedownloader.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.core.BatchResolver;
+import org.docheinstein.animedownloader.core.DownloadQueue;
+import org.docheinstein.animedownloader.core.DownloadState;
+import org.docheinstein.animedownloader.core.VideoDownload;
+import org.docheinstein.animedownloader.executor.Workload;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * HTTP/JSON API for control a {@link DownloadQueue}, bound to localhost.
+ * <p>
+ * The requests are served by the {@link Workload#ControlApi} executor and
+ * act directly on the queue, so they never involve the UI thread (the UI,
+ * if any, is updated by the observers of the queue as usual).
+ * <p>
+ * Endpoints, under {@link Config.ControlApi#PATH}:
+ * <ul>
+ *     <li>GET /videos: the videos of the queue (see {@link ApiJson#video})</li>
+ *     <li>POST /videos: adds the videos of the urls given either as
+ *     {"urls": [...]} or as plain text, one for each line; returns the
+ *     added videos</li>
+ *     <li>GET /videos/{id}: a video of the queue</li>
+ *     <li>DELETE /videos/{id}: aborts the download of a video and removes it</li>
+ *     <li>POST /videos/{id}/pause: aborts the download of a video, keeping
+ *     what has been downloaded so far; refused if the download can't be
+ *     resumed (e.g. a download over multiple connections), since it would
+ *     restart from scratch</li>
+ *     <li>POST /videos/{id}/resume: starts (or resumes) the download of a video</li>
+ *     <li>GET /events: server-sent events of the changes of the videos
+ *     (see {@link EventStream})</li>
+ * </ul>
+ * The errors are reported as {"error": message}.
+ * <p>
+ * Requests that come from pages of other sites (i.e. whose Host or Origin
+ * are not localhost) are rejected.
+ */
+public class ControlServer {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(ControlServer.class);
+
+    /** Body of the request that adds videos, as JSON. */
+    private static class AddRequest {
+        List<String> urls;
+    }
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    private final DownloadQueue mQueue;
+
+    private final EventStream mEvents;
+
+    private HttpServer mServer;
+
+    /**
+     * Creates a control server for the given queue.
+     * @param queue the queue
+     */
+    public ControlServer(DownloadQueue queue) {
+        mQueue = queue;
+        mEvents = new EventStream(queue);
+    }
+
+    /**
+     * Starts the server on the given port of the loopback interface.
+     * @param port the port
+     * @throws IOException if the server can't be bound to the port
+     */
+    public synchronized void start(int port) throws IOException {
+        if (mServer != null) {
+            L.warn("Control API already started");
+            return;
+        }
+
+        mServer = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        mServer.setExecutor(WorkloadExecutors.instance().get(Workload.ControlApi));
+        mServer.createContext(Config.ControlApi.PATH, this::handle);
+
+        mEvents.attach();
+        mServer.start();
+
+        L.info("Control API listening on http://127.0.0.1:" + port + Config.ControlApi.PATH);
+    }
+
+    /**
+     * Stops the server and closes the event streams.
+     */
+    public synchronized void stop() {
+        if (mServer == null)
+            return;
+
+        L.info("Stopping control API");
+
+        mEvents.detach();
+        mServer.stop(0);
+        mServer = null;
+    }
+
+    /**
+     * Sends a JSON response and closes the exchange.
+     * @param exchange the exchange
+     * @param status the status code
+     * @param json the body of the response
+     * @throws IOException if the response can't be sent
+     */
+    static void sendJson(HttpExchange exchange, int status, JsonElement json)
+        throws IOException {
+        byte[] body = GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Metrics.instance().counter("api.requests").increment();
+
+        try {
+            if (!isLocalRequest(exchange)) {
+                L.warn("Rejecting request not coming from localhost, Host: " +
+                    exchange.getRequestHeaders().getFirst("Host") + ", Origin: " +
+                    exchange.getRequestHeaders().getFirst("Origin"));
+                sendJson(exchange, 403, ApiJson.error("Only local requests are accepted"));
+                return;
+            }
+
+            route(exchange);
+        } catch (RuntimeException e) {
+            L.error("Error occurred while serving " + exchange.getRequestURI(), e);
+            sendJson(exchange, 500, ApiJson.error("Internal error: " + e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath()
+            .substring(Config.ControlApi.PATH.length());
+
+        // e.g. "/videos/123/pause" => ["", "videos", "123", "pause"]
+        String[] parts = path.split("/");
+
+        L.debug("Serving " + method + " " + path);
+
+        if (parts.length < 2 || !parts[0].isEmpty()) {
+            sendJson(exchange, 404, ApiJson.error("Not found: " + path));
+            return;
+        }
+
+        if (parts.length == 2 && parts[1].equals("events")) {
+            if (requireMethod(exchange, "GET"))
+                mEvents.serve(exchange);
+            return;
+        }
+
+        if (!parts[1].equals("videos") || parts.length > 4) {
+            sendJson(exchange, 404, ApiJson.error("Not found: " + path));
+            return;
+        }
+
+        if (parts.length == 2) {
+            if (method.equals("GET"))
+                listVideos(exchange);
+            else if (requireMethod(exchange, "POST"))
+                addVideos(exchange);
+            return;
+        }
+
+        VideoDownload download = mQueue.getDownload(parts[2]);
+
+        if (download == null) {
+            sendJson(exchange, 404, ApiJson.error("No video with id: " + parts[2]));
+            return;
+        }
+
+        if (parts.length == 3) {
+            if (method.equals("GET"))
+                sendJson(exchange, 200, ApiJson.video(download));
+            else if (requireMethod(exchange, "DELETE"))
+                removeVideo(exchange, download);
+        } else if (parts[3].equals("pause")) {
+            if (requireMethod(exchange, "POST"))
+                pauseVideo(exchange, download);
+        } else if (parts[3].equals("resume")) {
+            if (requireMethod(exchange, "POST"))
+                resumeVideo(exchange, download);
+        } else {
+            sendJson(exchange, 404, ApiJson.error("Not found: " + path));
+        }
+    }
+
+    private void listVideos(HttpExchange exchange) throws IOException {
+        JsonArray videos = new JsonArray();
+
+        for (VideoDownload download : mQueue.getDownloads())
+            videos.add(ApiJson.video(download));
+
+        sendJson(exchange, 200, videos);
+    }
+
+    private void addVideos(HttpExchange exchange) throws IOException {
+        String body = readBody(exchange);
+
+        if (body == null) {
+            sendJson(exchange, 413, ApiJson.error(
+                "Body larger than " + Config.ControlApi.MAX_BODY_BYTES + " bytes"));
+            return;
+        }
+
+        List<String> urls;
+
+        if (body.trim().startsWith("{")) {
+            try {
+                AddRequest request = GSON.fromJson(body, AddRequest.class);
+                urls = request.urls;
+            } catch (JsonSyntaxException e) {
+                sendJson(exchange, 400, ApiJson.error("Invalid JSON: " + e.getMessage()));
+                return;
+            }
+
+            if (urls == null) {
+                sendJson(exchange, 400, ApiJson.error("Missing 'urls' field"));
+                return;
+            }
+        } else {
+            urls = BatchResolver.parseUrls(body);
+        }
+
+        L.debug("Adding " + urls.size() + " videos through control API");
+
+        JsonArray added = new JsonArray();
+
+        for (VideoDownload download : mQueue.add(urls))
+            added.add(ApiJson.video(download));
+
+        sendJson(exchange, 200, added);
+    }
+
+    private void removeVideo(HttpExchange exchange, VideoDownload download)
+        throws IOException {
+        mQueue.remove(download);
+        sendJson(exchange, 200, ApiJson.removed(download.getIdentifier()));
+    }
+
+    private void pauseVideo(HttpExchange exchange, VideoDownload download)
+        throws IOException {
+        if (download.getState() != DownloadState.Downloading) {
+            sendJson(exchange, 409, ApiJson.error(
+                "Can't pause a video in state " + download.getState()));
+            return;
+        }
+
+        if (!download.isResumable()) {
+            sendJson(exchange, 409, ApiJson.error(
+                "The download can't be resumed once paused; delete the video for abort it"));
+            return;
+        }
+
+        // Pausing is aborting a download that will be resumed from where
+        // it has been aborted
+        download.abort();
+        sendJson(exchange, 200, ApiJson.video(download));
+    }
+
+    private void resumeVideo(HttpExchange exchange, VideoDownload download)
+        throws IOException {
+        DownloadState state = download.getState();
+
+        if (!download.hasValidProvider() || download.isDownloadActive() ||
+            (state != DownloadState.ToDownload && state != DownloadState.Aborted)) {
+            sendJson(exchange, 409, ApiJson.error(
+                "Can't resume a video in state " + state));
+            return;
+        }
+
+        download.download();
+        sendJson(exchange, 200, ApiJson.video(download));
+    }
+
+    /**
+     * Sends a 405 response if the method of the request is not the given one.
+     * @param exchange the exchange
+     * @param method the allowed method
+     * @return whether the method of the request is the allowed one
+     * @throws IOException if the response can't be sent
+     */
+    private static boolean requireMethod(HttpExchange exchange, String method)
+        throws IOException {
+        if (exchange.getRequestMethod().equals(method))
+            return true;
+
+        exchange.getResponseHeaders().set("Allow", method);
+        sendJson(exchange, 405, ApiJson.error(
+            "Method " + exchange.getRequestMethod() + " not allowed"));
+        return false;
+    }
+
+    /**
+     * Reads the body of the request as UTF-8.
+     * @param exchange the exchange
+     * @return the body, or null if larger than {@link Config.ControlApi#MAX_BODY_BYTES}
+     * @throws IOException if the body can't be read
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+
+        try (InputStream is = exchange.getRequestBody()) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                if (body.size() + read > Config.ControlApi.MAX_BODY_BYTES)
+                    return null;
+                body.write(buffer, 0, read);
+            }
+        }
+
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns whether the request comes from localhost: even if the server
+     * is bound to the loopback interface, a page of another site opened in
+     * a local browser could send requests to it (cross site requests or
+     * DNS rebinding), which are recognized by the Host and Origin headers.
+     * @param exchange the exchange
+     * @return whether the request comes from localhost
+     */
+    private static boolean isLocalRequest(HttpExchange exchange) {
+        if (!isLocalHost(exchange.getRequestHeaders().getFirst("Host")))
+            return false;
+
+        String origin = exchange.getRequestHeaders().getFirst("Origin");
+
+        if (origin == null)
+            return true;
+
+        try {
+            return isLocalHost(URI.create(origin).getHost());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isLocalHost(String host) {
+        if (host == null)
+            return false;
+
+        if (host.startsWith("[")) {
+            // IPv6 literal, with optional port
+            int end = host.indexOf(']');
+            host = end > 0 ? host.substring(1, end) : host;
+        } else {
+            int portStart = host.lastIndexOf(':');
+            host = portStart >= 0 ? host.substring(0, portStart) : host;
+        }
+
+        return host.equalsIgnoreCase("localhost") ||
+            host.equals("127.0.0.1") ||
+            host.equals("::1");
+    }
+}
@@ -0,0 +1,245 @@
+package org.docheinstein.animedownloader.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.core.DownloadQueue;
+import org.docheinstein.animedownloader.core.DownloadState;
+import org.docheinstein.animedownloader.core.VideoDownload;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Streams the changes of the videos of a {@link DownloadQueue} to the
+ * clients as server-sent events.
+ * <p>
+ * The observers only mark the changed videos as pending for each client,
+ * while every client is written by its own thread at most once every
+ * {@link Config.ControlApi#EVENTS_PERIOD_MILLIS}, sending the latest state
+ * of each pending video; thus the updates are coalesced and a slow client
+ * can't slow down the downloads, nor the other clients.
+ * <p>
+ * The events are:
+ * <ul>
+ *     <li>video: the current state of a video, sent at the connection for
+ *     every video of the queue and then whenever it changes</li>
+ *     <li>removed: a video has been removed from the queue (id)</li>
+ * </ul>
+ */
+class EventStream implements DownloadQueue.QueueObserver, VideoDownload.Observer {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(EventStream.class);
+
+    /**
+     * Client of the event stream.
+     */
+    private static class Client {
+        /**
+         * Videos changed since the last write, by identifier, in order of
+         * change; null values stand for removed videos.
+         */
+        private final Map<String, VideoDownload> mPending = new LinkedHashMap<>();
+
+        private boolean mClosed = false;
+
+        synchronized void mark(String identifier, VideoDownload download) {
+            mPending.put(identifier, download);
+            notifyAll();
+        }
+
+        /**
+         * Waits for pending videos and takes them.
+         * @param timeoutMillis the maximum time to wait
+         * @return the pending videos (empty if none arrived before the timeout)
+         *         or null if the client has been closed
+         * @throws InterruptedException if interrupted while waiting
+         */
+        synchronized Map<String, VideoDownload> take(long timeoutMillis)
+            throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+
+            while (!mClosed && mPending.isEmpty() && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            if (mClosed)
+                return null;
+
+            Map<String, VideoDownload> pending = new LinkedHashMap<>(mPending);
+            mPending.clear();
+            return pending;
+        }
+
+        synchronized void close() {
+            mClosed = true;
+            notifyAll();
+        }
+    }
+
+    private final Gson mGson = new GsonBuilder().disableHtmlEscaping().create();
+
+    private final DownloadQueue mQueue;
+
+    private final List<Client> mClients = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates an event stream of the given queue.
+     * @param queue the queue
+     */
+    EventStream(DownloadQueue queue) {
+        mQueue = queue;
+    }
+
+    /**
+     * Starts observing the queue and its videos.
+     */
+    void attach() {
+        // A video added in the meanwhile could be observed twice, which is
+        // harmless since the changes are coalesced anyway
+        mQueue.addObserver(this);
+
+        for (VideoDownload download : mQueue.getDownloads())
+            download.addObserver(this);
+    }
+
+    /**
+     * Stops observing the queue and closes the clients.
+     */
+    void detach() {
+        mQueue.removeObserver(this);
+
+        for (VideoDownload download : mQueue.getDownloads())
+            download.removeObserver(this);
+
+        for (Client client : mClients)
+            client.close();
+    }
+
+    /**
+     * Serves a client of the event stream until it disconnects or the
+     * stream is detached; the calling thread is held for all this time.
+     * @param exchange the exchange of the client
+     * @throws IOException if the response can't be sent
+     */
+    void serve(HttpExchange exchange) throws IOException {
+        Client client = new Client();
+
+        if (!register(client)) {
+            ControlServer.sendJson(exchange, 503,
+                ApiJson.error("Too many clients of the event stream"));
+            return;
+        }
+
+        L.debug("Event stream client connected: " + exchange.getRemoteAddress());
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+
+        try (Writer out = new BufferedWriter(
+            new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+
+            // The first events are the current state of every video
+            for (VideoDownload download : mQueue.getDownloads())
+                client.mark(download.getIdentifier(), download);
+
+            Map<String, VideoDownload> pending;
+
+            while ((pending = client.take(Config.ControlApi.KEEP_ALIVE_MILLIS)) != null) {
+                if (pending.isEmpty())
+                    out.write(": keep-alive\n\n");
+
+                for (Map.Entry<String, VideoDownload> entry : pending.entrySet()) {
+                    VideoDownload download = entry.getValue();
+
+                    if (download != null)
+                        writeEvent(out, "video", ApiJson.video(download));
+                    else
+                        writeEvent(out, "removed", ApiJson.removed(entry.getKey()));
+                }
+
+                out.flush();
+
+                // Gives time to the changes to pile up, so that they are coalesced
+                Thread.sleep(Config.ControlApi.EVENTS_PERIOD_MILLIS);
+            }
+        } catch (IOException e) {
+            L.debug("Event stream client disconnected: " + exchange.getRemoteAddress());
+        } catch (InterruptedException e) {
+            L.debug("Interrupted while serving event stream client");
+        } finally {
+            mClients.remove(client);
+            exchange.close();
+        }
+    }
+
+    private synchronized boolean register(Client client) {
+        if (mClients.size() >= Config.ControlApi.MAX_EVENT_CLIENTS)
+            return false;
+
+        mClients.add(client);
+        return true;
+    }
+
+    private void writeEvent(Writer out, String type, JsonObject data) throws IOException {
+        out.write("event: ");
+        out.write(type);
+        out.write("\ndata: ");
+        out.write(mGson.toJson(data));
+        out.write("\n\n");
+    }
+
+    private void markChanged(VideoDownload download) {
+        for (Client client : mClients)
+            client.mark(download.getIdentifier(), download);
+    }
+
+    @Override
+    public void onDownloadAdded(VideoDownload download) {
+        download.addObserver(this);
+        markChanged(download);
+    }
+
+    @Override
+    public void onDownloadRemoved(VideoDownload download) {
+        download.removeObserver(this);
+
+        for (Client client : mClients)
+            client.mark(download.getIdentifier(), null);
+    }
+
+    @Override
+    public void onStateChanged(VideoDownload download, DownloadState state) {
+        markChanged(download);
+    }
+
+    @Override
+    public void onInfoChanged(VideoDownload download) {
+        markChanged(download);
+    }
+
+    @Override
+    public void onProgress(VideoDownload download, long downloadedBytes) {
+        markChanged(download);
+    }
+
+    @Override
+    public void onConcurrencyChanged(VideoDownload download, int concurrentRequests) {}
+
+    @Override
+    public void onConversionFailed(VideoDownload download) {}
+}
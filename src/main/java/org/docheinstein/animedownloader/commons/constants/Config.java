@@ -25,6 +25,7 @@ public class Config {
         public static final File VIDEOS = new File("videos/");
         public static final File TMP = new File("tmp/");
         public static final File CHROME_DRIVER = new File("chromedriver/");
+        public static final File CACHE = new File("cache/");
     }
 
     /** Contains the files used by the application. */
@@ -45,23 +46,12 @@ public class Config {
                 DEFAULT_CHROME_DRIVER = null;
         }
 
-
-        public static final File SETTING_DOWNLOAD_FOLDER = new File(Folders.SETTINGS, "download_folder");
-        public static final File SETTING_REMOVE_AFTER_DOWNLOAD = new File(Folders.SETTINGS, "remove_after_download");
-        public static final File SETTING_DOWNLOAD_AUTOMATICALLY = new File(Folders.SETTINGS, "download_automatically");
-        public static final File SETTING_AUTOMATIC_DOWNLOAD_STRATEGY = new File(Folders.SETTINGS, "automatic_download_strategy");
-        public static final File SETTING_SIMULTANEOUS_LIMIT = new File(Folders.SETTINGS, "simultaneous_video_limit");
-        public static final File SETTING_BANDWIDTH_LIMIT = new File(Folders.SETTINGS, "bandwidth_limit");
-        public static final File SETTING_SIMULTANEOUS_LIMIT_FOR_EACH_PROVIDER
-            = new File(Folders.SETTINGS, "simultaneous_video_limit_for_each_provider");
-
-        public static final File SETTING_CHROME_DRIVER = new File(Folders.SETTINGS, "chrome_driver");
-        public static final File SETTING_CHROME_DRIVER_GHOST_MODE = new File(Folders.SETTINGS, "chrome_driver_ghost_mode");
-
-        public static final File SETTING_FFMPEG = new File(Folders.SETTINGS, "ffmpeg");
-
-        public static final File SETTING_LOGGING = new File(Folders.SETTINGS, "logging");
-        public static final File SETTING_FLUSH = new File(Folders.SETTINGS, "flush");
+        public static final File RESOLUTION_CACHE = new File(Folders.CACHE, "resolutions.json");
+        public static final File VIDEO_QUEUE_JOURNAL = new File(Folders.VIDEOS, "queue.journal");
+        public static final File METRICS_DUMP = new File(Folders.LOGS, "metrics.txt");
+        public static final File STARTUP_REPORT = new File(Folders.LOGS, "startup.txt");
+        public static final File CHROME_DRIVER_CHECKSUM = new File(Folders.CHROME_DRIVER, "chromedriver.sha256");
+        public static final File SETTINGS_STORE = new File(Folders.SETTINGS, "settings.json");
     }
 
     /** Contains the relative paths of the resources of this application. */
@@ -86,6 +76,7 @@ public class Config {
         }
     }
 
+    /** Keys of the legacy files of the videos, one for each video. */
     public static class VideoCache {
         public static final String SEPARATOR = "=%=%="; // '=' is too common
         public static final String KEY_URL =    "URL";
@@ -93,11 +84,139 @@ public class Config {
         public static final String KEY_FILENAME =  "FILENAME";
         public static final String KEY_DIRECT_LINK =  "DIRECT_LINK";
         public static final String KEY_SIZE =  "SIZE";
+        public static final String KEY_ACCEPT_RANGES =  "ACCEPT_RANGES";
+    }
+
+    public static class VideoQueue {
+        /** Period of the batched writes of the journal. */
+        public static final int FLUSH_PERIOD_MILLIS = 1000;
+        /** Minimum amount of records of the journal before a compaction. */
+        public static final int COMPACTION_MIN_RECORDS = 512;
+        /** Ratio between the records and the live videos that triggers a compaction. */
+        public static final int COMPACTION_RATIO = 4;
+    }
+
+    public static class WebDriverPool {
+        public static final int WARM_DRIVERS = 1;
+        public static final int IDLE_TIMEOUT_SECONDS = 300;
+        public static final int EVICTION_PERIOD_SECONDS = 30;
+    }
+
+    public static class LightweightCapture {
+        /**
+         * Third party hosts (ads, trackers, web fonts) never needed for
+         * retrieve the video links; requests to these are failed by the
+         * host resolver of chrome.
+         */
+        public static final String[] BLOCKED_HOSTS = new String[] {
+            "*.doubleclick.net",
+            "*.googlesyndication.com",
+            "*.googleadservices.com",
+            "*.google-analytics.com",
+            "*.googletagmanager.com",
+            "*.googletagservices.com",
+            "*.adnxs.com",
+            "*.adsrvr.org",
+            "*.advertising.com",
+            "*.amazon-adsystem.com",
+            "*.criteo.com",
+            "*.criteo.net",
+            "*.outbrain.com",
+            "*.taboola.com",
+            "*.popads.net",
+            "*.popcash.net",
+            "*.propellerads.com",
+            "*.adsterra.com",
+            "*.exoclick.com",
+            "*.scorecardresearch.com",
+            "*.facebook.net",
+            "fonts.googleapis.com",
+            "fonts.gstatic.com",
+            "use.typekit.net",
+        };
+    }
+
+    public static class BatchResolution {
+        /** Resolutions performed at the same time for each driver of the pool. */
+        public static final int RESOLUTIONS_FOR_EACH_DRIVER = 4;
+        /** Resolutions performed at the same time on the same provider. */
+        public static final int MAX_RESOLUTIONS_FOR_EACH_PROVIDER = 4;
+    }
+
+    public static class ResolutionCache {
+        public static final long MIN_TTL_SECONDS = 60;
+        public static final long MAX_TTL_SECONDS = 24 * 60 * 60;
+        /**
+         * Entries older than the ttl are still revalidated up to this many
+         * times the ttl, so that a longer ttl can be learned.
+         */
+        public static final long PROBE_TTL_FACTOR = 2;
+        public static final long OPENLOAD_TTL_SECONDS = 4 * 60 * 60;
+        public static final long STREAMANGO_TTL_SECONDS = 4 * 60 * 60;
+        public static final long VVVVID_TTL_SECONDS = 30 * 60;
+    }
+
+    public static class Headless {
+        /** Period of the progress events printed while downloading. */
+        public static final int PROGRESS_PERIOD_MILLIS = 1000;
+    }
+
+    public static class Executors {
+        /** Threads that resolve the info of the videos. */
+        public static final int RESOLUTION_THREADS = 16;
+        /**
+         * Threads that download the videos, each one drives a whole download;
+         * raised if the simultaneous video limit needs more.
+         */
+        public static final int TRANSFER_THREADS = 16;
+        /**
+         * Threads that download the byte ranges or the segments of the videos,
+         * each one drives a connection; raised to the connections of every
+         * simultaneous download if needed.
+         */
+        public static final int CONNECTION_THREADS = 4 * TRANSFER_THREADS;
+        /** Threads that serve the external processes (e.g. drain ffmpeg output). */
+        public static final int POST_PROCESSING_THREADS = 2 * TRANSFER_THREADS;
+        /** Threads that perform short tasks on behalf of the UI. */
+        public static final int BACKGROUND_THREADS = 2;
+        /** Threads that serve the control API; each event stream client holds one. */
+        public static final int CONTROL_API_THREADS = ControlApi.MAX_EVENT_CLIENTS + 2;
+        /** Time idle threads are kept alive. */
+        public static final int KEEP_ALIVE_SECONDS = 60;
+        /** Time the running tasks are given for finish at shutdown. */
+        public static final int SHUTDOWN_TIMEOUT_SECONDS = 5;
+        /** System property that enables the virtual threads, if supported by the JVM. */
+        public static final String VIRTUAL_THREADS_PROPERTY = "animedownloader.virtualThreads";
+    }
+
+    public static class ControlApi {
+        /** Prefix of the paths served by the control API. */
+        public static final String PATH = "/api";
+        /** Maximum amount of clients of the event stream at the same time. */
+        public static final int MAX_EVENT_CLIENTS = 4;
+        /** Minimum period between two writes to a client of the event stream. */
+        public static final int EVENTS_PERIOD_MILLIS = 500;
+        /** Time without events after which a comment is sent, for detect closed clients. */
+        public static final int KEEP_ALIVE_MILLIS = 15000;
+        /** Maximum size of the body of a request. */
+        public static final int MAX_BODY_BYTES = 1024 * 1024;
+    }
+
+    public static class Metrics {
+        /** Period of the dump of the metrics to file. */
+        public static final int DUMP_PERIOD_SECONDS = 60;
+        /** Name of the MBean of the metrics. */
+        public static final String MBEAN_NAME = "org.docheinstein.animedownloader:type=Metrics";
     }
 
     public static class Download {
         public static final int ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_UNDER_THRESHOLD_BEFORE_DOWNLOAD_IF_CURRENT_BANDWIDTH_IS_0 = 2;
         public static final int ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_UNDER_THRESHOLD_BEFORE_DOWNLOAD = 10;
-        public static final int ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_AFTER_A_DOWNLOAD = 5;
+        /** Amount of segments written between two syncs of a resumable merge file. */
+        public static final int SEGMENT_SYNC_INTERVAL = 16;
+        /** Maximum time between two syncs of a resumable merge file. */
+        public static final int SEGMENT_SYNC_PERIOD_MILLIS = 5000;
+        /** Maximum age of the validators of the resolution's HEAD for being reused by the download. */
+        public static final int VALIDATORS_MAX_AGE_SECONDS = 60;
     }
 }
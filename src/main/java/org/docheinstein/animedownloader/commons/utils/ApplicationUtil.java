@@ -1,16 +1,17 @@
 package org.docheinstein.animedownloader.commons.utils;
 
-import org.docheinstein.animedownloader.settings.Setting;
+import org.docheinstein.animedownloader.downloader.base.ChromeDriverInstaller;
+import org.docheinstein.animedownloader.downloader.base.WebDriverPool;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.animedownloader.metrics.StartupTimings;
 import org.docheinstein.animedownloader.settings.Settings;
 import org.docheinstein.commons.file.FileUtil;
 import org.docheinstein.commons.internal.DocCommonsLogger;
 import org.docheinstein.commons.logger.DocLogger;
 import org.docheinstein.animedownloader.commons.constants.Config;
 import org.docheinstein.commons.time.TimeUtil;
-import org.docheinstein.commons.zip.ZipUtil;
 
 import java.io.File;
-import java.io.IOException;
 
 /** Contains utility method for the application. */
 public class ApplicationUtil {
@@ -18,11 +19,41 @@ public class ApplicationUtil {
     private static final DocLogger L =
         DocLogger.createForClass(ApplicationUtil.class);
 
-    /** Performs the operation needed at the startup of this application. */
+    /**
+     * Performs the operation needed at the startup of this application.
+     * <p>
+     * Only what is needed for show the queue is done in the calling thread,
+     * the rest is deferred and run in parallel in background
+     * (see {@link StartupTimings}).
+     */
     public static void init() {
+        StartupTimings timings = StartupTimings.instance();
 
-        ensureFolderExistence(Config.Folders.LOGS);
+        timings.critical("logging", ApplicationUtil::initLogging);
+
+        timings.critical("settings", ApplicationUtil::initSettings);
+
+        timings.critical("folders", () -> {
+            ensureFolderExistence(Config.Folders.TMP);
+            ensureFolderExistence(Config.Folders.VIDEOS);
+            ensureFolderExistence(Config.Folders.SETTINGS);
+            ensureFolderExistence(Config.Folders.CHROME_DRIVER);
+            ensureFolderExistence(Config.Folders.CACHE);
+        });
+
+        timings.deferred("metrics", () -> Metrics.instance().start());
 
+        // Starts the first browser in background so that the first
+        // pasted video doesn't wait for it; the chrome driver is needed
+        // only by then (acquiring a driver waits for its verification anyway)
+        timings.deferred("chrome_driver", () -> {
+            ChromeDriverInstaller.instance().ensureInstalled();
+            WebDriverPool.instance().warmUp();
+        });
+    }
+
+    private static void initLogging() {
+        ensureFolderExistence(Config.Folders.LOGS);
 
         DocLogger.enableLogLevel(DocLogger.LogLevel.Debug, true, true);
         DocLogger.enableLogLevel(DocLogger.LogLevel.Info, true, true);
@@ -31,7 +62,10 @@ public class ApplicationUtil {
         DocLogger.enableLogLevel(DocLogger.LogLevel.Verbose, true, true);
         DocCommonsLogger.enable(true);
         DocCommonsLogger.addListener(message -> L.debug("@@ " + message));
+    }
 
+    private static void initSettings() {
+        // Loads the settings too
         updateLoggingOnFilesPreference();
 
         Settings.instance().getLoggingSetting().addListener((setting, value) -> {
@@ -43,14 +77,6 @@ public class ApplicationUtil {
             L.debug("Flush setting is changed; updating DocLogger accordingly");
             updateLoggingOnFilesPreference();
         });
-
-        ensureFolderExistence(Config.Folders.TMP);
-        ensureFolderExistence(Config.Folders.VIDEOS);
-        ensureFolderExistence(Config.Folders.SETTINGS);
-        ensureFolderExistence(Config.Folders.CHROME_DRIVER);
-
-        ensureSettingsExistence();
-        ensureChromeDriverExistence();
     }
 
     /**
@@ -65,56 +91,6 @@ public class ApplicationUtil {
         }
     }
 
-    /**
-     * Ensures that every setting file exist
-     */
-    private static void ensureSettingsExistence() {
-        L.debug("Ensuring that settings files exist");
-
-        for (Setting setting : Settings.instance().getSettings()) {
-            File settingFile = setting.getSettingFile();
-            if (!FileUtil.ensureFileExistence(settingFile)) {
-                L.warn(
-                    "Settings file " + settingFile +
-                        " creation failed");
-            }
-        }
-    }
-
-    /**
-     * Ensures that the default chrome driver has been extracted from
-     * the resources.
-     */
-    private static void ensureChromeDriverExistence() {
-        L.debug("Ensuring that default chrome driver exists");
-
-        L.debug("Chrome driver resource chosen based on the current OS: " + Config.Resources.CHROME_DRIVER);
-
-        if (!FileUtil.exists(Config.Files.DEFAULT_CHROME_DRIVER)) {
-            try {
-                L.debug("Unzipping chrome driver to " +
-                    Config.Folders.CHROME_DRIVER.getAbsolutePath());
-                ZipUtil.unzip(
-                    ResourceUtil.getResourceStream(Config.Resources.CHROME_DRIVER),
-                    Config.Folders.CHROME_DRIVER
-                );
-            } catch (IOException e) {
-                L.warn("Chrome driver unzipping failed");
-            }
-        }
-
-
-        L.debug("Ensuring that chrome driver is executable");
-        if (!Config.Files.DEFAULT_CHROME_DRIVER.canExecute()) {
-            if (Config.Files.DEFAULT_CHROME_DRIVER.setExecutable(true)) {
-                L.debug(Config.Files.DEFAULT_CHROME_DRIVER + " is now executable");
-            }
-            else {
-                L.warn("Executable flag can't be set on default chrome driver");
-            }
-        }
-    }
-
     /**
      * Enables/disables logging of files based on current settings
      */
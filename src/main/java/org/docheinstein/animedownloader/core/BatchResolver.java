@@ -0,0 +1,196 @@
+package org.docheinstein.animedownloader.core;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.downloader.base.WebDriverPool;
+import org.docheinstein.animedownloader.executor.Workload;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+import org.docheinstein.animedownloader.video.VideoProvider;
+import org.docheinstein.commons.logger.DocLogger;
+import org.docheinstein.commons.types.StringUtil;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Retrieves the info of many videos concurrently, e.g. of the videos of a
+ * pasted list of links.
+ * <p>
+ * The resolutions are bounded both globally, accordingly to the size of
+ * the web driver pool, and for each provider, so that a long list of links
+ * of the same site doesn't flood it with requests; providers with pending
+ * videos are served in round robin order.
+ */
+public class BatchResolver {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(BatchResolver.class);
+
+    /**
+     * Observer of the resolutions.
+     */
+    public interface ResolutionObserver {
+        /**
+         * Called when the info of the video have been retrieved, from the
+         * resolving thread.
+         * @param download the download of the video
+         * @param videoInfo the retrieved info
+         */
+        void onVideoResolved(VideoDownload download, DownloadableVideoInfo videoInfo);
+    }
+
+    /** Videos waiting to be resolved for each provider (guarded by this). */
+    private final Map<VideoProvider, Deque<VideoDownload>> mPending =
+        new EnumMap<>(VideoProvider.class);
+
+    /** Resolutions in progress for each provider (guarded by this). */
+    private final Map<VideoProvider, Integer> mRunning =
+        new EnumMap<>(VideoProvider.class);
+
+    /** Amount of resolutions in progress (guarded by this). */
+    private int mRunningCount = 0;
+
+    /** Provider the next dispatch starts from (guarded by this). */
+    private int mNextProviderIndex = 0;
+
+    private final ResolutionObserver mObserver;
+
+    public BatchResolver(ResolutionObserver observer) {
+        mObserver = observer;
+
+        for (VideoProvider provider : VideoProvider.values()) {
+            mPending.put(provider, new ArrayDeque<>());
+            mRunning.put(provider, 0);
+        }
+    }
+
+    /**
+     * Enqueues the given videos for the resolution; the observer is notified
+     * as soon as each one is resolved.
+     * @param downloads the downloads of the videos, which must have a valid provider
+     */
+    public synchronized void resolve(List<VideoDownload> downloads) {
+        for (VideoDownload download : downloads)
+            mPending.get(download.getProvider()).add(download);
+
+        L.debug("Enqueued " + downloads.size() + " videos for the resolution");
+
+        dispatch();
+    }
+
+    /**
+     * Starts the resolution of the pending videos, as long as the limits
+     * allow it.
+     */
+    private synchronized void dispatch() {
+        VideoProvider[] providers = VideoProvider.values();
+
+        while (mRunningCount < getMaxResolutions()) {
+            VideoDownload next = null;
+
+            for (int i = 0; i < providers.length && next == null; i++) {
+                VideoProvider provider =
+                    providers[(mNextProviderIndex + i) % providers.length];
+
+                if (mRunning.get(provider) >=
+                    Config.BatchResolution.MAX_RESOLUTIONS_FOR_EACH_PROVIDER)
+                    continue;
+
+                next = mPending.get(provider).poll();
+
+                if (next != null)
+                    mNextProviderIndex = (mNextProviderIndex + i + 1) % providers.length;
+            }
+
+            if (next == null)
+                return;
+
+            mRunning.put(next.getProvider(), mRunning.get(next.getProvider()) + 1);
+            mRunningCount++;
+
+            final VideoDownload download = next;
+            WorkloadExecutors.instance().execute(Workload.Resolution, () -> doResolve(download));
+        }
+    }
+
+    /**
+     * Resolves the video of the given download and dispatches the next one.
+     * @param download the download of the video
+     */
+    private void doResolve(VideoDownload download) {
+        try {
+            DownloadableVideoInfo videoInfo = download.retrieveVideoInfo();
+            mObserver.onVideoResolved(download, videoInfo);
+        } catch (RuntimeException e) {
+            L.error("Error occurred while resolving video [" + download.getIdentifier() + "]", e);
+        } finally {
+            synchronized (this) {
+                mRunning.put(download.getProvider(), mRunning.get(download.getProvider()) - 1);
+                mRunningCount--;
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of resolutions that can be performed at the same
+     * time; the resolutions that need a browser are further bounded by
+     * the web driver pool itself.
+     * @return the maximum amount of concurrent resolutions
+     */
+    private static int getMaxResolutions() {
+        return WebDriverPool.getPoolSize() *
+            Config.BatchResolution.RESOLUTIONS_FOR_EACH_DRIVER;
+    }
+
+    /**
+     * Returns the urls contained in the given text, one for each line (or
+     * whitespace separated token), without duplicates and in order.
+     * <p>
+     * Only the tokens that are valid http(s) urls are kept, so that the
+     * surrounding words of a pasted text are ignored.
+     * @param text the text, e.g. the content of the clipboard or of a file
+     * @return the distinct urls
+     */
+    public static List<String> parseUrls(String text) {
+        Set<String> urls = new LinkedHashSet<>();
+
+        if (text != null) {
+            for (String token : text.split("\\s+")) {
+                if (isHttpUrl(token))
+                    urls.add(token);
+            }
+        }
+
+        return new ArrayList<>(urls);
+    }
+
+    /**
+     * Returns whether the given token is a valid http or https url.
+     * @param token the token
+     * @return whether the token is an http(s) url with a host
+     */
+    private static boolean isHttpUrl(String token) {
+        if (token.isEmpty())
+            return false;
+
+        try {
+            URL url = new URL(token);
+            String protocol = url.getProtocol();
+
+            return ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) &&
+                StringUtil.isValid(url.getHost());
+        } catch (MalformedURLException e) {
+            L.debug("Ignoring token which is not a url: " + token);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.docheinstein.animedownloader.core;
+
+import org.docheinstein.animedownloader.settings.Settings;
+import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+import org.docheinstein.animedownloader.video.VideoQueueStore;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Queue of the videos to download, independent of how it is presented.
+ * <p>
+ * Owns the {@link VideoDownload}s, resolves the added videos through the
+ * {@link BatchResolver}, starts them through the {@link DownloadScheduler}
+ * and keeps the {@link VideoQueueStore} in sync with them.
+ */
+public class DownloadQueue
+    implements VideoDownload.Observer, BatchResolver.ResolutionObserver {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(DownloadQueue.class);
+
+    /**
+     * Observer of the queue.
+     */
+    public interface QueueObserver {
+        /**
+         * Called when a video is added to the queue, from the thread that
+         * added it.
+         * @param download the added video
+         */
+        void onDownloadAdded(VideoDownload download);
+
+        /**
+         * Called when a video is removed from the queue, either on request
+         * or because it has been downloaded (if remove after download is
+         * enabled).
+         * @param download the removed video
+         */
+        void onDownloadRemoved(VideoDownload download);
+    }
+
+    /** Videos of the queue, in insertion order. */
+    private final List<VideoDownload> mDownloads = new CopyOnWriteArrayList<>();
+
+    private final DownloadScheduler mScheduler;
+
+    private final BatchResolver mResolver = new BatchResolver(this);
+
+    private final List<QueueObserver> mObservers = new CopyOnWriteArrayList<>();
+
+    /** Last identifier given to a video. */
+    private long mLastIdentifier = 0;
+
+    /**
+     * Creates a queue whose videos are started only if the automatic
+     * download is enabled.
+     * @param observer the observer of the queue
+     */
+    public DownloadQueue(QueueObserver observer) {
+        this(observer, false);
+    }
+
+    /**
+     * Creates a queue.
+     * @param observer the observer of the queue
+     * @param alwaysAutomatic whether the videos are started even if the
+     *                        automatic download setting is disabled
+     */
+    public DownloadQueue(QueueObserver observer, boolean alwaysAutomatic) {
+        mScheduler = new DownloadScheduler(alwaysAutomatic);
+
+        if (observer != null)
+            mObservers.add(observer);
+    }
+
+    /**
+     * Adds an observer of the queue; the videos already in the queue
+     * are not notified.
+     * @param observer the observer
+     */
+    public void addObserver(QueueObserver observer) {
+        mObservers.add(observer);
+    }
+
+    /**
+     * Removes an observer of the queue.
+     * @param observer the observer
+     */
+    public void removeObserver(QueueObserver observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * Loads the videos of the previous session from the video queue store.
+     */
+    public void load() {
+        List<VideoQueueStore.QueuedVideo> videos = VideoQueueStore.instance().load();
+
+        if (videos.isEmpty()) {
+            L.debug("No video to load from cache");
+            return;
+        }
+
+        for (VideoQueueStore.QueuedVideo video : videos) {
+            L.debug("Loading video from cache with identifier: " + video.identifier);
+
+            DownloadState state =
+                video.state == VideoQueueStore.State.Aborted ?
+                    DownloadState.Aborted :
+                    DownloadState.ToDownload;
+
+            add(video.identifier, video.url, video.videoInfo, state, video.downloadedBytes);
+        }
+    }
+
+    /**
+     * Adds a video for each of the given urls and resolves them in
+     * background; urls already in the queue are ignored.
+     * @param urls the urls of the videos
+     * @return the added videos
+     */
+    public synchronized List<VideoDownload> add(List<String> urls) {
+        List<VideoDownload> added = new ArrayList<>();
+        List<VideoDownload> downloadsToResolve = new ArrayList<>();
+
+        for (String url : urls) {
+            if (contains(url)) {
+                L.debug("Skipping video already in the list: " + url);
+                continue;
+            }
+
+            VideoDownload download = add(nextIdentifier(), url, null,
+                DownloadState.ToDownload, 0);
+
+            added.add(download);
+
+            if (download.hasValidProvider())
+                downloadsToResolve.add(download);
+        }
+
+        if (!downloadsToResolve.isEmpty())
+            mResolver.resolve(downloadsToResolve);
+
+        return added;
+    }
+
+    /**
+     * Removes the given video from the queue, aborting its download if
+     * it is in progress.
+     * @param download the video to remove
+     */
+    public void remove(VideoDownload download) {
+        if (download.getState() == DownloadState.Downloading)
+            download.abort();
+
+        removeFromQueue(download);
+    }
+
+    /**
+     * Starts the next videos, if possible.
+     */
+    public void reschedule() {
+        mScheduler.reschedule();
+    }
+
+    /**
+     * Returns the videos of the queue, in insertion order.
+     * @return the videos of the queue
+     */
+    public List<VideoDownload> getDownloads() {
+        return Collections.unmodifiableList(mDownloads);
+    }
+
+    /**
+     * Returns the video with the given identifier.
+     * @param identifier the identifier of the video
+     * @return the video, or null if it is not in the queue
+     */
+    public VideoDownload getDownload(String identifier) {
+        for (VideoDownload download : mDownloads) {
+            if (download.getIdentifier().equals(identifier))
+                return download;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns whether there is nothing left to do: every video of a known
+     * provider has been downloaded or aborted.
+     * @return whether the queue is drained
+     */
+    public boolean isDrained() {
+        for (VideoDownload download : mDownloads) {
+            if (download.hasValidProvider() &&
+                download.getState() != DownloadState.Downloaded &&
+                download.getState() != DownloadState.Aborted)
+                return false;
+        }
+
+        return true;
+    }
+
+    private boolean contains(String url) {
+        for (VideoDownload download : mDownloads) {
+            if (download.getUrl().equals(url))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns a new identifier for a video, unique even for videos
+     * added within the same millisecond.
+     * @return the identifier
+     */
+    private synchronized String nextIdentifier() {
+        mLastIdentifier = Math.max(System.currentTimeMillis(), mLastIdentifier + 1);
+        return String.valueOf(mLastIdentifier);
+    }
+
+    private VideoDownload add(String identifier, String url, DownloadableVideoInfo videoInfo,
+                              DownloadState state, long downloadedBytes) {
+        L.info("Adding video [" + identifier + "] with URL: " + url);
+
+        VideoDownload download = new VideoDownload(identifier, url, videoInfo);
+        download.restoreState(state, downloadedBytes);
+        download.addObserver(this);
+
+        mDownloads.add(download);
+
+        // A video of an unknown provider can't be downloaded at all
+        if (download.hasValidProvider())
+            mScheduler.enqueue(download);
+
+        for (QueueObserver observer : mObservers)
+            observer.onDownloadAdded(download);
+
+        return download;
+    }
+
+    private void removeFromQueue(VideoDownload download) {
+        if (!mDownloads.remove(download))
+            return;
+
+        L.debug("Removing video [" + download.getIdentifier() + "]");
+
+        VideoQueueStore.instance().remove(download.getIdentifier());
+        mScheduler.remove(download);
+
+        for (QueueObserver observer : mObservers)
+            observer.onDownloadRemoved(download);
+    }
+
+    @Override
+    public void onVideoResolved(VideoDownload download, DownloadableVideoInfo videoInfo) {
+        VideoQueueStore.instance().put(download.getIdentifier(), download.getUrl(), videoInfo);
+
+        // Starts the next possible video, if needed
+        mScheduler.reschedule();
+    }
+
+    @Override
+    public void onStateChanged(VideoDownload download, DownloadState state) {
+        if (state == DownloadState.Downloading) {
+            VideoQueueStore.instance().updateState(
+                download.getIdentifier(), VideoQueueStore.State.Downloading,
+                download.getDownloadedBytes());
+        } else if (state == DownloadState.Aborted) {
+            VideoQueueStore.instance().updateState(
+                download.getIdentifier(), VideoQueueStore.State.Aborted,
+                download.getDownloadedBytes());
+
+            // The slot of the aborted video is free now
+            mScheduler.reschedule();
+        } else if (state == DownloadState.Downloaded) {
+            if (Settings.instance().getRemoveAfterDownloadSetting().getValue()) {
+                L.debug("Removing downloaded video");
+                removeFromQueue(download);
+                return;
+            }
+
+            // Delete even if remove_after_download is disabled since there is
+            // no need to keep a downloaded video in the cache
+            VideoQueueStore.instance().remove(download.getIdentifier());
+            mScheduler.remove(download);
+        }
+    }
+
+    @Override
+    public void onInfoChanged(VideoDownload download) {}
+
+    @Override
+    public void onProgress(VideoDownload download, long downloadedBytes) {
+        VideoQueueStore.instance().updateProgress(download.getIdentifier(), downloadedBytes);
+    }
+
+    @Override
+    public void onConcurrencyChanged(VideoDownload download, int concurrentRequests) {}
+
+    @Override
+    public void onConversionFailed(VideoDownload download) {}
+}
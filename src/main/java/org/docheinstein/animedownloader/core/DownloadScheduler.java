@@ -0,0 +1,353 @@
+package org.docheinstein.animedownloader.core;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.animedownloader.settings.Settings;
+import org.docheinstein.animedownloader.settings.SettingsSnapshot;
+import org.docheinstein.animedownloader.video.VideoProvider;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the queued videos automatically, accordingly to the automatic
+ * download strategy.
+ * <p>
+ * The scheduler behaves as an actor: every event (queue changes, download
+ * ends, bandwidth samples) is processed sequentially by a single thread,
+ * which is the only one that touches the queue; thus decisions never race
+ * with each other and a video can't be started twice.
+ * <p>
+ * Videos are started as soon as a slot is free; the adaptive strategy
+ * additionally waits for enough bandwidth samples under the limit, which
+ * are taken once per second (and update the download speed of each video).
+ */
+public class DownloadScheduler {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(DownloadScheduler.class);
+
+    /** Period of the bandwidth samples used by the adaptive strategy. */
+    private static final int BANDWIDTH_SAMPLE_PERIOD_MILLIS = 1000;
+
+    /** Thread that processes the events. */
+    private final ScheduledExecutorService mExecutor;
+
+    /** Videos known by the scheduler, in insertion order. */
+    private final List<VideoDownload> mQueue = new ArrayList<>();
+
+    /** Consecutive bandwidth samples under the limit (adaptive strategy). */
+    private int mSamplesUnderThreshold = 0;
+
+    /** Bandwidth samples at 0 bytes/s (adaptive strategy). */
+    private int mSamplesAtZeroBandwidth = 0;
+
+    /** Whether the videos are started even if the automatic download is disabled. */
+    private final boolean mAlwaysAutomatic;
+
+    /**
+     * Creates a scheduler that starts the videos only if the automatic
+     * download is enabled.
+     */
+    public DownloadScheduler() {
+        this(false);
+    }
+
+    /**
+     * Creates a scheduler.
+     * @param alwaysAutomatic whether the videos are started even if the
+     *                        automatic download setting is disabled
+     */
+    public DownloadScheduler(boolean alwaysAutomatic) {
+        mAlwaysAutomatic = alwaysAutomatic;
+
+        mExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "download-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        mExecutor.scheduleAtFixedRate(
+            () -> handle(this::onBandwidthSample),
+            BANDWIDTH_SAMPLE_PERIOD_MILLIS,
+            BANDWIDTH_SAMPLE_PERIOD_MILLIS,
+            TimeUnit.MILLISECONDS
+        );
+
+        Settings s = Settings.instance();
+
+        updateTransferThreads();
+
+        s.getSimultaneousVideoLimitSetting().addListener(
+            (setting, value) -> updateTransferThreads());
+        s.getSimultaneousVideoForEachProvider().addListener(
+            (setting, value) -> updateTransferThreads());
+        s.getDownloadConnectionsSetting().addListener(
+            (setting, value) -> updateTransferThreads());
+    }
+
+    /**
+     * Adds a video to the queue, without starting anything.
+     * @param download the video
+     */
+    public void enqueue(VideoDownload download) {
+        post(() -> mQueue.add(download));
+    }
+
+    /**
+     * Removes a video from the queue (e.g. because it has been removed or
+     * downloaded) and starts the next videos, if possible.
+     * @param download the video
+     */
+    public void remove(VideoDownload download) {
+        post(() -> {
+            mQueue.remove(download);
+            schedule();
+        });
+    }
+
+    /**
+     * Starts the next videos, if possible.
+     * <p>
+     * This should be called whenever the state of a video changes in a way
+     * that could free a slot or make a video available.
+     */
+    public void reschedule() {
+        post(this::schedule);
+    }
+
+    /**
+     * Enqueues an event to be processed by the scheduler thread.
+     * @param event the event
+     */
+    private void post(Runnable event) {
+        mExecutor.execute(() -> handle(event));
+    }
+
+    /**
+     * Processes an event, preventing a failure to kill the scheduler thread.
+     * @param event the event
+     */
+    private void handle(Runnable event) {
+        try {
+            event.run();
+        } catch (RuntimeException e) {
+            L.error("Error occurred while scheduling downloads", e);
+        }
+    }
+
+    /**
+     * Starts the next videos accordingly to the current strategy.
+     */
+    private void schedule() {
+        if (!isAutomaticDownloadEnabled()) {
+            L.verbose("Automatic download disabled, nothing to start");
+            return;
+        }
+
+        Settings.AutomaticDownloadStrategy strategy =
+            Settings.instance().getAutomaticDownloadStrategySetting().getValue();
+
+        if (strategy == Settings.AutomaticDownloadStrategy.Static)
+            scheduleUsingStaticStrategy();
+        else if (strategy == Settings.AutomaticDownloadStrategy.Adaptive)
+            scheduleUsingAdaptiveStrategy();
+        else
+            L.warn("Do not know strategy: " + strategy);
+    }
+
+    /*
+     * The logic of the static strategy is just download until the current
+     * download count is lower than the specified limit, eventually referred
+     * to each provider.
+     */
+    private void scheduleUsingStaticStrategy() {
+        VideoDownload next;
+        while ((next = getNextVideoToDownload()) != null) {
+            start(next, Settings.AutomaticDownloadStrategy.Static);
+
+            // Otherwise the same video would be chosen again
+            if (!next.isDownloadActive() && next.getState() == DownloadState.ToDownload) {
+                L.warn("Video [" + next.getIdentifier() + "] can't be started");
+                return;
+            }
+        }
+    }
+
+    /*
+     * The logic of the adaptive strategy is start to download videos until
+     * one of the following conditions is met.
+     * 1) Just like static download, if the current download count is not lower
+     * then the specified limit, nothing else is automatically put in download
+     * 2) Moreover, if the current sum of the download bandwidth has not been
+     * under the specified limit for a few samples, nothing else is
+     * automatically put in download
+     */
+    private void scheduleUsingAdaptiveStrategy() {
+        VideoDownload next = getNextVideoToDownload();
+
+        if (next == null) {
+            resetBandwidthSamples();
+            return;
+        }
+
+        boolean idle = getActiveDownloads().isEmpty();
+
+        boolean bandwidthAvailable =
+            mSamplesUnderThreshold >=
+                Config.Download.ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_UNDER_THRESHOLD_BEFORE_DOWNLOAD ||
+            mSamplesAtZeroBandwidth >=
+                Config.Download.ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_UNDER_THRESHOLD_BEFORE_DOWNLOAD_IF_CURRENT_BANDWIDTH_IS_0;
+
+        if (!idle && !bandwidthAvailable) {
+            L.verbose("Waiting for more bandwidth samples before start a video " +
+                "(" + mSamplesUnderThreshold + " under threshold)");
+            return;
+        }
+
+        start(next, Settings.AutomaticDownloadStrategy.Adaptive);
+
+        // The bandwidth of the just started video has to be observed
+        // before start another one
+        resetBandwidthSamples();
+    }
+
+    /**
+     * Updates the download speed of every video and takes a sample of the
+     * current total bandwidth, used by the adaptive strategy.
+     */
+    private void onBandwidthSample() {
+        long nowMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+
+        for (VideoDownload download : mQueue)
+            download.sampleBandwidth(nowMillis);
+
+        if (!isAutomaticDownloadEnabled() ||
+            Settings.instance().getAutomaticDownloadStrategySetting().getValue() !=
+                Settings.AutomaticDownloadStrategy.Adaptive)
+            return;
+
+        int bandwidthLimit = Settings.instance().getBandwidthLimit().getValue();
+
+        int currentBandwidth = 0;
+        for (VideoDownload download : mQueue)
+            currentBandwidth += download.getInstantBandwidth();
+
+        Metrics.instance().histogram("download.bandwidth", "KB/s").record(currentBandwidth / 1000);
+
+        L.verbose("Total current bandwidth is " + (currentBandwidth / 1000) + "KB/s " +
+            "(limit is " + (bandwidthLimit / 1000) + "KB/s)");
+
+        if (currentBandwidth > bandwidthLimit) {
+            resetBandwidthSamples();
+            return;
+        }
+
+        mSamplesUnderThreshold++;
+        if (currentBandwidth <= 0)
+            mSamplesAtZeroBandwidth++;
+
+        scheduleUsingAdaptiveStrategy();
+    }
+
+    /**
+     * Sizes the transfer executor for the videos that can be downloaded at
+     * the same time, and the connection executor for their connections,
+     * so that the started videos never wait for a thread.
+     */
+    private static void updateTransferThreads() {
+        Settings settings = Settings.instance();
+        SettingsSnapshot snapshot = settings.getSnapshot();
+        int downloadLimit = snapshot.getValue(settings.getSimultaneousVideoLimitSetting());
+        boolean forEachProvider = snapshot.getValue(settings.getSimultaneousVideoForEachProvider());
+        int connections = snapshot.getValue(settings.getDownloadConnectionsSetting());
+
+        WorkloadExecutors.instance().setTransferThreads(
+            forEachProvider ? downloadLimit * VideoProvider.values().length : downloadLimit,
+            connections);
+    }
+
+    private boolean isAutomaticDownloadEnabled() {
+        return mAlwaysAutomatic ||
+            Settings.instance().getDownloadAutomaticallySetting().getValue();
+    }
+
+    private void resetBandwidthSamples() {
+        mSamplesUnderThreshold = 0;
+        mSamplesAtZeroBandwidth = 0;
+    }
+
+    /**
+     * Starts the download of the given video.
+     * @param download the video to download
+     * @param strategy the strategy that has chosen the video
+     */
+    private void start(VideoDownload download,
+                       Settings.AutomaticDownloadStrategy strategy) {
+        L.debug("Automatically downloading video [" + download.getIdentifier() + "] " +
+            "using '" + strategy + "' strategy");
+        Metrics.instance().counter("scheduler.started." + strategy).increment();
+        download.download();
+    }
+
+    /**
+     * Returns the first video still to download which can be started without
+     * exceeding the simultaneous video limit.
+     * @return the next video to download, or null if there is none
+     */
+    private VideoDownload getNextVideoToDownload() {
+        // Both from the same snapshot, so that they are consistent
+        Settings settings = Settings.instance();
+        SettingsSnapshot snapshot = settings.getSnapshot();
+        int downloadLimit = snapshot.getValue(settings.getSimultaneousVideoLimitSetting());
+        boolean forEachProvider = snapshot.getValue(settings.getSimultaneousVideoForEachProvider());
+
+        Map<VideoProvider, Integer> activeDownloads = getActiveDownloads();
+        int activeCount = 0;
+
+        for (Integer count : activeDownloads.values())
+            activeCount += count;
+
+        // Check if the download count exceed the limit, but only if forEachProvider
+        // is not true and so the limit is referred to a global limit
+        if (!forEachProvider && activeCount >= downloadLimit)
+            return null;
+
+        for (VideoDownload download : mQueue) {
+            if (download.hasValidProvider() &&
+                download.getState() == DownloadState.ToDownload &&
+                !download.isDownloadActive() &&
+                activeDownloads.getOrDefault(download.getProvider(), 0) < downloadLimit)
+                return download;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the count of the videos whose download has been requested and
+     * not ended yet, grouped by provider.
+     * @return the active downloads for each provider
+     */
+    private Map<VideoProvider, Integer> getActiveDownloads() {
+        Map<VideoProvider, Integer> activeDownloads = new HashMap<>();
+
+        for (VideoDownload download : mQueue) {
+            if (download.isDownloadActive()) {
+                activeDownloads.put(
+                    download.getProvider(),
+                    activeDownloads.getOrDefault(download.getProvider(), 0) + 1
+                );
+            }
+        }
+
+        return activeDownloads;
+    }
+}
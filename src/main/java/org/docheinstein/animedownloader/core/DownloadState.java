@@ -0,0 +1,23 @@
+package org.docheinstein.animedownloader.core;
+
+/**
+ * State of the download of a video.
+ */
+public enum DownloadState {
+    /** The video should still be downloaded.* */
+    ToDownload,
+
+    /** The video will be downloaded but now is in initialization
+     * (e.g. loading video name/size).
+     */
+    Initializing,
+
+    /** The download of the video is in progress. */
+    Downloading,
+
+    /** The video has been download successfully. */
+    Downloaded,
+
+    /** The video began but has been aborted. */
+    Aborted
+}
@@ -0,0 +1,468 @@
+package org.docheinstein.animedownloader.core;
+
+import org.docheinstein.animedownloader.downloader.base.VideoDownloadObserver;
+import org.docheinstein.animedownloader.downloader.base.VideoDownloader;
+import org.docheinstein.animedownloader.executor.Workload;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.animedownloader.settings.Settings;
+import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+import org.docheinstein.animedownloader.video.VideoProvider;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.docheinstein.animedownloader.commons.constants.Const.Math.M;
+
+/**
+ * A video of the download queue, independent of how it is presented.
+ * <p>
+ * Drives the underlying {@link VideoDownloader} and keeps the state of the
+ * download, its info and its progress; every change is notified to the
+ * {@link Observer}s, from the thread that caused it.
+ */
+public class VideoDownload implements VideoDownloadObserver {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(VideoDownload.class);
+
+    /** Time constant of the exponential smoothing of the download speed. */
+    private static final double SPEED_SMOOTHING_MILLIS = 2000;
+
+    /**
+     * Observer of a video download.
+     */
+    public interface Observer {
+        /**
+         * Called when the state of the download changes.
+         * @param download the download
+         * @param state the new state
+         */
+        void onStateChanged(VideoDownload download, DownloadState state);
+
+        /**
+         * Called when the title or the size of the video are detected.
+         * @param download the download
+         */
+        void onInfoChanged(VideoDownload download);
+
+        /**
+         * Called whenever another megabyte has been downloaded, from the
+         * download threads.
+         * @param download the download
+         * @param downloadedBytes the amount of bytes downloaded so far
+         */
+        void onProgress(VideoDownload download, long downloadedBytes);
+
+        /**
+         * Called when the amount of requests performed at the same time by
+         * an adaptive download changes.
+         * @param download the download
+         * @param concurrentRequests the amount of concurrent requests
+         */
+        void onConcurrencyChanged(VideoDownload download, int concurrentRequests);
+
+        /**
+         * Called when the downloaded video can't be converted to MP4.
+         * @param download the download
+         */
+        void onConversionFailed(VideoDownload download);
+    }
+
+    /** Identifier of the video. */
+    private final String mIdentifier;
+
+    /** Link of the video to download. */
+    private final String mUrl;
+
+    /** Detected provider of the video to download. */
+    private final VideoProvider mProvider;
+
+    private final List<Observer> mObservers = new CopyOnWriteArrayList<>();
+
+    /** Current download state. */
+    private volatile DownloadState mState = DownloadState.ToDownload;
+
+    /**
+     * Whether the download has been requested and is not ended yet
+     * (it is true even while initializing).
+     */
+    private volatile boolean mDownloadActive = false;
+
+    /** Incremented each time the download is started. */
+    private final AtomicInteger mDownloadAttempt = new AtomicInteger();
+
+    private volatile DownloadableVideoInfo mVideoInfo;
+
+    /** Whether the size of the video is certain or just an estimation. */
+    private volatile boolean mSizeCertain = true;
+
+    /** Latest amount of downloaded bytes, written by the download threads. */
+    private volatile long mDownloadedBytes = 0;
+
+    /** Megabytes notified to the observers by the last progress. */
+    private volatile long mNotifiedMegabytes = -1;
+
+    /** Downloaded bytes as of the last bandwidth sample. */
+    private long mLastSampleBytes = 0;
+
+    /** Time of the last bandwidth sample, 0 if none. */
+    private long mLastSampleMillis = 0;
+
+    /** Smoothed download speed in bytes per second. */
+    private volatile double mBytesPerSecond = 0;
+
+    /** Underlying download used for actually download the video.*/
+    private VideoDownloader mDownloader;
+
+    /** Folder the video will be download to. */
+    private File mDownloadFolder;
+
+    public VideoDownload(String identifier, String url, DownloadableVideoInfo videoInfo) {
+        mIdentifier = identifier;
+        mUrl = url;
+        mVideoInfo = videoInfo;
+        mProvider = VideoProvider.getProviderForURL(url);
+    }
+
+    /**
+     * Adds an observer of this download.
+     * @param observer the observer
+     */
+    public void addObserver(Observer observer) {
+        mObservers.add(observer);
+    }
+
+    /**
+     * Removes an observer of this download.
+     * @param observer the observer
+     */
+    public void removeObserver(Observer observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * Restores the state of a video whose download has been started in
+     * a previous session.
+     * @param state the state of the download
+     * @param downloadedBytes the amount of bytes downloaded so far
+     */
+    public void restoreState(DownloadState state, long downloadedBytes) {
+        mState = state;
+        mDownloadedBytes = downloadedBytes;
+    }
+
+    /**
+     * Whether the download url belongs to a known provider.
+     * @return whether this video url can be download with a known provider
+     */
+    public boolean hasValidProvider() {
+        return mProvider != null;
+    }
+
+    /**
+     * Returns the video provider of this video.
+     * @return the video provider
+     */
+    public VideoProvider getProvider() {
+        return mProvider;
+    }
+
+    /**
+     * Returns the identifier of the video.
+     * @return the identifier of the video
+     */
+    public String getIdentifier() {
+        return mIdentifier;
+    }
+
+    /**
+     * Returns the url of the video.
+     * @return the url of the video
+     */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * Returns the video info.
+     * @return the video info, or null if not known yet
+     */
+    public DownloadableVideoInfo getVideoInfo() {
+        return mVideoInfo;
+    }
+
+    /**
+     * Returns whether the size of the video is certain or just an estimation.
+     * @return whether the size is certain
+     */
+    public boolean isSizeCertain() {
+        return mSizeCertain;
+    }
+
+    /**
+     * Returns the current state for the download of the video.
+     * @return the video download state
+     */
+    public DownloadState getState() {
+        return mState;
+    }
+
+    /**
+     * Returns whether the download has been requested and is not ended yet.
+     * @return whether the download of this video is active
+     */
+    public boolean isDownloadActive() {
+        return mDownloadActive;
+    }
+
+    /**
+     * Returns whether the download, if aborted, would be resumed from
+     * where it stopped the next time it is started.
+     * @return whether the download can be resumed
+     */
+    public boolean isResumable() {
+        VideoDownloader downloader = mDownloader;
+        return downloader != null && downloader.isResumable();
+    }
+
+    /**
+     * Returns the amount of bytes downloaded so far.
+     * @return the downloaded bytes
+     */
+    public long getDownloadedBytes() {
+        return mDownloadedBytes;
+    }
+
+    /**
+     * Returns the smoothed bandwidth of the download expressed in bytes
+     * per seconds.
+     * @return the instant bandwidth, 0 if the video is not downloading
+     */
+    public int getInstantBandwidth() {
+        if (mState == DownloadState.Downloading)
+            return (int) mBytesPerSecond;
+        return 0;
+    }
+
+    /**
+     * Returns the folder the video is downloaded to, once the download
+     * has been requested.
+     * @return the download folder, or null
+     */
+    public File getDownloadFolder() {
+        return mDownloadFolder;
+    }
+
+    /**
+     * Starts the video download, in background.
+     */
+    public void download() {
+        mDownloadActive = true;
+
+        initDownloader();
+
+        if (mDownloader == null) {
+            mDownloadActive = false;
+            return;
+        }
+
+        L.debug("Download will be processed for url: " + mUrl);
+
+        // Use the given video info if provided instead of reload it
+        // This may be useful for skip the selenium step and directly
+        // download the video which information have already been retrieved
+        mDownloader.useVideoInfo(mVideoInfo);
+
+        changeState(DownloadState.Initializing);
+
+        int attempt = mDownloadAttempt.incrementAndGet();
+
+        WorkloadExecutors.instance().execute(Workload.Transfer, () -> {
+            try {
+                mDownloader.startDownload();
+            } catch (RuntimeException e) {
+                L.error("Error occurred while downloading video [" + mIdentifier + "]", e);
+                onVideoDownloadAborted();
+                return;
+            }
+
+            // The download must be ended anyhow, otherwise its slot would
+            // never be released; unless it has been started again meanwhile
+            if (mDownloadActive && mDownloadAttempt.get() == attempt) {
+                L.warn("Download of video [" + mIdentifier + "] ended without " +
+                    "being finished; considering it aborted");
+                onVideoDownloadAborted();
+            }
+        });
+    }
+
+    /**
+     * Retrieves the video info.
+     * <p>
+     * The info is retrieved from the page, thus the selenium driver may
+     * be used for perform the action.
+     * @return the video info
+     */
+    public DownloadableVideoInfo retrieveVideoInfo() {
+        changeState(DownloadState.Initializing);
+        initDownloader();
+
+        try {
+            mVideoInfo = mDownloader.retrieveVideoInfo();
+        } finally {
+            // Update video info accordingly to the just retrieved video info,
+            // unless the download has been started in the meanwhile
+            if (!mDownloadActive)
+                changeState(DownloadState.ToDownload);
+        }
+
+        notifyInfoChanged();
+        return mVideoInfo;
+    }
+
+    /**
+     * Stops the download of the video.
+     */
+    public void abort() {
+        if (mDownloader == null) {
+            L.warn("Can't abort download since it is not started yet!");
+            return;
+        }
+
+        mDownloader.abortDownload();
+    }
+
+    /**
+     * Updates the smoothed download speed with the progress made since
+     * the previous sample.
+     * <p>
+     * Must be called periodically by a single thread.
+     * @param nowMillis the current time in millis, from a monotonic clock
+     */
+    void sampleBandwidth(long nowMillis) {
+        long downloadedBytes = mDownloadedBytes;
+
+        if (mState != DownloadState.Downloading ||
+            mLastSampleMillis == 0 || downloadedBytes < mLastSampleBytes) {
+            // Not downloading, first sample or restarted download
+            mBytesPerSecond = 0;
+        } else if (nowMillis > mLastSampleMillis) {
+            long deltaMillis = nowMillis - mLastSampleMillis;
+            double instantBytesPerSecond =
+                (double) (downloadedBytes - mLastSampleBytes) * 1000 / deltaMillis;
+            double alpha = 1 - Math.exp(-deltaMillis / SPEED_SMOOTHING_MILLIS);
+
+            mBytesPerSecond += alpha * (instantBytesPerSecond - mBytesPerSecond);
+        }
+
+        mLastSampleBytes = downloadedBytes;
+        mLastSampleMillis = mState == DownloadState.Downloading ? nowMillis : 0;
+    }
+
+    private synchronized void initDownloader() {
+        if (!hasValidProvider()) {
+            L.warn("Can't start video download is provider is invalid");
+            return;
+        }
+
+        // Initializes if needed, only the first time
+        if (mDownloader == null) {
+            mDownloadFolder = Settings.instance().getDownloadFolderSetting().getValue();
+
+            mDownloader = mProvider.createDownloader(
+                mUrl,
+                mDownloadFolder,
+                this
+            );
+        }
+    }
+
+    private void changeState(DownloadState state) {
+        L.debug("Changing state of video [" + mIdentifier + "] to " + state);
+        mState = state;
+
+        for (Observer observer : mObservers)
+            observer.onStateChanged(this, state);
+    }
+
+    private void notifyInfoChanged() {
+        for (Observer observer : mObservers)
+            observer.onInfoChanged(this);
+    }
+
+    @Override
+    public void onVideoDownloadStarted(long resumedBytes) {
+        L.info("Download of " + getTitle() + " is actually started" +
+            (resumedBytes > 0 ? " (resumed from byte " + resumedBytes + ")" : ""));
+        mDownloadedBytes = resumedBytes;
+        mNotifiedMegabytes = -1;
+        changeState(DownloadState.Downloading);
+    }
+
+    @Override
+    public void onVideoDownloadProgress(long downloadedBytes, long millis) {
+        mDownloadedBytes = downloadedBytes;
+
+        long megabytes = downloadedBytes / M;
+
+        if (megabytes != mNotifiedMegabytes) {
+            mNotifiedMegabytes = megabytes;
+
+            for (Observer observer : mObservers)
+                observer.onProgress(this, downloadedBytes);
+        }
+    }
+
+    @Override
+    public void onVideoDownloadFinished() {
+        L.info("Download of " + getTitle() + " is finished");
+        mDownloadActive = false;
+        changeState(DownloadState.Downloaded);
+    }
+
+    @Override
+    public void onVideoDownloadAborted() {
+        L.info("Download of " + getTitle() + " has been aborted");
+        mDownloadActive = false;
+        changeState(DownloadState.Aborted);
+    }
+
+    @Override
+    public void onVideoTitleDetected(String title) {
+        DownloadableVideoInfo videoInfo = mVideoInfo;
+        if (videoInfo == null)
+            mVideoInfo = videoInfo = new DownloadableVideoInfo();
+        videoInfo.title = title;
+        notifyInfoChanged();
+    }
+
+    @Override
+    public void onVideoSizeDetected(long videoSizeBytes, boolean certainly) {
+        DownloadableVideoInfo videoInfo = mVideoInfo;
+        if (videoInfo == null)
+            mVideoInfo = videoInfo = new DownloadableVideoInfo();
+        videoInfo.size = videoSizeBytes;
+        mSizeCertain = certainly;
+        notifyInfoChanged();
+    }
+
+    @Override
+    public void onVideoDownloadConcurrencyChanged(int concurrentRequests) {
+        for (Observer observer : mObservers)
+            observer.onConcurrencyChanged(this, concurrentRequests);
+    }
+
+    @Override
+    public void onVideoConversionFailed() {
+        for (Observer observer : mObservers)
+            observer.onConversionFailed(this);
+    }
+
+    private String getTitle() {
+        DownloadableVideoInfo videoInfo = mVideoInfo;
+        return videoInfo != null ? videoInfo.title : mUrl;
+    }
+}
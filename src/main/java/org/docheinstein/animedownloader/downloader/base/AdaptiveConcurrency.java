@@ -0,0 +1,216 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.animedownloader.video.VideoProvider;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD controller of the amount of concurrent requests of a download.
+ * <p>
+ * The goodput (bytes of the successful requests per second) is sampled
+ * periodically: while the requests succeed the limit is increased by one
+ * as long as every increase brings more goodput, and it is halved as soon
+ * as the server answers with errors or with 'Too Many Requests'. When an
+ * increase doesn't pay off the limit steps back and holds for a while
+ * before probing again, thus it converges to the fastest safe concurrency.
+ * <p>
+ * The limit never exceeds the maximum given by the download (i.e. the
+ * connections setting), neither while probing nor when starting from the
+ * limit reached by a previous download.
+ * <p>
+ * The limit reached by a download is remembered for its provider and used
+ * as starting point of the next downloads of the same provider.
+ */
+public class AdaptiveConcurrency {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(AdaptiveConcurrency.class);
+
+    /**
+     * Interface used to listen to the changes of the limit.
+     */
+    public interface LimitObserver {
+        /**
+         * Called when the limit changes.
+         * @param limit the new limit
+         */
+        void onLimitChanged(int limit);
+    }
+
+    /** Maximum amount of concurrent requests, whatever the download asks. */
+    public static final int MAX_LIMIT = 12;
+
+    /** Duration of a goodput sample. */
+    private static final long SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** Minimum relative goodput gain for keep an increased limit. */
+    private static final double MIN_GAIN = 0.05;
+
+    /** Samples the limit is held after an increase that didn't pay off. */
+    private static final int HOLD_SAMPLES = 5;
+
+    /** Limits reached by the last download of each provider. */
+    private static final Map<VideoProvider, Integer> LEARNED_LIMITS =
+        new ConcurrentHashMap<>();
+
+    /** Provider of the download, or null. */
+    private final VideoProvider mProvider;
+
+    /** Observer of the limit, or null. */
+    private final LimitObserver mObserver;
+
+    /** Maximum amount of concurrent requests of this download. */
+    private final int mMaxLimit;
+
+    /** Current limit. */
+    private volatile int mLimit;
+
+    /** Start of the current sample (guarded by this). */
+    private long mSampleStartNanos = System.nanoTime();
+
+    /** Bytes of the successful requests of the current sample (guarded by this). */
+    private long mSampleBytes = 0;
+
+    /** Failed requests of the current sample (guarded by this). */
+    private int mSampleFailures = 0;
+
+    /** Whether the limit has been decreased within the current sample (guarded by this). */
+    private boolean mDecreasedInSample = false;
+
+    /** Goodput of the previous sample, in bytes per second (guarded by this). */
+    private double mLastGoodput = 0;
+
+    /** Whether the last change of the limit was an increase (guarded by this). */
+    private boolean mProbing = false;
+
+    /** Samples still to wait before probe again (guarded by this). */
+    private int mHoldSamples = 0;
+
+    /**
+     * Creates a controller for a new download.
+     * @param provider the provider of the download, or null if unknown
+     * @param maxLimit the maximum amount of concurrent requests, which is
+     *                 also the initial limit if nothing has been learned
+     *                 for the provider yet
+     * @param observer the observer of the limit, can be null
+     */
+    public AdaptiveConcurrency(VideoProvider provider, int maxLimit,
+                               LimitObserver observer) {
+        mProvider = provider;
+        mObserver = observer;
+        mMaxLimit = Math.max(1, Math.min(MAX_LIMIT, maxLimit));
+
+        Integer learnedLimit = provider != null ? LEARNED_LIMITS.get(provider) : null;
+        mLimit = clamp(learnedLimit != null ? learnedLimit : mMaxLimit);
+
+        L.debug("Starting with " + mLimit + " concurrent requests" +
+            (learnedLimit != null ? " (learned for " + provider + ")" : ""));
+
+        if (mObserver != null)
+            mObserver.onLimitChanged(mLimit);
+    }
+
+    /**
+     * Returns the current amount of allowed concurrent requests.
+     * @return the current limit
+     */
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * Returns the maximum amount of concurrent requests of this download.
+     * @return the maximum limit
+     */
+    public int getMaxLimit() {
+        return mMaxLimit;
+    }
+
+    /**
+     * Records a successful request.
+     * @param bytes the bytes received by the request
+     */
+    public synchronized void onRequestSucceeded(long bytes) {
+        mSampleBytes += bytes;
+        evaluateIfSampleEnded();
+    }
+
+    /**
+     * Records a failed request.
+     * @param throttled whether the server asked to slow down (e.g. with
+     *                  '429 Too Many Requests'), which decreases the limit
+     *                  immediately
+     */
+    public synchronized void onRequestFailed(boolean throttled) {
+        mSampleFailures++;
+
+        if (throttled && !mDecreasedInSample)
+            decrease("server is throttling");
+
+        evaluateIfSampleEnded();
+    }
+
+    private void evaluateIfSampleEnded() {
+        long now = System.nanoTime();
+        long elapsed = now - mSampleStartNanos;
+
+        if (elapsed < SAMPLE_NANOS)
+            return;
+
+        double goodput = mSampleBytes * 1e9 / elapsed;
+
+        if (mSampleFailures > 0) {
+            if (!mDecreasedInSample)
+                decrease(mSampleFailures + " failed requests");
+        } else if (mHoldSamples > 0) {
+            mHoldSamples--;
+        } else if (mProbing && goodput < mLastGoodput * (1 + MIN_GAIN)) {
+            // The last increase didn't pay off: step back and hold
+            mProbing = false;
+            mHoldSamples = HOLD_SAMPLES;
+            setLimit(mLimit - 1, "no goodput gain");
+        } else if (mLimit < mMaxLimit) {
+            mProbing = true;
+            setLimit(mLimit + 1, "probing");
+        }
+
+        mLastGoodput = goodput;
+        mSampleStartNanos = now;
+        mSampleBytes = 0;
+        mSampleFailures = 0;
+        mDecreasedInSample = false;
+    }
+
+    private void decrease(String reason) {
+        mProbing = false;
+        mDecreasedInSample = true;
+        setLimit(mLimit / 2, reason);
+    }
+
+    private void setLimit(int limit, String reason) {
+        limit = clamp(limit);
+
+        if (limit == mLimit)
+            return;
+
+        L.debug("Concurrent requests " + mLimit + " -> " + limit + " (" + reason + ")");
+
+        mLimit = limit;
+
+        if (mProvider != null)
+            LEARNED_LIMITS.put(mProvider, limit);
+
+        Metrics.instance().gauge(Metrics.forProvider("segment.concurrency", mProvider)).set(limit);
+
+        if (mObserver != null)
+            mObserver.onLimitChanged(limit);
+    }
+
+    private int clamp(int limit) {
+        return Math.max(1, Math.min(mMaxLimit, limit));
+    }
+}
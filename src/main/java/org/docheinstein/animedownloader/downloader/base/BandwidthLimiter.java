@@ -0,0 +1,210 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.settings.Settings;
+import org.docheinstein.animedownloader.video.VideoProvider;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the download speed of every video by charging the downloaded
+ * bytes to token buckets: one for each provider and a global one.
+ * <p>
+ * Each download obtains a {@link Throttle} and charges it after every read
+ * from its streams; the read blocks until enough tokens are available.
+ * Buckets serve the waiting downloads in FIFO order and each download
+ * enters the buckets with a single connection at a time, therefore the
+ * available bandwidth is shared fairly between the active downloads,
+ * regardless of how many connections each one uses.
+ * <p>
+ * The limits follow the download rate limit settings and can be changed
+ * while the downloads are in progress.
+ */
+public class BandwidthLimiter {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(BandwidthLimiter.class);
+
+    private static final BandwidthLimiter INSTANCE = new BandwidthLimiter();
+
+    /** Maximum amount of bytes charged to the buckets at once. */
+    private static final int MAX_CHARGE = 16 * 1024;
+
+    /** Burst allowed by a bucket, as fraction of second of its rate. */
+    private static final int BURST_DIVISOR = 4;
+
+    /** Maximum time a waiting download sleeps before checking the rate again. */
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Token bucket with a changeable rate.
+     */
+    private static class TokenBucket {
+        private final String mName;
+
+        /** Fair lock, the waiting downloads are served in FIFO order. */
+        private final ReentrantLock mLock = new ReentrantLock(true);
+
+        /** Rate in bytes per second, 0 means unlimited. */
+        private volatile long mRate = 0;
+
+        /** Available tokens (guarded by mLock). */
+        private double mTokens = 0;
+
+        /** Time of the last refill (guarded by mLock). */
+        private long mLastRefillNanos = System.nanoTime();
+
+        TokenBucket(String name) {
+            mName = name;
+        }
+
+        void setRate(long rate) {
+            L.debug("Rate of bucket '" + mName + "' set to " +
+                (rate > 0 ? (rate / 1024) + "KB/s" : "unlimited"));
+            mRate = Math.max(0, rate);
+        }
+
+        /**
+         * Takes the given amount of tokens, waiting until they are available.
+         * @param bytes the tokens to take, not greater than {@link #MAX_CHARGE}
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void take(int bytes) throws InterruptedException {
+            if (mRate <= 0)
+                return;
+
+            mLock.lockInterruptibly();
+
+            try {
+                while (true) {
+                    long rate = mRate;
+
+                    if (rate <= 0)
+                        return;
+
+                    long now = System.nanoTime();
+                    double capacity = Math.max(MAX_CHARGE, rate / BURST_DIVISOR);
+                    mTokens = Math.min(capacity,
+                        mTokens + (now - mLastRefillNanos) * rate / 1e9);
+                    mLastRefillNanos = now;
+
+                    if (mTokens >= bytes) {
+                        mTokens -= bytes;
+                        return;
+                    }
+
+                    long waitNanos = (long) ((bytes - mTokens) * 1e9 / rate);
+                    TimeUnit.NANOSECONDS.sleep(Math.min(waitNanos, MAX_WAIT_NANOS));
+                }
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Handle used by a single download for charge the downloaded bytes.
+     * <p>
+     * A throttle can be shared between the connections of the same download.
+     */
+    public class Throttle {
+        /** Bucket of the provider of the download, if any. */
+        private final TokenBucket mProviderBucket;
+
+        /** Lock that lets a single connection of the download enter the buckets. */
+        private final ReentrantLock mLock = new ReentrantLock(true);
+
+        private Throttle(TokenBucket providerBucket) {
+            mProviderBucket = providerBucket;
+        }
+
+        /**
+         * Charges the given amount of downloaded bytes, blocking until the
+         * download is allowed to go on without exceeding the limits.
+         * @param bytes the amount of bytes just downloaded
+         * @throws InterruptedIOException if interrupted while waiting
+         */
+        public void acquire(long bytes) throws InterruptedIOException {
+            if (bytes <= 0 || !isLimited())
+                return;
+
+            try {
+                mLock.lockInterruptibly();
+
+                try {
+                    while (bytes > 0) {
+                        int charge = (int) Math.min(bytes, MAX_CHARGE);
+
+                        if (mProviderBucket != null)
+                            mProviderBucket.take(charge);
+                        mGlobalBucket.take(charge);
+
+                        bytes -= charge;
+                    }
+                } finally {
+                    mLock.unlock();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling the download");
+            }
+        }
+
+        private boolean isLimited() {
+            return mGlobalBucket.mRate > 0 ||
+                (mProviderBucket != null && mProviderBucket.mRate > 0);
+        }
+    }
+
+    /** Bucket shared by every download. */
+    private final TokenBucket mGlobalBucket = new TokenBucket("global");
+
+    /** Bucket of each provider. */
+    private final Map<VideoProvider, TokenBucket> mProviderBuckets =
+        new EnumMap<>(VideoProvider.class);
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the instance of this class.
+     */
+    public static BandwidthLimiter instance() {
+        return INSTANCE;
+    }
+
+    private BandwidthLimiter() {
+        for (VideoProvider provider : VideoProvider.values())
+            mProviderBuckets.put(provider, new TokenBucket(provider.name()));
+
+        Settings s = Settings.instance();
+
+        updateGlobalRate(s.getDownloadRateLimitSetting().getValue());
+        updateProviderRate(s.getDownloadRateLimitForEachProviderSetting().getValue());
+
+        s.getDownloadRateLimitSetting().addListener(
+            (setting, value) -> updateGlobalRate(value));
+        s.getDownloadRateLimitForEachProviderSetting().addListener(
+            (setting, value) -> updateProviderRate(value));
+    }
+
+    /**
+     * Creates a throttle for a new download of a video of the given provider.
+     * @param provider the provider of the video, or null if unknown
+     * @return the throttle of the download
+     */
+    public Throttle newThrottle(VideoProvider provider) {
+        return new Throttle(provider != null ? mProviderBuckets.get(provider) : null);
+    }
+
+    private void updateGlobalRate(Integer rate) {
+        mGlobalBucket.setRate(rate != null ? rate : 0);
+    }
+
+    private void updateProviderRate(Integer rate) {
+        for (TokenBucket bucket : mProviderBuckets.values())
+            bucket.setRate(rate != null ? rate : 0);
+    }
+}
@@ -0,0 +1,182 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.commons.utils.ResourceUtil;
+import org.docheinstein.commons.logger.DocLogger;
+import org.docheinstein.commons.zip.ZipUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Installs the default chrome driver, bundled as a zip resource.
+ * <p>
+ * Once extracted, the SHA-256 of the driver is saved in
+ * {@link Config.Files#CHROME_DRIVER_CHECKSUM} together with the identity
+ * of the bundle it comes from; the next times the installed driver is just
+ * verified against it, and extracted again only if it is missing, corrupted
+ * (e.g. an extraction interrupted halfway) or if the bundle has changed.
+ */
+public class ChromeDriverInstaller {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(ChromeDriverInstaller.class);
+
+    private static final ChromeDriverInstaller INSTANCE = new ChromeDriverInstaller();
+
+    /** Whether the driver has already been verified in this session. */
+    private boolean mInstalled = false;
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the instance of this class.
+     */
+    public static ChromeDriverInstaller instance() {
+        return INSTANCE;
+    }
+
+    private ChromeDriverInstaller() {}
+
+    /**
+     * Ensures that the default chrome driver is installed and executable,
+     * extracting it only if needed.
+     * <p>
+     * Only the first call does the work, the other calls wait for it
+     * and then return immediately.
+     */
+    public synchronized void ensureInstalled() {
+        if (mInstalled)
+            return;
+
+        // Even if it fails, there's no reason for retry it at each driver
+        mInstalled = true;
+
+        File driver = Config.Files.DEFAULT_CHROME_DRIVER;
+        String resource = Config.Resources.CHROME_DRIVER;
+
+        if (driver == null || resource == null) {
+            L.warn("There's no default chrome driver for the current OS");
+            return;
+        }
+
+        String bundleIdentity = getBundleIdentity(resource);
+
+        if (isInstalled(driver, bundleIdentity)) {
+            L.debug("Default chrome driver verified by checksum");
+        } else {
+            try {
+                L.debug("Unzipping chrome driver " + resource + " to " +
+                    Config.Folders.CHROME_DRIVER.getAbsolutePath());
+
+                ZipUtil.unzip(
+                    ResourceUtil.getResourceStream(resource),
+                    Config.Folders.CHROME_DRIVER
+                );
+
+                writeChecksum(bundleIdentity, sha256(driver));
+            } catch (IOException e) {
+                L.warn("Chrome driver unzipping failed", e);
+            }
+        }
+
+        if (!driver.canExecute()) {
+            if (driver.setExecutable(true))
+                L.debug(driver + " is now executable");
+            else
+                L.warn("Executable flag can't be set on default chrome driver");
+        }
+    }
+
+    /**
+     * Returns whether the driver exists and matches the saved checksum.
+     * @param driver the driver
+     * @param bundleIdentity the identity of the current bundle
+     * @return whether the driver is already installed
+     */
+    private static boolean isInstalled(File driver, String bundleIdentity) {
+        File checksumFile = Config.Files.CHROME_DRIVER_CHECKSUM;
+
+        if (!driver.exists() || !checksumFile.exists())
+            return false;
+
+        try {
+            // Lines: bundle identity, SHA-256 of the driver
+            List<String> lines = Files.readAllLines(
+                checksumFile.toPath(), StandardCharsets.UTF_8);
+
+            if (lines.size() < 2 || !lines.get(0).equals(bundleIdentity)) {
+                L.debug("Chrome driver bundle is changed since the last extraction");
+                return false;
+            }
+
+            if (!lines.get(1).equals(sha256(driver))) {
+                L.warn("Chrome driver checksum mismatch, it will be extracted again");
+                return false;
+            }
+
+            return true;
+        } catch (IOException e) {
+            L.warn("Can't verify chrome driver checksum", e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns an identity of the bundled driver which changes when the
+     * bundle changes, without reading it: its name and size.
+     * @param resource the resource of the bundle
+     * @return the identity of the bundle
+     */
+    private static String getBundleIdentity(String resource) {
+        long size = -1;
+
+        try {
+            URL url = ResourceUtil.getResourceURL(resource);
+            if (url != null)
+                size = url.openConnection().getContentLengthLong();
+        } catch (IOException e) {
+            L.warn("Can't retrieve the size of the chrome driver bundle", e);
+        }
+
+        return resource + " " + size;
+    }
+
+    private static void writeChecksum(String bundleIdentity, String checksum)
+        throws IOException {
+        File checksumFile = Config.Files.CHROME_DRIVER_CHECKSUM;
+        File tmpFile = new File(checksumFile.getPath() + ".tmp");
+
+        Files.write(tmpFile.toPath(),
+            (bundleIdentity + "\n" + checksum + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpFile.toPath(), checksumFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String sha256(File file) throws IOException {
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+
+            int read;
+            while ((read = is.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest())
+                hex.append(String.format("%02x", b));
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
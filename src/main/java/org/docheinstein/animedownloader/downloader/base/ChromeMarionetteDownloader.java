@@ -1,32 +1,21 @@
 package org.docheinstein.animedownloader.downloader.base;
 
-import org.docheinstein.commons.logger.DocLogger;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
-import org.openqa.selenium.logging.LogType;
-import org.openqa.selenium.logging.LoggingPreferences;
-import org.openqa.selenium.remote.CapabilityType;
-import org.openqa.selenium.remote.DesiredCapabilities;
 
 import java.io.File;
-import java.util.logging.Level;
 
 /**
  * Entity that represents a download of video that use {@link WebDriver}
  * to retrieve video info/link, more specifically a Chrome Driver.
+ * <p>
+ * The driver is taken from the {@link WebDriverPool} and should be
+ * released as soon as it is not needed anymore.
  */
 public abstract class ChromeMarionetteDownloader implements VideoDownloader {
 
-    private static final DocLogger L =
-        DocLogger.createForClass(ChromeMarionetteDownloader.class);
-
     /** Selenium web driver. */
     protected WebDriver mDriver;
 
-    /** Whether the chrome driver should be started silently. */
-    protected boolean mGhost;
-
     /** Observer of the video download. */
     protected VideoDownloadObserver mObserver;
 
@@ -36,51 +25,32 @@ public abstract class ChromeMarionetteDownloader implements VideoDownloader {
     /** Download folder. */
     protected File mDownloadFolder;
 
-    /** Chrome driver path. */
-    protected File mDriverPath;
-
     public ChromeMarionetteDownloader(String downloadUrl,
                                       File outputPath,
-                                      File driverPath,
-                                      boolean ghost,
                                       VideoDownloadObserver downloadObserver) {
         mDownloadUrl = downloadUrl;
         mDownloadFolder = outputPath;
-        mDriverPath = driverPath;
-        mGhost = ghost;
         mObserver = downloadObserver;
     }
 
     /**
-     * Initializes the marionette and thus the webdriver.
+     * Initializes the marionette by taking a webdriver from the pool.
+     * <p>
+     * This may block until a driver is available.
      */
     public void initDriver() {
-        System.setProperty(
-            "webdriver.chrome.driver",
-            mDriverPath.getAbsolutePath()
-        );
-
-        ChromeOptions co = new ChromeOptions();
-
-        // Invisibility
-        if (mGhost) {
-            L.debug("Ghost chrome driver required");
-            co.addArguments("--headless");
-            co.addArguments("--mute-audio");
-        }
-        else {
-            L.debug("Visible chrome driver required");
-        }
-
-        // Logging, for access network resources
-        DesiredCapabilities caps = DesiredCapabilities.chrome();
-        LoggingPreferences logPrefs = new LoggingPreferences();
-        logPrefs.enable(LogType.PERFORMANCE, Level.ALL);
-        caps.setCapability(CapabilityType.LOGGING_PREFS, logPrefs);
+        mDriver = WebDriverPool.instance().acquire();
+    }
 
-        co.merge(caps);
+    /**
+     * Gives back the webdriver to the pool.
+     */
+    public void releaseDriver() {
+        if (mDriver == null)
+            return;
 
-        mDriver = new ChromeDriver(co);
+        WebDriverPool.instance().release(mDriver);
+        mDriver = null;
     }
 
     /**
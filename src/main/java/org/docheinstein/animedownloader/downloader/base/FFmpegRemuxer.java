@@ -0,0 +1,244 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.executor.Workload;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.animedownloader.settings.Settings;
+import org.docheinstein.commons.file.FileUtil;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Remuxes an MPEG-TS stream to an MP4 file using ffmpeg, copying both
+ * the audio and the video codec.
+ * <p>
+ * The input can be either an existing .ts file or the segments handed out
+ * while they are downloaded, which are piped into ffmpeg's stdin so that
+ * the remux overlaps with the download.
+ * <p>
+ * The output of ffmpeg is always drained (so that the process can't block
+ * on a full pipe) and the last lines are kept for report failures.
+ */
+public class FFmpegRemuxer implements ParallelSegmentDownloader.SegmentConsumer {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(FFmpegRemuxer.class);
+
+    /** Amount of ffmpeg output lines kept for report failures. */
+    private static final int KEPT_OUTPUT_LINES = 20;
+
+    /** Size of the buffer of ffmpeg's stdin. */
+    private static final int STDIN_BUFFER_SIZE = 1024 * 1024;
+
+    /** Input .ts file or null if the input is piped to stdin. */
+    private final File mInput;
+
+    /** Output .mp4 file. */
+    private final File mOutput;
+
+    /** Underlying ffmpeg process. */
+    private Process mProcess;
+
+    /** Stdin of ffmpeg, valid only if the input is piped. */
+    private OutputStream mStdin;
+
+    /** Last lines of ffmpeg's output. */
+    private final LinkedList<String> mLastOutputLines = new LinkedList<>();
+
+    /** Latch released when ffmpeg's output has been drained completely. */
+    private final CountDownLatch mOutputDrained = new CountDownLatch(1);
+
+    /** Time at which ffmpeg has been started. */
+    private long mStartNanos;
+
+    /**
+     * Creates a remuxer that reads the given .ts file.
+     * @param input the .ts file
+     * @param output the .mp4 file
+     */
+    public FFmpegRemuxer(File input, File output) {
+        mInput = input;
+        mOutput = output;
+    }
+
+    /**
+     * Creates a remuxer that reads the segments piped to ffmpeg's stdin
+     * through {@link #onSegmentDownloaded(int, byte[])}.
+     * @param output the .mp4 file
+     */
+    public FFmpegRemuxer(File output) {
+        this(null, output);
+    }
+
+    /**
+     * Starts the ffmpeg process.
+     * @throws IOException if ffmpeg can't be started (e.g. it is not available)
+     */
+    public void start() throws IOException {
+        mStartNanos = System.nanoTime();
+
+        List<String> command = new ArrayList<>();
+        command.add(getExecutable());
+        command.add("-y");
+
+        // The format is given explicitly since the extension of the input
+        // file could not tell it (e.g. a '.part' file)
+        if (mInput != null) {
+            command.addAll(Arrays.asList("-f", "mpegts", "-i", mInput.getAbsolutePath()));
+        } else {
+            command.addAll(Arrays.asList("-f", "mpegts", "-i", "pipe:0"));
+        }
+
+        command.addAll(Arrays.asList(
+            "-acodec", "copy",
+            "-vcodec", "copy",
+            mOutput.getAbsolutePath()
+        ));
+
+        L.debug("Conversion command: " + String.join(" ", command));
+
+        mProcess = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .start();
+
+        if (mInput != null)
+            mProcess.getOutputStream().close();
+        else
+            mStdin = new BufferedOutputStream(mProcess.getOutputStream(), STDIN_BUFFER_SIZE);
+
+        WorkloadExecutors.instance().execute(Workload.PostProcessing, this::drainOutput);
+    }
+
+    @Override
+    public void onSegmentDownloaded(int index, byte[] segment) throws IOException {
+        if (mStdin == null)
+            throw new IOException("Remuxer input is not piped or has not been started");
+
+        if (!mProcess.isAlive())
+            throw new IOException("ffmpeg exited prematurely: " + getLastOutput());
+
+        mStdin.write(segment);
+    }
+
+    /**
+     * Closes the input (if piped) and waits for ffmpeg to finish.
+     * @return whether ffmpeg exited successfully and the output exists
+     */
+    public boolean waitFor() {
+        if (mProcess == null)
+            return false;
+
+        try {
+            if (mStdin != null)
+                mStdin.close();
+        } catch (IOException e) {
+            L.warn("Error occurred while closing ffmpeg stdin", e);
+        }
+
+        int exitCode;
+
+        try {
+            exitCode = mProcess.waitFor();
+            mOutputDrained.await();
+        } catch (InterruptedException e) {
+            L.warn("Interrupted while waiting for ffmpeg; aborting it");
+            Thread.currentThread().interrupt();
+            abort();
+            return false;
+        }
+
+        L.debug("ffmpeg exited with code " + exitCode);
+
+        Metrics.instance().timer(mInput != null ? "ffmpeg.convert" : "ffmpeg.remux")
+            .recordMillisSince(mStartNanos);
+
+        if (exitCode != 0) {
+            L.error("ffmpeg failed with exit code " + exitCode + ":\n" + getLastOutput());
+            return false;
+        }
+
+        return FileUtil.exists(mOutput);
+    }
+
+    /**
+     * Kills ffmpeg and deletes the partial output.
+     */
+    public void abort() {
+        if (mProcess == null)
+            return;
+
+        L.debug("Aborting ffmpeg");
+
+        try {
+            if (mStdin != null)
+                mStdin.close();
+        } catch (IOException e) {
+            // ffmpeg is going to be killed anyway
+        }
+
+        mProcess.destroyForcibly();
+
+        try {
+            mProcess.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        FileUtil.delete(mOutput);
+    }
+
+    /**
+     * Reads ffmpeg's output (stdout and stderr) until the process ends,
+     * keeping the last lines.
+     */
+    private void drainOutput() {
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(mProcess.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                L.verbose("[ffmpeg] " + line);
+                synchronized (mLastOutputLines) {
+                    mLastOutputLines.addLast(line);
+                    if (mLastOutputLines.size() > KEPT_OUTPUT_LINES)
+                        mLastOutputLines.removeFirst();
+                }
+            }
+        } catch (IOException e) {
+            L.verbose("ffmpeg output stream closed");
+        } finally {
+            mOutputDrained.countDown();
+        }
+    }
+
+    /**
+     * Returns the last lines of ffmpeg's output.
+     * @return the last output lines
+     */
+    private String getLastOutput() {
+        synchronized (mLastOutputLines) {
+            return String.join("\n", mLastOutputLines);
+        }
+    }
+
+    /**
+     * Returns the path of the ffmpeg executable, as specified by the settings.
+     * @return the ffmpeg executable
+     */
+    private static String getExecutable() {
+        File ffmpegExecutable = Settings.instance().getFFmpegSettings().getValue();
+        return ffmpegExecutable != null ?
+            ffmpegExecutable.getAbsolutePath() :
+            "ffmpeg"; // Search in $PATH
+    }
+}
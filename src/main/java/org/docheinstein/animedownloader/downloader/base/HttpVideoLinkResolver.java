@@ -0,0 +1,96 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+import org.docheinstein.commons.http.HttpRequester;
+import org.docheinstein.commons.logger.DocLogger;
+import org.docheinstein.commons.types.StringUtil;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Basic resolver that fetches the video page with a plain HTTP request and
+ * figures out the direct link by parsing its HTML.
+ * <p>
+ * Resolvers that inherit from this have to look for the link only within
+ * the static HTML of the page, since no script is executed.
+ */
+public abstract class HttpVideoLinkResolver implements VideoLinkResolver {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(HttpVideoLinkResolver.class);
+
+    /** User agent of a desktop browser, some pages differ for other agents. */
+    private static final String USER_AGENT =
+        "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+        "(KHTML, like Gecko) Chrome/69.0.3497.100 Safari/537.36";
+
+    /**
+     * Figures out the video info from the HTML of the video page.
+     * @param pageUrl the url of the video page
+     * @param page the HTML of the video page
+     * @return the resolved info or null if the page doesn't contain them
+     */
+    protected abstract DownloadableVideoInfo resolveFromPage(String pageUrl, String page);
+
+    @Override
+    public DownloadableVideoInfo resolve(String pageUrl) {
+        L.debug("Going to fetch page without browser from " + pageUrl);
+
+        String page;
+
+        try {
+            HttpRequester.Response response = HttpRequester
+                .get(pageUrl)
+                .allowRedirect(true)
+                .initialized()
+                .userAgent(USER_AGENT)
+                .accept("text/html")
+                .send();
+
+            page = response.hasBeenPerformed() ? response.getResponseBody() : null;
+        } catch (RuntimeException e) {
+            L.warn("Error occurred while fetching page " + pageUrl, e);
+            return null;
+        }
+
+        if (!StringUtil.isValid(page)) {
+            L.debug("Can't fetch page " + pageUrl);
+            return null;
+        }
+
+        L.verbose("Fetched page:\n" + page);
+
+        DownloadableVideoInfo videoInfo = resolveFromPage(pageUrl, page);
+
+        if (videoInfo == null || !StringUtil.isValid(videoInfo.directLink)) {
+            L.debug("Direct link not found within the static page of " + pageUrl);
+            return null;
+        }
+
+        return videoInfo;
+    }
+
+    /**
+     * Returns the first group of the first match of the pattern within
+     * the page, with the basic HTML entities unescaped.
+     * @param page the HTML of the page
+     * @param pattern the pattern, which must contain a group
+     * @return the trimmed content of the group or null if there is no match
+     */
+    protected static String findFirst(String page, Pattern pattern) {
+        Matcher matcher = pattern.matcher(page);
+
+        if (!matcher.find() || matcher.group(1) == null)
+            return null;
+
+        String content = matcher.group(1).trim()
+            .replace("&quot;", "\"")
+            .replace("&#39;", "'")
+            .replace("&lt;", "<")
+            .replace("&gt;", ">")
+            .replace("&amp;", "&");
+
+        return content.isEmpty() ? null : content;
+    }
+}
@@ -0,0 +1,318 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.executor.Workload;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloader that splits a remote resource into byte ranges and fetches
+ * them on multiple connections at the same time, writing each range
+ * directly at its offset of a preallocated file. The connections are
+ * driven by the executor of the {@link Workload#Connection} workload.
+ * <p>
+ * The server must honor range requests (i.e. it should have declared
+ * 'Accept-Ranges: bytes'); the download fails as soon as a range request
+ * is answered with something different from '206 Partial Content'.
+ */
+public class ParallelHttpDownloader {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(ParallelHttpDownloader.class);
+
+    /**
+     * Interface used to listen to the download progress.
+     */
+    public interface ProgressObserver {
+        /**
+         * Called when new bytes have been downloaded.
+         * @param downloadedBytes the overall amount of downloaded bytes
+         */
+        void onProgress(long downloadedBytes);
+    }
+
+    /** User agent used for the range requests. */
+    private static final String USER_AGENT = "curl/7.52.1";
+
+    /** Size of the buffer used by each connection. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Number of times a range is retried before give up the download. */
+    private static final int MAX_ATTEMPTS_FOR_EACH_PART = 3;
+
+    /** Parts the file is split into for each connection (for balance slow connections). */
+    private static final int PARTS_FOR_EACH_CONNECTION = 4;
+
+    /** Minimum size of a part. */
+    private static final long MIN_PART_SIZE = 1024 * 1024;
+
+    /** Connection/read timeout of each range request. */
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    /** URL of the resource. */
+    private final String mUrl;
+
+    /** File the resource will be downloaded to. */
+    private final File mOutputFile;
+
+    /** Size of the resource. */
+    private final long mSize;
+
+    /** Amount of parallel connections. */
+    private final int mConnections;
+
+    /** Throttle charged for the downloaded bytes, or null for unlimited speed. */
+    private final BandwidthLimiter.Throttle mThrottle;
+
+    /** Whether the download is enabled. */
+    private volatile boolean mDownloadEnabled = true;
+
+    /** Whether a part has failed definitively. */
+    private volatile boolean mFailed = false;
+
+    /** Amount of downloaded bytes, considering every part. */
+    private final AtomicLong mDownloadedBytes = new AtomicLong(0);
+
+    /** Lock used for serialize the notifications to the observer. */
+    private final Object mNotificationLock = new Object();
+
+    /** Amount of downloaded bytes needed for the next notification. */
+    private volatile long mNextNotificationBytes = 0;
+
+    /**
+     * Range of the resource still to download.
+     */
+    private static class Part {
+        /** Next byte to download. */
+        long offset;
+
+        /** Last byte of the range (inclusive). */
+        final long end;
+
+        Part(long start, long end) {
+            this.offset = start;
+            this.end = end;
+        }
+
+        boolean isCompleted() {
+            return offset > end;
+        }
+    }
+
+    public ParallelHttpDownloader(String url, File outputFile,
+                                  long size, int connections,
+                                  BandwidthLimiter.Throttle throttle) {
+        mUrl = url;
+        mOutputFile = outputFile;
+        mSize = size;
+        mConnections = Math.max(1, connections);
+        mThrottle = throttle;
+    }
+
+    /**
+     * Enables or disables the download; a disabled download is stopped
+     * as soon as possible.
+     * @param enable whether the download should be enabled
+     */
+    public void enableDownload(boolean enable) {
+        mDownloadEnabled = enable;
+    }
+
+    /**
+     * Downloads the resource and blocks until the download ends.
+     * @param observer the observer of the download progress, can be null
+     * @param notificationStep the minimum amount of bytes between two notifications
+     * @return whether the download has been completed successfully
+     * @throws IOException if the file can't be written or a range
+     *                     can't be downloaded even after retrying
+     */
+    public boolean download(ProgressObserver observer, int notificationStep) throws IOException {
+        long partSize = Math.max(
+            MIN_PART_SIZE,
+            (mSize + mConnections * PARTS_FOR_EACH_CONNECTION - 1) /
+                (mConnections * PARTS_FOR_EACH_CONNECTION));
+
+        int partCount = (int) ((mSize + partSize - 1) / partSize);
+        int workerCount = Math.min(mConnections, partCount);
+
+        L.debug("Downloading " + mSize + " bytes split in " + partCount +
+            " parts of " + partSize + " bytes using " + workerCount + " connections");
+
+        AtomicInteger nextPart = new AtomicInteger(0);
+
+        List<FutureTask<Boolean>> workers = new ArrayList<>();
+
+        try (RandomAccessFile raf = new RandomAccessFile(mOutputFile, "rw")) {
+            // Preallocate the file so that each part can be written at its offset
+            raf.setLength(mSize);
+
+            FileChannel channel = raf.getChannel();
+
+            for (int i = 0; i < workerCount; i++) {
+                FutureTask<Boolean> worker = new FutureTask<>(() -> {
+                    int part;
+                    while (mDownloadEnabled && !mFailed &&
+                        (part = nextPart.getAndIncrement()) < partCount) {
+                        long start = part * partSize;
+                        long end = Math.min(mSize, start + partSize) - 1;
+                        downloadPart(channel, new Part(start, end), observer, notificationStep);
+                    }
+                    return mDownloadEnabled && !mFailed;
+                });
+
+                workers.add(worker);
+                WorkloadExecutors.instance().execute(Workload.Connection, worker);
+            }
+
+            boolean completed = true;
+
+            for (FutureTask<Boolean> worker : workers) {
+                try {
+                    completed &= worker.get();
+                } catch (ExecutionException e) {
+                    mFailed = true;
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ?
+                        (IOException) cause :
+                        new IOException("Part download failed", cause);
+                } catch (InterruptedException e) {
+                    mDownloadEnabled = false;
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            return completed;
+        } finally {
+            // Stops the workers still running or queued, if any
+            for (FutureTask<Boolean> worker : workers)
+                worker.cancel(true);
+        }
+    }
+
+    /**
+     * Downloads the given part of the resource, retrying from the last
+     * written byte in case of error.
+     * @param channel the channel of the output file
+     * @param part the part to download
+     * @param observer the observer of the download progress
+     * @param notificationStep the minimum amount of bytes between two notifications
+     * @throws IOException if the part can't be downloaded
+     */
+    private void downloadPart(FileChannel channel, Part part,
+                              ProgressObserver observer, int notificationStep)
+        throws IOException {
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                downloadRange(channel, part, observer, notificationStep);
+                return;
+            } catch (IOException e) {
+                if (!mDownloadEnabled || attempt >= MAX_ATTEMPTS_FOR_EACH_PART) {
+                    mFailed = true;
+                    throw e;
+                }
+
+                L.warn("Download of range [" + part.offset + "-" + part.end + "] failed " +
+                    "(attempt " + attempt + "); retrying");
+                Metrics.instance().counter("range.retries").increment();
+            }
+        }
+    }
+
+    /**
+     * Performs a single range request for the remaining bytes of the given part
+     * and writes the received bytes into the output file.
+     * @param channel the channel of the output file
+     * @param part the part to download, its offset is updated while writing
+     * @param observer the observer of the download progress
+     * @param notificationStep the minimum amount of bytes between two notifications
+     * @throws IOException if the request fails
+     */
+    private void downloadRange(FileChannel channel, Part part,
+                               ProgressObserver observer, int notificationStep)
+        throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setRequestProperty("Accept", "*/*");
+            connection.setRequestProperty("Range", "bytes=" + part.offset + "-" + part.end);
+
+            int responseCode = connection.getResponseCode();
+
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL)
+                throw new IOException(
+                    "Range request answered with " + responseCode + " instead of 206");
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while (!part.isCompleted() && mDownloadEnabled && !mFailed &&
+                    (read = in.read(buffer, 0,
+                        (int) Math.min(buffer.length, part.end - part.offset + 1))) != -1) {
+
+                    ByteBuffer bb = ByteBuffer.wrap(buffer, 0, read);
+                    while (bb.hasRemaining())
+                        part.offset += channel.write(bb, part.offset);
+
+                    onBytesDownloaded(read, observer, notificationStep);
+
+                    if (mThrottle != null)
+                        mThrottle.acquire(read);
+                }
+            }
+
+            if (!part.isCompleted() && mDownloadEnabled && !mFailed)
+                throw new IOException("Connection closed before the end of the range");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Updates the amount of downloaded bytes and eventually notifies the
+     * observer.
+     * @param count the amount of bytes just downloaded
+     * @param observer the observer of the download progress
+     * @param notificationStep the minimum amount of bytes between two notifications
+     */
+    private void onBytesDownloaded(long count, ProgressObserver observer, int notificationStep) {
+        long downloaded = mDownloadedBytes.addAndGet(count);
+
+        if (observer == null)
+            return;
+
+        if (downloaded < mNextNotificationBytes && downloaded < mSize)
+            return;
+
+        synchronized (mNotificationLock) {
+            // Read again within the lock so that notifications are monotonic
+            downloaded = mDownloadedBytes.get();
+
+            if (downloaded < mNextNotificationBytes && downloaded < mSize)
+                return;
+
+            mNextNotificationBytes = downloaded + notificationStep;
+            observer.onProgress(downloaded);
+        }
+    }
+}
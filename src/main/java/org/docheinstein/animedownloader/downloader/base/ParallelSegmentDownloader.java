@@ -0,0 +1,398 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.executor.Workload;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.commons.logger.DocLogger;
+import org.docheinstein.commons.thread.ThreadUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloader of the segments of a segmented video (e.g. HLS) that fetches
+ * multiple segments at the same time using a bounded amount of workers,
+ * run by the executor of the {@link Workload#Connection} workload, but
+ * still hands them out in playlist order.
+ * <p>
+ * The workers can't go further than a fixed window of segments ahead
+ * the next segment to hand out, so that the segments kept in memory
+ * while waiting for a slower one are bounded.
+ * <p>
+ * If an {@link AdaptiveConcurrency} is given, the amount of segments
+ * requested at the same time follows its limit instead of being fixed.
+ */
+public class ParallelSegmentDownloader {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(ParallelSegmentDownloader.class);
+
+    /**
+     * Interface used to receive the downloaded segments.
+     */
+    public interface SegmentConsumer {
+        /**
+         * Called for each downloaded segment, in playlist order.
+         * <p>
+         * Calls are never concurrent.
+         * @param index the index of the segment in the playlist
+         * @param segment the content of the segment
+         * @throws IOException if the segment can't be consumed; the
+         *                     download is aborted
+         */
+        void onSegmentDownloaded(int index, byte[] segment) throws IOException;
+    }
+
+    /** Number of times a segment is retried before give up the download. */
+    private static final int MAX_ATTEMPTS_FOR_EACH_SEGMENT = 4;
+
+    /** Time to wait before retry a failed segment (multiplied by the attempt). */
+    private static final int RETRY_DELAY_MILLIS = 500;
+
+    /** Segments that can be downloaded ahead for each worker. */
+    private static final int WINDOW_FOR_EACH_WORKER = 2;
+
+    /** Timeout of a single wait for a window permit. */
+    private static final int WINDOW_POLL_MILLIS = 200;
+
+    /** Connection/read timeout of each segment request. */
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    /** Status code used by the servers for ask to slow down. */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Failure of a segment request answered with an unexpected status code.
+     */
+    private static class SegmentStatusException extends IOException {
+        final int status;
+
+        SegmentStatusException(int status) {
+            super("Segment request answered with " + status);
+            this.status = status;
+        }
+
+        boolean isThrottling() {
+            return status == HTTP_TOO_MANY_REQUESTS ||
+                status == HttpURLConnection.HTTP_UNAVAILABLE;
+        }
+    }
+
+    /** Links of the segments, in playlist order. */
+    private final List<String> mSegmentLinks;
+
+    /** Amount of parallel workers. */
+    private final int mWorkers;
+
+    /** Throttle charged for the downloaded bytes, or null for unlimited speed. */
+    private final BandwidthLimiter.Throttle mThrottle;
+
+    /** Controller of the concurrent requests, or null for use every worker. */
+    private final AdaptiveConcurrency mConcurrency;
+
+    /** Segment requests in progress (guarded by mInFlightLock). */
+    private int mInFlight = 0;
+
+    /** Lock of the segment requests in progress. */
+    private final Object mInFlightLock = new Object();
+
+    /** Whether the download is enabled. */
+    private volatile boolean mDownloadEnabled = true;
+
+    /** Whether a segment has failed definitively. */
+    private volatile boolean mFailed = false;
+
+    /** Index of the next segment to assign to a worker. */
+    private final AtomicInteger mNextSegmentToDownload = new AtomicInteger(0);
+
+    /** Segments downloaded but not handed out yet, since a previous one is missing. */
+    private final Map<Integer, byte[]> mPendingSegments = new HashMap<>();
+
+    /** Index of the next segment to hand out (guarded by mPendingSegments). */
+    private int mNextSegmentToConsume = 0;
+
+    /** Permits for download segments ahead the next one to hand out. */
+    private final Semaphore mWindow;
+
+    public ParallelSegmentDownloader(List<String> segmentLinks, int workers,
+                                     BandwidthLimiter.Throttle throttle) {
+        this(segmentLinks, workers, throttle, null);
+    }
+
+    /**
+     * Creates a downloader whose concurrent requests are driven by the
+     * given controller; a worker is created for each request allowed at
+     * most by the controller.
+     * @param segmentLinks the links of the segments, in playlist order
+     * @param throttle the throttle of the download, or null
+     * @param concurrency the controller of the concurrent requests
+     */
+    public ParallelSegmentDownloader(List<String> segmentLinks,
+                                     BandwidthLimiter.Throttle throttle,
+                                     AdaptiveConcurrency concurrency) {
+        this(segmentLinks, concurrency.getMaxLimit(), throttle, concurrency);
+    }
+
+    private ParallelSegmentDownloader(List<String> segmentLinks, int workers,
+                                      BandwidthLimiter.Throttle throttle,
+                                      AdaptiveConcurrency concurrency) {
+        mSegmentLinks = segmentLinks;
+        mThrottle = throttle;
+        mConcurrency = concurrency;
+        mWorkers = Math.max(1, Math.min(workers, segmentLinks.size()));
+        mWindow = new Semaphore(mWorkers * WINDOW_FOR_EACH_WORKER);
+    }
+
+    /**
+     * Enables or disables the download; a disabled download is stopped
+     * as soon as possible.
+     * @param enable whether the download should be enabled
+     */
+    public void enableDownload(boolean enable) {
+        mDownloadEnabled = enable;
+    }
+
+    /**
+     * Downloads every segment and blocks until the download ends.
+     * @param consumer the consumer of the segments
+     * @return whether every segment has been downloaded and consumed
+     * @throws IOException if a segment can't be downloaded even after
+     *                     retrying or can't be consumed
+     */
+    public boolean download(SegmentConsumer consumer) throws IOException {
+        L.debug("Downloading " + mSegmentLinks.size() + " segments using " +
+            mWorkers + " workers");
+
+        List<FutureTask<Void>> workers = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < mWorkers; i++) {
+                FutureTask<Void> worker = new FutureTask<>(() -> {
+                    work(consumer);
+                    return null;
+                });
+
+                workers.add(worker);
+                WorkloadExecutors.instance().execute(Workload.Connection, worker);
+            }
+
+            for (FutureTask<Void> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    mFailed = true;
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException ?
+                        (IOException) cause :
+                        new IOException("Segment download failed", cause);
+                } catch (InterruptedException e) {
+                    mDownloadEnabled = false;
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            synchronized (mPendingSegments) {
+                return mDownloadEnabled && !mFailed &&
+                    mNextSegmentToConsume == mSegmentLinks.size();
+            }
+        } finally {
+            // Stops the workers still running or queued, if any
+            for (FutureTask<Void> worker : workers)
+                worker.cancel(true);
+        }
+    }
+
+    /**
+     * Body of a worker: takes the next segment, downloads it and hands out
+     * every segment that is now in order, until there are no more segments.
+     * @param consumer the consumer of the segments
+     * @throws Exception if a segment can't be downloaded or consumed
+     */
+    private void work(SegmentConsumer consumer) throws Exception {
+        while (mDownloadEnabled && !mFailed) {
+            // Poll the window so that abort and failures are detected even
+            // while waiting for a slower segment
+            if (!mWindow.tryAcquire(WINDOW_POLL_MILLIS, TimeUnit.MILLISECONDS))
+                continue;
+
+            if (!enterInFlight()) {
+                mWindow.release();
+                continue;
+            }
+
+            int index;
+            byte[] segment;
+
+            try {
+                index = mNextSegmentToDownload.getAndIncrement();
+
+                if (index >= mSegmentLinks.size()) {
+                    mWindow.release();
+                    return;
+                }
+
+                segment = downloadSegmentWithRetry(index);
+            } finally {
+                exitInFlight();
+            }
+
+            if (segment == null)
+                return; // Aborted
+
+            synchronized (mPendingSegments) {
+                mPendingSegments.put(index, segment);
+
+                byte[] next;
+                while (mDownloadEnabled && !mFailed &&
+                    (next = mPendingSegments.remove(mNextSegmentToConsume)) != null) {
+                    try {
+                        consumer.onSegmentDownloaded(mNextSegmentToConsume, next);
+                    } catch (IOException e) {
+                        mFailed = true;
+                        throw e;
+                    }
+                    mNextSegmentToConsume++;
+                    mWindow.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until a new segment request is allowed by the concurrency limit.
+     * @return whether the request can be performed, false if the download
+     *         has been aborted or failed in the meanwhile
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean enterInFlight() throws InterruptedException {
+        synchronized (mInFlightLock) {
+            while (mInFlight >= getConcurrencyLimit()) {
+                if (!mDownloadEnabled || mFailed)
+                    return false;
+                mInFlightLock.wait(WINDOW_POLL_MILLIS);
+            }
+
+            mInFlight++;
+            return true;
+        }
+    }
+
+    private void exitInFlight() {
+        synchronized (mInFlightLock) {
+            mInFlight--;
+            mInFlightLock.notifyAll();
+        }
+    }
+
+    private int getConcurrencyLimit() {
+        return mConcurrency != null ? mConcurrency.getLimit() : mWorkers;
+    }
+
+    /**
+     * Downloads the segment at the given index, retrying it if needed.
+     * @param index the index of the segment
+     * @return the content of the segment or null if the download has been aborted
+     * @throws IOException if the segment can't be downloaded
+     */
+    private byte[] downloadSegmentWithRetry(int index) throws IOException {
+        String segmentLink = mSegmentLinks.get(index);
+
+        for (int attempt = 1; ; attempt++) {
+            if (!mDownloadEnabled || mFailed)
+                return null;
+
+            try {
+                L.verbose("Downloading segment: " + segmentLink);
+                long segmentStart = System.nanoTime();
+                byte[] segment = downloadSegment(segmentLink);
+                Metrics.instance().timer("segment.fetch").recordMillisSince(segmentStart);
+
+                if (mConcurrency != null)
+                    mConcurrency.onRequestSucceeded(segment.length);
+
+                return segment;
+            } catch (IOException e) {
+                // The request has been broken on purpose, nothing to retry
+                if (!mDownloadEnabled || mFailed)
+                    return null;
+
+                if (mConcurrency != null)
+                    mConcurrency.onRequestFailed(
+                        e instanceof SegmentStatusException &&
+                            ((SegmentStatusException) e).isThrottling());
+
+                if (attempt >= MAX_ATTEMPTS_FOR_EACH_SEGMENT) {
+                    mFailed = true;
+                    throw new IOException("Segment " + index + " can't be downloaded", e);
+                }
+
+                L.warn("Download of segment " + index + " failed " +
+                    "(attempt " + attempt + "); retrying");
+                Metrics.instance().counter("segment.retries").increment();
+
+                ThreadUtil.sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+    }
+
+    /**
+     * Downloads the segment at the given url.
+     * @param segmentLink the url of the segment
+     * @return the content of the segment
+     * @throws IOException if the request fails
+     */
+    private byte[] downloadSegment(String segmentLink) throws IOException {
+        HttpURLConnection connection =
+            (HttpURLConnection) new URL(segmentLink).openConnection();
+
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+
+            int responseCode = connection.getResponseCode();
+
+            if (responseCode != HttpURLConnection.HTTP_OK)
+                throw new SegmentStatusException(responseCode);
+
+            int contentLength = connection.getContentLength();
+
+            ByteArrayOutputStream segment = new ByteArrayOutputStream(
+                contentLength > 0 ? contentLength : 1024 * 1024);
+
+            byte[] buffer = new byte[64 * 1024];
+
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (!mDownloadEnabled)
+                        throw new IOException("Download aborted");
+                    segment.write(buffer, 0, read);
+
+                    if (mThrottle != null)
+                        mThrottle.acquire(read);
+                }
+            }
+
+            if (contentLength > 0 && segment.size() != contentLength)
+                throw new IOException("Segment truncated: " + segment.size() +
+                    " of " + contentLength + " bytes");
+
+            return segment.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import com.google.gson.stream.JsonReader;
+import org.docheinstein.commons.logger.DocLogger;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.logging.LogEntry;
+import org.openqa.selenium.logging.LogType;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Scanner of the PERFORMANCE log of the driver that looks for the first
+ * request whose url contains a given fragment.
+ * <p>
+ * The log is consumed incrementally: every {@link #poll(WebDriver)} reads
+ * only the entries produced since the previous one. Entries are filtered
+ * on their raw message first and only the 'Network.requestWillBeSent'
+ * events that could match are parsed, with a streaming reader that stops
+ * as soon as the url of the request is found.
+ */
+public class PerformanceLogScanner {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(PerformanceLogScanner.class);
+
+    /** Method of the DevTools event sent before a request is performed. */
+    private static final String REQUEST_WILL_BE_SENT = "Network.requestWillBeSent";
+
+    /** Fragment the url of the request must contain. */
+    private final String mUrlFragment;
+
+    /** Url of the first matching request, once found. */
+    private String mMatch;
+
+    /** Amount of entries scanned so far. */
+    private int mScannedEntries = 0;
+
+    /**
+     * Creates a scanner for the requests whose url contains the given fragment.
+     * @param urlFragment the fragment the url must contain
+     */
+    public PerformanceLogScanner(String urlFragment) {
+        mUrlFragment = urlFragment;
+    }
+
+    /**
+     * Reads the PERFORMANCE log entries produced since the last poll and
+     * looks for a matching request among them.
+     * @param driver the driver, which must have the PERFORMANCE log enabled
+     * @return the url of the first matching request, or null if there is
+     *         no match yet
+     */
+    public String poll(WebDriver driver) {
+        if (mMatch != null)
+            return mMatch;
+
+        return scan(driver.manage().logs().get(LogType.PERFORMANCE));
+    }
+
+    /**
+     * Looks for a matching request among the given log entries, stopping
+     * at the first match.
+     * @param logEntries the PERFORMANCE log entries
+     * @return the url of the first matching request, or null if there is
+     *         no match yet
+     */
+    public String scan(Iterable<LogEntry> logEntries) {
+        if (mMatch != null)
+            return mMatch;
+
+        for (LogEntry logEntry : logEntries) {
+            mScannedEntries++;
+
+            String message = logEntry.getMessage();
+
+            // Cheap filter on the raw message before any parsing
+            if (message == null ||
+                !message.contains(REQUEST_WILL_BE_SENT) ||
+                !message.contains(mUrlFragment))
+                continue;
+
+            String url = parseRequestUrl(message);
+
+            if (url != null && url.contains(mUrlFragment)) {
+                L.debug("Found request with url containing '" + mUrlFragment +
+                    "' after " + mScannedEntries + " log entries: " + url);
+                mMatch = url;
+                return mMatch;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the url of the first matching request, if found.
+     * @return the matching url or null
+     */
+    public String getMatch() {
+        return mMatch;
+    }
+
+    /**
+     * Returns the url of the request of a 'Network.requestWillBeSent' log
+     * message, whose format is
+     * {"message": {"method": "...", "params": {"request": {"url": "..."}}}}.
+     * @param message the raw log message
+     * @return the url of the request, or null if the message is not a
+     *         valid 'Network.requestWillBeSent' event
+     */
+    static String parseRequestUrl(String message) {
+        try (JsonReader reader = new JsonReader(new StringReader(message))) {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                if ("message".equals(reader.nextName()))
+                    return parseMessage(reader);
+                reader.skipValue();
+            }
+        } catch (IOException | IllegalStateException e) {
+            L.verbose("Can't parse log entry as a valid event");
+        }
+
+        return null;
+    }
+
+    private static String parseMessage(JsonReader reader) throws IOException {
+        String method = null;
+        String url = null;
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if ("method".equals(name)) {
+                method = reader.nextString();
+                if (!REQUEST_WILL_BE_SENT.equals(method))
+                    return null;
+            } else if ("params".equals(name)) {
+                url = parseParams(reader);
+            } else {
+                reader.skipValue();
+            }
+
+            if (method != null && url != null)
+                return url;
+        }
+
+        return null;
+    }
+
+    private static String parseParams(JsonReader reader) throws IOException {
+        String url = null;
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            if ("request".equals(reader.nextName()))
+                url = parseRequest(reader);
+            else
+                reader.skipValue();
+        }
+
+        reader.endObject();
+
+        return url;
+    }
+
+    private static String parseRequest(JsonReader reader) throws IOException {
+        String url = null;
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            if ("url".equals(reader.nextName()))
+                url = reader.nextString();
+            else
+                reader.skipValue();
+        }
+
+        reader.endObject();
+
+        return url;
+    }
+}
@@ -0,0 +1,211 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.docheinstein.commons.file.FileUtil;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validators of a remote resource (size, ETag, Last-Modified) used for
+ * check whether a partially downloaded file can be resumed.
+ * <p>
+ * The validators of the resource are stored in a sidecar file next to the
+ * downloaded file when the download starts and are kept once it finishes,
+ * so that a complete file can be told apart; a resumed download is valid
+ * only if the remote resource still has the same validators, which are
+ * also sent to the server as 'If-Range' so that a resource changed in the
+ * meanwhile is served from scratch instead of being corrupted.
+ */
+public class ResumeValidators {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(ResumeValidators.class);
+
+    /** Suffix of the sidecar file, appended to the name of the downloaded file. */
+    private static final String SIDECAR_SUFFIX = ".resume";
+
+    private static final Gson GSON = new Gson();
+
+    /** Size of the resource, 0 if unknown. */
+    private long size;
+
+    /** Entity tag of the resource, if any. */
+    private String etag;
+
+    /** Last modification date of the resource, if any. */
+    private String lastModified;
+
+    /** Whether the server accepts byte range requests. */
+    private boolean acceptRanges;
+
+    private ResumeValidators() {}
+
+    /**
+     * Creates the validators of a resource from the headers of a response.
+     * @param contentLength the content length of the response
+     * @param headerFields the header fields of the response
+     * @return the validators of the resource
+     */
+    public static ResumeValidators fromHeaders(long contentLength,
+                                               Map<String, List<String>> headerFields) {
+        ResumeValidators validators = new ResumeValidators();
+        validators.size = Math.max(0, contentLength);
+        validators.etag = getHeader(headerFields, "ETag");
+        validators.lastModified = getHeader(headerFields, "Last-Modified");
+
+        String acceptRanges = getHeader(headerFields, "Accept-Ranges");
+        validators.acceptRanges =
+            acceptRanges != null && acceptRanges.toLowerCase().contains("bytes");
+
+        return validators;
+    }
+
+    /**
+     * Creates validators that only know the size of the resource, used
+     * when the resource's headers can't be retrieved.
+     * @param size the size of the resource
+     * @param acceptRanges whether the server accepts byte range requests
+     * @return the validators of the resource
+     */
+    public static ResumeValidators fromSize(long size, boolean acceptRanges) {
+        ResumeValidators validators = new ResumeValidators();
+        validators.size = Math.max(0, size);
+        validators.acceptRanges = acceptRanges;
+        return validators;
+    }
+
+    /**
+     * Loads the validators stored for the given downloaded file.
+     * @param file the downloaded file
+     * @return the stored validators, or null if there are none
+     */
+    public static ResumeValidators load(File file) {
+        File sidecar = getSidecarFile(file);
+
+        if (!FileUtil.exists(sidecar))
+            return null;
+
+        try (Reader reader = Files.newBufferedReader(sidecar.toPath(), StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, ResumeValidators.class);
+        } catch (IOException | JsonParseException e) {
+            L.warn("Resume validators of " + file + " can't be read");
+            return null;
+        }
+    }
+
+    /**
+     * Stores these validators for the given downloaded file.
+     * @param file the downloaded file
+     */
+    public void save(File file) {
+        File sidecar = getSidecarFile(file);
+        File tmpFile = new File(sidecar.getAbsolutePath() + ".tmp");
+
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+                GSON.toJson(this, writer);
+            }
+
+            Files.move(tmpFile.toPath(), sidecar.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            L.warn("Resume validators of " + file + " can't be saved", e);
+        }
+    }
+
+    /**
+     * Deletes the validators stored for the given downloaded file.
+     * @param file the downloaded file
+     */
+    public static void delete(File file) {
+        File sidecar = getSidecarFile(file);
+        if (FileUtil.exists(sidecar))
+            FileUtil.delete(sidecar);
+    }
+
+    /**
+     * Returns whether these validators refer to the same content of the
+     * given ones; validators unknown to either side are not compared.
+     * @param other the other validators
+     * @return whether the validators match
+     */
+    public boolean matches(ResumeValidators other) {
+        if (other == null)
+            return false;
+
+        if (size > 0 && other.size > 0 && size != other.size)
+            return false;
+
+        if (etag != null && other.etag != null)
+            return etag.equals(other.etag);
+
+        if (lastModified != null && other.lastModified != null)
+            return lastModified.equals(other.lastModified);
+
+        return true;
+    }
+
+    /**
+     * Returns the value of the 'If-Range' header for resume the download
+     * of the resource: the entity tag if it is strong, otherwise the last
+     * modification date.
+     * @return the 'If-Range' value, or null if the resource has no
+     *         usable validator
+     */
+    public String getIfRange() {
+        if (etag != null && !etag.startsWith("W/"))
+            return etag;
+        return lastModified;
+    }
+
+    /**
+     * Returns whether a partial download of the resource can be resumed.
+     * @return whether the resource can be resumed
+     */
+    public boolean canResume() {
+        return acceptRanges && size > 0 && getIfRange() != null;
+    }
+
+    /**
+     * Returns the size of the resource.
+     * @return the size, 0 if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "[SIZE]: " + size + ", [ETAG]: " + etag +
+            ", [LAST_MODIFIED]: " + lastModified + ", [ACCEPT_RANGES]: " + acceptRanges;
+    }
+
+    private static File getSidecarFile(File file) {
+        return new File(file.getAbsolutePath() + SIDECAR_SUFFIX);
+    }
+
+    private static String getHeader(Map<String, List<String>> headerFields, String name) {
+        if (headerFields == null)
+            return null;
+
+        for (Map.Entry<String, List<String>> headerField : headerFields.entrySet()) {
+            if (name.equalsIgnoreCase(headerField.getKey()) &&
+                headerField.getValue() != null &&
+                !headerField.getValue().isEmpty())
+                return headerField.getValue().get(0);
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,161 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Downloader that resumes a partially downloaded file by requesting only
+ * the missing bytes.
+ * <p>
+ * The request is conditional ('If-Range'): if the remote resource changed
+ * since the partial download, the server answers with the whole resource,
+ * which then overwrites the file from the beginning.
+ */
+public class ResumingHttpDownloader {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(ResumingHttpDownloader.class);
+
+    /** User agent used for the range request. */
+    private static final String USER_AGENT = "curl/7.52.1";
+
+    /** Size of the buffer used for read the response. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Connection/read timeout of the range request. */
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    /** URL of the resource. */
+    private final String mUrl;
+
+    /** Partially downloaded file. */
+    private final File mOutputFile;
+
+    /** Amount of bytes already in the file. */
+    private final long mOffset;
+
+    /** Size of the resource. */
+    private final long mSize;
+
+    /** Validator sent as 'If-Range'. */
+    private final String mIfRange;
+
+    /** Throttle charged for the downloaded bytes, or null for unlimited speed. */
+    private final BandwidthLimiter.Throttle mThrottle;
+
+    /** Whether the download is enabled. */
+    private volatile boolean mDownloadEnabled = true;
+
+    public ResumingHttpDownloader(String url, File outputFile,
+                                  long offset, long size, String ifRange,
+                                  BandwidthLimiter.Throttle throttle) {
+        mUrl = url;
+        mOutputFile = outputFile;
+        mOffset = offset;
+        mSize = size;
+        mIfRange = ifRange;
+        mThrottle = throttle;
+    }
+
+    /**
+     * Enables or disables the download; a disabled download is stopped
+     * as soon as possible.
+     * @param enable whether the download should be enabled
+     */
+    public void enableDownload(boolean enable) {
+        mDownloadEnabled = enable;
+    }
+
+    /**
+     * Downloads the missing bytes and blocks until the download ends.
+     * @param observer the observer of the download progress, which receives
+     *                 the overall amount of bytes in the file; can be null
+     * @param notificationStep the minimum amount of bytes between two notifications
+     * @return whether the download has been completed successfully
+     * @throws IOException if the request fails or the file can't be written
+     */
+    public boolean download(ParallelHttpDownloader.ProgressObserver observer,
+                            int notificationStep) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setRequestProperty("Accept", "*/*");
+            connection.setRequestProperty("Range", "bytes=" + mOffset + "-");
+            if (mIfRange != null)
+                connection.setRequestProperty("If-Range", mIfRange);
+
+            int responseCode = connection.getResponseCode();
+
+            long position;
+
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = connection.getHeaderField("Content-Range");
+
+                if (contentRange == null || !contentRange.startsWith("bytes " + mOffset + "-"))
+                    throw new IOException("Unexpected range in response: " + contentRange);
+
+                L.info("Resuming download from byte " + mOffset);
+                position = mOffset;
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                L.info("Resource changed since the partial download, restarting it");
+                position = 0;
+            } else {
+                throw new IOException("Resume request answered with " + responseCode);
+            }
+
+            try (FileChannel channel = FileChannel.open(
+                mOutputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 InputStream in = connection.getInputStream()) {
+
+                channel.truncate(position);
+                channel.position(position);
+
+                if (observer != null)
+                    observer.onProgress(position);
+
+                long nextNotificationBytes = position + notificationStep;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+
+                while (mDownloadEnabled && (read = in.read(buffer)) != -1) {
+                    ByteBuffer bb = ByteBuffer.wrap(buffer, 0, read);
+                    while (bb.hasRemaining())
+                        position += channel.write(bb);
+
+                    if (observer != null && position >= nextNotificationBytes) {
+                        nextNotificationBytes = position + notificationStep;
+                        observer.onProgress(position);
+                    }
+
+                    if (mThrottle != null)
+                        mThrottle.acquire(read);
+                }
+
+                if (observer != null)
+                    observer.onProgress(position);
+            }
+
+            if (!mDownloadEnabled)
+                return false;
+
+            if (mSize > 0 && position != mSize)
+                throw new IOException("Connection closed after " + position +
+                    " of " + mSize + " bytes");
+
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Consumer of segments that appends each segment straight to a single
+ * output file, in the order the segments are handed out.
+ * <p>
+ * This avoids to write each segment to its own file and to merge them
+ * afterwards.
+ * <p>
+ * If a {@link SegmentManifest} is given, the segments are appended after
+ * the ones already in the file and recorded in the manifest, so that the
+ * download can be resumed. The file and then the manifest are synced every
+ * {@link Config.Download#SEGMENT_SYNC_INTERVAL} segments, every
+ * {@link Config.Download#SEGMENT_SYNC_PERIOD_MILLIS} milliseconds and
+ * when the sink is closed, rather than for each segment.
+ */
+public class SegmentFileSink
+    implements ParallelSegmentDownloader.SegmentConsumer, Closeable {
+
+    /** Channel of the output file. */
+    private final FileChannel mChannel;
+
+    /** Manifest of the segments written to the file, or null. */
+    private final SegmentManifest mManifest;
+
+    /** Amount of bytes written to the output file. */
+    private long mWrittenBytes = 0;
+
+    /** Amount of segments written since the last sync. */
+    private int mUnsyncedSegments = 0;
+
+    /** Time of the last sync. */
+    private long mLastSyncTime = System.currentTimeMillis();
+
+    /**
+     * Creates a sink for the given file; if the file already exists
+     * it is truncated.
+     * @param outputFile the file the segments will be appended to
+     * @throws IOException if the file can't be opened
+     */
+    public SegmentFileSink(File outputFile) throws IOException {
+        mChannel = FileChannel.open(
+            outputFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        );
+        mManifest = null;
+    }
+
+    /**
+     * Creates a sink for the given file that appends the segments after
+     * the ones already recorded by the manifest.
+     * @param outputFile the file the segments will be appended to
+     * @param manifest the manifest of the file, already opened
+     * @throws IOException if the file can't be opened
+     */
+    public SegmentFileSink(File outputFile, SegmentManifest manifest) throws IOException {
+        mChannel = FileChannel.open(
+            outputFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE
+        );
+        mChannel.position(manifest.getCompletedBytes());
+        mManifest = manifest;
+    }
+
+    @Override
+    public void onSegmentDownloaded(int index, byte[] segment) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(segment);
+        while (bb.hasRemaining())
+            mWrittenBytes += mChannel.write(bb);
+
+        if (mManifest != null) {
+            mManifest.onSegmentWritten(index, segment);
+            mUnsyncedSegments++;
+
+            if (mUnsyncedSegments >= Config.Download.SEGMENT_SYNC_INTERVAL ||
+                System.currentTimeMillis() - mLastSyncTime >=
+                    Config.Download.SEGMENT_SYNC_PERIOD_MILLIS)
+                sync();
+        }
+    }
+
+    /**
+     * Syncs the output file and then the manifest, so that the manifest
+     * never records a segment that is not on the disk.
+     * @throws IOException if the file or the manifest can't be synced
+     */
+    private void sync() throws IOException {
+        mChannel.force(false);
+        mManifest.sync();
+        mUnsyncedSegments = 0;
+        mLastSyncTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the amount of bytes written to the output file.
+     * @return the written bytes
+     */
+    public long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (mManifest != null && mUnsyncedSegments > 0)
+                sync();
+        } finally {
+            mChannel.close();
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.docheinstein.commons.file.FileUtil;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe journal of the progress of a segmented download whose
+ * segments are appended, in playlist order, to a single data file.
+ * <p>
+ * The manifest records the playlist and, for each segment already written
+ * to the data file, its size and checksum. When a download is restarted
+ * the manifest is checked against the new playlist and the data file:
+ * the segments whose content still matches are kept and only the
+ * following ones have to be downloaded.
+ * <p>
+ * The records are kept in memory until {@link #sync()} is called, which
+ * must happen only after the data file has been synced: a segment is never
+ * recorded before its content is on the disk, thus a crash can lose at most
+ * the segments written since the last sync.
+ */
+public class SegmentManifest implements Closeable {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(SegmentManifest.class);
+
+    /** Suffix of the manifest file, appended to the name of the data file. */
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    /**
+     * First record of the manifest, which identifies the playlist.
+     */
+    private static class Header {
+        String playlist;
+        int segments;
+    }
+
+    /**
+     * Record of a segment written to the data file.
+     */
+    private static class SegmentRecord {
+        int index;
+        long size;
+        long crc32;
+    }
+
+    private static final Gson GSON = new Gson();
+
+    /** File of the manifest. */
+    private final File mManifestFile;
+
+    /** Channel of the manifest opened for append. */
+    private final FileChannel mChannel;
+
+    /** Amount of segments in the playlist. */
+    private final int mSegmentCount;
+
+    /** Amount of segments, from the first one, in the data file. */
+    private int mCompletedSegments;
+
+    /** Amount of bytes of the completed segments. */
+    private long mCompletedBytes;
+
+    /** Records of the segments written since the last sync. */
+    private final StringBuilder mPendingRecords = new StringBuilder();
+
+    private SegmentManifest(File manifestFile, FileChannel channel, int segmentCount,
+                            int completedSegments, long completedBytes) {
+        mManifestFile = manifestFile;
+        mChannel = channel;
+        mSegmentCount = segmentCount;
+        mCompletedSegments = completedSegments;
+        mCompletedBytes = completedBytes;
+    }
+
+    /**
+     * Returns the manifest file of the given data file.
+     * @param dataFile the file the segments are appended to
+     * @return the manifest file
+     */
+    public static File getManifestFile(File dataFile) {
+        return new File(dataFile.getAbsolutePath() + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Opens the manifest of the given data file for the download of the
+     * given playlist.
+     * <p>
+     * If a previous manifest exists for the same playlist, the recorded
+     * segments are verified against the data file and the data file is
+     * truncated after the last segment whose checksum matches; otherwise
+     * the download starts from scratch and the data file is emptied.
+     * @param dataFile the file the segments are appended to
+     * @param segmentLinks the links of the segments, in playlist order
+     * @return the manifest
+     * @throws IOException if the manifest or the data file can't be written
+     */
+    public static SegmentManifest open(File dataFile, List<String> segmentLinks)
+        throws IOException {
+        File manifestFile = getManifestFile(dataFile);
+        String playlist = getPlaylistIdentifier(segmentLinks);
+
+        List<SegmentRecord> verified = new ArrayList<>();
+        long verifiedBytes = 0;
+
+        if (FileUtil.exists(manifestFile) && FileUtil.exists(dataFile)) {
+            List<SegmentRecord> recorded = readRecords(manifestFile, playlist, segmentLinks.size());
+
+            try (InputStream data = Files.newInputStream(dataFile.toPath())) {
+                for (SegmentRecord record : recorded) {
+                    if (record.index != verified.size() ||
+                        !matches(data, record)) {
+                        L.debug("Segment " + record.index + " doesn't match the data file");
+                        break;
+                    }
+
+                    verified.add(record);
+                    verifiedBytes += record.size;
+                }
+            }
+
+            if (!verified.isEmpty())
+                L.info("Resuming segmented download from segment " + verified.size() +
+                    " of " + segmentLinks.size() + " (" + verifiedBytes + " bytes)");
+        }
+
+        // Drop everything after the verified segments
+        try (FileChannel data = FileChannel.open(
+            dataFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            data.truncate(verifiedBytes);
+            data.force(true);
+        }
+
+        // Rewrite the manifest with the verified segments only
+        StringBuilder lines = new StringBuilder();
+
+        Header header = new Header();
+        header.playlist = playlist;
+        header.segments = segmentLinks.size();
+        lines.append(GSON.toJson(header)).append('\n');
+
+        for (SegmentRecord record : verified)
+            lines.append(GSON.toJson(record)).append('\n');
+
+        File tmpFile = new File(manifestFile.getAbsolutePath() + ".tmp");
+
+        try (FileChannel tmp = FileChannel.open(
+            tmpFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(tmp, lines.toString());
+        }
+
+        Files.move(tmpFile.toPath(), manifestFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+
+        FileChannel channel = FileChannel.open(
+            manifestFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        return new SegmentManifest(
+            manifestFile, channel, segmentLinks.size(), verified.size(), verifiedBytes);
+    }
+
+    /**
+     * Returns whether a manifest exists for the given data file, i.e.
+     * whether a previous download can be resumed.
+     * @param dataFile the file the segments are appended to
+     * @return whether the manifest exists
+     */
+    public static boolean exists(File dataFile) {
+        return FileUtil.exists(getManifestFile(dataFile)) && FileUtil.exists(dataFile);
+    }
+
+    /**
+     * Records a segment just written to the data file; the record reaches
+     * the manifest on the next {@link #sync()}.
+     * @param index the index of the segment, which must be the next one
+     * @param segment the content of the segment
+     * @throws IOException if the segment is out of order
+     */
+    public void onSegmentWritten(int index, byte[] segment) throws IOException {
+        if (index != mCompletedSegments)
+            throw new IOException("Segment " + index + " written out of order " +
+                "(expected " + mCompletedSegments + ")");
+
+        SegmentRecord record = new SegmentRecord();
+        record.index = index;
+        record.size = segment.length;
+        record.crc32 = checksum(segment, 0, segment.length);
+
+        mPendingRecords.append(GSON.toJson(record)).append('\n');
+
+        mCompletedSegments++;
+        mCompletedBytes += segment.length;
+    }
+
+    /**
+     * Writes and syncs the records of the segments written since the last
+     * sync; the data file must have been synced already.
+     * @throws IOException if the manifest can't be written
+     */
+    public void sync() throws IOException {
+        if (mPendingRecords.length() == 0)
+            return;
+
+        write(mChannel, mPendingRecords.toString());
+        mPendingRecords.setLength(0);
+    }
+
+    /**
+     * Returns the amount of segments, from the first one, already in the
+     * data file.
+     * @return the completed segments
+     */
+    public int getCompletedSegments() {
+        return mCompletedSegments;
+    }
+
+    /**
+     * Returns the amount of bytes of the segments already in the data file.
+     * @return the completed bytes
+     */
+    public long getCompletedBytes() {
+        return mCompletedBytes;
+    }
+
+    /**
+     * Returns whether every segment of the playlist is in the data file.
+     * @return whether the download is complete
+     */
+    public boolean isComplete() {
+        return mCompletedSegments >= mSegmentCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Closes and deletes the manifest, once the data file is not needed
+     * anymore.
+     */
+    public void delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            L.warn("Manifest can't be closed", e);
+        }
+
+        FileUtil.delete(mManifestFile);
+    }
+
+    /**
+     * Reads the segment records of the manifest, provided that it refers
+     * to the given playlist.
+     * @param manifestFile the manifest file
+     * @param playlist the identifier of the playlist
+     * @param segmentCount the amount of segments of the playlist
+     * @return the segment records, empty if the playlist is different
+     */
+    private static List<SegmentRecord> readRecords(File manifestFile, String playlist,
+                                                   int segmentCount) {
+        List<SegmentRecord> records = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(
+            manifestFile.toPath(), StandardCharsets.UTF_8)) {
+
+            Header header = GSON.fromJson(reader.readLine(), Header.class);
+
+            if (header == null || !playlist.equals(header.playlist) ||
+                header.segments != segmentCount) {
+                L.debug("Manifest refers to a different playlist, starting from scratch");
+                return records;
+            }
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                SegmentRecord record = GSON.fromJson(line, SegmentRecord.class);
+                if (record != null)
+                    records.add(record);
+            }
+        } catch (IOException | JsonParseException e) {
+            // e.g. the last record, if truncated by a crash
+            L.debug("Manifest read up to " + records.size() + " segments");
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads the next segment from the data file and checks it against
+     * its record.
+     * @param data the stream of the data file, positioned at the segment
+     * @param record the record of the segment
+     * @return whether the segment matches the record
+     * @throws IOException if the data file can't be read
+     */
+    private static boolean matches(InputStream data, SegmentRecord record) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = record.size;
+
+        while (remaining > 0) {
+            int read = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1)
+                return false;
+            crc.update(buffer, 0, read);
+            remaining -= read;
+        }
+
+        return crc.getValue() == record.crc32;
+    }
+
+    /**
+     * Returns an identifier of the playlist that doesn't depend on the
+     * query of the links, which usually contain expiring tokens.
+     * @param segmentLinks the links of the segments
+     * @return the identifier of the playlist
+     */
+    private static String getPlaylistIdentifier(List<String> segmentLinks) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+            for (String segmentLink : segmentLinks) {
+                int queryStart = segmentLink.indexOf('?');
+                String segmentPath = queryStart >= 0 ?
+                    segmentLink.substring(0, queryStart) : segmentLink;
+                digest.update(segmentPath.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest())
+                hex.append(String.format("%02x", b));
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM provides SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return crc.getValue();
+    }
+
+    private static void write(FileChannel channel, String content) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        channel.force(false);
+    }
+}
@@ -5,8 +5,13 @@ package org.docheinstein.animedownloader.downloader.base;
  */
 public interface VideoDownloadObserver {
 
-    /** Called when the video download starts. */
-    void onVideoDownloadStarted();
+    /**
+     * Called when the video download starts.
+     * @param resumedBytes the amount of bytes already downloaded by a
+     *                     previous attempt, 0 if the download starts
+     *                     from scratch
+     */
+    void onVideoDownloadStarted(long resumedBytes);
 
     /**
      * Called on video download progress
@@ -41,5 +46,18 @@ public interface VideoDownloadObserver {
      *                  false if it is just an estimation
      */
     void onVideoSizeDetected(long videoSizeBytes, boolean certainly);
+
+    /**
+     * Called when the amount of requests performed at the same time by
+     * an adaptive download changes.
+     * @param concurrentRequests the amount of concurrent requests
+     */
+    void onVideoDownloadConcurrencyChanged(int concurrentRequests);
+
+    /**
+     * Called when the downloaded video can't be converted to MP4
+     * (e.g. because ffmpeg is not available).
+     */
+    void onVideoConversionFailed();
 }
 
@@ -19,4 +19,11 @@ public interface VideoDownloader extends Downloader {
      * @param videoInfo the video info
      */
     void useVideoInfo(DownloadableVideoInfo videoInfo);
+
+    /**
+     * Returns whether the current download, if aborted, would be resumed
+     * from where it stopped the next time it is started.
+     * @return whether the download can be resumed
+     */
+    boolean isResumable();
 }
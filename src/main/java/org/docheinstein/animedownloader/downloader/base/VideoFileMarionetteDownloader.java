@@ -1,15 +1,25 @@
 package org.docheinstein.animedownloader.downloader.base;
 
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.animedownloader.settings.Settings;
 import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+import org.docheinstein.animedownloader.video.ResolutionCache;
+import org.docheinstein.animedownloader.video.VideoProvider;
 import org.docheinstein.commons.file.FileUtil;
 import org.docheinstein.commons.http.HttpDownloader;
 import org.docheinstein.commons.http.HttpRequester;
 import org.docheinstein.commons.logger.DocLogger;
+import org.docheinstein.commons.types.StringUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.docheinstein.animedownloader.commons.constants.Const.Math.M;
 
@@ -26,16 +36,33 @@ public abstract class VideoFileMarionetteDownloader extends ChromeMarionetteDown
     private static final DocLogger L =
         DocLogger.createForClass(VideoFileMarionetteDownloader.class);
 
+    /**
+     * Buffer size of the single stream download, small enough for let
+     * the bandwidth limiter throttle the stream smoothly.
+     */
+    private static final int SINGLE_STREAM_BUFFER_SIZE = 64 * 1024;
+
     private HttpDownloader mDownloader;
 
+    private ParallelHttpDownloader mParallelDownloader;
+
+    private ResumingHttpDownloader mResumingDownloader;
+
     private DownloadableVideoInfo mVideoInfo;
 
+    /** Whether the current download can be resumed. */
+    private volatile boolean mResumable = false;
+
+    /** Validators of the video taken from the HEAD of the resolution, or null. */
+    private ResumeValidators mHeadValidators;
+
+    /** Time of the HEAD of the resolution, as nano time. */
+    private long mHeadValidatorsTime;
+
     public VideoFileMarionetteDownloader(String downloadUrl,
                                          File outputPath,
-                                         File driverPath,
-                                         boolean ghostMode,
                                          VideoDownloadObserver downloadObserver) {
-        super(downloadUrl, outputPath, driverPath, ghostMode, downloadObserver);
+        super(downloadUrl, outputPath, downloadObserver);
     }
 
     public abstract String getVideoLink();
@@ -55,15 +82,27 @@ public abstract class VideoFileMarionetteDownloader extends ChromeMarionetteDown
     @Override
     public void abortDownload() {
         // Notifies anyhow
-        if (mObserver != null)
-            mObserver.onVideoDownloadAborted();
+        notifyAbortedToObserver();
 
-        if (mDownloader == null) {
-            L.warn("Can't stop download since underlying HttpDownloader is null");
+        if (mDownloader == null && mParallelDownloader == null &&
+            mResumingDownloader == null) {
+            L.warn("Can't stop download since underlying downloader is null");
             return;
         }
 
-        mDownloader.enableDownload(false);
+        if (mDownloader != null)
+            mDownloader.enableDownload(false);
+
+        if (mParallelDownloader != null)
+            mParallelDownloader.enableDownload(false);
+
+        if (mResumingDownloader != null)
+            mResumingDownloader.enableDownload(false);
+    }
+
+    @Override
+    public boolean isResumable() {
+        return mResumable;
     }
 
     @Override
@@ -81,19 +120,106 @@ public abstract class VideoFileMarionetteDownloader extends ChromeMarionetteDown
      * Initializes the underlying driver and actually retrieved the video info
      * without starting the download.
      * <p>
+     * If the video has been resolved recently and its direct link is still
+     * valid, the info are taken from the {@link ResolutionCache} without
+     * using the driver at all.
+     * <p>
+     * Otherwise the {@link VideoLinkResolver} of the provider, if any, is
+     * tried first; the driver is used only if the video can't be resolved
+     * without a browser.
+     * <p>
+     * The driver is released as soon as the info are retrieved, thus
+     * {@link #getVideoLink()} and {@link #getVideoInfo(HttpRequester.Response)}
+     * must not release it on their own.
+     * <p>
      * This method is thread-safe.
      */
     private synchronized void initMarionette() {
+        if (mVideoInfo == null)
+            mVideoInfo = ResolutionCache.instance().get(mDownloadUrl);
+
+        VideoProvider provider = VideoProvider.getProviderForURL(mDownloadUrl);
+
+        if (mVideoInfo != null) {
+            L.debug("Skipping marionette initialization since video info is not null");
+            Metrics.instance().counter(Metrics.forProvider("resolution.cache_hits", provider)).increment();
+            return;
+        }
+
+        long resolutionStart = System.nanoTime();
+
+        mVideoInfo = resolveWithoutBrowser(provider);
+
+        String resolutionPath = "http";
+
         if (mVideoInfo == null) {
+            mVideoInfo = resolveWithBrowser();
+            resolutionPath = "browser";
+        }
 
-            if (!isInitialized())
-                initDriver();
+        long resolutionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - resolutionStart);
+        Metrics.instance().timer(
+            Metrics.forProvider("resolution." + resolutionPath, provider)).record(resolutionMillis);
+
+        L.info(provider + " video resolved using " + resolutionPath + " in " +
+            resolutionMillis + "ms");
+
+        ResolutionCache.instance().put(mDownloadUrl, mVideoInfo);
+    }
+
+    /**
+     * Retrieves the video info using the {@link VideoLinkResolver} of the
+     * provider, without initializing the driver.
+     * @param provider the provider of the video
+     * @return the video info, or null if the video can't be resolved
+     *         without a browser
+     */
+    private DownloadableVideoInfo resolveWithoutBrowser(VideoProvider provider) {
+        VideoLinkResolver resolver = provider != null ? provider.createResolver() : null;
+
+        if (resolver == null)
+            return null;
+
+        DownloadableVideoInfo resolvedInfo = resolver.resolve(mDownloadUrl);
+
+        if (resolvedInfo == null || !StringUtil.isValid(resolvedInfo.directLink)) {
+            L.debug("Video can't be resolved without browser, using the driver");
+            return null;
+        }
+
+        DownloadableVideoInfo videoInfo = retrieveVideoInfo(resolvedInfo.directLink);
+        videoInfo.directLink = resolvedInfo.directLink;
+
+        // The info of the page are used if the headers don't provide them
+        if (!StringUtil.isValid(videoInfo.title))
+            videoInfo.title = resolvedInfo.title;
+
+        if (!StringUtil.isValid(videoInfo.filename))
+            videoInfo.filename = resolvedInfo.filename;
+
+        if (!StringUtil.isValid(videoInfo.filename)) {
+            L.debug("Filename can't be figured out without browser, using the driver");
+            return null;
+        }
 
+        return videoInfo;
+    }
+
+    /**
+     * Retrieves the video info using the driver.
+     * @return the video info
+     */
+    private DownloadableVideoInfo resolveWithBrowser() {
+        if (!isInitialized())
+            initDriver();
+
+        try {
             String directLink = getVideoLink();
-            mVideoInfo = retrieveVideoInfo(directLink);
-            mVideoInfo.directLink = directLink;
-        } else {
-            L.debug("Skipping marionette initialization since video info is not null");
+            DownloadableVideoInfo videoInfo = retrieveVideoInfo(directLink);
+            videoInfo.directLink = directLink;
+            return videoInfo;
+        } finally {
+            releaseDriver();
         }
     }
 
@@ -105,19 +231,64 @@ public abstract class VideoFileMarionetteDownloader extends ChromeMarionetteDown
     private DownloadableVideoInfo retrieveVideoInfo(String directLink) {
         L.debug("Retrieving video info (size, filename) of: " + directLink);
 
-        return getVideoInfo(HttpRequester
+        long headStart = System.nanoTime();
+
+        HttpRequester.Response headResponse = HttpRequester
             .head(directLink)
             .allowRedirect(true)
             .initialized()
             .userAgent("curl/7.52.1")
             .accept("*/*")
-            .send()
-        );
+            .send();
+
+        Metrics.instance().timer("http.head").recordMillisSince(headStart);
+
+        DownloadableVideoInfo videoInfo = getVideoInfo(headResponse);
+        videoInfo.acceptRanges = acceptRanges(headResponse.getHeaderFields());
+
+        L.debug("Server accepts byte ranges: " + videoInfo.acceptRanges);
+
+        // Kept for the download, which would need the same HEAD
+        mHeadValidators = getValidators(headResponse, videoInfo.size);
+        mHeadValidatorsTime = System.nanoTime();
+
+        return videoInfo;
+    }
+
+    /**
+     * Returns whether the given header fields declare that the server
+     * accepts byte range requests.
+     * @param headerFields the header fields of an HTTP response
+     * @return whether the server accepts byte ranges
+     */
+    private static boolean acceptRanges(Map<String, List<String>> headerFields) {
+        if (headerFields == null)
+            return false;
+
+        for (Map.Entry<String, List<String>> headerField : headerFields.entrySet()) {
+            if (!"Accept-Ranges".equalsIgnoreCase(headerField.getKey()))
+                continue;
+
+            for (String value : headerField.getValue()) {
+                if (value != null && value.toLowerCase().contains("bytes"))
+                    return true;
+            }
+        }
+
+        return false;
     }
 
 
     /**
      * Actually starts the download of the video.
+     * <p>
+     * An existing output file is validated against the remote video: it is
+     * kept if already complete, resumed if its validators still match and
+     * deleted if the video changed. Otherwise the video is downloaded to a
+     * '.part' file which replaces the existing one only once complete.
+     * <p>
+     * The validators are kept beside the output file even after the
+     * download is finished, so that the complete video is recognized.
      */
     private void doDownload() {
         L.info("Downloading video from direct link: " + mVideoInfo.directLink);
@@ -132,39 +303,389 @@ public abstract class VideoFileMarionetteDownloader extends ChromeMarionetteDown
 
         L.info("Video will be downloaded to: " + outputFile.getAbsolutePath());
 
-        boolean fileAlreadyExists = FileUtil.exists(outputFile);
+        int connections = Settings.instance().getDownloadConnectionsSetting().getValue();
+
+        ResumeValidators remoteValidators = retrieveValidators();
 
-        if (fileAlreadyExists)
-            L.info("Video already exists, it will be resumed if possible");
+        long keptBytes = validateExistingFile(outputFile, remoteValidators);
 
-        final long alreadyDownloadedBytes =
-            fileAlreadyExists ? outputFile.length() : 0;
+        // A file still there can't be resumed and must not be lost before
+        // the download is complete
+        boolean replaceExisting = keptBytes == 0 && FileUtil.exists(outputFile);
+
+        boolean parallel = keptBytes == 0 && canDownloadInParallel(connections);
+
+        // The '.part' file is overwritten the next time, as well as a single
+        // stream without validators
+        mResumable = !parallel && !replaceExisting &&
+            (keptBytes != 0 || remoteValidators.canResume());
 
         if (mObserver != null)
-            mObserver.onVideoDownloadStarted();
+            mObserver.onVideoDownloadStarted(Math.max(keptBytes, 0));
+
+        long downloadStart = System.nanoTime();
 
         try {
-            mDownloader = new HttpDownloader();
-
-            boolean downloadFinished = mDownloader.download(
-                mVideoInfo.directLink,
-                outputFile.getAbsolutePath(),
-                downloadedBytes -> {
-                    long curMillis = System.currentTimeMillis();
-                    if (mObserver != null)
-                        mObserver.onVideoDownloadProgress(
-                            alreadyDownloadedBytes + downloadedBytes,
-                            curMillis);
-                },
-                (int) M
-            );
+            boolean downloadFinished;
+
+            if (keptBytes < 0) {
+                L.info("Video is already downloaded, skipping download");
+                notifyProgressToObserver(outputFile.length());
+                downloadFinished = true;
+            } else if (keptBytes > 0)
+                downloadFinished = doResumedDownload(outputFile, keptBytes, remoteValidators);
+            else if (parallel)
+                downloadFinished = doParallelDownload(outputFile, connections);
+            else if (replaceExisting)
+                downloadFinished = doReplacingDownload(outputFile);
+            else
+                downloadFinished = doSingleStreamDownload(
+                    outputFile, remoteValidators.canResume() ? remoteValidators : null);
+
+            if (downloadFinished && keptBytes >= 0) {
+                remoteValidators.save(outputFile);
+
+                Metrics.instance().recordDownload(
+                    VideoProvider.getProviderForURL(mDownloadUrl),
+                    outputFile.length() - keptBytes,
+                    System.nanoTime() - downloadStart);
+            }
 
             if (downloadFinished && mObserver != null)
                 mObserver.onVideoDownloadFinished();
         } catch (IOException e) {
             L.error("Error occurred while download the video", e);
+            notifyAbortedToObserver();
+        }
+
+    }
+
+    /**
+     * Retrieves the current validators of the remote video; the ones of
+     * the HEAD of the resolution are used if recent enough.
+     * @return the validators of the remote video
+     */
+    private ResumeValidators retrieveValidators() {
+        synchronized (this) {
+            if (mHeadValidators != null &&
+                System.nanoTime() - mHeadValidatorsTime <=
+                    TimeUnit.SECONDS.toNanos(Config.Download.VALIDATORS_MAX_AGE_SECONDS)) {
+                L.debug("Reusing validators of the video: " + mHeadValidators);
+                return mHeadValidators;
+            }
+        }
+
+        long headStart = System.nanoTime();
+
+        HttpRequester.Response headResponse = HttpRequester
+            .head(mVideoInfo.directLink)
+            .allowRedirect(true)
+            .initialized()
+            .userAgent("curl/7.52.1")
+            .accept("*/*")
+            .send();
+
+        Metrics.instance().timer("http.head").recordMillisSince(headStart);
+
+        if (!headResponse.hasBeenPerformed() || headResponse.getHeaderFields() == null) {
+            L.warn("Validators of the video can't be retrieved");
+            return ResumeValidators.fromSize(mVideoInfo.size, mVideoInfo.acceptRanges);
         }
 
+        ResumeValidators validators = getValidators(headResponse, mVideoInfo.size);
+
+        L.debug("Validators of the video: " + validators);
+
+        return validators;
+    }
+
+    /**
+     * Returns the validators of the video from the response of a HEAD.
+     * @param headResponse the response of the HEAD of the video
+     * @param size the size of the video, used if the response doesn't
+     *             declare it
+     * @return the validators of the video, or null if the HEAD failed
+     */
+    private static ResumeValidators getValidators(HttpRequester.Response headResponse,
+                                                  long size) {
+        if (!headResponse.hasBeenPerformed() || headResponse.getHeaderFields() == null)
+            return null;
+
+        return ResumeValidators.fromHeaders(
+            headResponse.getContentLength() > 0 ? headResponse.getContentLength() : size,
+            headResponse.getHeaderFields());
+    }
+
+    /**
+     * Validates the existing output file, if any, against the validators
+     * of the remote video.
+     * <p>
+     * The file is deleted only if its stored validators prove that the
+     * remote video changed; a file without validators might be a complete
+     * video or something else, thus it's left untouched.
+     * @param outputFile the file the video will be downloaded to
+     * @param remoteValidators the current validators of the remote video
+     * @return the amount of bytes of the output file that can be kept,
+     *         or -1 if the output file is already complete
+     */
+    private long validateExistingFile(File outputFile, ResumeValidators remoteValidators) {
+        if (!FileUtil.exists(outputFile))
+            return 0;
+
+        ResumeValidators localValidators = ResumeValidators.load(outputFile);
+        long length = outputFile.length();
+
+        if (localValidators == null) {
+            if (remoteValidators.getSize() > 0 && length == remoteValidators.getSize()) {
+                L.info("Video already exists without validators and has the right size");
+                return -1;
+            }
+
+            L.info("Existing file can't be validated, " +
+                "it will be replaced once the download is complete");
+            return 0;
+        }
+
+        if (!localValidators.matches(remoteValidators)) {
+            L.info("Video changed since the previous download, restarting it");
+            FileUtil.delete(outputFile);
+            ResumeValidators.delete(outputFile);
+            return 0;
+        }
+
+        // The stored size is the one of the whole video, even if the
+        // remote size is unknown at the moment
+        long size = remoteValidators.getSize() > 0 ?
+            remoteValidators.getSize() : localValidators.getSize();
+
+        if (size > 0 && length == size)
+            return -1;
+
+        if (localValidators.canResume() && remoteValidators.canResume() && length < size)
+            return length;
+
+        L.info("Partial download can't be resumed, " +
+            "it will be replaced once the download is complete");
+
+        return 0;
+    }
+
+    /**
+     * Returns whether the video can be downloaded using multiple connections.
+     * @param connections the amount of connections to use
+     * @return whether the parallel download can be used
+     */
+    private boolean canDownloadInParallel(int connections) {
+        if (connections <= 1) {
+            L.debug("Single connection required, parallel download won't be used");
+            return false;
+        }
+
+        if (!mVideoInfo.acceptRanges || mVideoInfo.size <= 0) {
+            L.debug("Server doesn't accept byte ranges or size is unknown, " +
+                "falling back to single stream download");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Resumes the download of a partially downloaded video, whose
+     * validators have been checked already.
+     * @param outputFile the partially downloaded file
+     * @param offset the amount of bytes already downloaded
+     * @param remoteValidators the current validators of the remote video
+     * @return whether the download has been completed
+     * @throws IOException if the download fails
+     */
+    private boolean doResumedDownload(File outputFile, long offset,
+                                      ResumeValidators remoteValidators) throws IOException {
+        L.info("Video already exists, resuming it from byte " + offset);
+
+        remoteValidators.save(outputFile);
+
+        mResumingDownloader = new ResumingHttpDownloader(
+            mVideoInfo.directLink,
+            outputFile,
+            offset,
+            remoteValidators.getSize(),
+            remoteValidators.getIfRange(),
+            newThrottle()
+        );
+
+        return mResumingDownloader.download(
+            this::notifyProgressToObserver,
+            (int) M
+        );
+    }
+
+    /**
+     * Downloads the video using a single stream; the validators of the
+     * video, if given, are stored beside the output file so that the
+     * download can be resumed if interrupted.
+     * @param outputFile the file the video will be downloaded to
+     * @param remoteValidators the current validators of the remote video,
+     *                         or null if the download can't be resumed
+     * @return whether the download has been completed
+     * @throws IOException if the download fails
+     */
+    private boolean doSingleStreamDownload(File outputFile,
+                                           ResumeValidators remoteValidators) throws IOException {
+        if (remoteValidators != null)
+            remoteValidators.save(outputFile);
+
+        mDownloader = new HttpDownloader();
+
+        BandwidthLimiter.Throttle throttle = newThrottle();
+
+        // The stream of HttpDownloader can't be wrapped, thus the throttle
+        // is charged from the progress callback, which is called from the
+        // downloading thread after every read
+        final long[] chargedBytes = new long[] { 0 };
+        final long[] nextNotificationBytes = new long[] { 0 };
+        final boolean[] interrupted = new boolean[] { false };
+
+        boolean downloaded = mDownloader.download(
+            mVideoInfo.directLink,
+            outputFile.getAbsolutePath(),
+            downloadedBytes -> {
+                long delta = downloadedBytes - chargedBytes[0];
+                chargedBytes[0] = downloadedBytes;
+
+                if (downloadedBytes >= nextNotificationBytes[0]) {
+                    nextNotificationBytes[0] = downloadedBytes + M;
+                    notifyProgressToObserver(downloadedBytes);
+                }
+
+                if (interrupted[0])
+                    return;
+
+                try {
+                    throttle.acquire(delta);
+                } catch (InterruptedIOException e) {
+                    // The callback can't throw, the transfer is stopped instead
+                    L.warn("Interrupted while throttling the download; stopping it");
+                    interrupted[0] = true;
+                    mDownloader.enableDownload(false);
+                }
+            },
+            SINGLE_STREAM_BUFFER_SIZE
+        );
+
+        if (interrupted[0])
+            throw new InterruptedIOException("Download interrupted");
+
+        return downloaded;
+    }
+
+    /**
+     * Downloads the video using a single stream to a temporary '.part'
+     * file, which replaces the existing output file only if the download
+     * is completed; as for the parallel download, the '.part' file can't
+     * be resumed and is overwritten the next time.
+     * @param outputFile the existing file the video will be downloaded to
+     * @return whether the download has been completed
+     * @throws IOException if the download fails
+     */
+    private boolean doReplacingDownload(File outputFile) throws IOException {
+        File partFile = getPartFile(outputFile);
+
+        L.info("Downloading video to " + partFile + " for replace " + outputFile);
+
+        if (!doSingleStreamDownload(partFile, null))
+            return false;
+
+        replaceWithPartFile(partFile, outputFile);
+
+        return true;
+    }
+
+    /**
+     * Downloads the video using multiple connections, each one for a different
+     * byte range of the video.
+     * <p>
+     * The video is downloaded to a temporary '.part' file, which is renamed
+     * to the output file only if the download is completed; since a partial
+     * parallel download can't be resumed, an existing '.part' file is
+     * overwritten.
+     * @param outputFile the file the video will be downloaded to
+     * @param connections the amount of connections to use
+     * @return whether the download has been completed
+     * @throws IOException if the download fails
+     */
+    private boolean doParallelDownload(File outputFile, int connections) throws IOException {
+        File partFile = getPartFile(outputFile);
+
+        L.info("Downloading video using " + connections + " connections to " + partFile);
+
+        mParallelDownloader = new ParallelHttpDownloader(
+            mVideoInfo.directLink,
+            partFile,
+            mVideoInfo.size,
+            connections,
+            newThrottle()
+        );
+
+        boolean downloaded = mParallelDownloader.download(
+            this::notifyProgressToObserver,
+            (int) M
+        );
+
+        if (!downloaded)
+            return false;
+
+        replaceWithPartFile(partFile, outputFile);
+
+        return true;
+    }
+
+    /**
+     * Returns the temporary file a non resumable download is written to.
+     * @param outputFile the file the video will be downloaded to
+     * @return the '.part' file
+     */
+    private static File getPartFile(File outputFile) {
+        return new File(outputFile.getAbsolutePath() + ".part");
+    }
+
+    /**
+     * Moves the complete '.part' file to the output file, replacing the
+     * output file if it exists.
+     * @param partFile the complete '.part' file
+     * @param outputFile the file the video has been downloaded to
+     * @throws IOException if the '.part' file can't be moved
+     */
+    private static void replaceWithPartFile(File partFile, File outputFile) throws IOException {
+        Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Creates the throttle that limits the speed of this download.
+     * @return the throttle of the download
+     */
+    private BandwidthLimiter.Throttle newThrottle() {
+        return BandwidthLimiter.instance().newThrottle(
+            VideoProvider.getProviderForURL(mDownloadUrl));
+    }
+
+    /**
+     * Notifies the observer about the download progress.
+     * @param downloadedBytes the amount of downloaded bytes
+     */
+    private void notifyProgressToObserver(long downloadedBytes) {
+        long curMillis = System.currentTimeMillis();
+        if (mObserver != null)
+            mObserver.onVideoDownloadProgress(downloadedBytes, curMillis);
+    }
+
+    /**
+     * Notifies the observer that the download has been aborted, either by
+     * the user or because of an error.
+     */
+    private void notifyAbortedToObserver() {
+        if (mObserver != null)
+            mObserver.onVideoDownloadAborted();
     }
 
     /**
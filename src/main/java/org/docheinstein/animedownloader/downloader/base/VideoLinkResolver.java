@@ -0,0 +1,22 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+
+/**
+ * Interface that represents a resolver able to figure out the direct link
+ * of a video without using a browser.
+ * <p>
+ * Resolvers are tried before the marionette of the provider, which is used
+ * only if the resolver can't resolve the video.
+ */
+public interface VideoLinkResolver {
+
+    /**
+     * Resolves the direct link of the video of the given page.
+     * @param pageUrl the url of the video page
+     * @return the resolved info, which contain at least the direct link and
+     *         eventually the title and the filename of the video, or null if
+     *         the video can't be resolved without a browser
+     */
+    DownloadableVideoInfo resolve(String pageUrl);
+}
@@ -0,0 +1,469 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.animedownloader.settings.Settings;
+import org.docheinstein.commons.logger.DocLogger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.logging.LogType;
+import org.openqa.selenium.logging.LoggingPreferences;
+import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Pool of Chrome drivers shared by every marionette, so that the (slow)
+ * startup of a browser is paid only once instead of once per video.
+ * <p>
+ * The pool never holds more drivers than the pool size setting; a driver
+ * is health checked before being handed out, its session is reset
+ * (tabs, cookies, storage, logs) when it is given back, and drivers idle
+ * for too long are evicted.
+ * <p>
+ * Drivers created with an outdated chrome driver path, ghost mode or
+ * lightweight mode are discarded as soon as they are idle.
+ */
+public class WebDriverPool {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(WebDriverPool.class);
+
+    private static final WebDriverPool INSTANCE = new WebDriverPool();
+
+    /**
+     * Idle driver of the pool.
+     */
+    private static class IdleDriver {
+        final WebDriver driver;
+        final long idleSinceMillis;
+
+        IdleDriver(WebDriver driver, long idleSinceMillis) {
+            this.driver = driver;
+            this.idleSinceMillis = idleSinceMillis;
+        }
+    }
+
+    /** Idle drivers; the most recently used is the first. */
+    private final Deque<IdleDriver> mIdleDrivers = new ArrayDeque<>();
+
+    /** Generation of each driver (idle or in use). */
+    private final Map<WebDriver, Integer> mDriverGenerations = new IdentityHashMap<>();
+
+    /** Amount of drivers, either idle, in use or in creation. */
+    private int mDriverCount = 0;
+
+    /** Current generation of drivers, incremented when the drivers' settings change. */
+    private int mGeneration = 0;
+
+    /** Whether the pool has been shut down. */
+    private boolean mShutdown = false;
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the instance of this class.
+     */
+    public static WebDriverPool instance() {
+        return INSTANCE;
+    }
+
+    private WebDriverPool() {
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "webdriver-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+
+        evictor.scheduleWithFixedDelay(
+            this::evictIdleDrivers,
+            Config.WebDriverPool.EVICTION_PERIOD_SECONDS,
+            Config.WebDriverPool.EVICTION_PERIOD_SECONDS,
+            TimeUnit.SECONDS
+        );
+
+        Settings.instance().getChromeDriverSetting().addListener(
+            (setting, value) -> invalidate());
+        Settings.instance().getChromeDriverGhostModeSetting().addListener(
+            (setting, value) -> invalidate());
+        Settings.instance().getChromeDriverLightweightModeSetting().addListener(
+            (setting, value) -> invalidate());
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    /**
+     * Creates the drivers that should be kept ready at the startup of the
+     * application, if they do not exist yet.
+     * <p>
+     * This blocks until the drivers are created, thus should be called
+     * from a background thread.
+     */
+    public void warmUp() {
+        int warmDrivers = Math.min(
+            Config.WebDriverPool.WARM_DRIVERS, getPoolSize());
+
+        L.debug("Warming up " + warmDrivers + " web drivers");
+
+        List<WebDriver> drivers = new ArrayList<>();
+
+        try {
+            synchronized (this) {
+                if (mDriverCount >= warmDrivers)
+                    return;
+            }
+
+            for (int i = 0; i < warmDrivers; i++)
+                drivers.add(acquire());
+        } catch (WebDriverException e) {
+            L.warn("Web driver warm up failed", e);
+        } finally {
+            drivers.forEach(this::release);
+        }
+    }
+
+    /**
+     * Returns a healthy driver from the pool, creating it if there are no
+     * idle drivers and the pool is not full; otherwise waits for a driver
+     * to be released.
+     * <p>
+     * The driver must be given back with {@link #release(WebDriver)}.
+     * @return a driver ready to be used
+     * @throws WebDriverException if the driver can't be created or the pool
+     *                            has been shut down
+     */
+    public WebDriver acquire() {
+        while (true) {
+            IdleDriver idleDriver;
+
+            synchronized (this) {
+                while (!mShutdown && mIdleDrivers.isEmpty() && mDriverCount >= getPoolSize()) {
+                    try {
+                        L.debug("Every web driver is in use, waiting for one");
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new WebDriverException("Interrupted while waiting for a web driver");
+                    }
+                }
+
+                if (mShutdown)
+                    throw new WebDriverException("Web driver pool has been shut down");
+
+                idleDriver = mIdleDrivers.pollFirst();
+
+                if (idleDriver == null)
+                    // Reserve the slot, the driver will be created outside the lock
+                    mDriverCount++;
+            }
+
+            if (idleDriver == null)
+                return createDriver();
+
+            if (isHealthy(idleDriver.driver)) {
+                L.debug("Reusing pooled web driver");
+                return idleDriver.driver;
+            }
+
+            L.warn("Pooled web driver is not healthy anymore, discarding it");
+            discard(idleDriver.driver);
+        }
+    }
+
+    /**
+     * Gives back the driver to the pool after resetting its session.
+     * <p>
+     * If the session can't be reset or the driver is outdated the driver
+     * is discarded instead.
+     * @param driver the driver previously acquired
+     */
+    public void release(WebDriver driver) {
+        if (driver == null)
+            return;
+
+        boolean reset = resetSession(driver);
+
+        synchronized (this) {
+            Integer generation = mDriverGenerations.get(driver);
+
+            boolean reusable =
+                reset && !mShutdown &&
+                generation != null && generation == mGeneration &&
+                mDriverCount <= getPoolSize();
+
+            if (reusable) {
+                mIdleDrivers.addFirst(new IdleDriver(driver, System.currentTimeMillis()));
+                notifyAll();
+                return;
+            }
+        }
+
+        L.debug("Web driver is not reusable, discarding it");
+        discard(driver);
+    }
+
+    /**
+     * Quits every driver and prevents new drivers to be created.
+     * <p>
+     * Drivers in use are quit when released.
+     */
+    public void shutdown() {
+        List<IdleDriver> idleDrivers;
+
+        synchronized (this) {
+            if (mShutdown)
+                return;
+
+            mShutdown = true;
+            idleDrivers = new ArrayList<>(mIdleDrivers);
+            mIdleDrivers.clear();
+            notifyAll();
+        }
+
+        L.debug("Shutting down web driver pool");
+
+        idleDrivers.forEach(d -> discard(d.driver));
+    }
+
+    /**
+     * Discards the idle drivers and marks the drivers in use as outdated,
+     * so that they will be discarded when released.
+     */
+    private void invalidate() {
+        List<IdleDriver> idleDrivers;
+
+        synchronized (this) {
+            mGeneration++;
+            idleDrivers = new ArrayList<>(mIdleDrivers);
+            mIdleDrivers.clear();
+        }
+
+        if (!idleDrivers.isEmpty())
+            L.debug("Web driver settings changed, discarding idle drivers");
+
+        idleDrivers.forEach(d -> discard(d.driver));
+    }
+
+    /**
+     * Discards the drivers idle for too long.
+     */
+    private void evictIdleDrivers() {
+        long now = System.currentTimeMillis();
+        long idleTimeoutMillis = Config.WebDriverPool.IDLE_TIMEOUT_SECONDS * 1000L;
+
+        List<IdleDriver> evicted = new ArrayList<>();
+
+        synchronized (this) {
+            Iterator<IdleDriver> it = mIdleDrivers.descendingIterator();
+            while (it.hasNext()) {
+                IdleDriver idleDriver = it.next();
+                if (now - idleDriver.idleSinceMillis < idleTimeoutMillis)
+                    break; // The following drivers have been used more recently
+                it.remove();
+                evicted.add(idleDriver);
+            }
+        }
+
+        if (!evicted.isEmpty())
+            L.debug("Evicting " + evicted.size() + " idle web drivers");
+
+        evicted.forEach(d -> discard(d.driver));
+    }
+
+    /**
+     * Creates a new driver for a slot already reserved in the pool.
+     * @return the new driver
+     */
+    private WebDriver createDriver() {
+        int generation;
+
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        L.debug("Creating new web driver");
+
+        // The default driver is verified in background at the startup
+        ChromeDriverInstaller.instance().ensureInstalled();
+
+        long startNanos = System.nanoTime();
+
+        WebDriver driver;
+
+        try {
+            driver = newChromeDriver(
+                Settings.instance().getChromeDriverSetting().getValue(),
+                Settings.instance().getChromeDriverGhostModeSetting().getValue(),
+                Settings.instance().getChromeDriverLightweightModeSetting().getValue()
+            );
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                mDriverCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+
+        long startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        Metrics.instance().timer("webdriver.startup").record(startupMillis);
+
+        L.debug("Web driver created in " + startupMillis + "ms");
+
+        synchronized (this) {
+            mDriverGenerations.put(driver, generation);
+        }
+
+        return driver;
+    }
+
+    /**
+     * Quits the given driver and frees its slot in the pool.
+     * @param driver the driver to discard
+     */
+    private void discard(WebDriver driver) {
+        synchronized (this) {
+            mDriverGenerations.remove(driver);
+            mDriverCount--;
+            notifyAll();
+        }
+
+        try {
+            driver.quit();
+        } catch (WebDriverException e) {
+            L.warn("Error occurred while quitting web driver", e);
+        }
+    }
+
+    /**
+     * Returns whether the given driver is still responsive.
+     * @param driver the driver
+     * @return whether the driver is healthy
+     */
+    private static boolean isHealthy(WebDriver driver) {
+        try {
+            return !driver.getWindowHandles().isEmpty();
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Resets the session of the given driver: closes every tab but one,
+     * clears cookies and storage of the current site, discards the
+     * pending performance logs and navigates to a blank page.
+     * @param driver the driver
+     * @return whether the session has been reset successfully
+     */
+    private static boolean resetSession(WebDriver driver) {
+        try {
+            List<String> handles = new ArrayList<>(driver.getWindowHandles());
+
+            for (int i = 1; i < handles.size(); i++) {
+                driver.switchTo().window(handles.get(i));
+                driver.close();
+            }
+
+            driver.switchTo().window(handles.get(0));
+
+            driver.manage().deleteAllCookies();
+
+            if (driver instanceof JavascriptExecutor) {
+                try {
+                    ((JavascriptExecutor) driver).executeScript(
+                        "window.localStorage.clear(); window.sessionStorage.clear();");
+                } catch (WebDriverException e) {
+                    // Storage is not accessible for the current page (e.g. data: urls)
+                }
+            }
+
+            driver.get("about:blank");
+
+            // Discard the logs of the previous session
+            driver.manage().logs().get(LogType.PERFORMANCE);
+
+            return true;
+        } catch (WebDriverException | IndexOutOfBoundsException e) {
+            L.warn("Web driver session can't be reset", e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the maximum amount of drivers, as specified by the settings.
+     * @return the pool size
+     */
+    public static int getPoolSize() {
+        Integer poolSize = Settings.instance().getChromeDriverPoolSizeSetting().getValue();
+        return poolSize != null ? Math.max(1, poolSize) : 1;
+    }
+
+    /**
+     * Creates a new chrome driver.
+     * @param driverPath the path of the chrome driver executable
+     * @param ghost whether the chrome driver should be started silently
+     * @param lightweight whether the resources not needed for retrieve the
+     *                    video links should not be loaded
+     * @return the chrome driver
+     */
+    private static WebDriver newChromeDriver(File driverPath, boolean ghost,
+                                             boolean lightweight) {
+        System.setProperty(
+            "webdriver.chrome.driver",
+            driverPath.getAbsolutePath()
+        );
+
+        ChromeOptions co = new ChromeOptions();
+
+        // Invisibility
+        if (ghost) {
+            L.debug("Ghost chrome driver required");
+            co.addArguments("--headless");
+            co.addArguments("--mute-audio");
+        }
+        else {
+            L.debug("Visible chrome driver required");
+        }
+
+        // Lightweight mode
+        if (lightweight) {
+            L.debug("Lightweight chrome driver required");
+
+            // Images are never needed for retrieve the links
+            co.addArguments("--blink-settings=imagesEnabled=false");
+            Map<String, Object> prefs = new HashMap<>();
+            prefs.put("profile.managed_default_content_settings.images", 2);
+            co.setExperimentalOption("prefs", prefs);
+
+            // Ads, trackers and web fonts hosts are not resolved at all
+            List<String> rules = new ArrayList<>();
+            for (String host : Config.LightweightCapture.BLOCKED_HOSTS)
+                rules.add("MAP " + host + " ~NOTFOUND");
+            co.addArguments("--host-resolver-rules=" + String.join(", ", rules));
+        }
+
+        // Logging, for access network resources
+        DesiredCapabilities caps = DesiredCapabilities.chrome();
+        LoggingPreferences logPrefs = new LoggingPreferences();
+        logPrefs.enable(LogType.PERFORMANCE, Level.ALL);
+        caps.setCapability(CapabilityType.LOGGING_PREFS, logPrefs);
+
+        co.merge(caps);
+
+        return new ChromeDriver(co);
+    }
+}
@@ -0,0 +1,47 @@
+package org.docheinstein.animedownloader.downloader.openload;
+
+import org.docheinstein.animedownloader.downloader.base.HttpVideoLinkResolver;
+import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.util.regex.Pattern;
+
+/**
+ * Specific resolver able to figure out the direct link of the videos of
+ * "https://openload.co" without a browser.
+ * <p>
+ * The page sometimes contains the CDN link of the video already; when it
+ * is computed by the scripts of the page instead, the video can't be
+ * resolved this way and {@link OpenloadMarionette} has to be used.
+ */
+public class OpenloadHttpResolver extends HttpVideoLinkResolver {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(OpenloadHttpResolver.class);
+
+    /** Pattern of the content of the container of the CDN link. */
+    private static final Pattern CDN_LINK_CONTAINER_PATTERN = Pattern.compile(
+        "<[a-zA-Z]+[^>]*\\sid=[\"']" +
+            OpenloadMarionette.DIRECT_LINK_CURRENT_CONTAINER_ID +
+            "[\"'][^>]*>([^<]*)<");
+
+    @Override
+    protected DownloadableVideoInfo resolveFromPage(String pageUrl, String page) {
+        String partialCDNLink = findFirst(page, CDN_LINK_CONTAINER_PATTERN);
+
+        if (partialCDNLink == null ||
+            partialCDNLink.contains(OpenloadMarionette.DIRECT_LINK_PLACEHOLDER)) {
+            L.debug("CDN link is not within the static page");
+            return null;
+        }
+
+        L.debug("Container of the CDN link found; content is: " + partialCDNLink);
+
+        DownloadableVideoInfo videoInfo = new DownloadableVideoInfo();
+        videoInfo.directLink = OpenloadMarionette.getStreamLink(String.format(
+            OpenloadMarionette.DIRECT_LINK_CURRENT_TEMPLATE, partialCDNLink));
+
+        // The filename is taken from the stream link's headers
+        return videoInfo;
+    }
+}
@@ -26,30 +26,45 @@ public class OpenloadMarionette extends VideoFileMarionetteDownloader {
         DocLogger.createForClass(OpenloadMarionette.class);
 
     /** Template of the video's direct link */
-    private static final String DIRECT_LINK_CURRENT_TEMPLATE = "https://openload.co/stream/%s";
+    static final String DIRECT_LINK_CURRENT_TEMPLATE = "https://openload.co/stream/%s";
 
     /** ID of the container of the video's direct link. */
-    private static final String DIRECT_LINK_CURRENT_CONTAINER_ID = "lqEH1";
+    static final String DIRECT_LINK_CURRENT_CONTAINER_ID = "lqEH1";
+
+    /** Placeholder content of the container before the link is computed. */
+    static final String DIRECT_LINK_PLACEHOLDER = "HERE IS THE LINK";
+
+    /** Prefix of the filename within the 'Content-Disposition' header. */
+    private static final String FILENAME_PREFIX = "filename=\"";
 
     public OpenloadMarionette(String downloadUrl,
                               File outputPath,
-                              File driverPath,
-                              boolean ghostMode,
                               VideoDownloadObserver downloadObserver) {
-        super(downloadUrl, outputPath, driverPath, ghostMode, downloadObserver);
+        super(downloadUrl, outputPath, downloadObserver);
     }
 
     @Override
     public String getVideoLink() {
-        final String cdnLink = getCDNLink();
+        return getStreamLink(getCDNLink());
+    }
 
+    /**
+     * Resolves the stream link of the video by following the redirect
+     * of its CDN link.
+     * @param cdnLink the cdn link of the video
+     * @return the stream link of the video, or null if the redirect is missing
+     */
+    static String getStreamLink(String cdnLink) {
         Map<String, List<String>> headerFields = HttpRequester
             .head(cdnLink)
             .allowRedirect(false)
             .send()
             .getHeaderFields();
 
-        printHeaderFields(headerFields);
+        if (headerFields == null) {
+            L.error("Can't retrieve header fields of " + cdnLink);
+            return null;
+        }
 
         List<String> directLinks = headerFields.get("Location");
 
@@ -87,7 +102,7 @@ public class OpenloadMarionette extends VideoFileMarionetteDownloader {
             L.verbose("Current content of direct link container is: " + videoElementContent);
             return
                 !videoElementContent.isEmpty() &&
-                !videoElementContent.contains("HERE IS THE LINK");
+                !videoElementContent.contains(DIRECT_LINK_PLACEHOLDER);
         });
 
         WebElement partialCDNLinkContainer = mDriver.findElement(By.id(DIRECT_LINK_CURRENT_CONTAINER_ID));
@@ -95,11 +110,7 @@ public class OpenloadMarionette extends VideoFileMarionetteDownloader {
 
         L.debug("Container of the CDN link found; content is: " + partialCDNLink);
 
-        String cdnLink = String.format(DIRECT_LINK_CURRENT_TEMPLATE, partialCDNLink);
-
-        mDriver.quit();
-
-        return cdnLink;
+        return String.format(DIRECT_LINK_CURRENT_TEMPLATE, partialCDNLink);
     }
 
     @Override
@@ -115,7 +126,8 @@ public class OpenloadMarionette extends VideoFileMarionetteDownloader {
         // Filename
 
         // e.g. attachment; filename="BlackClover_Ep_03_SUB_ITA.mp4"
-        List<String> contentDispositions = headerFields.get("Content-Disposition");
+        List<String> contentDispositions =
+            headerFields != null ? headerFields.get("Content-Disposition") : null;
 
         if (contentDispositions == null || contentDispositions.size() < 1) {
             L.error("Can't retrieve 'Content-Disposition' header");
@@ -124,12 +136,25 @@ public class OpenloadMarionette extends VideoFileMarionetteDownloader {
 
         String contentDisposition = contentDispositions.get(0);
 
-        videoInfo.title = videoInfo.filename = contentDisposition;
+        int filenameStart = StringUtil.isValid(contentDisposition) ?
+            contentDisposition.indexOf(FILENAME_PREFIX) : -1;
+
+        if (filenameStart < 0) {
+            // The filename is left null, thus it is figured out in some other way
+            L.error("Can't figure out filename from 'Content-Disposition' header: " +
+                contentDisposition);
+            return videoInfo;
+        }
+
+        filenameStart += FILENAME_PREFIX.length();
+
+        int filenameEnd = contentDisposition.indexOf('"', filenameStart);
 
-        if (StringUtil.isValid(contentDisposition))
-            videoInfo.title  = videoInfo.filename =
-                contentDisposition.split("filename=\"")[1].split("\"")[0];
+        if (filenameEnd < 0)
+            filenameEnd = contentDisposition.length();
 
+        videoInfo.title = videoInfo.filename =
+            contentDisposition.substring(filenameStart, filenameEnd);
 
         return videoInfo;
     }
@@ -0,0 +1,64 @@
+package org.docheinstein.animedownloader.downloader.streamango;
+
+import org.docheinstein.animedownloader.downloader.base.HttpVideoLinkResolver;
+import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.util.regex.Pattern;
+
+/**
+ * Specific resolver able to figure out the direct link of the videos of
+ * "https://streamango.com" without a browser.
+ * <p>
+ * The direct link is looked for within the video element and the sources
+ * declared by the page; if the page obfuscates them, the video can't be
+ * resolved this way and {@link StreamangoMarionette} has to be used.
+ */
+public class StreamangoHttpResolver extends HttpVideoLinkResolver {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(StreamangoHttpResolver.class);
+
+    /** Pattern of the 'src' of the video element. */
+    private static final Pattern VIDEO_SRC_PATTERN = Pattern.compile(
+        "<video[^>]*\\sid=[\"']" + StreamangoMarionette.DIRECT_LINK_CONTAINER_ID +
+            "[\"'][^>]*\\ssrc=[\"']([^\"']+)[\"']");
+
+    /** Pattern of a plain mp4 source declared by the scripts of the page. */
+    private static final Pattern SCRIPT_SRC_PATTERN = Pattern.compile(
+        "src\\s*:\\s*[\"']((?:https?:)?//[^\"']+\\.mp4[^\"']*)[\"']");
+
+    /** Pattern of the 'og:title' meta of the page. */
+    private static final Pattern OG_TITLE_PATTERN = Pattern.compile(
+        "<meta[^>]*name=[\"']og:title[\"'][^>]*content=[\"']([^\"']+)[\"']");
+
+    /** Pattern of the title element of the page. */
+    private static final Pattern PAGE_TITLE_PATTERN = Pattern.compile(
+        "class=[\"'][^\"']*page-title[^\"']*[\"'][^>]*>([^<]+)<");
+
+    @Override
+    protected DownloadableVideoInfo resolveFromPage(String pageUrl, String page) {
+        String directLink = findFirst(page, VIDEO_SRC_PATTERN);
+
+        if (directLink == null)
+            directLink = findFirst(page, SCRIPT_SRC_PATTERN);
+
+        if (directLink == null) {
+            L.debug("Direct link is not within the static page");
+            return null;
+        }
+
+        DownloadableVideoInfo videoInfo = new DownloadableVideoInfo();
+        videoInfo.directLink = StreamangoMarionette.normalizeDirectLink(directLink);
+
+        String title = findFirst(page, PAGE_TITLE_PATTERN);
+        if (title == null)
+            title = findFirst(page, OG_TITLE_PATTERN);
+
+        videoInfo.title = videoInfo.filename = title;
+
+        L.debug("Direct link found within the static page: " + videoInfo.directLink);
+
+        return videoInfo;
+    }
+}
@@ -21,14 +21,15 @@ public class StreamangoMarionette extends VideoFileMarionetteDownloader {
     private static final DocLogger L =
         DocLogger.createForClass(StreamangoMarionette.class);
 
-    private static final String DIRECT_LINK_CONTAINER_ID = "mgvideo_html5_api";
+    static final String DIRECT_LINK_CONTAINER_ID = "mgvideo_html5_api";
+
+    /** Title of the page, read together with the direct link. */
+    private String mPageTitle;
 
     public StreamangoMarionette(String downloadUrl,
                                 File outputPath,
-                                File driverPath,
-                                boolean ghostMode,
                                 VideoDownloadObserver downloadObserver) {
-        super(downloadUrl, outputPath, driverPath, ghostMode, downloadObserver);
+        super(downloadUrl, outputPath, downloadObserver);
     }
 
     // <meta name="og:url" content="https://streamango.com/f/eakfkcppkkrlsost/My_Hero_Academia_01_HD_ITA_mp4">
@@ -52,11 +53,11 @@ public class StreamangoMarionette extends VideoFileMarionetteDownloader {
         WebElement directLinkContainer = mDriver.findElement(By.id(DIRECT_LINK_CONTAINER_ID));
         String directLinkContent = directLinkContainer.getAttribute("src");
 
-        String normalizedDirectLink =
-            directLinkContent.startsWith("https://") ?
-                directLinkContent :
-                "https://" + directLinkContent;
+        String normalizedDirectLink = normalizeDirectLink(directLinkContent);
 
+        // Read now, since the info could be retrieved without the driver
+        mPageTitle = mDriver.findElement(
+            By.className("page-title")).getAttribute("textContent");
 
         L.debug("Container of the direct link found; (normalized) 'src' is: " + normalizedDirectLink);
 
@@ -73,16 +74,26 @@ public class StreamangoMarionette extends VideoFileMarionetteDownloader {
 
         // Filename & Title
 
-        String videoTitle = mDriver.findElement(
-            By.className("page-title")).getAttribute("textContent");
-
-        if (StringUtil.isValid(videoTitle)) {
-            videoInfo.filename = videoInfo.title = videoTitle.trim();
+        if (StringUtil.isValid(mPageTitle)) {
+            videoInfo.filename = videoInfo.title = mPageTitle.trim();
         }
 
-        mDriver.quit();
-
         return videoInfo;
     }
+
+    /**
+     * Returns the given 'src' of the video as an absolute https link.
+     * @param src the 'src' of the video
+     * @return the normalized direct link
+     */
+    static String normalizeDirectLink(String src) {
+        if (src.startsWith("https://"))
+            return src;
+        if (src.startsWith("http://"))
+            return "https://" + src.substring("http://".length());
+        if (src.startsWith("//"))
+            return "https:" + src;
+        return "https://" + src;
+    }
 }
 
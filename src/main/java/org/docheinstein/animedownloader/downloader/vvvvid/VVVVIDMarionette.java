@@ -1,25 +1,26 @@
 package org.docheinstein.animedownloader.downloader.vvvvid;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.downloader.base.AdaptiveConcurrency;
+import org.docheinstein.animedownloader.downloader.base.BandwidthLimiter;
 import org.docheinstein.animedownloader.downloader.base.ChromeMarionetteDownloader;
+import org.docheinstein.animedownloader.downloader.base.FFmpegRemuxer;
+import org.docheinstein.animedownloader.downloader.base.ParallelSegmentDownloader;
+import org.docheinstein.animedownloader.downloader.base.PerformanceLogScanner;
+import org.docheinstein.animedownloader.downloader.base.SegmentFileSink;
+import org.docheinstein.animedownloader.downloader.base.SegmentManifest;
 import org.docheinstein.animedownloader.downloader.base.VideoDownloadObserver;
+import org.docheinstein.animedownloader.metrics.Metrics;
 import org.docheinstein.animedownloader.settings.Settings;
-import org.docheinstein.animedownloader.ui.alert.AlertInstance;
 import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+import org.docheinstein.animedownloader.video.ResolutionCache;
+import org.docheinstein.animedownloader.video.VideoProvider;
 import org.docheinstein.commons.file.FileUtil;
-import org.docheinstein.commons.http.HttpDownloader;
 import org.docheinstein.commons.http.HttpRequester;
 import org.docheinstein.commons.logger.DocLogger;
 import org.docheinstein.commons.thread.ThreadUtil;
 import org.docheinstein.commons.types.StringUtil;
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.logging.LogEntries;
-import org.openqa.selenium.logging.LogEntry;
-import org.openqa.selenium.logging.LogType;
 
 import java.io.File;
 import java.io.IOException;
@@ -36,8 +37,29 @@ public class VVVVIDMarionette
     private static final DocLogger L =
         DocLogger.createForTag("{VVVVID_MARIONETTE}");
 
+    /** Fragment of the url of the index file request. */
+    private static final String INDEX_URL_FRAGMENT = "index";
+
+    /** Maximum time spent waiting for the player, reloads included. */
+    private static final long READINESS_BUDGET_MILLIS = 120 * 1000;
+
+    /** Period of the checks of the player readiness. */
+    private static final int READINESS_POLL_MILLIS = 250;
+
+    /** Time after which a page whose player is not ready is reloaded. */
+    private static final long INITIAL_RELOAD_TIMEOUT_MILLIS = 8000;
+
+    /** Growth of the reload timeout after each reload. */
+    private static final double RELOAD_TIMEOUT_FACTOR = 1.15;
+
     /** Whether download is enabled. */
-    private boolean mDownloadEnabled;
+    private volatile boolean mDownloadEnabled;
+
+    /** Scanner of the network log for the index file request. */
+    private PerformanceLogScanner mIndexScanner;
+
+    /** Underlying downloader of the segments. */
+    private ParallelSegmentDownloader mSegmentDownloader;
 
     /** Video info container. */
     private DownloadableVideoInfo mVideoInfo;
@@ -50,10 +72,8 @@ public class VVVVIDMarionette
 
     public VVVVIDMarionette(String downloadUrl,
                             File outputPath,
-                            File driverPath,
-                            boolean ghost,
                             VideoDownloadObserver downloadObserver) {
-        super(downloadUrl, outputPath, driverPath, ghost, downloadObserver);
+        super(downloadUrl, outputPath, downloadObserver);
     }
 
     @Override
@@ -62,56 +82,77 @@ public class VVVVIDMarionette
 
         initMarionette();
 
+        if (!StringUtil.isValid(mVideoInfo.directLink)) {
+            L.error("Index link is unknown; giving up");
+            notifyAbortedToObserver();
+            return;
+        }
+
         String indexContent = getIndexContent(mVideoInfo.directLink);
 
         if (!StringUtil.isValid(indexContent)) {
             L.error("Index content is invalid; giving up");
+            notifyAbortedToObserver();
             return;
         }
 
         List<String> segmentLinks = getSegmentsFromIndexContent(indexContent);
 
-        if (!StringUtil.isValid(indexContent)) {
+        if (segmentLinks.isEmpty()) {
             L.error("Can't figure out valid segment links from index file; giving up");
+            notifyAbortedToObserver();
             return;
         }
 
-        File temporarySegmentsFolder =
-            new File(Config.Folders.TMP, String.valueOf(System.currentTimeMillis()));
+        File outputFile = new File(getOutputFolder(), mVideoInfo.filename + ".mp4");
 
-        if (!FileUtil.ensureFolderExistence(temporarySegmentsFolder)) {
-            L.warn("Temporary folder can't be created");
-            return;
-        }
+        // A partial download can be resumed only into the merge file
+        boolean resumable = SegmentManifest.exists(getMergeFile());
 
-        if (doDownload(segmentLinks, temporarySegmentsFolder)) {
-            String mergeFileName = mVideoInfo.filename + ".ts";
+        boolean streaming = Settings.instance().getFFmpegStreamingSetting().getValue();
 
-            File mergeFile = new File(temporarySegmentsFolder, mergeFileName);
+        if (resumable && streaming)
+            L.info("Resuming the partial download instead of streaming to ffmpeg");
 
-            joinSegments(mergeFile, temporarySegmentsFolder);
+        FFmpegRemuxer remuxer = null;
 
-            String outFileName = mVideoInfo.filename + ".mp4";
+        if (!resumable && streaming) {
+            remuxer = new FFmpegRemuxer(outputFile);
 
-            convertToMP4(mergeFile, new File(mDownloadFolder, outFileName));
+            try {
+                remuxer.start();
+            } catch (IOException e) {
+                L.warn("ffmpeg can't be started; falling back to " +
+                    "conversion after the download", e);
+                remuxer = null;
+            }
         }
 
-        // Clean up temporary folder
-        L.debug("Removing temporary folder (" + temporarySegmentsFolder + ")");
-        FileUtil.deleteRecursive(temporarySegmentsFolder);
+        downloadAndConvert(segmentLinks, outputFile, remuxer);
     }
 
     @Override
     public void abortDownload() {
-        if (mObserver != null)
-            mObserver.onVideoDownloadAborted();
+        notifyAbortedToObserver();
 
         mDownloadEnabled = false;
-        mDownloadedBytes = 0;
-        mSegmentIncrementalNumber = 1;
+
+        if (mSegmentDownloader != null)
+            mSegmentDownloader.enableDownload(false);
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The segments are always recorded in the merge file and its manifest,
+     * even while streaming to ffmpeg, thus the download can be resumed.
+     */
+    @Override
+    public boolean isResumable() {
+        return true;
+    }
+
     @Override
     public DownloadableVideoInfo retrieveVideoInfo() {
         initMarionette();
@@ -127,192 +168,173 @@ public class VVVVIDMarionette
      * Initializes the underlying driver and actually retrieved the video info
      * without starting the download.
      * <p>
+     * The index file link is taken from the {@link ResolutionCache} if it
+     * is still valid, without using the driver at all.
+     * <p>
      * This method is thread-safe.
      */
     private synchronized void initMarionette() {
+        if (mVideoInfo == null)
+            mVideoInfo = ResolutionCache.instance().get(mDownloadUrl);
+
         if (mVideoInfo == null) {
+            long resolutionStart = System.nanoTime();
+
             if (!isInitialized())
                 initDriver();
 
-            mDriver.get(mDownloadUrl);
-
-            skipAds();
-
-            mVideoInfo = new DownloadableVideoInfo();
-
-            mVideoInfo.title = mDriver.findElement(
-                By.className("player-info-show")).getText();
-
-            L.debug("Retrieved title is: " + mVideoInfo.title);
-
-            L.debug("Current page is: " + mDriver.getPageSource());
-
-            if (!StringUtil.isValid(mVideoInfo.title))
-                mVideoInfo.title = String.valueOf(System.currentTimeMillis() / 1000);
-
-            // Replaces bad characters with _
-            mVideoInfo.filename = mVideoInfo.title.replaceAll("\\W+", "_");
-
-            // Retrieves index file link and use it as direct link
-            String directLink =  getIndexFileLink();
-
-            if (!StringUtil.isValid(directLink)) {
-                L.error("Index link can't be retrieved from network logs; error will occur");
-                mDriver.quit();
-                return;
+            try {
+                mVideoInfo = retrieveVideoInfoFromPage();
+            } finally {
+                releaseDriver();
             }
 
-            String normalizedindexLink = directLink.replaceFirst("\\?null=0", "");
-            L.debug("Going to retrieve content of index file from " + normalizedindexLink);
-
-            mVideoInfo.directLink = normalizedindexLink;
+            Metrics.instance().timer(
+                Metrics.forProvider("resolution.browser", VideoProvider.VVVVID))
+                .recordMillisSince(resolutionStart);
 
-            mDriver.quit();
+            ResolutionCache.instance().put(mDownloadUrl, mVideoInfo);
         } else {
             L.debug("Skipping marionette initialization since video info is not null");
+            Metrics.instance().counter(
+                Metrics.forProvider("resolution.cache_hits", VideoProvider.VVVVID)).increment();
         }
 
     }
 
-
     /**
-     * Passes the robot check by clicking on the #apCheckContainer element.
+     * Loads the video page and retrieves the video info from it; the
+     * direct link is the link of the index file of the segments.
+     * @return the video info, with a null direct link if the index file
+     *         can't be found
      */
-    private void passRobotCheck() {
-        L.debug("Trying to pass robot check");
-
-        WebElement robotChecker = mDriver.findElement(By.id("apCheckContainer"));
-        if (robotChecker != null) {
-            L.debug("Clicking on #apCheckContainer");
-            robotChecker.click();
-        }
-        else {
-            L.debug("Allright, VVVVID doesn't think we're a robot");
-        }
-    }
+    private DownloadableVideoInfo retrieveVideoInfoFromPage() {
+        mIndexScanner = new PerformanceLogScanner(INDEX_URL_FRAGMENT);
 
-    /**
-     * Reloads the page until no ad is loaded and thus the video is loaded.
-     * <p>
-     * Another option would be wait for the ad to finish, but reload is actually
-     * faster.
-     */
-    private void skipAds() {
-        L.debug("Going to skip VVVVID ads");
+        mDriver.get(mDownloadUrl);
 
-        final int MAX_ATTEMPTS = 20;
+        DownloadableVideoInfo videoInfo = new DownloadableVideoInfo();
 
-        int estimatedLoadMillis = 5000;
+        if (!waitForPlayer()) {
+            L.error("Player is not ready; the index link can't be retrieved");
+            return videoInfo;
+        }
 
-        // Increase the estimated load time after each attempt
+        videoInfo.title = mDriver.findElement(
+            By.className("player-info-show")).getText();
 
-        for (int attemptCount = 1; attemptCount <= MAX_ATTEMPTS; attemptCount++) {
-            L.debug("Loading attempt [" + attemptCount + "] - sleeping for " + estimatedLoadMillis);
+        L.debug("Retrieved title is: " + videoInfo.title);
 
-            ThreadUtil.sleep(estimatedLoadMillis);
+        L.debug("Current page is: " + mDriver.getPageSource());
 
-            passRobotCheck();
+        if (!StringUtil.isValid(videoInfo.title))
+            videoInfo.title = String.valueOf(System.currentTimeMillis() / 1000);
 
-            L.debug("Sleeping again after robot check for " + estimatedLoadMillis);
+        // Replaces bad characters with _
+        videoInfo.filename = videoInfo.title.replaceAll("\\W+", "_");
 
-            ThreadUtil.sleep(estimatedLoadMillis);
+        // Retrieves index file link and use it as direct link
+        String directLink =  getIndexFileLink();
 
-            WebElement playerInfoShow = null;
-            try {
-                playerInfoShow = mDriver.findElement(By.className("player-info-show"));
-            }
-            catch (Exception e) {
-            }
+        if (!StringUtil.isValid(directLink)) {
+            L.error("Index link can't be retrieved from network logs; error will occur");
+            return videoInfo;
+        }
 
-            // The last refresh didn't lead to ads
-            if (playerInfoShow != null) {
-                L.debug("Element 'player-info-show' can't be retrieved => ads skipped");
-                return; // Ads skipped
-            }
+        String normalizedindexLink = directLink.replaceFirst("\\?null=0", "");
+        L.debug("Going to retrieve content of index file from " + normalizedindexLink);
 
-            L.debug("There are ads, refreshing now for skip those");
-            mDriver.navigate().refresh();
+        videoInfo.directLink = normalizedindexLink;
 
-            estimatedLoadMillis = (int) (estimatedLoadMillis * 1.15);
-            // 1.15 Seems a decent factor
-            // After 20 iterations from 5000ms it goes to 81832ms (5000 * 1.15^20).
-        }
+        return videoInfo;
     }
 
+
     /**
-     * Returns the link of the index file which contains the url of every
-     * segment that compose the video.
-     * @return the url of the segments index file
+     * Passes the robot check by clicking on the #apCheckContainer element,
+     * if it is shown.
+     * @return whether the robot check has been clicked
      */
-    private String getIndexFileLink() {
-        L.debug("Seeking for index file url");
-        LogEntries logEntries = mDriver.manage().logs().get(LogType.PERFORMANCE);
-        Gson gson = new Gson();
-
-        L.verbose("Printing log entries");
-
-        for (LogEntry logEntry : logEntries) {
-            L.verbose(logEntry.getMessage());
-
-            JsonObject logEntryJson;
-
-            try {
-                logEntryJson = gson.fromJson(
-                    logEntry.getMessage(), JsonObject.class);
-            } catch (Exception e) {
-                L.verbose("Can't cast log entry to valid json object");
-                continue;
-            }
-
-            if (logEntryJson == null) {
-                L.verbose("Can't cast log entry to valid json object");
-                continue;
-            }
-
-            JsonObject messageJson = logEntryJson.getAsJsonObject("message");
-
-            if (messageJson == null) {
-                L.verbose("Log entry doesn't have a 'message' field");
-                continue;
-            }
-
-            JsonObject paramsJson = messageJson.getAsJsonObject("params");
-
-            if (paramsJson == null) {
-                L.verbose("Log entry doesn't have a 'params' field");
-                continue;
+    private boolean passRobotCheck() {
+        List<WebElement> robotCheckers = mDriver.findElements(By.id("apCheckContainer"));
+
+        for (WebElement robotChecker : robotCheckers) {
+            if (robotChecker.isDisplayed()) {
+                L.debug("Clicking on #apCheckContainer");
+                robotChecker.click();
+                return true;
             }
+        }
 
-            JsonObject requestJson = paramsJson.getAsJsonObject("request");
+        return false;
+    }
 
-            if (requestJson == null) {
-                L.verbose("Log entry doesn't have a 'request' field");
-                continue;
+    /**
+     * Waits until the video player is ready, i.e. the element
+     * 'player-info-show' is present and the index file has been requested.
+     * <p>
+     * The page is polled with a short period, so that a clean page is detected
+     * as soon as it is ready; if the player is not ready within the reload
+     * timeout an ad is probably playing and the page is reloaded, since
+     * reload is actually faster than wait for the ad to finish.
+     * @return whether the player is ready within the readiness budget
+     */
+    private boolean waitForPlayer() {
+        L.debug("Waiting for VVVVID player, skipping ads if needed");
+
+        long startMillis = System.currentTimeMillis();
+        long deadlineMillis = startMillis + READINESS_BUDGET_MILLIS;
+        long loadStartMillis = startMillis;
+        long reloadTimeoutMillis = INITIAL_RELOAD_TIMEOUT_MILLIS;
+        boolean robotCheckPassed = false;
+        int reloads = 0;
+
+        long nowMillis;
+
+        while ((nowMillis = System.currentTimeMillis()) < deadlineMillis) {
+            if (!robotCheckPassed)
+                robotCheckPassed = passRobotCheck();
+
+            boolean playerShown =
+                !mDriver.findElements(By.className("player-info-show")).isEmpty();
+            boolean indexRequested = mIndexScanner.poll(mDriver) != null;
+
+            if (playerShown && indexRequested) {
+                L.debug("Player is ready after " + (nowMillis - startMillis) + "ms " +
+                    "and " + reloads + " reloads");
+                return true;
             }
 
-            JsonElement urlJson = requestJson.get("url");
-
-            if (urlJson == null) {
-                L.verbose("Log entry doesn't have a 'url' field");
-                continue;
-            }
+            if (nowMillis - loadStartMillis > reloadTimeoutMillis) {
+                L.debug("Player not ready within " + reloadTimeoutMillis + "ms " +
+                    "(player shown: " + playerShown + ", index requested: " + indexRequested + "); " +
+                    "there are probably ads, refreshing now for skip those");
 
-            String urlString = urlJson.getAsString();
+                mDriver.navigate().refresh();
 
-            if (!StringUtil.isValid(urlString)) {
-                L.verbose("Log entry doesn't have a valid 'url' field");
+                reloads++;
+                loadStartMillis = System.currentTimeMillis();
+                robotCheckPassed = false;
+                // Slower connections need more time for load the page
+                reloadTimeoutMillis = (long) (reloadTimeoutMillis * RELOAD_TIMEOUT_FACTOR);
                 continue;
             }
 
-            L.verbose("Found entry with url field. Value is: " + urlString);
-
-            if (urlString.contains("index")) {
-                L.debug("Found index url in logs: " + urlString);
-                return urlString;
-            }
+            ThreadUtil.sleep(READINESS_POLL_MILLIS);
         }
 
-        return null;
+        L.warn("Player not ready within " + READINESS_BUDGET_MILLIS + "ms");
+        return false;
+    }
+
+    /**
+     * Returns the link of the index file which contains the url of every
+     * segment that compose the video.
+     * @return the url of the segments index file
+     */
+    private String getIndexFileLink() {
+        L.debug("Seeking for index file url");
+        return mIndexScanner.poll(mDriver);
     }
 
     /**
@@ -340,10 +362,7 @@ public class VVVVIDMarionette
      * @param indexContent the content of the index file to parse
      * @return the segments of the vide
      */
-    private List<String> getSegmentsFromIndexContent(String indexContent) {
-        if (!mDownloadEnabled)
-            return null;
-
+    static List<String> getSegmentsFromIndexContent(String indexContent) {
         L.debug("Reading segments from index file");
         List<String> segments = new ArrayList<>();
 
@@ -360,77 +379,196 @@ public class VVVVIDMarionette
     }
 
     /**
-     * Actually starts the download of the segments
+     * Downloads the segments into a single .ts file and converts it
+     * to MP4 once the download is finished.
+     * <p>
+     * The progress is recorded in a {@link SegmentManifest}, thus if the
+     * download is aborted or the application crashes the .ts file is kept
+     * and only the missing segments are downloaded the next time.
+     * <p>
+     * If a remuxer is given, the segments are piped into ffmpeg as well, so
+     * that the remux to MP4 is done while the video is downloaded; if ffmpeg
+     * fails the download goes on into the .ts file only, which is converted
+     * once finished.
      * @param segmentLinks the segments link
-     * @param segmentsFolder the output folder for the segment
-     * @return whether the download has been completed successfully
+     * @param outputFile the output .mp4 file
+     * @param remuxer the already started remuxer, or null
      */
-    private boolean doDownload(List<String> segmentLinks, File segmentsFolder) {
-        if (!mDownloadEnabled)
-            return false;
+    private void downloadAndConvert(List<String> segmentLinks,
+                                    File outputFile,
+                                    FFmpegRemuxer remuxer) {
+        // The segments are appended directly to the .ts file while they
+        // are downloaded
+        File mergeFile = getMergeFile();
 
-        int segmentCount = segmentLinks.size();
+        SegmentManifest manifest;
 
-        L.debug("Downloading " + segmentCount + " segments");
+        try {
+            manifest = SegmentManifest.open(mergeFile, segmentLinks);
+        } catch (IOException e) {
+            L.error("Merge file can't be prepared", e);
+            if (remuxer != null)
+                remuxer.abort();
+            notifyAbortedToObserver();
+            return;
+        }
 
-        mSegmentIncrementalNumber = 1;
+        RemuxingConsumer remuxingConsumer = null;
+        boolean downloaded;
 
-        if (mObserver != null)
-            mObserver.onVideoDownloadStarted();
+        try (SegmentFileSink sink = new SegmentFileSink(mergeFile, manifest)) {
+            ParallelSegmentDownloader.SegmentConsumer consumer = sink;
 
-        for (String segmentLink : segmentLinks) {
+            if (remuxer != null) {
+                L.debug("Remuxing to MP4 while downloading");
+                consumer = remuxingConsumer = new RemuxingConsumer(sink, remuxer);
+            }
 
-            if (!mDownloadEnabled) {
-                L.debug("Download has been aborted");
-                return false;
-                // Does not fire onVideoDownloadFinished()
+            downloaded = doDownload(
+                segmentLinks,
+                manifest.getCompletedSegments(),
+                manifest.getCompletedBytes(),
+                consumer
+            );
+        } catch (IOException e) {
+            L.error("Merge file can't be written", e);
+            notifyAbortedToObserver();
+            downloaded = false;
+        }
+
+        if (!downloaded) {
+            if (remuxer != null)
+                remuxer.abort();
+
+            L.debug("Keeping incomplete merge file for resume the download (" + mergeFile + ")");
+            closeManifest(manifest);
+            return;
+        }
+
+        boolean converted;
+
+        if (remuxingConsumer != null && remuxingConsumer.isRemuxing() && remuxer.waitFor()) {
+            converted = true;
+        } else {
+            if (remuxer != null) {
+                L.warn("Conversion failed while streaming to ffmpeg; " +
+                    "converting the merge file instead");
+                remuxer.abort();
             }
 
-            L.debug("Downloading segment: " + segmentLink);
-            String segmentFilename =
-                String.format("%05d", mSegmentIncrementalNumber) + ".ts";
+            converted = convertToMP4(mergeFile, outputFile);
+        }
 
-            try {
-                File segmentOutputFile  = new File(segmentsFolder, segmentFilename);
+        if (converted) {
+            L.debug("Removing merge file (" + mergeFile + ")");
+            FileUtil.delete(mergeFile);
+            manifest.delete();
+        } else {
+            // The complete merge file will be converted again the next time
+            L.warn("Merge file is kept since conversion failed (" + mergeFile + ")");
+            closeManifest(manifest);
+        }
+    }
 
-                boolean downloaded = new HttpDownloader().download(
-                    segmentLink,
-                    segmentOutputFile.getAbsolutePath()
-                );
+    /**
+     * Returns the .ts file the segments are appended to; it is hidden and
+     * marked as partial, since it is not the video the user asked for.
+     * @return the merge file
+     */
+    private File getMergeFile() {
+        return new File(getOutputFolder(), "." + mVideoInfo.filename + ".ts.part");
+    }
 
-                if (downloaded) {
-                    long curMillis = System.currentTimeMillis();
+    /**
+     * Returns the folder the video is downloaded to.
+     * @return the download folder, or the current directory if the
+     *         download folder doesn't exist
+     */
+    private File getOutputFolder() {
+        if (FileUtil.exists(mDownloadFolder))
+            return mDownloadFolder;
 
-                    mDownloadedBytes += segmentOutputFile.length();
+        // Save in current directory as B plan
+        L.warn("Download folder doesn't exist, using the current directory");
+        return new File(".");
+    }
 
-                    int remainingSegmentCount = segmentCount - mSegmentIncrementalNumber;
+    private void closeManifest(SegmentManifest manifest) {
+        try {
+            manifest.close();
+        } catch (IOException e) {
+            L.warn("Manifest of the merge file can't be closed", e);
+        }
+    }
 
-                    L.verbose("Downloaded segment is " + segmentOutputFile.length() + " bytes");
-                    L.verbose("Already downloaded bytes are so " + mDownloadedBytes);
-                    long estimatedVideoSize =
-                        remainingSegmentCount * (mDownloadedBytes / mSegmentIncrementalNumber)
-                            + mDownloadedBytes;
+    /**
+     * Actually starts the download of the segments
+     * @param segmentLinks the segments link
+     * @param firstSegment the index of the first segment to download, the
+     *                     previous ones have been downloaded already
+     * @param resumedBytes the amount of bytes of the previous segments
+     * @param consumer the consumer of the segments, in playlist order
+     * @return whether the download has been completed successfully
+     */
+    private boolean doDownload(List<String> segmentLinks,
+                               int firstSegment,
+                               long resumedBytes,
+                               ParallelSegmentDownloader.SegmentConsumer consumer) {
+        if (!mDownloadEnabled)
+            return false;
 
-                    L.verbose("Estimated video size: " + estimatedVideoSize);
+        int segmentCount = segmentLinks.size();
 
-                    mVideoInfo.size = estimatedVideoSize;
+        int connections = Settings.instance().getDownloadConnectionsSetting().getValue();
 
-                    notifySizeToObserver(mVideoInfo);
+        L.debug("Downloading " + (segmentCount - firstSegment) + " of " + segmentCount +
+            " segments using " + connections + " connections");
 
-                    if (mObserver != null)
-                        mObserver.onVideoDownloadProgress(mDownloadedBytes, curMillis);
-                } else {
-                    L.error("Segment download has failed, something bad will happen");
-                }
+        mDownloadedBytes = resumedBytes;
+        mSegmentIncrementalNumber = firstSegment + 1;
+
+        if (mObserver != null)
+            mObserver.onVideoDownloadStarted(mDownloadedBytes);
+
+        long downloadStart = System.nanoTime();
+
+        if (firstSegment < segmentCount) {
+            // The segments requested at the same time adapt to the
+            // measured goodput, up to the connections setting
+            AdaptiveConcurrency concurrency = new AdaptiveConcurrency(
+                VideoProvider.VVVVID,
+                connections,
+                this::notifyConcurrencyToObserver
+            );
 
+            mSegmentDownloader = new ParallelSegmentDownloader(
+                segmentLinks.subList(firstSegment, segmentCount),
+                BandwidthLimiter.instance().newThrottle(VideoProvider.VVVVID),
+                concurrency
+            );
+
+            try {
+                boolean downloaded = mSegmentDownloader.download((index, segment) -> {
+                    // Segments are handed out in playlist order
+                    consumer.onSegmentDownloaded(firstSegment + index, segment);
+                    onSegmentDownloaded(segment.length, segmentCount);
+                });
+
+                if (!downloaded) {
+                    L.debug("Download has been aborted");
+                    return false;
+                    // Does not fire onVideoDownloadFinished()
+                }
             } catch (IOException e) {
-                L.error("Segment download failed!");
+                L.error("Segment download failed!", e);
+                notifyAbortedToObserver();
                 return false;
             }
-
-            mSegmentIncrementalNumber++;
         }
 
+        Metrics.instance().recordDownload(VideoProvider.VVVVID,
+            mDownloadedBytes - resumedBytes, System.nanoTime() - downloadStart);
+
         if (mObserver != null)
             mObserver.onVideoDownloadFinished();
 
@@ -438,70 +576,63 @@ public class VVVVIDMarionette
     }
 
     /**
-     * Joins the segment into the given output file.
-     * <p>
-     * The segments will be joined in alphabetically order
-     * @param outputFile the output file
-     * @param segmentsFolder the folder containing the segment to join
+     * Updates the download statistics after the download of a segment and
+     * notifies the observer about the new estimated size and the progress.
+     * @param segmentBytes the size of the downloaded segment
+     * @param segmentCount the total amount of segments
      */
-    private void joinSegments(File outputFile, File segmentsFolder) {
-        File[] segments = segmentsFolder.listFiles();
+    private void onSegmentDownloaded(long segmentBytes, int segmentCount) {
+        long curMillis = System.currentTimeMillis();
 
-        if (segments == null) {
-            L.warn("No segment to join has been found");
-            return;
-        }
+        mDownloadedBytes += segmentBytes;
+
+        int remainingSegmentCount = segmentCount - mSegmentIncrementalNumber;
+
+        L.verbose("Downloaded segment is " + segmentBytes + " bytes");
+        L.verbose("Already downloaded bytes are so " + mDownloadedBytes);
+        long estimatedVideoSize =
+            remainingSegmentCount * (mDownloadedBytes / mSegmentIncrementalNumber)
+                + mDownloadedBytes;
 
-        Arrays.sort(segments, File::compareTo);
+        L.verbose("Estimated video size: " + estimatedVideoSize);
 
-        L.debug("Joining " + segments.length + " segments into one");
+        mVideoInfo.size = estimatedVideoSize;
 
-        FileUtil.mergeFiles(
-            outputFile,
-            segments
-        );
+        notifySizeToObserver(mVideoInfo);
+
+        if (mObserver != null)
+            mObserver.onVideoDownloadProgress(mDownloadedBytes, curMillis);
+
+        mSegmentIncrementalNumber++;
     }
 
     /**
      * Converts the given .ts input file to an .mp4 output file
      * @param input the .ts file
      * @param output the output .mp4 file
+     * @return whether the conversion has been completed successfully
      */
-    private void convertToMP4(File input, File output) {
-        File ffmpegExecutable = Settings.instance().getFFmpegSettings().getValue();
-        String ffmpegExecutableString =
-            ffmpegExecutable != null ?
-                ffmpegExecutable.getAbsolutePath() :
-                "ffmpeg"; // Search in $PATH
-
-        String[] mergeCommand = new String[] {
-            ffmpegExecutableString,
-            "-y",
-            "-i", input.getAbsolutePath(),
-            "-acodec", "copy",
-            "-vcodec", "copy",
-            output.getAbsolutePath()
-        };
-
+    private boolean convertToMP4(File input, File output) {
         L.debug("Converting " + input.getAbsolutePath() + " to MP4");
-        L.debug("Conversion command: " + String.join(" ", mergeCommand));
 
         boolean conversionOk = false;
 
         try {
             L.debug("Starting conversion...");
-            Runtime.getRuntime().exec(mergeCommand).waitFor();
+            FFmpegRemuxer remuxer = new FFmpegRemuxer(input, output);
+            remuxer.start();
+            conversionOk = remuxer.waitFor();
             L.debug("Conversion finished!");
-
-            if (FileUtil.exists(output))
-                conversionOk = true;
-
-        } catch (InterruptedException | IOException e) {}
+        } catch (IOException e) {
+            L.error("ffmpeg can't be started", e);
+        }
 
         if (!conversionOk) {
             L.error("Conversion failed. Maybe ffmpeg is not available?");
-            AlertInstance.MP4ConversionFailed.show();
+            notifyConversionFailedToObserver();
         }
+
+        return conversionOk;
     }
 
     /**
@@ -514,6 +645,33 @@ public class VVVVIDMarionette
             mObserver.onVideoTitleDetected(videoInfo.title);
     }
 
+    /**
+     * Notifies the observes about the amount of segments requested at
+     * the same time.
+     * @param concurrentSegments the amount of concurrent segment requests
+     */
+    private void notifyConcurrencyToObserver(int concurrentSegments) {
+        if (mObserver != null)
+            mObserver.onVideoDownloadConcurrencyChanged(concurrentSegments);
+    }
+
+    /**
+     * Notifies the observer that the download has been aborted, either by
+     * the user or because of an error.
+     */
+    private void notifyAbortedToObserver() {
+        if (mObserver != null)
+            mObserver.onVideoDownloadAborted();
+    }
+
+    /**
+     * Notifies the observes that the conversion to MP4 has failed.
+     */
+    private void notifyConversionFailedToObserver() {
+        if (mObserver != null)
+            mObserver.onVideoConversionFailed();
+    }
+
     /**
      * Notifies the observes about the new video size.
      * @param videoInfo the size info to notify
@@ -523,4 +681,50 @@ public class VVVVIDMarionette
         if (mObserver != null)
             mObserver.onVideoSizeDetected(videoInfo.size, false);
     }
+
+    /**
+     * Consumer that writes the segments to the merge file and pipes them
+     * into ffmpeg as well, until ffmpeg fails.
+     */
+    private static class RemuxingConsumer
+        implements ParallelSegmentDownloader.SegmentConsumer {
+
+        private final ParallelSegmentDownloader.SegmentConsumer mSink;
+
+        private final FFmpegRemuxer mRemuxer;
+
+        /** Whether the segments are still piped into ffmpeg. */
+        private boolean mRemuxing = true;
+
+        RemuxingConsumer(ParallelSegmentDownloader.SegmentConsumer sink,
+                         FFmpegRemuxer remuxer) {
+            mSink = sink;
+            mRemuxer = remuxer;
+        }
+
+        @Override
+        public void onSegmentDownloaded(int index, byte[] segment) throws IOException {
+            mSink.onSegmentDownloaded(index, segment);
+
+            if (!mRemuxing)
+                return;
+
+            try {
+                mRemuxer.onSegmentDownloaded(index, segment);
+            } catch (IOException e) {
+                // The download goes on, the merge file will be converted
+                L.warn("ffmpeg failed while streaming, going on with the merge file only", e);
+                mRemuxing = false;
+                mRemuxer.abort();
+            }
+        }
+
+        /**
+         * Returns whether every segment has been piped into ffmpeg.
+         * @return whether ffmpeg is still remuxing
+         */
+        boolean isRemuxing() {
+            return mRemuxing;
+        }
+    }
 }
@@ -0,0 +1,179 @@
+package org.docheinstein.animedownloader.executor;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.metrics.Counter;
+import org.docheinstein.animedownloader.metrics.Gauge;
+import org.docheinstein.animedownloader.metrics.Histogram;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded executor of a single {@link Workload}.
+ * <p>
+ * At most {@link Workload#getMaxThreads()} tasks run at the same time
+ * (unless changed by {@link #setMaxThreads(int)}), the others wait in a
+ * FIFO queue; the threads are created on demand and discarded after being
+ * idle for a while. Since the tasks of a long running workload would wait
+ * for long, queueing one of them is reported.
+ * <p>
+ * The executor records its queue depth, the active tasks, the time each
+ * task waits in the queue and the time it runs in the {@link Metrics},
+ * as 'executor.&lt;workload&gt;.*'. A failing task is logged and doesn't
+ * affect the others.
+ */
+public class ManagedExecutor implements Executor {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(ManagedExecutor.class);
+
+    private final Workload mWorkload;
+
+    private final ThreadPoolExecutor mPool;
+
+    private final Counter mSubmitted;
+    private final Gauge mQueueDepth;
+    private final Gauge mActive;
+    private final Histogram mQueueWait;
+    private final Histogram mRunTime;
+
+    /**
+     * Creates an executor for the given workload.
+     * @param workload the workload
+     * @param threadFactory the factory of the threads of the executor
+     */
+    ManagedExecutor(Workload workload, ThreadFactory threadFactory) {
+        mWorkload = workload;
+
+        mPool = new ThreadPoolExecutor(
+            workload.getMaxThreads(),
+            workload.getMaxThreads(),
+            Config.Executors.KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            threadFactory
+        );
+        mPool.allowCoreThreadTimeOut(true);
+
+        String prefix = "executor." + workload.getName();
+        Metrics metrics = Metrics.instance();
+
+        mSubmitted = metrics.counter(prefix + ".submitted");
+        mQueueDepth = metrics.gauge(prefix + ".queue_depth");
+        mActive = metrics.gauge(prefix + ".active");
+        mQueueWait = metrics.timer(prefix + ".queue_wait");
+        mRunTime = metrics.timer(prefix + ".run");
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long submitNanos = System.nanoTime();
+
+        mSubmitted.increment();
+
+        mPool.execute(() -> {
+            mQueueWait.recordMillisSince(submitNanos);
+            updateGauges();
+
+            long startNanos = System.nanoTime();
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                L.error("Error occurred while running " + mWorkload.getName() + " task", e);
+            } finally {
+                mRunTime.recordMillisSince(startNanos);
+                updateGauges();
+            }
+        });
+
+        updateGauges();
+
+        int queueDepth = mPool.getQueue().size();
+
+        if (mWorkload.isLongRunning() && queueDepth > 0)
+            L.warn("Every " + mWorkload.getName() + " thread is busy; " +
+                queueDepth + " tasks wait for a free one");
+    }
+
+    /**
+     * Changes the maximum amount of tasks run at the same time.
+     * @param maxThreads the maximum amount of threads
+     */
+    public synchronized void setMaxThreads(int maxThreads) {
+        if (maxThreads < 1 || maxThreads == mPool.getMaximumPoolSize())
+            return;
+
+        L.debug("Executor " + mWorkload.getName() + " now runs up to " +
+            maxThreads + " tasks");
+
+        // The core size can't exceed the maximum size at any time
+        if (maxThreads > mPool.getMaximumPoolSize()) {
+            mPool.setMaximumPoolSize(maxThreads);
+            mPool.setCorePoolSize(maxThreads);
+        } else {
+            mPool.setCorePoolSize(maxThreads);
+            mPool.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    /**
+     * Returns the amount of tasks waiting for a free thread.
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return mPool.getQueue().size();
+    }
+
+    /**
+     * Stops accepting new tasks; the queued and the running ones go on.
+     */
+    void shutdown() {
+        mPool.shutdown();
+    }
+
+    /**
+     * Stops accepting new tasks, drops the queued ones and interrupts
+     * the running ones, without waiting for them.
+     */
+    void shutdownNow() {
+        int running = mPool.getActiveCount();
+        List<Runnable> dropped = mPool.shutdownNow();
+
+        L.debug("Executor " + mWorkload.getName() + " interrupted " + running +
+            " running tasks and dropped " + dropped.size() + " queued ones");
+    }
+
+    /**
+     * Waits for the running and queued tasks to finish, up to the given
+     * deadline, and interrupts those still running after it.
+     * @param deadlineNanos the deadline, as given by {@link System#nanoTime()}
+     * @return whether every task has finished in time
+     */
+    boolean awaitTermination(long deadlineNanos) {
+        try {
+            if (mPool.awaitTermination(
+                    Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS))
+                return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Runnable> dropped = mPool.shutdownNow();
+        L.warn("Executor " + mWorkload.getName() + " didn't terminate in time; " +
+            "interrupted its tasks and dropped " + dropped.size() + " queued ones");
+
+        return false;
+    }
+
+    private void updateGauges() {
+        mQueueDepth.set(mPool.getQueue().size());
+        mActive.set(mPool.getActiveCount());
+    }
+}
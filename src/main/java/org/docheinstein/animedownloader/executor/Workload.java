@@ -0,0 +1,73 @@
+package org.docheinstein.animedownloader.executor;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+
+/**
+ * Kinds of work performed in background, each one served by its own
+ * bounded {@link ManagedExecutor}.
+ */
+public enum Workload {
+    /** Retrieval of the info of the videos (HTTP or browser). */
+    Resolution("resolution", Config.Executors.RESOLUTION_THREADS),
+
+    /** Downloads of the videos, a task lasts for the whole download. */
+    Transfer("transfer", Config.Executors.TRANSFER_THREADS, true),
+
+    /**
+     * Connections of the downloads that use more than one of them, a task
+     * lasts for the whole download as well.
+     */
+    Connection("connection", Config.Executors.CONNECTION_THREADS, true),
+
+    /**
+     * Work tied to the external processes (e.g. ffmpeg); bounded so that
+     * every transfer can always have its process served.
+     */
+    PostProcessing("post-processing", Config.Executors.POST_PROCESSING_THREADS),
+
+    /** Short tasks on behalf of the UI (e.g. open a folder). */
+    Background("background", Config.Executors.BACKGROUND_THREADS),
+
+    /** Requests of the local control API, event streams included. */
+    ControlApi("control-api", Config.Executors.CONTROL_API_THREADS);
+
+    private final String mName;
+    private final int mMaxThreads;
+    private final boolean mLongRunning;
+
+    Workload(String name, int maxThreads) {
+        this(name, maxThreads, false);
+    }
+
+    Workload(String name, int maxThreads, boolean longRunning) {
+        mName = name;
+        mMaxThreads = maxThreads;
+        mLongRunning = longRunning;
+    }
+
+    /**
+     * Returns the name of the workload, used for name its threads and metrics.
+     * @return the name of the workload
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the maximum amount of tasks of this workload run at the same time.
+     * @return the maximum amount of threads
+     */
+    public int getMaxThreads() {
+        return mMaxThreads;
+    }
+
+    /**
+     * Returns whether the tasks of this workload last for long (e.g. a whole
+     * download): a queued task would wait for long, and the running ones
+     * are interrupted at shutdown instead of being waited for.
+     * @return whether the tasks are long running
+     */
+    public boolean isLongRunning() {
+        return mLongRunning;
+    }
+}
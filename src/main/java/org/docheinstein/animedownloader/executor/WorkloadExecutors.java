@@ -0,0 +1,163 @@
+package org.docheinstein.animedownloader.executor;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the {@link ManagedExecutor} of each {@link Workload}, which every
+ * background task of the application should be submitted to instead of
+ * spawning its own thread.
+ * <p>
+ * The threads are daemon platform threads named after their workload
+ * (e.g. 'transfer-3'). If the JVM supports virtual threads (Java 21+) they
+ * can be used instead by setting the system property
+ * {@link Config.Executors#VIRTUAL_THREADS_PROPERTY} to true; the bounds of
+ * the workloads are kept anyway.
+ * <p>
+ * The executors are shut down at the JVM shutdown, giving the running
+ * tasks {@link Config.Executors#SHUTDOWN_TIMEOUT_SECONDS} for finish; the
+ * tasks of the long running workloads (i.e. the downloads, which can be
+ * resumed) are interrupted straight away instead.
+ */
+public class WorkloadExecutors {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(WorkloadExecutors.class);
+
+    private static final WorkloadExecutors INSTANCE = new WorkloadExecutors();
+
+    private final Map<Workload, ManagedExecutor> mExecutors = new EnumMap<>(Workload.class);
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the instance of this class.
+     */
+    public static WorkloadExecutors instance() {
+        return INSTANCE;
+    }
+
+    private WorkloadExecutors() {
+        boolean virtualThreads = Boolean.getBoolean(Config.Executors.VIRTUAL_THREADS_PROPERTY);
+
+        for (Workload workload : Workload.values()) {
+            ThreadFactory threadFactory = null;
+
+            if (virtualThreads)
+                threadFactory = createVirtualThreadFactory(workload);
+
+            if (threadFactory == null)
+                threadFactory = createPlatformThreadFactory(workload);
+
+            mExecutors.put(workload, new ManagedExecutor(workload, threadFactory));
+        }
+
+        L.debug("Executors created using " +
+            (virtualThreads ? "virtual threads (if supported)" : "platform threads"));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    /**
+     * Returns the executor of the given workload.
+     * @param workload the workload
+     * @return the executor of the workload
+     */
+    public ManagedExecutor get(Workload workload) {
+        return mExecutors.get(workload);
+    }
+
+    /**
+     * Submits a task to the executor of the given workload.
+     * @param workload the workload of the task
+     * @param task the task
+     */
+    public void execute(Workload workload, Runnable task) {
+        get(workload).execute(task);
+    }
+
+    /**
+     * Sizes the executors of the downloads for the given amount of
+     * simultaneous downloads, so that a started download never waits
+     * for a free thread; the executors of the connections and of the
+     * external processes follow.
+     * <p>
+     * The executors are never sized under their default size.
+     * @param transfers the amount of simultaneous downloads
+     * @param connections the amount of connections of each download
+     */
+    public void setTransferThreads(int transfers, int connections) {
+        int transferThreads = Math.max(Workload.Transfer.getMaxThreads(), transfers);
+
+        get(Workload.Transfer).setMaxThreads(transferThreads);
+        get(Workload.Connection).setMaxThreads(Math.max(
+            Workload.Connection.getMaxThreads(), transferThreads * connections));
+        get(Workload.PostProcessing).setMaxThreads(Math.max(
+            Workload.PostProcessing.getMaxThreads(), 2 * transferThreads));
+    }
+
+    /**
+     * Stops accepting new tasks and waits for the current ones to finish,
+     * up to {@link Config.Executors#SHUTDOWN_TIMEOUT_SECONDS}; the tasks of
+     * the long running workloads are interrupted without waiting.
+     */
+    public void shutdown() {
+        L.debug("Shutting down executors");
+
+        for (Map.Entry<Workload, ManagedExecutor> executor : mExecutors.entrySet()) {
+            if (executor.getKey().isLongRunning())
+                executor.getValue().shutdownNow();
+            else
+                executor.getValue().shutdown();
+        }
+
+        long deadline = System.nanoTime() +
+            TimeUnit.SECONDS.toNanos(Config.Executors.SHUTDOWN_TIMEOUT_SECONDS);
+
+        for (Map.Entry<Workload, ManagedExecutor> executor : mExecutors.entrySet()) {
+            if (!executor.getKey().isLongRunning())
+                executor.getValue().awaitTermination(deadline);
+        }
+    }
+
+    private static ThreadFactory createPlatformThreadFactory(Workload workload) {
+        AtomicInteger threadCount = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable,
+                workload.getName() + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Creates a factory of virtual threads through reflection, since the
+     * application targets Java 8.
+     * @param workload the workload
+     * @return the factory, or null if the JVM doesn't support virtual threads
+     */
+    private static ThreadFactory createVirtualThreadFactory(Workload workload) {
+        try {
+            // The methods are looked up on the public Thread.Builder interface,
+            // the builder implementations are not accessible
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            Method factory = builderClass.getMethod("factory");
+
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = name.invoke(builder, workload.getName() + "-", 1L);
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            L.warn("Virtual threads are not supported, using platform threads for " +
+                workload.getName());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.docheinstein.animedownloader.headless;
+
+import org.docheinstein.animedownloader.api.ControlServer;
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.commons.utils.ApplicationUtil;
+import org.docheinstein.animedownloader.core.BatchResolver;
+import org.docheinstein.animedownloader.core.DownloadQueue;
+import org.docheinstein.animedownloader.metrics.StartupTimings;
+import org.docheinstein.animedownloader.settings.Settings;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of the application without UI, e.g. for run it on a server.
+ * <p>
+ * The videos are taken from the arguments, from files and/or from the
+ * standard input and are downloaded with the same strategies and settings
+ * of the UI (the automatic download is implied). The events of the queue
+ * are printed to the standard output as JSON lines (see
+ * {@link JsonEventPrinter}), while the logs are moved to the standard error.
+ * <p>
+ * The launcher exits once every video has been downloaded or aborted,
+ * with status 1 if any video has been aborted in this run, unless it runs
+ * as daemon.
+ */
+public class HeadlessLauncher {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(HeadlessLauncher.class);
+
+    private static final String USAGE =
+        "Usage: HeadlessLauncher [options] [url...]\n" +
+        "  -f, --file <path>   reads the urls from the file, one for each line\n" +
+        "  -                   reads the urls from the standard input, as they come\n" +
+        "  --no-restore        doesn't restore the videos of the previous session\n" +
+        "  --daemon            keeps running once every video has been downloaded\n" +
+        "  --api-port <port>   serves the control API on the localhost port (0 for disabled),\n" +
+        "                      instead of the one of the settings\n" +
+        "  -h, --help          prints this help";
+
+    /** Exit status for wrong arguments. */
+    private static final int EXIT_USAGE = 2;
+
+    /** Urls given by arguments and files. */
+    private final List<String> mUrls = new ArrayList<>();
+
+    private boolean mReadStdin = false;
+    private boolean mRestore = true;
+    private boolean mDaemon = false;
+
+    /** Port of the control API, or null for the one of the settings. */
+    private Integer mApiPort = null;
+
+    /** Whether the standard input is still being read. */
+    private volatile boolean mReadingStdin = false;
+
+    public static void main(String[] args) {
+        // The standard output is reserved to the events
+        PrintStream events = System.out;
+        System.setOut(System.err);
+
+        HeadlessLauncher launcher = new HeadlessLauncher();
+
+        try {
+            if (!launcher.parseArgs(args)) {
+                System.err.println(USAGE);
+                System.exit(0);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(EXIT_USAGE);
+        }
+
+        System.exit(launcher.run(events));
+    }
+
+    /**
+     * Parses the command line arguments.
+     * @param args the arguments
+     * @return false if only the help has been requested
+     * @throws IllegalArgumentException if the arguments are not valid
+     * @throws IOException if a file of urls can't be read
+     */
+    private boolean parseArgs(String[] args) throws IOException {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            switch (arg) {
+            case "-h":
+            case "--help":
+                return false;
+            case "-f":
+            case "--file":
+                if (++i >= args.length)
+                    throw new IllegalArgumentException("Missing path after " + arg);
+                mUrls.addAll(BatchResolver.parseUrls(new String(
+                    Files.readAllBytes(Paths.get(args[i])), StandardCharsets.UTF_8)));
+                break;
+            case "-":
+                mReadStdin = true;
+                break;
+            case "--no-restore":
+                mRestore = false;
+                break;
+            case "--daemon":
+                mDaemon = true;
+                break;
+            case "--api-port":
+                if (++i >= args.length)
+                    throw new IllegalArgumentException("Missing port after " + arg);
+                try {
+                    mApiPort = Integer.parseInt(args[i]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid port: " + args[i]);
+                }
+                break;
+            default:
+                if (arg.startsWith("-"))
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                mUrls.add(arg);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Downloads the videos until the queue is drained (or forever, as daemon).
+     * @param events the stream the events are printed to
+     * @return the exit status
+     */
+    private int run(PrintStream events) {
+        ApplicationUtil.init();
+
+        JsonEventPrinter printer = new JsonEventPrinter(events);
+        DownloadQueue queue = new DownloadQueue(printer, true);
+
+        printer.printReady(System.currentTimeMillis() -
+            ManagementFactory.getRuntimeMXBean().getStartTime());
+
+        if (mRestore)
+            StartupTimings.instance().critical("queue", queue::load);
+
+        StartupTimings.instance().ready();
+
+        queue.add(mUrls);
+        queue.reschedule();
+
+        if (mReadStdin)
+            startReadingStdin(queue);
+
+        startControlServer(queue);
+
+        while (mDaemon || mReadingStdin || !queue.isDrained()) {
+            try {
+                Thread.sleep(Config.Headless.PROGRESS_PERIOD_MILLIS);
+            } catch (InterruptedException e) {
+                L.warn("Interrupted while waiting for the downloads");
+                break;
+            }
+
+            printer.printProgress(queue.getDownloads());
+        }
+
+        printer.printDone();
+
+        return printer.getAbortedCount() > 0 ? 1 : 0;
+    }
+
+    /**
+     * Starts the control API for the queue, if enabled.
+     * @param queue the queue
+     */
+    private void startControlServer(DownloadQueue queue) {
+        int port = mApiPort != null ?
+            mApiPort :
+            Settings.instance().getControlApiPortSetting().getValue();
+
+        if (port <= 0)
+            return;
+
+        try {
+            new ControlServer(queue).start(port);
+        } catch (IOException e) {
+            L.error("Can't start control API on port " + port, e);
+        }
+    }
+
+    /**
+     * Adds the urls read from the standard input to the queue, as soon as
+     * each line is read, until the end of the stream.
+     * @param queue the queue
+     */
+    private void startReadingStdin(DownloadQueue queue) {
+        mReadingStdin = true;
+
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    List<String> urls = BatchResolver.parseUrls(line);
+                    if (!urls.isEmpty())
+                        queue.add(urls);
+                }
+            } catch (IOException e) {
+                L.warn("Error occurred while reading urls from standard input", e);
+            } finally {
+                mReadingStdin = false;
+            }
+        }, "stdin-reader");
+
+        reader.setDaemon(true);
+        reader.start();
+    }
+}
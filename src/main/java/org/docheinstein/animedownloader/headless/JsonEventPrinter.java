@@ -0,0 +1,176 @@
+package org.docheinstein.animedownloader.headless;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.docheinstein.animedownloader.core.DownloadQueue;
+import org.docheinstein.animedownloader.core.DownloadState;
+import org.docheinstein.animedownloader.core.VideoDownload;
+import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prints the events of a {@link DownloadQueue} as JSON, one object for each
+ * line, so that they can be consumed by other programs.
+ * <p>
+ * Every event has an 'event' field, the events of a video have an 'id'
+ * field too:
+ * <ul>
+ *     <li>ready: the queue is ready (startupMillis)</li>
+ *     <li>added: a video has been added (url, provider)</li>
+ *     <li>removed: a video has been removed</li>
+ *     <li>state: the state of a video is changed (state)</li>
+ *     <li>info: the title or the size of a video are detected (title, size)</li>
+ *     <li>progress: periodic progress of a video (bytes, size, bytesPerSecond)</li>
+ *     <li>error: something went wrong with a video (message)</li>
+ *     <li>done: the queue is drained (downloaded, aborted in this run)</li>
+ * </ul>
+ */
+public class JsonEventPrinter implements DownloadQueue.QueueObserver, VideoDownload.Observer {
+
+    private final Gson mGson = new Gson();
+
+    /** Stream the events are printed to. */
+    private final PrintStream mOut;
+
+    /** Videos downloaded since the creation of the printer. */
+    private final AtomicInteger mDownloadedCount = new AtomicInteger();
+
+    /** Videos aborted since the creation of the printer. */
+    private final AtomicInteger mAbortedCount = new AtomicInteger();
+
+    /**
+     * Creates a printer of events.
+     * @param out the stream the events are printed to
+     */
+    public JsonEventPrinter(PrintStream out) {
+        mOut = out;
+    }
+
+    /**
+     * Prints the 'ready' event.
+     * @param startupMillis the time elapsed since the start of the JVM
+     */
+    public void printReady(long startupMillis) {
+        JsonObject event = newEvent("ready", null);
+        event.addProperty("startupMillis", startupMillis);
+        print(event);
+    }
+
+    /**
+     * Prints the 'progress' event of every video being downloaded.
+     * @param downloads the videos of the queue
+     */
+    public void printProgress(List<VideoDownload> downloads) {
+        for (VideoDownload download : downloads) {
+            if (download.getState() != DownloadState.Downloading)
+                continue;
+
+            DownloadableVideoInfo videoInfo = download.getVideoInfo();
+
+            JsonObject event = newEvent("progress", download);
+            event.addProperty("bytes", download.getDownloadedBytes());
+            event.addProperty("size", videoInfo != null ? videoInfo.size : 0);
+            event.addProperty("bytesPerSecond", download.getInstantBandwidth());
+            print(event);
+        }
+    }
+
+    /**
+     * Prints the 'done' event, with the amount of videos downloaded and
+     * aborted since the creation of the printer.
+     */
+    public void printDone() {
+        JsonObject event = newEvent("done", null);
+        event.addProperty("downloaded", mDownloadedCount.get());
+        event.addProperty("aborted", mAbortedCount.get());
+        print(event);
+    }
+
+    /**
+     * Returns the amount of videos aborted since the creation of the printer.
+     * @return the amount of aborted videos
+     */
+    public int getAbortedCount() {
+        return mAbortedCount.get();
+    }
+
+    @Override
+    public void onDownloadAdded(VideoDownload download) {
+        download.addObserver(this);
+
+        JsonObject event = newEvent("added", download);
+        event.addProperty("url", download.getUrl());
+        event.addProperty("provider",
+            download.hasValidProvider() ? download.getProvider().name() : null);
+        print(event);
+
+        if (!download.hasValidProvider())
+            printError(download, "The link doesn't belong to any valid provider");
+    }
+
+    @Override
+    public void onDownloadRemoved(VideoDownload download) {
+        download.removeObserver(this);
+        print(newEvent("removed", download));
+    }
+
+    @Override
+    public void onStateChanged(VideoDownload download, DownloadState state) {
+        if (state == DownloadState.Downloaded)
+            mDownloadedCount.incrementAndGet();
+        else if (state == DownloadState.Aborted)
+            mAbortedCount.incrementAndGet();
+
+        JsonObject event = newEvent("state", download);
+        event.addProperty("state", state.name());
+        print(event);
+    }
+
+    @Override
+    public void onInfoChanged(VideoDownload download) {
+        DownloadableVideoInfo videoInfo = download.getVideoInfo();
+
+        if (videoInfo == null)
+            return;
+
+        JsonObject event = newEvent("info", download);
+        event.addProperty("title", videoInfo.title);
+        event.addProperty("size", videoInfo.size);
+        print(event);
+    }
+
+    @Override
+    public void onProgress(VideoDownload download, long downloadedBytes) {
+        // Printed periodically by printProgress()
+    }
+
+    @Override
+    public void onConcurrencyChanged(VideoDownload download, int concurrentRequests) {}
+
+    @Override
+    public void onConversionFailed(VideoDownload download) {
+        printError(download, "Conversion to MP4 failed; check that ffmpeg is available");
+    }
+
+    private void printError(VideoDownload download, String message) {
+        JsonObject event = newEvent("error", download);
+        event.addProperty("message", message);
+        print(event);
+    }
+
+    private static JsonObject newEvent(String type, VideoDownload download) {
+        JsonObject event = new JsonObject();
+        event.addProperty("event", type);
+        if (download != null)
+            event.addProperty("id", download.getIdentifier());
+        return event;
+    }
+
+    private synchronized void print(JsonObject event) {
+        mOut.println(mGson.toJson(event));
+        mOut.flush();
+    }
+}
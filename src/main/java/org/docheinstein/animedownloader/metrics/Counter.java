@@ -0,0 +1,38 @@
+package org.docheinstein.animedownloader.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter, cheap to increment from many threads.
+ */
+public class Counter {
+
+    private final LongAdder mCount = new LongAdder();
+
+    Counter() {}
+
+    /** Increments the counter by one. */
+    public void increment() {
+        mCount.increment();
+    }
+
+    /**
+     * Increments the counter by the given amount.
+     * @param amount the amount to add
+     */
+    public void add(long amount) {
+        mCount.add(amount);
+    }
+
+    /**
+     * Returns the current count.
+     * @return the count
+     */
+    public long getCount() {
+        return mCount.sum();
+    }
+
+    void reset() {
+        mCount.reset();
+    }
+}
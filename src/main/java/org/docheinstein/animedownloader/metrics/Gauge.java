@@ -0,0 +1,27 @@
+package org.docheinstein.animedownloader.metrics;
+
+/**
+ * Value that can go up and down, e.g. a current limit.
+ */
+public class Gauge {
+
+    private volatile long mValue = 0;
+
+    Gauge() {}
+
+    /**
+     * Sets the current value.
+     * @param value the value
+     */
+    public void set(long value) {
+        mValue = value;
+    }
+
+    /**
+     * Returns the current value.
+     * @return the value
+     */
+    public long getValue() {
+        return mValue;
+    }
+}
@@ -0,0 +1,143 @@
+package org.docheinstein.animedownloader.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non negative values, with buckets of logarithmic
+ * width (as HDR histograms do): each power of two is split into
+ * {@link #SUB_BUCKETS} linear buckets, thus the relative error of the
+ * reported percentiles is bounded (about 6%) whatever the magnitude of
+ * the values.
+ */
+public class Histogram {
+
+    /** Bits of the linear sub-buckets of each power of two. */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** Linear sub-buckets of each power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Amount of buckets needed for cover every positive long. */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /** Unit of the recorded values, used only for display them. */
+    private final String mUnit;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder mCount = new LongAdder();
+    private final LongAdder mSum = new LongAdder();
+    private final LongAccumulator mMax = new LongAccumulator(Math::max, 0);
+
+    Histogram(String unit) {
+        mUnit = unit;
+    }
+
+    /**
+     * Records a value; negative values are recorded as 0.
+     * @param value the value
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        mBuckets.incrementAndGet(getBucketIndex(value));
+        mCount.increment();
+        mSum.add(value);
+        mMax.accumulate(value);
+    }
+
+    /**
+     * Records the milliseconds elapsed since the given instant.
+     * @param startNanos the start instant, as given by {@link System#nanoTime()}
+     */
+    public void recordMillisSince(long startNanos) {
+        record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Returns the amount of recorded values.
+     * @return the count of the values
+     */
+    public long getCount() {
+        return mCount.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     * @return the mean, 0 if there are no values
+     */
+    public double getMean() {
+        long count = mCount.sum();
+        return count > 0 ? (double) mSum.sum() / count : 0;
+    }
+
+    /**
+     * Returns the maximum recorded value.
+     * @return the maximum
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the (approximated) value under which the given percentage
+     * of the recorded values are.
+     * @param percentile the percentile, between 0 and 100
+     * @return the value at the percentile, 0 if there are no values
+     */
+    public long getPercentile(double percentile) {
+        long count = mCount.sum();
+
+        if (count == 0)
+            return 0;
+
+        long threshold = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long cumulative = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += mBuckets.get(i);
+            if (cumulative >= threshold)
+                return Math.min(getBucketUpperBound(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Returns the unit of the recorded values.
+     * @return the unit
+     */
+    public String getUnit() {
+        return mUnit;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            mBuckets.set(i, 0);
+        mCount.reset();
+        mSum.reset();
+        mMax.reset();
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,236 @@
+package org.docheinstein.animedownloader.metrics;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.video.VideoProvider;
+import org.docheinstein.commons.logger.DocLogger;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process registry of the metrics of the application: counters, gauges
+ * and histograms identified by a dotted name (e.g. 'segment.fetch').
+ * <p>
+ * Metrics are created on first use and updating them never blocks, thus
+ * they can be recorded from the download threads without affecting them.
+ * <p>
+ * The registry is exposed as the MBean {@link Config.Metrics#MBEAN_NAME}
+ * and, once started, periodically dumped as text to
+ * {@link Config.Files#METRICS_DUMP}.
+ */
+public class Metrics implements MetricsMXBean {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(Metrics.class);
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** Percentiles reported for each histogram. */
+    private static final double[] REPORTED_PERCENTILES = new double[] { 50, 90, 99 };
+
+    private final ConcurrentMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> mGauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+
+    /** Thread of the periodic dump, once started. */
+    private ScheduledExecutorService mDumpExecutor;
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the instance of this class.
+     */
+    public static Metrics instance() {
+        return INSTANCE;
+    }
+
+    private Metrics() {}
+
+    /**
+     * Returns the name of a metric referred to the given provider,
+     * e.g. 'resolution.http.Openload'.
+     * @param name the name of the metric
+     * @param provider the provider, or null if unknown
+     * @return the name of the metric for the provider
+     */
+    public static String forProvider(String name, VideoProvider provider) {
+        return name + "." + (provider != null ? provider.name() : "unknown");
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        return mCounters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Returns the gauge with the given name, creating it if needed.
+     * @param name the name of the gauge
+     * @return the gauge
+     */
+    public Gauge gauge(String name) {
+        return mGauges.computeIfAbsent(name, n -> new Gauge());
+    }
+
+    /**
+     * Returns the histogram of milliseconds with the given name,
+     * creating it if needed.
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public Histogram timer(String name) {
+        return histogram(name, "ms");
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed.
+     * @param name the name of the histogram
+     * @param unit the unit of the values, used only for display them
+     * @return the histogram
+     */
+    public Histogram histogram(String name, String unit) {
+        return mHistograms.computeIfAbsent(name, n -> new Histogram(unit));
+    }
+
+    /**
+     * Records the bytes and the average throughput of a finished download.
+     * @param provider the provider of the video, or null if unknown
+     * @param bytes the amount of bytes downloaded
+     * @param elapsedNanos the duration of the download
+     */
+    public void recordDownload(VideoProvider provider, long bytes, long elapsedNanos) {
+        counter(forProvider("download.bytes", provider)).add(bytes);
+
+        if (elapsedNanos > 0)
+            histogram(forProvider("download.throughput", provider), "KB/s")
+                .record((long) (bytes * 1e9 / elapsedNanos / 1024));
+    }
+
+    /**
+     * Registers the MBean and starts the periodic dump of the metrics,
+     * if not started yet.
+     */
+    public synchronized void start() {
+        if (mDumpExecutor != null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                this, new ObjectName(Config.Metrics.MBEAN_NAME));
+            L.debug("Metrics registered as MBean " + Config.Metrics.MBEAN_NAME);
+        } catch (Exception e) {
+            L.warn("Can't register metrics MBean", e);
+        }
+
+        mDumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        mDumpExecutor.scheduleAtFixedRate(
+            this::dump,
+            Config.Metrics.DUMP_PERIOD_SECONDS,
+            Config.Metrics.DUMP_PERIOD_SECONDS,
+            TimeUnit.SECONDS
+        );
+    }
+
+    /**
+     * Writes the report of the metrics to {@link Config.Files#METRICS_DUMP}.
+     */
+    public void dump() {
+        try {
+            String report = getReport();
+            File dumpFile = Config.Files.METRICS_DUMP;
+            File tmpFile = new File(dumpFile.getPath() + ".tmp");
+
+            Files.write(tmpFile.toPath(), report.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpFile.toPath(), dumpFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            L.verbose("Metrics dumped to " + dumpFile.getAbsolutePath());
+        } catch (IOException | RuntimeException e) {
+            L.warn("Can't dump metrics", e);
+        }
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+
+        for (Map.Entry<String, Long> value : getValues().entrySet())
+            report.append(value.getKey()).append(" = ").append(value.getValue()).append('\n');
+
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(mHistograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+
+            if (histogram.getCount() == 0)
+                continue;
+
+            report.append(entry.getKey())
+                .append(" count=").append(histogram.getCount())
+                .append(" mean=").append(String.format("%.1f", histogram.getMean()));
+
+            for (double percentile : REPORTED_PERCENTILES)
+                report.append(" p").append((int) percentile).append('=')
+                    .append(histogram.getPercentile(percentile));
+
+            report.append(" max=").append(histogram.getMax())
+                .append(' ').append(histogram.getUnit()).append('\n');
+        }
+
+        return report.toString();
+    }
+
+    @Override
+    public Map<String, Long> getValues() {
+        Map<String, Long> values = new TreeMap<>();
+
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet())
+            values.put(entry.getKey(), entry.getValue().getCount());
+
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet())
+            values.put(entry.getKey(), entry.getValue().getValue());
+
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getPercentiles() {
+        Map<String, Long> percentiles = new TreeMap<>();
+
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            for (double percentile : REPORTED_PERCENTILES)
+                percentiles.put(entry.getKey() + ".p" + (int) percentile,
+                    entry.getValue().getPercentile(percentile));
+        }
+
+        return percentiles;
+    }
+
+    @Override
+    public void reset() {
+        L.debug("Resetting metrics");
+
+        for (Counter counter : mCounters.values())
+            counter.reset();
+
+        for (Histogram histogram : mHistograms.values())
+            histogram.reset();
+    }
+}
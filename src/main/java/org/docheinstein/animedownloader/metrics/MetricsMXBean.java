@@ -0,0 +1,31 @@
+package org.docheinstein.animedownloader.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link Metrics}, registered as
+ * 'org.docheinstein.animedownloader:type=Metrics'.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Returns a human readable report of every metric.
+     * @return the report
+     */
+    String getReport();
+
+    /**
+     * Returns the value of every counter and gauge.
+     * @return the values by name
+     */
+    Map<String, Long> getValues();
+
+    /**
+     * Returns the main percentiles of every histogram.
+     * @return the percentiles by name (e.g. 'segment.fetch.p99')
+     */
+    Map<String, Long> getPercentiles();
+
+    /** Resets every counter and histogram. */
+    void reset();
+}
@@ -0,0 +1,202 @@
+package org.docheinstein.animedownloader.metrics;
+
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.executor.Workload;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the phases of the startup of the application.
+ * <p>
+ * The startup is split in the critical path, whose phases are run in
+ * sequence until the application is ready (i.e. the window and the queue
+ * are visible), and the deferred phases, which are run in parallel in
+ * background.
+ * <p>
+ * Once the application is ready and every deferred phase is finished, the
+ * report of the milliseconds taken by each phase is logged and written to
+ * {@link Config.Files#STARTUP_REPORT}; each phase is also published as the
+ * gauge 'startup.{phase}' (milliseconds).
+ */
+public class StartupTimings {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(StartupTimings.class);
+
+    private static final StartupTimings INSTANCE = new StartupTimings();
+
+    /** A measured phase. */
+    private static class Phase {
+        final String name;
+        final boolean deferred;
+        final long millis;
+
+        Phase(String name, boolean deferred, long millis) {
+            this.name = name;
+            this.deferred = deferred;
+            this.millis = millis;
+        }
+    }
+
+    /** Measured phases, in order of end. */
+    private final List<Phase> mPhases = new ArrayList<>();
+
+    /** Deferred phases not finished yet. */
+    private int mPendingPhases = 0;
+
+    /** Time elapsed from the JVM start to the application ready, -1 if not ready. */
+    private long mReadyMillis = -1;
+
+    /** Whether the report has been written. */
+    private boolean mReported = false;
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the instance of this class.
+     */
+    public static StartupTimings instance() {
+        return INSTANCE;
+    }
+
+    private StartupTimings() {}
+
+    /**
+     * Runs a phase of the critical path in the calling thread.
+     * @param phase the name of the phase
+     * @param action the phase
+     */
+    public void critical(String phase, Runnable action) {
+        long startNanos = System.nanoTime();
+
+        try {
+            action.run();
+        } finally {
+            record(phase, false, startNanos);
+        }
+    }
+
+    /**
+     * Runs a deferred phase in background, without waiting for it.
+     * @param phase the name of the phase
+     * @param action the phase
+     */
+    public void deferred(String phase, Runnable action) {
+        synchronized (this) {
+            mPendingPhases++;
+        }
+
+        WorkloadExecutors.instance().execute(Workload.Background, () -> {
+            long startNanos = System.nanoTime();
+
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                L.error("Error occurred during startup phase " + phase, e);
+            } finally {
+                boolean report;
+
+                synchronized (this) {
+                    mPendingPhases--;
+                    report = record(phase, true, startNanos);
+                }
+
+                if (report)
+                    report();
+            }
+        });
+    }
+
+    /**
+     * Marks the end of the critical path: the application is ready.
+     */
+    public void ready() {
+        long readyMillis = System.currentTimeMillis() -
+            ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        Metrics.instance().gauge("startup.ready").set(readyMillis);
+        L.info("Application ready " + readyMillis + "ms after the JVM start");
+
+        boolean report;
+
+        synchronized (this) {
+            mReadyMillis = readyMillis;
+            report = shouldReport();
+        }
+
+        if (report)
+            report();
+    }
+
+    /**
+     * Returns the report of the startup phases measured so far.
+     * @return the report
+     */
+    public synchronized String getReport() {
+        StringBuilder report = new StringBuilder();
+
+        appendPhases(report, false);
+        report.append(String.format("%-10s %-24s %6d\n", "ready", "since JVM start", mReadyMillis));
+        appendPhases(report, true);
+
+        return report.toString();
+    }
+
+    private void appendPhases(StringBuilder report, boolean deferred) {
+        for (Phase phase : mPhases) {
+            if (phase.deferred == deferred) {
+                report.append(String.format("%-10s %-24s %6d\n",
+                    deferred ? "deferred" : "critical", phase.name, phase.millis));
+            }
+        }
+    }
+
+    /**
+     * Records the end of a phase.
+     * @return whether the report should be written now
+     */
+    private synchronized boolean record(String phase, boolean deferred, long startNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        mPhases.add(new Phase(phase, deferred, millis));
+        Metrics.instance().gauge("startup." + phase).set(millis);
+
+        L.debug("Startup phase " + phase + " took " + millis + "ms");
+
+        return shouldReport();
+    }
+
+    private synchronized boolean shouldReport() {
+        if (mReported || mReadyMillis < 0 || mPendingPhases > 0)
+            return false;
+
+        mReported = true;
+        return true;
+    }
+
+    private void report() {
+        String report = getReport();
+
+        L.info("Startup timings (ms):\n" + report);
+
+        try {
+            File reportFile = Config.Files.STARTUP_REPORT;
+            File tmpFile = new File(reportFile.getPath() + ".tmp");
+
+            Files.write(tmpFile.toPath(), report.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpFile.toPath(), reportFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            L.warn("Can't write startup report", e);
+        }
+    }
+}
@@ -2,15 +2,13 @@ package org.docheinstein.animedownloader.settings;
 
 import org.docheinstein.commons.types.StringUtil;
 
-import java.io.File;
-
 /**
  * Setting for boolean value.
  */
 public class BooleanSetting extends SettingImpl<Boolean> {
 
-    public BooleanSetting(File settingFile, Boolean defaultValue, String debugName) {
-        super(settingFile, defaultValue, debugName);
+    public BooleanSetting(String name, Boolean defaultValue) {
+        super(name, defaultValue);
     }
 
     @Override
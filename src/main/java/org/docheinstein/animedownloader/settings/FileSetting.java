@@ -9,8 +9,8 @@ import java.io.File;
  */
 public class FileSetting extends SettingImpl<File> {
 
-    public FileSetting(File settingFile, File defaultValue, String debugName) {
-        super(settingFile, defaultValue, debugName);
+    public FileSetting(String name, File defaultValue) {
+        super(name, defaultValue);
     }
 
     @Override
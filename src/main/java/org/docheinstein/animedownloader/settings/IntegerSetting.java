@@ -2,15 +2,13 @@ package org.docheinstein.animedownloader.settings;
 
 import org.docheinstein.commons.types.StringUtil;
 
-import java.io.File;
-
 /**
  * Setting for integer value.
  */
 public class IntegerSetting extends SettingImpl<Integer> {
 
-    public IntegerSetting(File settingFile, Integer defaultValue, String debugName) {
-        super(settingFile, defaultValue, debugName);
+    public IntegerSetting(String name, Integer defaultValue) {
+        super(name, defaultValue);
     }
 
     @Override
@@ -1,7 +1,5 @@
 package org.docheinstein.animedownloader.settings;
 
-import java.io.File;
-
 /**
  * Represents a single setting that wraps a value of a generic type.
  * @param <T> the type of the setting
@@ -21,10 +19,10 @@ public interface Setting<T> {
     T getDefaultValue();
 
     /**
-     * Returns the underlying file used to save this setting value.
-     * @return the setting file
+     * Returns the name of the setting, which identifies it in the settings file.
+     * @return the setting name
      */
-    File getSettingFile();
+    String getName();
 
     /**
      * Returns the value of setting by parsing the setting's file content.
@@ -41,16 +39,13 @@ public interface Setting<T> {
     String createSettingFileContentFromValue(T value);
 
     /**
-     * Updates the setting with the new value.
+     * Updates the setting with the new value, saving it immediately.
+     * <p>
+     * For update more settings at once use {@link Settings#edit()}.
      * @param value the new setting value
      */
     void updateSetting(T value);
 
-    /**
-     * Reloads the setting's value from the underlying file.
-     */
-    void reloadSetting();
-
     /**
      * Adds a listener that will notified when the setting value changes.
      * @param listener the listener
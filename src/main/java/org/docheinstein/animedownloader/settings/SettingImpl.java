@@ -1,15 +1,17 @@
 package org.docheinstein.animedownloader.settings;
 
-import org.docheinstein.commons.file.FileUtil;
 import org.docheinstein.commons.logger.DocLogger;
-import org.docheinstein.commons.types.StringUtil;
 
-import java.io.File;
+import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * A convenient implementation for {@link Setting}.
+ * <p>
+ * The value is not held by the setting but by the current
+ * {@link SettingsSnapshot} of the {@link SettingsStore} the setting
+ * belongs to, thus it can be read from any thread without locks.
  * @param <T> the type of the setting
  */
 public abstract class SettingImpl<T> implements Setting<T>{
@@ -17,35 +19,32 @@ public abstract class SettingImpl<T> implements Setting<T>{
     private static final DocLogger L =
         DocLogger.createForClass(SettingImpl.class);
 
-    /** Current value of the setting. */
-    private T mValue;
-
     /** Listeners of the setting value. */
     private final Set<SettingListener<T>> mListeners = new CopyOnWriteArraySet<>();
 
-    /** Name of the setting used only for debug purpose. */
-    private final String mDebugName;
+    /** Name of the setting. */
+    private final String mName;
 
     /** Default value. */
     private final T mDefaultValue;
 
-    /** Underlying setting file. */
-    private final File mSettingFile;
+    /** Store of the setting, null until the settings are loaded. */
+    private volatile SettingsStore mStore;
 
-    protected SettingImpl(File settingFile, T defaultValue, String debugName) {
-        mSettingFile = settingFile;
+    protected SettingImpl(String name, T defaultValue) {
+        mName = name;
         mDefaultValue = defaultValue;
-        mDebugName = debugName;
     }
 
     @Override
     public T getValue() {
-        return mValue;
+        SettingsStore store = mStore;
+        return store != null ? store.getSnapshot().getValue(this) : mDefaultValue;
     }
 
     @Override
-    public File getSettingFile() {
-        return mSettingFile;
+    public String getName() {
+        return mName;
     }
 
     @Override
@@ -55,34 +54,14 @@ public abstract class SettingImpl<T> implements Setting<T>{
 
     @Override
     public void updateSetting(T value) {
-        L.info("Updating setting; '" + mDebugName + "' = '" + value + "'");
-
-        FileUtil.write(
-            mSettingFile.getAbsolutePath(),
-            createSettingFileContentFromValue(value)
-        );
+        SettingsStore store = mStore;
 
-        reloadSetting();
-    }
-
-    @Override
-    public void reloadSetting() {
-        L.debug("Reloading setting '" + mDebugName + "' value");
-
-        mValue = mDefaultValue;
-
-        if (FileUtil.exists(mSettingFile)) {
-            String fileContent = FileUtil.readFile(mSettingFile);
-            if (StringUtil.isValid(fileContent)) {
-                L.debug("Value actually loaded from setting file: " + fileContent);
-                // Load the setting from the setting file content
-                mValue = createValueFromSettingFileContent(fileContent);
-            }
+        if (store == null) {
+            L.warn("Can't update setting '" + mName + "' before the settings are loaded");
+            return;
         }
 
-        L.debug("Setting value '" + mDebugName + "' = '" + mValue + "'");
-
-        mListeners.forEach(l -> l.onSettingValueChanged(this, mValue));
+        store.commit(Collections.singletonMap(this, value));
     }
 
     @Override
@@ -95,4 +74,21 @@ public abstract class SettingImpl<T> implements Setting<T>{
     public void removeListener(SettingListener<T> listener) {
         mListeners.remove(listener);
     }
+
+    /**
+     * Binds the setting to the store that holds its value.
+     * @param store the store
+     */
+    void attach(SettingsStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Notifies the listeners that the value is changed.
+     * @param value the new value
+     */
+    @SuppressWarnings("unchecked")
+    void notifyListeners(Object value) {
+        mListeners.forEach(l -> l.onSettingValueChanged(this, (T) value));
+    }
 }
@@ -42,28 +42,24 @@ public class Settings {
     private static final Settings INSTANCE = new Settings();
 
     private FileSetting mDownloadFolder = new FileSetting(
-        Config.Files.SETTING_DOWNLOAD_FOLDER,
-        new File("."),
-        "download_folder"
+        "download_folder",
+        new File(".")
     );
 
     private BooleanSetting mRemoveAfterDownload = new BooleanSetting (
-        Config.Files.SETTING_REMOVE_AFTER_DOWNLOAD,
-        false,
-        "remove_after_download"
+        "remove_after_download",
+        false
     );
 
     private BooleanSetting mDownloadAutomatically = new BooleanSetting(
-        Config.Files.SETTING_DOWNLOAD_AUTOMATICALLY,
-        false,
-        "download_automatically"
+        "download_automatically",
+        false
     );
 
     private Setting<AutomaticDownloadStrategy> mAutomaticDownloadStrategy =
         new SettingImpl<AutomaticDownloadStrategy>(
-            Config.Files.SETTING_AUTOMATIC_DOWNLOAD_STRATEGY,
-            AutomaticDownloadStrategy.Static,
-            "automatic_download_strategy"
+            "automatic_download_strategy",
+            AutomaticDownloadStrategy.Static
         ) {
             @Override
             public AutomaticDownloadStrategy createValueFromSettingFileContent(String fileContent) {
@@ -77,54 +73,83 @@ public class Settings {
         };
 
     private IntegerSetting mSimultaneousVideoLimit = new IntegerSetting(
-        Config.Files.SETTING_SIMULTANEOUS_LIMIT,
-        1,
-        "simultaneous_video_limit"
+        "simultaneous_video_limit",
+        1
     );
 
     private BooleanSetting mSimultaneousVideoLimitForEachProvider = new BooleanSetting(
-        Config.Files.SETTING_SIMULTANEOUS_LIMIT_FOR_EACH_PROVIDER,
-        true,
-        "simultaneous_video_limit_for_each_provider"
+        "simultaneous_video_limit_for_each_provider",
+        true
     );
 
     private IntegerSetting mBandwidthLimit = new IntegerSetting(
-        Config.Files.SETTING_BANDWIDTH_LIMIT,
-        1,
-        "bandwidth_limit"
+        "bandwidth_limit",
+        1
+    );
+
+    private IntegerSetting mDownloadConnections = new IntegerSetting(
+        "download_connections",
+        4
+    );
+
+    private IntegerSetting mDownloadRateLimit = new IntegerSetting(
+        "download_rate_limit",
+        0
+    );
+
+    private IntegerSetting mDownloadRateLimitForEachProvider = new IntegerSetting(
+        "download_rate_limit_for_each_provider",
+        0
     );
 
     // Executables path
 
     private FileSetting mChromeDriver = new FileSetting(
-        Config.Files.SETTING_CHROME_DRIVER,
-        Config.Files.DEFAULT_CHROME_DRIVER,
-        "chrome_driver");
+        "chrome_driver",
+        Config.Files.DEFAULT_CHROME_DRIVER);
+
 
+    private IntegerSetting mChromeDriverPoolSize = new IntegerSetting(
+        "chrome_driver_pool_size",
+        2
+    );
 
     private FileSetting mFFmpeg = new FileSetting(
-        Config.Files.SETTING_FFMPEG,
-        null,
-        "ffmpeg");
+        "ffmpeg",
+        null);
+
+    private BooleanSetting mFFmpegStreaming = new BooleanSetting(
+        "ffmpeg_streaming",
+        true
+    );
+
+    // Control API
+
+    private IntegerSetting mControlApiPort = new IntegerSetting(
+        "control_api_port",
+        0
+    );
 
     // Debug
 
     private BooleanSetting mChromeDriverGhostMode = new BooleanSetting(
-        Config.Files.SETTING_CHROME_DRIVER_GHOST_MODE,
-        true,
-        "chrome_driver_ghost_mode"
+        "chrome_driver_ghost_mode",
+        true
+    );
+
+    private BooleanSetting mChromeDriverLightweightMode = new BooleanSetting(
+        "chrome_driver_lightweight_mode",
+        true
     );
 
     private BooleanSetting mLoggingSetting = new BooleanSetting(
-        Config.Files.SETTING_LOGGING,
-        false,
-        "logging"
+        "logging",
+        false
     );
 
     private BooleanSetting mFlushSetting = new BooleanSetting(
-        Config.Files.SETTING_FLUSH,
-        false,
-        "flush"
+        "flush",
+        false
     );
 
     private final Setting[] mSettings = new Setting[] {
@@ -133,8 +158,12 @@ public class Settings {
         mSimultaneousVideoLimit,
         mSimultaneousVideoLimitForEachProvider,
         mBandwidthLimit,
-        mChromeDriver, mChromeDriverGhostMode,
-        mFFmpeg, mLoggingSetting, mFlushSetting
+        mDownloadConnections,
+        mDownloadRateLimit, mDownloadRateLimitForEachProvider,
+        mChromeDriver, mChromeDriverGhostMode, mChromeDriverLightweightMode,
+        mChromeDriverPoolSize,
+        mFFmpeg, mFFmpegStreaming, mControlApiPort,
+        mLoggingSetting, mFlushSetting
     };
 
     /**
@@ -145,9 +174,30 @@ public class Settings {
         return INSTANCE;
     }
 
+    private final SettingsStore mStore =
+        new SettingsStore(Config.Files.SETTINGS_STORE, mSettings);
+
     private Settings() {
-        for (Setting setting : getSettings())
-            setting.reloadSetting();
+        mStore.load();
+    }
+
+    /**
+     * Returns the current values of all the settings.
+     * <p>
+     * This should be preferred over reading the settings one by one when
+     * more settings have to be consistent with each other.
+     * @return the current snapshot of the settings
+     */
+    public SettingsSnapshot getSnapshot() {
+        return mStore.getSnapshot();
+    }
+
+    /**
+     * Returns an editor for update more settings with a single save.
+     * @return a new editor of the settings
+     */
+    public SettingsEditor edit() {
+        return new SettingsEditor(mStore);
     }
 
     /**
@@ -227,6 +277,41 @@ public class Settings {
         return mBandwidthLimit;
     }
 
+    /**
+     * Returns the setting that reminds the amount of parallel connections
+     * used for download a single video.
+     * <p>
+     * For single file videos is used only if the server supports byte
+     * ranges, while for segmented videos is the amount of segments
+     * downloaded at the same time.
+     * @return the download connections setting
+     */
+    public Setting<Integer> getDownloadConnectionsSetting() {
+        return mDownloadConnections;
+    }
+
+    /**
+     * Returns the setting that reminds the maximum download speed of all
+     * the downloads together, expressed in bytes per seconds (0 means
+     * unlimited).
+     * <p>
+     * Unlike the bandwidth limit, this is enforced while downloading.
+     * @return the download rate limit setting
+     */
+    public Setting<Integer> getDownloadRateLimitSetting() {
+        return mDownloadRateLimit;
+    }
+
+    /**
+     * Returns the setting that reminds the maximum download speed of all
+     * the downloads of the same provider, expressed in bytes per seconds
+     * (0 means unlimited).
+     * @return the download rate limit for each provider setting
+     */
+    public Setting<Integer> getDownloadRateLimitForEachProviderSetting() {
+        return mDownloadRateLimitForEachProvider;
+    }
+
     /**
      * Returns the setting that reminds the path of the chrome driver
      * @return the chrome driver setting
@@ -244,6 +329,25 @@ public class Settings {
         return mChromeDriverGhostMode;
     }
 
+    /**
+     * Returns the setting that reminds whether chrome driver should skip the
+     * resources never needed for retrieve the video links (images, web fonts
+     * and third party ads).
+     * @return the chrome driver lightweight mode setting
+     */
+    public Setting<Boolean> getChromeDriverLightweightModeSetting() {
+        return mChromeDriverLightweightMode;
+    }
+
+    /**
+     * Returns the setting that reminds the maximum amount of chrome drivers
+     * that can be alive at the same time.
+     * @return the chrome driver pool size setting
+     */
+    public Setting<Integer> getChromeDriverPoolSizeSetting() {
+        return mChromeDriverPoolSize;
+    }
+
     /**
      * Returns the setting that reminds the path of the ffmpeg executable or
      * null if it should be supposed to be available from the current path.
@@ -253,6 +357,25 @@ public class Settings {
         return mFFmpeg;
     }
 
+    /**
+     * Returns the setting that reminds whether segmented videos should be
+     * piped into ffmpeg while they are downloaded instead of being converted
+     * to MP4 after the download.
+     * @return the ffmpeg streaming setting
+     */
+    public Setting<Boolean> getFFmpegStreamingSetting() {
+        return mFFmpegStreaming;
+    }
+
+    /**
+     * Returns the setting that reminds the localhost port of the control API,
+     * or 0 if the control API is disabled.
+     * @return the control API port setting
+     */
+    public Setting<Integer> getControlApiPortSetting() {
+        return mControlApiPort;
+    }
+
     /**
      * Returns the setting that reminds whether logging on files should be enabled.
      * @return the logging setting
@@ -0,0 +1,45 @@
+package org.docheinstein.animedownloader.settings;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the updates of more settings, which are then saved all
+ * together by {@link #commit()}.
+ */
+public class SettingsEditor {
+
+    private final SettingsStore mStore;
+
+    /** Pending updates, in order. */
+    private final Map<Setting<?>, Object> mUpdates = new LinkedHashMap<>();
+
+    SettingsEditor(SettingsStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Sets the new value of a setting; the value is not saved until
+     * {@link #commit()} is called.
+     * @param setting the setting
+     * @param value the new value, null for the default value
+     * @param <T> the type of the setting
+     * @return this editor
+     */
+    public <T> SettingsEditor set(Setting<T> setting, T value) {
+        mUpdates.put(setting, value);
+        return this;
+    }
+
+    /**
+     * Saves the pending updates with a single write and notifies the
+     * listeners of the settings actually changed.
+     */
+    public void commit() {
+        if (mUpdates.isEmpty())
+            return;
+
+        mStore.commit(mUpdates);
+        mUpdates.clear();
+    }
+}
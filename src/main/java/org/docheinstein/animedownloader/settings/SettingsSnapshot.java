@@ -0,0 +1,42 @@
+package org.docheinstein.animedownloader.settings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable view of the values of the settings at a given time.
+ * <p>
+ * A snapshot can be shared between threads freely; reading more settings
+ * from the same snapshot guarantees that they are consistent with each
+ * other, even if the settings are saved in the meanwhile.
+ */
+public final class SettingsSnapshot {
+
+    /** Values of the settings, by name; a missing value stands for the default. */
+    private final Map<String, Object> mValues;
+
+    SettingsSnapshot(Map<String, Object> values) {
+        mValues = Collections.unmodifiableMap(new HashMap<>(values));
+    }
+
+    /**
+     * Returns the value of the given setting in this snapshot.
+     * @param setting the setting
+     * @param <T> the type of the setting
+     * @return the value of the setting, or its default value if not set
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getValue(Setting<T> setting) {
+        Object value = mValues.get(setting.getName());
+        return value != null ? (T) value : setting.getDefaultValue();
+    }
+
+    /**
+     * Returns a copy of the values of this snapshot, by setting name.
+     * @return the values of the snapshot
+     */
+    Map<String, Object> getValues() {
+        return new HashMap<>(mValues);
+    }
+}
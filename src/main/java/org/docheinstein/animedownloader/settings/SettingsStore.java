@@ -0,0 +1,273 @@
+package org.docheinstein.animedownloader.settings;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.docheinstein.commons.file.FileUtil;
+import org.docheinstein.commons.logger.DocLogger;
+import org.docheinstein.commons.types.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Holds the values of the settings in memory and saves them in a single
+ * JSON file, which maps the name of each setting to its content.
+ * <p>
+ * The values are published as an immutable {@link SettingsSnapshot},
+ * replaced as a whole whenever some settings are updated; thus the readers
+ * never take a lock. The updates are saved all together by writing a
+ * temporary file and renaming it over the settings file, so that the
+ * file is never left half written.
+ * <p>
+ * If the settings file does not exist yet, the settings are migrated from
+ * the previous layout, which used a file for each setting (named after the
+ * setting, in the folder of the settings file).
+ */
+class SettingsStore {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(SettingsStore.class);
+
+    private static final Gson GSON =
+        new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private static final Type CONTENT_TYPE =
+        new TypeToken<LinkedHashMap<String, String>>() {}.getType();
+
+    /** The settings file. */
+    private final File mFile;
+
+    /** Settings held by this store. */
+    private final Setting<?>[] mSettings;
+
+    /**
+     * Content of the settings file, by setting name; it includes the
+     * settings unknown to this version, which are preserved.
+     */
+    private Map<String, String> mContent = new LinkedHashMap<>();
+
+    /** Current values of the settings. */
+    private volatile SettingsSnapshot mSnapshot =
+        new SettingsSnapshot(Collections.<String, Object>emptyMap());
+
+    /**
+     * Creates a store for the given settings.
+     * @param file the settings file
+     * @param settings the settings held by the store
+     */
+    SettingsStore(File file, Setting<?>[] settings) {
+        mFile = file;
+        mSettings = settings;
+    }
+
+    /**
+     * Loads the settings from the settings file, or from the files of the
+     * previous layout if it doesn't exist yet, and binds the settings
+     * to this store.
+     */
+    synchronized void load() {
+        mContent = new LinkedHashMap<>();
+
+        if (mFile.exists())
+            readFile();
+        else if (readLegacyFiles())
+            migrateLegacyFiles();
+
+        Map<String, Object> values = new HashMap<>();
+
+        for (Setting<?> setting : mSettings) {
+            Object value = parseValue(setting, mContent.get(setting.getName()));
+
+            if (value != null)
+                values.put(setting.getName(), value);
+
+            L.debug("Setting value '" + setting.getName() + "' = '" +
+                (value != null ? value : setting.getDefaultValue()) + "'");
+        }
+
+        mSnapshot = new SettingsSnapshot(values);
+
+        for (Setting<?> setting : mSettings) {
+            if (setting instanceof SettingImpl)
+                ((SettingImpl<?>) setting).attach(this);
+        }
+    }
+
+    /**
+     * Returns the current values of the settings.
+     * @return the current snapshot
+     */
+    SettingsSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Updates the given settings, saves them all together and notifies
+     * the listeners of the settings whose value is actually changed.
+     * <p>
+     * A null value resets the setting to its default value.
+     * @param updates the new values of the settings
+     */
+    void commit(Map<? extends Setting<?>, ?> updates) {
+        Map<SettingImpl<?>, Object> changed = new LinkedHashMap<>();
+
+        synchronized (this) {
+            Map<String, String> content = new LinkedHashMap<>(mContent);
+            Map<String, Object> values = mSnapshot.getValues();
+
+            for (Map.Entry<? extends Setting<?>, ?> update : updates.entrySet()) {
+                Setting<?> setting = update.getKey();
+                String name = setting.getName();
+
+                L.info("Updating setting; '" + name + "' = '" + update.getValue() + "'");
+
+                String settingContent = formatValue(setting, update.getValue());
+
+                if (StringUtil.isValid(settingContent))
+                    content.put(name, settingContent);
+                else
+                    content.remove(name);
+
+                // The value is the one that would be read from the file,
+                // e.g. files are saved as absolute paths
+                Object oldValue = mSnapshot.getValue(setting);
+                Object newValue = parseValue(setting, settingContent);
+
+                if (newValue != null)
+                    values.put(name, newValue);
+                else
+                    values.remove(name);
+
+                if (newValue == null)
+                    newValue = setting.getDefaultValue();
+
+                if (!Objects.equals(oldValue, newValue) && setting instanceof SettingImpl)
+                    changed.put((SettingImpl<?>) setting, newValue);
+            }
+
+            try {
+                writeFile(content);
+            } catch (IOException e) {
+                // Kept in memory anyway, for this session
+                L.error("Can't save settings to " + mFile.getAbsolutePath(), e);
+            }
+
+            mContent = content;
+            mSnapshot = new SettingsSnapshot(values);
+        }
+
+        // Outside the lock, since the listeners could update other settings
+        for (Map.Entry<SettingImpl<?>, Object> change : changed.entrySet())
+            change.getKey().notifyListeners(change.getValue());
+    }
+
+    private void readFile() {
+        try (Reader reader = Files.newBufferedReader(mFile.toPath(), StandardCharsets.UTF_8)) {
+            Map<String, String> content = GSON.fromJson(reader, CONTENT_TYPE);
+
+            if (content != null)
+                mContent.putAll(content);
+
+            L.debug("Settings loaded from " + mFile.getAbsolutePath());
+        } catch (IOException | JsonParseException e) {
+            L.warn("Can't read settings from " + mFile.getAbsolutePath() +
+                ", using default values", e);
+        }
+    }
+
+    private void writeFile(Map<String, String> content) throws IOException {
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+
+        Files.createDirectories(mFile.getAbsoluteFile().getParentFile().toPath());
+        Files.write(tmpFile.toPath(), GSON.toJson(content).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpFile.toPath(), mFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the content of the settings saved with the previous layout.
+     * @return whether any file of the previous layout exists
+     */
+    private boolean readLegacyFiles() {
+        boolean found = false;
+
+        for (Setting<?> setting : mSettings) {
+            File legacyFile = getLegacyFile(setting);
+
+            if (!FileUtil.exists(legacyFile))
+                continue;
+
+            found = true;
+
+            String settingContent = FileUtil.readFile(legacyFile);
+
+            if (StringUtil.isValid(settingContent))
+                mContent.put(setting.getName(), settingContent);
+        }
+
+        return found;
+    }
+
+    /**
+     * Saves the settings read from the previous layout to the settings file,
+     * then deletes the files of the previous layout.
+     */
+    private void migrateLegacyFiles() {
+        L.info("Migrating settings to " + mFile.getAbsolutePath());
+
+        try {
+            writeFile(mContent);
+        } catch (IOException e) {
+            L.error("Settings migration failed, keeping the previous files", e);
+            return;
+        }
+
+        for (Setting<?> setting : mSettings) {
+            File legacyFile = getLegacyFile(setting);
+
+            if (legacyFile.exists() && !legacyFile.delete())
+                L.warn("Can't delete previous setting file " + legacyFile);
+        }
+    }
+
+    private File getLegacyFile(Setting<?> setting) {
+        return new File(mFile.getAbsoluteFile().getParentFile(), setting.getName());
+    }
+
+    /**
+     * Returns the value of a setting from its content.
+     * @param setting the setting
+     * @param settingContent the content, may be null
+     * @return the value, or null if the content is missing or not valid
+     */
+    private static Object parseValue(Setting<?> setting, String settingContent) {
+        if (!StringUtil.isValid(settingContent))
+            return null;
+
+        try {
+            return setting.createValueFromSettingFileContent(settingContent);
+        } catch (RuntimeException e) {
+            L.warn("Invalid value for setting '" + setting.getName() + "': " + settingContent);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String formatValue(Setting<?> setting, Object value) {
+        return value != null ?
+            ((Setting<Object>) setting).createSettingFileContentFromValue(value) :
+            null;
+    }
+}
@@ -1,14 +1,12 @@
 package org.docheinstein.animedownloader.settings;
 
-import java.io.File;
-
 /**
  * Setting for store the path of a file.
  */
 public class StringSetting extends SettingImpl<String> {
 
-    protected StringSetting(File settingFile, String defaultValue, String debugName) {
-        super(settingFile, defaultValue, debugName);
+    protected StringSetting(String name, String defaultValue) {
+        super(name, defaultValue);
     }
 
     @Override
@@ -7,6 +7,7 @@ import org.docheinstein.animedownloader.commons.constants.Config;
 
 import org.docheinstein.animedownloader.commons.constants.Resources;
 import org.docheinstein.animedownloader.commons.utils.ApplicationUtil;
+import org.docheinstein.animedownloader.metrics.StartupTimings;
 import org.docheinstein.commons.javafx.FXUtil;
 
 
@@ -19,6 +20,8 @@ public class MainWindow extends Application {
 
     private Stage mWindow;
 
+    private MainWindowController mController;
+
     public MainWindow() {
         INSTANCE = this;
     }
@@ -38,13 +41,24 @@ public class MainWindow extends Application {
 
     @Override
     public void start(Stage primaryStage) {
-        mWindow = FXUtil.showWindow(
-            new MainWindowController().createNode(),
-            Config.App.TITLE);
-        mWindow.getIcons().setAll(Resources.UI.ICONS);
-        mWindow.setMinWidth(Config.App.MIN_WIDTH);
-        mWindow.setMinHeight(Config.App.MIN_HEIGHT);
+        StartupTimings.instance().critical("window", () -> {
+            mController = new MainWindowController();
+            mWindow = FXUtil.showWindow(
+                mController.createNode(),
+                Config.App.TITLE);
+            mWindow.getIcons().setAll(Resources.UI.ICONS);
+            mWindow.setMinWidth(Config.App.MIN_WIDTH);
+            mWindow.setMinHeight(Config.App.MIN_HEIGHT);
+        });
+
+        StartupTimings.instance().ready();
+    }
 
+    @Override
+    public void stop() {
+        // The control API would keep the JVM alive otherwise
+        if (mController != null)
+            mController.dispose();
     }
 
     /**
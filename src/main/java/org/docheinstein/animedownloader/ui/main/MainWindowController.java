@@ -1,5 +1,6 @@
 package org.docheinstein.animedownloader.ui.main;
 
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
 import javafx.scene.control.Button;
@@ -8,44 +9,55 @@ import javafx.scene.control.ListView;
 import javafx.scene.input.*;
 import javafx.stage.Stage;
 import javafx.util.Callback;
+import org.docheinstein.animedownloader.api.ControlServer;
+import org.docheinstein.animedownloader.core.BatchResolver;
+import org.docheinstein.animedownloader.core.DownloadQueue;
+import org.docheinstein.animedownloader.core.VideoDownload;
+import org.docheinstein.animedownloader.executor.Workload;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.animedownloader.metrics.StartupTimings;
 import org.docheinstein.animedownloader.settings.Settings;
 import org.docheinstein.animedownloader.ui.base.InstantiableController;
-import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
-import org.docheinstein.animedownloader.video.VideoProvider;
 import org.docheinstein.commons.javafx.FXUtil;
-import org.docheinstein.commons.thread.ThreadUtil;
-import org.docheinstein.commons.file.FileUtil;
-import org.docheinstein.commons.file.KeyValueFileHandler;
 import org.docheinstein.commons.logger.DocLogger;
 import org.docheinstein.animedownloader.commons.constants.Config;
 import org.docheinstein.animedownloader.ui.settings.SettingsWindowController;
+import org.docheinstein.animedownloader.ui.video.ProgressPulse;
 import org.docheinstein.animedownloader.ui.video.VideoRowController;
-import org.docheinstein.commons.types.StringUtil;
 
 import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Controller of {@link MainWindow}
  */
 public class MainWindowController
-    implements InstantiableController, VideoRowController.VideoRowObserver {
+    implements InstantiableController, VideoRowController.VideoRowObserver,
+               DownloadQueue.QueueObserver {
 
     private static final DocLogger L =
         DocLogger.createForClass(MainWindowController.class);
 
     /**
-     * Contains the visible video rows associated to their controller.
+     * Contains the visible video rows associated to their video
+     * (accessed from the JavaFX application thread only).
      */
-    private Map<VideoRowController, Node> mVideoRows = new LinkedHashMap<>();
+    private final Map<VideoDownload, Node> mVideoRows = new HashMap<>();
+
+    /** Queue of the videos, which downloads them and persists them. */
+    private final DownloadQueue mQueue = new DownloadQueue(this);
+
+    /** Local HTTP API for control the queue, started if enabled. */
+    private final ControlServer mControlServer = new ControlServer(mQueue);
 
     @FXML
     private Node uiRoot;
@@ -70,13 +82,11 @@ public class MainWindowController
         return "main_window.fxml";
     }
 
-    private AtomicInteger mInDownloadCount = new AtomicInteger(0);
-
     @FXML
     private void initialize() {
 
         uiOpenDownloadFolder.setOnMouseClicked(event ->
-            ThreadUtil.start(() -> {
+            WorkloadExecutors.instance().execute(Workload.Background, () -> {
                 if (!Desktop.isDesktopSupported()) {
                     L.warn("Desktop is not supported: folder can't be opened");
                     return;
@@ -146,7 +156,7 @@ public class MainWindowController
         // Start download button
         uiStartDownload.setOnMouseClicked(event -> {
             L.debug("Starting automatic download");
-            checkForNextVideoToDownload();
+            mQueue.reschedule();
         });
 
         // Enable/disable automatic download based on the automatic download
@@ -157,345 +167,129 @@ public class MainWindowController
         Settings.instance().getDownloadAutomaticallySetting().addListener(
             (setting, enabled) ->  uiStartDownload.setDisable(!enabled));
 
-        loadVideosFromCache();
-    }
-
-    /**
-     * Handles the CTRL + V event by adding a row for the pasted url.
-     */
-    private void handlePaste() {
-        L.debug("Detected CTRL + V or Paste action");
-
-        try {
-            String url = (String) Toolkit.getDefaultToolkit()
-                .getSystemClipboard()
-                .getContents(DataFlavor.stringFlavor)
-                .getTransferData(DataFlavor.stringFlavor);
-
-
-            String identifier = String.valueOf(System.currentTimeMillis());
+        // Applies the download progress of every row at a fixed rate
+        ProgressPulse.instance().start();
 
-            if (!StringUtil.isValid(identifier)) {
-                L.warn("Can't add null string to video list");
-                return;
-            }
-
-            VideoRowController rowController = addVideoToDownloadList(identifier, url, null);
-
-            if (rowController.hasValidProvider()) {
-
-                // Automatically retrieves the video info and stores it
-                ThreadUtil.start(() -> {
-                    DownloadableVideoInfo videoInfo = rowController.retrieveVideoInfo();
-
-                    saveVideoToCache(identifier, url, videoInfo);
-
-                    // Starts the next possible video, if needed
-                    checkForNextVideoToDownload();
-                });
-            }
-
-        } catch (UnsupportedFlavorException | IOException e) {
-            L.error("Error occurred while trying to copy data from system clipboard", e);
-        }
+        StartupTimings.instance().critical("queue", mQueue::load);
 
+        startControlServer();
     }
 
     /**
-     * Adds the video row for the given url and identifier.
-     * @param identifier the identifier of the video row
-     * @param url the url of the video
-     * @param videoInfo additional video info used for initialize the video row
-     * @return the controller of the added row
+     * Releases the resources held by the window, e.g. the control API.
      */
-    private VideoRowController addVideoToDownloadList(
-        String identifier, String url, DownloadableVideoInfo videoInfo) {
-        L.info("Adding video [" + identifier + "] with URL: " + url);
-
-        VideoRowController videoController = new VideoRowController(
-            url, identifier, this, videoInfo
-        );
-
-        Node videoRow = videoController.createNode();
-
-        mVideoRows.put(videoController, videoRow);
-
-        uiDownloadList.getItems().add(videoRow);
-
-        // Scroll to bottom
-        uiDownloadList.scrollTo(uiDownloadList.getItems().size() - 1);
-
-        return videoController;
+    public void dispose() {
+        mControlServer.stop();
     }
 
     /**
-     * Loads the video rows from the file system.
+     * Handles the CTRL + V event by adding a row for each pasted url.
+     * <p>
+     * The clipboard can contain either text with one url for each line
+     * or files that contain one url for each line; duplicated urls and
+     * urls already in the list are ignored.
      */
-    private void loadVideosFromCache() {
-        File[] videos = Config.Folders.VIDEOS.listFiles();
-        if (videos == null)
-            return;
-
-        Arrays.sort(videos);
-
-        if (videos.length == 0) {
-            L.debug("No video to load from cache");
-            return;
-        }
-
-        for (File video : videos) {
-            L.debug("Loading video from cache with identifier: " + video.getName());
-
-            Map<String, String> videoKeyVals = new KeyValueFileHandler(
-                video, Config.VideoCache.SEPARATOR
-            ).readAll();
-
-            DownloadableVideoInfo videoInfo = new DownloadableVideoInfo();
-
-            videoInfo.title = videoKeyVals.get(Config.VideoCache.KEY_TITLE);
-            videoInfo.filename = videoKeyVals.get(Config.VideoCache.KEY_FILENAME);
-            videoInfo.directLink = videoKeyVals.get(Config.VideoCache.KEY_DIRECT_LINK);
-
-            String sizeStr = videoKeyVals.get(Config.VideoCache.KEY_SIZE);
-            videoInfo.size = StringUtil.isValid(sizeStr) ? Long.valueOf(sizeStr) : 0;
-
-            String url = videoKeyVals.get(Config.VideoCache.KEY_URL);
+    private void handlePaste() {
+        L.debug("Detected CTRL + V or Paste action");
 
-            addVideoToDownloadList(video.getName(), url, videoInfo);
-        }
-    }
+        List<String> urls;
 
-    /**
-     * Saves the video to the file system.
-     * @param identifier the identifier of the video, used as filename
-     * @param url the url of the video, used as file's content
-     * @param videoInfo other video info
-     */
-    private void saveVideoToCache(String identifier, String url,
-                                  DownloadableVideoInfo videoInfo) {
-        L.debug("Saving video to cache with following details\n" +
-                "[ID] " + identifier + "\n" +
-                "[URL] " + url + "\n" +
-                videoInfo
-        );
-
-        File outputFile = new File(Config.Folders.VIDEOS, identifier);
-
-        if (FileUtil.exists(outputFile)) {
-            L.warn("Video already exists in cache; are you tyring to download the same video twice?");
+        try {
+            urls = BatchResolver.parseUrls(readClipboard());
+        } catch (UnsupportedFlavorException | IOException e) {
+            L.error("Error occurred while trying to copy data from system clipboard", e);
             return;
         }
 
-        Map<String, String> keyvals = new HashMap<>();
-        keyvals.put(Config.VideoCache.KEY_URL, url);
-        keyvals.put(Config.VideoCache.KEY_TITLE, videoInfo.title);
-        keyvals.put(Config.VideoCache.KEY_FILENAME, videoInfo.filename);
-        keyvals.put(Config.VideoCache.KEY_DIRECT_LINK, videoInfo.directLink);
-        keyvals.put(Config.VideoCache.KEY_SIZE, String.valueOf(videoInfo.size));
-
-        new KeyValueFileHandler(
-            outputFile,
-            Config.VideoCache.SEPARATOR
-        ).writeAll(keyvals);
-    }
-
-    /**
-     * Deletes the video from the file system.
-     * @param identifier the identifier of the video to remove
-     */
-    private void deleteVideoFromCache(String identifier) {
-        L.debug("Deleting video from cache with identifier: " + identifier);
-        FileUtil.delete(new File(Config.Folders.VIDEOS, identifier));
+        // Rows are added immediately, the info are filled in as soon
+        // as each video is resolved
+        mQueue.add(urls);
     }
 
     /**
-     * Eventually starts the next available video if the download automatically
-     * setting is enabled and it won't exceed the simultaneous video limit.
+     * Returns the content of the system clipboard as text; if the clipboard
+     * contains files, their contents are returned.
+     * @return the content of the clipboard
+     * @throws UnsupportedFlavorException if the clipboard contains neither
+     *                                    text nor files
+     * @throws IOException if the content can't be read
      */
-    private void checkForNextVideoToDownload() {
-        // Automatically start the first available video if required
-        if (!Settings.instance().getDownloadAutomaticallySetting().getValue()) {
-            L.debug("Automatic download disabled, nothing to start");
-            return;
-        }
-
-        ThreadUtil.start(() -> {
-            Settings.AutomaticDownloadStrategy strategy =
-                Settings.instance().getAutomaticDownloadStrategySetting().getValue();
-
-            boolean stillToDownload;
-            do {
-                if (strategy == Settings.AutomaticDownloadStrategy.Static) {
-                    L.debug("Checking for automatic download using 'Static' strategy");
-                    stillToDownload = checkForNextVideoToDownloadStaticStrategy();
-                } else if (strategy == Settings.AutomaticDownloadStrategy.Adaptive) {
-                    L.debug("Checking for automatic download using 'Adaptive' strategy");
-                    stillToDownload = checkForNextVideoToDownloadAdaptiveStrategy();
-                    L.debug("Waiting " +
-                        Config.Download.ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_AFTER_A_DOWNLOAD +
-                        " before check again for a download");
-                    ThreadUtil.sleep(Config.Download.ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_AFTER_A_DOWNLOAD * 1000);
-                } else {
-                    L.warn("Do not know strategy: " + strategy);
-                    stillToDownload = false;
-                }
-            } while (stillToDownload);
-        });
-    }
-
-    /*
-     * The logic of the static strategy is just download until the current
-     * download count is lower than the specified limit, eventually referred
-     * to each provider.
-     */
-    private VideoRowController getNextVideoToDownloadUsingStaticStrategy() {
-        int downloadLimit  = Settings.instance().getSimultaneousVideoLimitSetting().getValue();
-        boolean forEachProvider = Settings.instance().getSimultaneousVideoForEachProvider().getValue();
-
-        Map<VideoProvider, Integer> inDownloadVideos = getInDownloadVideos();
-        int inDownloadCount = 0;
-
-        for (Integer count : inDownloadVideos.values()) {
-            inDownloadCount += count;
-        }
-
-        L.debug("There are " + inDownloadCount + " video in download");
-        L.debug("The download limit is: " + downloadLimit);
-        L.debug("Referred to each provider: " + forEachProvider);
+    @SuppressWarnings("unchecked")
+    private static String readClipboard() throws UnsupportedFlavorException, IOException {
+        Transferable contents = Toolkit.getDefaultToolkit()
+            .getSystemClipboard()
+            .getContents(null);
 
-        // Check if the download count exceed the limit, but only if forEachProvider
-        // is not true and so the limit is referred to a global limit
-        if (!forEachProvider && inDownloadCount >= downloadLimit) {
-            L.debug("Video won't be started automatically since it would exceed the limit");
+        if (contents == null)
             return null;
-        }
-
-        L.debug("Searching for the first available video to start automatically");
 
-        for (Map.Entry<VideoRowController, Node> row : mVideoRows.entrySet()) {
-            VideoRowController video = row.getKey();
-            if (video.getState() == VideoRowController.VideoDownloadState.ToDownload) {
+        if (contents.isDataFlavorSupported(DataFlavor.javaFileListFlavor)) {
+            StringBuilder text = new StringBuilder();
 
-                int inDownloadForProvider = inDownloadVideos.getOrDefault(video.getProvider(), 0);
-
-                if (inDownloadForProvider < downloadLimit) {
-                    L.debug("Found video still to download, automatically downloading it");
-                    return video;
-                }
+            for (File file : (List<File>) contents.getTransferData(DataFlavor.javaFileListFlavor)) {
+                L.debug("Reading urls from file: " + file);
+                text.append(new String(
+                    Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)).append('\n');
             }
+
+            return text.toString();
         }
 
-        L.debug("No video to download found, doing nothing");
-        return null;
+        return (String) contents.getTransferData(DataFlavor.stringFlavor);
     }
 
-    /*
-     * The logic of the adaptive strategy is start to download videos until
-     * one of the following conditions is met.
-     * 1) Just like static download, if the current download count is not lower
-     * then the specified limit, nothing else is automatically put in download
-     * 2) Moreover, if the current sum of the download bandwidth exceed the
-     * specified limit, nothing else is automatically put in download
-     */
-    private boolean checkForNextVideoToDownloadAdaptiveStrategy() {
-        VideoRowController videoToDownload = getNextVideoToDownloadUsingStaticStrategy();
-        if (videoToDownload == null)
-            return false; // Nothing even with static strategy, doing nothing
-
-        L.debug("Found video that could be download, checking for bandwidth" +
-                " before proceed");
-
-        int bandwidthLimit = Settings.instance().getBandwidthLimit().getValue();
-        L.debug("Bandwidth limit is: " + (bandwidthLimit / 1000) + "KB/s");
-
-        // Check for at least a few second if the current bandwidth is below the threshold
-        int attemptAt0Bandwidth = 0;
-        for (int attempt = 0; attempt < Config.Download.ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_UNDER_THRESHOLD_BEFORE_DOWNLOAD; attempt++) {
-            int currentBandwidth = 0;
-
-            // Unlike static strategy, here we have to check for bandwidth too
-            for (Map.Entry<VideoRowController, Node> row : mVideoRows.entrySet()) {
-                VideoRowController video = row.getKey();
-                int bw = video.getInstantBandwidth();
-                L.debug("Bandwidth of video " + video.getVideoInfo().title + " is " + (bw / 1000) + "KB/s");
-                currentBandwidth += bw;
-            }
-
-            L.debug("#" + (attempt + 1) + " Total current bandwidth is " + (currentBandwidth / 1000) + "KB/s");
-
-            if (currentBandwidth > bandwidthLimit) {
-                L.debug("Can't download since bandwidth limit would be exceeded");
-                return false; // Current bandwidth is above the threshold, doing nothing
-            }
-
-            if (currentBandwidth <= 0) {
-                attemptAt0Bandwidth++;
-            }
+    @Override
+    public void onDownloadAdded(VideoDownload download) {
+        runOnUIThread(() -> {
+            VideoRowController rowController = new VideoRowController(download, this);
+            download.addObserver(rowController);
 
-            if (attemptAt0Bandwidth ==
-                Config.Download.ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_UNDER_THRESHOLD_BEFORE_DOWNLOAD_IF_CURRENT_BANDWIDTH_IS_0) {
-                break;
-            }
+            Node videoRow = rowController.createNode();
+            mVideoRows.put(download, videoRow);
 
-            if (attempt < Config.Download.ADAPTIVE_STRATEGY_SECONDS_TO_WAIT_UNDER_THRESHOLD_BEFORE_DOWNLOAD - 1) {
-                L.debug("Current bandwidth is below the threshold, waiting 1s before next check...");
-                ThreadUtil.sleep(1000);
-            }
-        }
-
-        // If we are here, then for at least a few seconds the current bandwidth has been
-        // below than the limit, thus actually download the video
+            uiDownloadList.getItems().add(videoRow);
 
-        L.debug("Actually downloading video using 'Adaptive' strategy");
-        videoToDownload.download();
-        return true;
-    }
-
-    private boolean checkForNextVideoToDownloadStaticStrategy() {
-        VideoRowController videoToDownload = getNextVideoToDownloadUsingStaticStrategy();
-        if (videoToDownload == null)
-            return false;
-        videoToDownload.download();
-        return true;
+            // Scroll to bottom
+            uiDownloadList.scrollTo(uiDownloadList.getItems().size() - 1);
+        });
     }
 
-    private Map<VideoProvider, Integer> getInDownloadVideos() {
-        Map<VideoProvider, Integer> inDownloadVideos = new HashMap<>();
-
-        for (Map.Entry<VideoRowController, Node> row : mVideoRows.entrySet()) {
-            VideoRowController videoRow = row.getKey();
-            if (videoRow.getState() == VideoRowController.VideoDownloadState.Downloading) {
-                inDownloadVideos.put(
-                    videoRow.getProvider(),
-                    inDownloadVideos.getOrDefault(videoRow.getProvider(), 0) + 1
-                );
-            }
-        }
-
-        return inDownloadVideos;
+    @Override
+    public void onDownloadRemoved(VideoDownload download) {
+        runOnUIThread(() -> {
+            L.debug("Removing row of video");
+            uiDownloadList.getItems().remove(mVideoRows.remove(download));
+        });
     }
 
     @Override
     public void onRowRemovalRequired(VideoRowController row) {
-        L.debug("Removing row of video");
-        uiDownloadList.getItems().remove(mVideoRows.remove(row));
-
-        deleteVideoFromCache(row.getIdentifier());
-
-        checkForNextVideoToDownload();
+        mQueue.remove(row.getDownload());
     }
 
-    @Override
-    public void onDownloadEnd(VideoRowController row) {
-        if (Settings.instance().getRemoveAfterDownloadSetting().getValue()) {
-            L.debug("Removing row of downloaded video");
-            uiDownloadList.getItems().remove(mVideoRows.remove(row));
+    private void startControlServer() {
+        int port = Settings.instance().getControlApiPortSetting().getValue();
+
+        if (port <= 0) {
+            L.debug("Control API is disabled");
+            return;
         }
 
-        // Delete even if remove_after_download is disabled since there is
-        // no need to keep a downloaded video in the cache
-        deleteVideoFromCache(row.getIdentifier());
+        try {
+            mControlServer.start(port);
+        } catch (IOException e) {
+            L.error("Can't start control API on port " + port, e);
+        }
+    }
 
-        checkForNextVideoToDownload();
+    /**
+     * Runs the given action in the JavaFX application thread.
+     * @param action the action
+     */
+    private static void runOnUIThread(Runnable action) {
+        if (Platform.isFxApplicationThread())
+            action.run();
+        else
+            Platform.runLater(action);
     }
 }
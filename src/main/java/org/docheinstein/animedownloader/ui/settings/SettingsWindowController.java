@@ -12,6 +12,7 @@ import org.docheinstein.commons.file.FileUtil;
 import org.docheinstein.commons.javafx.FXUtil;
 import org.docheinstein.commons.logger.DocLogger;
 import org.docheinstein.animedownloader.settings.Settings;
+import org.docheinstein.animedownloader.settings.SettingsEditor;
 import org.docheinstein.commons.types.StringUtil;
 
 import java.io.File;
@@ -60,6 +61,15 @@ public class SettingsWindowController implements InstantiableController {
     @FXML
     private Spinner<Double> uiBandwidthLimit;
 
+    @FXML
+    private Spinner<Integer> uiDownloadConnections;
+
+    @FXML
+    private Spinner<Double> uiDownloadRateLimit;
+
+    @FXML
+    private Spinner<Double> uiDownloadRateLimitForEachProvider;
+
     @FXML
     private Button uiChromeDriverButton;
 
@@ -70,6 +80,12 @@ public class SettingsWindowController implements InstantiableController {
     @FXML
     private CheckBox uiChromeDriverGhostMode;
 
+    @FXML
+    private CheckBox uiChromeDriverLightweightMode;
+
+    @FXML
+    private Spinner<Integer> uiChromeDriverPoolSize;
+
 
     @FXML
     private Button uiFFmpegButton;
@@ -77,6 +93,12 @@ public class SettingsWindowController implements InstantiableController {
     @FXML
     private Label uiFFmpeg;
 
+    @FXML
+    private CheckBox uiFFmpegStreaming;
+
+    @FXML
+    private Spinner<Integer> uiControlApiPort;
+
     @FXML
     private CheckBox uiLogging;
 
@@ -139,10 +161,27 @@ public class SettingsWindowController implements InstantiableController {
         uiSimultaneousVideoLimit.setValueFactory(
             new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 10));
 
+        uiControlApiPort.setValueFactory(
+            new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 65535));
+
         uiBandwidthLimit.setValueFactory(
             new SpinnerValueFactory.DoubleSpinnerValueFactory(0, 100, 1, 0.1)
         );
 
+        uiDownloadConnections.setValueFactory(
+            new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 16));
+
+        uiDownloadRateLimit.setValueFactory(
+            new SpinnerValueFactory.DoubleSpinnerValueFactory(0, 100, 0, 0.1)
+        );
+
+        uiDownloadRateLimitForEachProvider.setValueFactory(
+            new SpinnerValueFactory.DoubleSpinnerValueFactory(0, 100, 0, 0.1)
+        );
+
+        uiChromeDriverPoolSize.setValueFactory(
+            new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 10));
+
 
         setCurrentDownloadFolderValue(
             Settings.instance().getDownloadFolderSetting().getValue().getAbsolutePath());
@@ -158,12 +197,26 @@ public class SettingsWindowController implements InstantiableController {
             Settings.instance().getSimultaneousVideoForEachProvider().getValue());
         setBandwidthLimit(
             ((double) Settings.instance().getBandwidthLimit().getValue()) / Const.Units.MB);
+        setDownloadConnectionsValue(
+            Settings.instance().getDownloadConnectionsSetting().getValue());
+        setDownloadRateLimit(
+            ((double) Settings.instance().getDownloadRateLimitSetting().getValue()) / Const.Units.MB);
+        setDownloadRateLimitForEachProvider(
+            ((double) Settings.instance().getDownloadRateLimitForEachProviderSetting().getValue()) / Const.Units.MB);
         setChromeDriverFile(
             Settings.instance().getChromeDriverSetting().getValue());
         setChromeDriverGhostModeValue(
             Settings.instance().getChromeDriverGhostModeSetting().getValue());
+        setChromeDriverLightweightModeValue(
+            Settings.instance().getChromeDriverLightweightModeSetting().getValue());
+        setChromeDriverPoolSizeValue(
+            Settings.instance().getChromeDriverPoolSizeSetting().getValue());
         setFFmpegFile(
             Settings.instance().getFFmpegSettings().getValue());
+        setFFmpegStreamingValue(
+            Settings.instance().getFFmpegStreamingSetting().getValue());
+        setControlApiPortValue(
+            Settings.instance().getControlApiPortSetting().getValue());
         setLoggingValue(
             Settings.instance().getLoggingSetting().getValue());
         setFlushValue(
@@ -255,6 +308,18 @@ public class SettingsWindowController implements InstantiableController {
         uiBandwidthLimit.getValueFactory().setValue(mbps);
     }
 
+    private void setDownloadConnectionsValue(int value) {
+        uiDownloadConnections.getValueFactory().setValue(value);
+    }
+
+    private void setDownloadRateLimit(double mbps) {
+        uiDownloadRateLimit.getValueFactory().setValue(mbps);
+    }
+
+    private void setDownloadRateLimitForEachProvider(double mbps) {
+        uiDownloadRateLimitForEachProvider.getValueFactory().setValue(mbps);
+    }
+
     private void setChromeDriverFile(File file) {
         uiChromeDriver.setText(file != null ? file.getAbsolutePath() : "");
     }
@@ -263,10 +328,26 @@ public class SettingsWindowController implements InstantiableController {
         uiChromeDriverGhostMode.selectedProperty().setValue(value);
     }
 
+    private void setChromeDriverLightweightModeValue(boolean value) {
+        uiChromeDriverLightweightMode.selectedProperty().setValue(value);
+    }
+
+    private void setChromeDriverPoolSizeValue(int value) {
+        uiChromeDriverPoolSize.getValueFactory().setValue(value);
+    }
+
+    private void setControlApiPortValue(int value) {
+        uiControlApiPort.getValueFactory().setValue(value);
+    }
+
     private void setFFmpegFile(File file) {
         uiFFmpeg.setText(file != null ? file.getAbsolutePath() : null);
     }
 
+    private void setFFmpegStreamingValue(boolean value) {
+        uiFFmpegStreaming.selectedProperty().setValue(value);
+    }
+
     private void setLoggingValue(boolean value) {
         uiLogging.selectedProperty().setValue(value);
     }
@@ -282,39 +363,57 @@ public class SettingsWindowController implements InstantiableController {
         L.debug("Settings will be actually saved");
 
         Settings s = Settings.instance();
+        SettingsEditor editor = s.edit();
 
         Settings.AutomaticDownloadStrategy strat = uiAutomaticDownloadStrategy.getValue();
 
-        s.getDownloadFolderSetting().updateSetting(
+        editor.set(s.getDownloadFolderSetting(),
             new File(uiDownloadFolder.getText()));
-        s.getRemoveAfterDownloadSetting().updateSetting(
+        editor.set(s.getRemoveAfterDownloadSetting(),
             uiRemoveAfterDownload.isSelected());
-        s.getDownloadAutomaticallySetting().updateSetting(
+        editor.set(s.getDownloadAutomaticallySetting(),
             uiDownloadAutomatically.isSelected());
-        s.getAutomaticDownloadStrategySetting().updateSetting(
+        editor.set(s.getAutomaticDownloadStrategySetting(),
             strat);
-        s.getSimultaneousVideoLimitSetting().updateSetting(
+        editor.set(s.getSimultaneousVideoLimitSetting(),
             uiSimultaneousVideoLimit.getValue());
-        s.getSimultaneousVideoForEachProvider().updateSetting(
+        editor.set(s.getSimultaneousVideoForEachProvider(),
             uiSimultaneousVideoForEachProvider.isSelected());
-        s.getBandwidthLimit().updateSetting(
+        editor.set(s.getBandwidthLimit(),
             strat == Settings.AutomaticDownloadStrategy.Adaptive ?
                 ((int) (uiBandwidthLimit.getValue() * Const.Units.MB)) :
                 0);
-        s.getChromeDriverSetting().updateSetting(
+        editor.set(s.getDownloadConnectionsSetting(),
+            uiDownloadConnections.getValue());
+        editor.set(s.getDownloadRateLimitSetting(),
+            (int) (uiDownloadRateLimit.getValue() * Const.Units.MB));
+        editor.set(s.getDownloadRateLimitForEachProviderSetting(),
+            (int) (uiDownloadRateLimitForEachProvider.getValue() * Const.Units.MB));
+        editor.set(s.getChromeDriverSetting(),
             new File(uiChromeDriver.getText()));
-        s.getChromeDriverGhostModeSetting().updateSetting(
+        editor.set(s.getChromeDriverGhostModeSetting(),
             uiChromeDriverGhostMode.isSelected());
-        s.getLoggingSetting().updateSetting(
+        editor.set(s.getChromeDriverLightweightModeSetting(),
+            uiChromeDriverLightweightMode.isSelected());
+        editor.set(s.getChromeDriverPoolSizeSetting(),
+            uiChromeDriverPoolSize.getValue());
+        editor.set(s.getFFmpegStreamingSetting(),
+            uiFFmpegStreaming.isSelected());
+        editor.set(s.getControlApiPortSetting(),
+            uiControlApiPort.getValue());
+        editor.set(s.getLoggingSetting(),
             uiLogging.isSelected());
-        s.getFlushSetting().updateSetting(
+        editor.set(s.getFlushSetting(),
             uiFlush.isSelected());
 
         String ffmpeg = uiFFmpeg.getText();
 
-        s.getFFmpegSettings().updateSetting(
+        editor.set(s.getFFmpegSettings(),
             StringUtil.isValid(ffmpeg) ? new File(ffmpeg) : null
         );
+
+        // Saved all together
+        editor.commit();
     }
 
     /**
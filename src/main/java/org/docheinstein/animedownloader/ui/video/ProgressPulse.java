@@ -0,0 +1,85 @@
+package org.docheinstein.animedownloader.ui.video;
+
+import javafx.animation.AnimationTimer;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the download progress of every video row in a single UI pass
+ * at a fixed rate.
+ * <p>
+ * The download threads only record the latest progress in their videos;
+ * this pulse, which runs in the JavaFX application thread, periodically
+ * reads it and updates the rows, so that the amount of UI work doesn't
+ * depend on the amount or the speed of the downloads.
+ */
+public class ProgressPulse {
+
+    private static final ProgressPulse INSTANCE = new ProgressPulse();
+
+    /** Minimum time between two UI passes (10 Hz). */
+    private static final long PULSE_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** Rows whose download is in progress. */
+    private final Set<VideoRowController> mRows = ConcurrentHashMap.newKeySet();
+
+    /** Timer bound to the JavaFX frames. */
+    private final AnimationTimer mTimer = new AnimationTimer() {
+        private long mLastPulseNanos = 0;
+
+        @Override
+        public void handle(long now) {
+            if (now - mLastPulseNanos < PULSE_PERIOD_NANOS)
+                return;
+
+            mLastPulseNanos = now;
+
+            for (VideoRowController row : mRows)
+                row.applyProgress();
+        }
+    };
+
+    /** Whether the timer has been started. */
+    private boolean mStarted = false;
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the instance of this class.
+     */
+    public static ProgressPulse instance() {
+        return INSTANCE;
+    }
+
+    private ProgressPulse() {}
+
+    /**
+     * Starts the pulse, if it is not started yet.
+     * <p>
+     * Must be called from the JavaFX application thread.
+     */
+    public void start() {
+        if (mStarted)
+            return;
+
+        mTimer.start();
+        mStarted = true;
+    }
+
+    /**
+     * Adds a row to the rows updated by the pulse.
+     * @param row the row whose download is started
+     */
+    public void register(VideoRowController row) {
+        mRows.add(row);
+    }
+
+    /**
+     * Removes a row from the rows updated by the pulse.
+     * @param row the row whose download is ended
+     */
+    public void unregister(VideoRowController row) {
+        mRows.remove(row);
+    }
+}
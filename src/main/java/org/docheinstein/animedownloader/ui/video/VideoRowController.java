@@ -11,16 +11,17 @@ import javafx.scene.image.ImageView;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
-import org.docheinstein.animedownloader.downloader.base.VideoDownloader;
+import org.docheinstein.animedownloader.core.DownloadState;
+import org.docheinstein.animedownloader.core.VideoDownload;
+import org.docheinstein.animedownloader.executor.Workload;
+import org.docheinstein.animedownloader.executor.WorkloadExecutors;
+import org.docheinstein.animedownloader.ui.alert.AlertInstance;
 import org.docheinstein.animedownloader.video.DownloadableVideoInfo;
 import org.docheinstein.commons.javafx.FXUtil;
 import org.docheinstein.commons.logger.DocLogger;
 import org.docheinstein.animedownloader.commons.constants.Resources;
-import org.docheinstein.animedownloader.downloader.base.VideoDownloadObserver;
-import org.docheinstein.animedownloader.settings.Settings;
 import org.docheinstein.animedownloader.ui.base.InstantiableController;
 import org.docheinstein.animedownloader.video.VideoProvider;
-import org.docheinstein.commons.thread.ThreadUtil;
 import org.docheinstein.commons.types.StringUtil;
 
 import java.awt.Desktop;
@@ -30,21 +31,15 @@ import java.io.IOException;
 import static org.docheinstein.animedownloader.commons.constants.Const.Math.M;
 
 /**
- * Controller for a video row
+ * Controller for a video row, which presents a {@link VideoDownload}.
  */
 public class VideoRowController
-    implements InstantiableController, VideoDownloadObserver {
+    implements InstantiableController, VideoDownload.Observer {
 
     /**
      * Observer of this video row.
      */
     public interface VideoRowObserver {
-        /**
-         * Called when the download ends.
-         * @param row the row controller to remove
-         */
-        void onDownloadEnd(VideoRowController row);
-
         /**
          * Called when the video row is asked to be removed
          * @param row the row controller to remove
@@ -55,58 +50,17 @@ public class VideoRowController
     private static final DocLogger L =
         DocLogger.createForClass(VideoRowController.class);
 
-    /**
-     * State of the video download.
-     */
-    public enum VideoDownloadState {
-        /** The video should still be downloaded.* */
-        ToDownload,
-
-        /** The video will be downloaded but now is in initialization
-         * (e.g. loading video name/size).
-         */
-        Initializing,
-
-        /** The download of the video is in progress. */
-        Downloading,
-
-        /** The video has been download successfully. */
-        Downloaded,
-
-        /** The video began but has been aborted. */
-        Aborted
-    }
-
-    /** Current video state. */
-    private VideoDownloadState mCurrentVideoState = VideoDownloadState.ToDownload;
-
-    /** Identifier of the video represented by this controller. */
-    private final String mIdentifier;
+    /** Video presented by this row. */
+    private final VideoDownload mDownload;
 
     /** Observers of this video row. */
     private final VideoRowObserver mObserver;
 
-    private DownloadableVideoInfo mVideoInfo;
+    /** Last displayed downloaded megabytes, for skip redundant updates. */
+    private long mDisplayedMegabytes = -1;
 
-    /** Link of the video to download. */
-    private final String mUrl;
-
-    /** Time of the last chunk download (kept for calculate the download speed). */
-    private long mLastDownloadChunkMillis;
-
-    /** Bytes downloaded as of the last chunk download (kept for calculate the download speed). */
-    private long mLastDownloadChunkBytes = 0;
-
-    private int mLastBytesPerSecond = 0;
-
-    /** Underlying download used for actually download the video.*/
-    private VideoDownloader mDownloader;
-
-    /** Detected provider of the video to download. */
-    private VideoProvider mProvider;
-
-    /** Folder the video will be download to. */
-    private File mDownloadFolder;
+    /** Last displayed speed in kilobytes per second, for skip redundant updates. */
+    private long mDisplayedKilobytesPerSecond = -1;
 
 
     @FXML
@@ -142,6 +96,9 @@ public class VideoRowController
     @FXML
     private Label uiSpeed;
 
+    @FXML
+    private Label uiConcurrency;
+
     @FXML
     private Pane uiSpeedContainer;
 
@@ -157,24 +114,14 @@ public class VideoRowController
         return "video_row.fxml";
     }
 
-    public VideoRowController(String url, String identifier,
-                              VideoRowObserver observer) {
-        this(url, identifier, observer, null);
-    }
-
-
-    public VideoRowController(String url, String identifier,
-                              VideoRowObserver observer, DownloadableVideoInfo videoInfo) {
-        mUrl = url;
-        mIdentifier = identifier;
+    public VideoRowController(VideoDownload download, VideoRowObserver observer) {
+        mDownload = download;
         mObserver = observer;
-        mVideoInfo = videoInfo;
     }
 
-
     @FXML
     private void initialize() {
-        mProvider = VideoProvider.getProviderForURL(mUrl);
+        VideoProvider provider = mDownload.getProvider();
 
         // Stuff initialized even if the provider is wrong
 
@@ -182,17 +129,14 @@ public class VideoRowController
         uiRemove.setOnMouseClicked(event -> {
             L.debug("Removing video row");
 
-            if (mCurrentVideoState == VideoDownloadState.Downloading)
-                abortVideoDownload();
-
             // Notify the observer
             notifyRowRemovalRequired();
         });
 
         // Link
-        uiLink.setText(mUrl);
+        uiLink.setText(mDownload.getUrl());
 
-        if (mProvider == null) {
+        if (provider == null) {
             L.warn("The pasted link doesn't belong to any valid provider");
             // Download is not allowed if the provider is not recognized
             FXUtil.setExistent(uiStartStopOpen, false);
@@ -202,196 +146,95 @@ public class VideoRowController
         // Stuff initialized only if the provider is valid
 
         // Logo
-        uiProviderLogo.setImage(mProvider.getLogo());
+        uiProviderLogo.setImage(getLogo(provider));
 
         // Start/Stop button
         uiStartStopOpen.setOnMouseClicked(event -> {
-            if (mCurrentVideoState == VideoDownloadState.ToDownload ||
-                mCurrentVideoState == VideoDownloadState.Aborted)
-                download();
-            else if (mCurrentVideoState == VideoDownloadState.Downloading)
-                abortVideoDownload();
-            else if (mCurrentVideoState == VideoDownloadState.Downloaded)
+            DownloadState state = mDownload.getState();
+
+            if (state == DownloadState.ToDownload ||
+                state == DownloadState.Aborted)
+                mDownload.download();
+            else if (state == DownloadState.Downloading)
+                mDownload.abort();
+            else if (state == DownloadState.Downloaded)
                 openDownloadFolder();
-            else if (mCurrentVideoState == VideoDownloadState.Initializing)
-                L.debug("No action bound to current state(" + mCurrentVideoState + ")");
+            else if (state == DownloadState.Initializing)
+                L.debug("No action bound to current state(" + state + ")");
         });
 
-        updateUI();
-    }
-
-
-    /**
-     * Whether the download url belongs to a known provider.
-     * @return whether this video url can be download with a known provider
-     */
-    public boolean hasValidProvider() {
-        return mProvider != null;
-    }
-
-    /**
-     * Returns the video provider of this row.
-     * @return the video provider
-     */
-    public VideoProvider getProvider() {
-        return mProvider;
-    }
-
-    /**
-     * Returns the current state for the download of the video.
-     * @return the video download state
-     */
-    public VideoDownloadState getState() {
-        return mCurrentVideoState;
-    }
-
-    /**
-     * Returns the bandwidth of the last second of download expressed in bytes
-     * per seconds.
-     * @return the instant bandwidth
-     */
-    public int getInstantBandwidth() {
-        if (mCurrentVideoState == VideoDownloadState.Downloading)
-            return mLastBytesPerSecond;
-        return 0;
-    }
-
-    /**
-     * Returns the identifier of the video.
-     * @return the identifier of the video
-     */
-    public String getIdentifier() {
-        return mIdentifier;
-    }
-
-    /**
-     * Returns the video info.
-     * @return the video info
-     */
-    public DownloadableVideoInfo getVideoInfo() {
-        return mVideoInfo;
-    }
-
-    /**
-     * Starts the video download and changes the controller video state.
-     */
-    public void download() {
-        initDownloader();
-
-        L.debug("Download will be processed for url: " + mUrl);
-
-        // Use the given video info if provided instead of reload it
-        // This may be useful for skip the selenium step and directly
-        // download the video which information have already been retrieved
-        mDownloader.useVideoInfo(mVideoInfo);
-
-        changeStateAndUpdateUI(VideoDownloadState.Initializing, true);
-
-        ThreadUtil.start(() -> mDownloader.startDownload());
-    }
+        if (mDownload.getDownloadedBytes() > 0)
+            uiCurrent.setText(String.valueOf(mDownload.getDownloadedBytes() / M));
 
-    /**
-     * Retrieves the video info.
-     * <p>
-     * The info is retrieved from the page, thus the selenium driver is
-     * used for perform the action.
-     * @return the video info
-     */
-    public DownloadableVideoInfo retrieveVideoInfo() {
-        changeStateAndUpdateUI(VideoDownloadState.Initializing, false);
-        initDownloader();
-        mVideoInfo = mDownloader.retrieveVideoInfo();
-        // Update video info accordingly to the just retrieved video info
-        changeStateAndUpdateUI(VideoDownloadState.ToDownload, false);
-        return mVideoInfo;
-    }
-
-    private synchronized void initDownloader() {
-        if (!hasValidProvider()) {
-            L.warn("Can't start video download is provider is invalid");
-            return;
-        }
+        if (mDownload.getState() == DownloadState.Downloading)
+            ProgressPulse.instance().register(this);
 
-        // Initializes if needed, only the first time
-        if (mDownloader == null) {
-            mDownloadFolder = Settings.instance().getDownloadFolderSetting().getValue();
-
-            mDownloader = mProvider.createDownloader(
-                mUrl,
-                mDownloadFolder,
-                Settings.instance().getChromeDriverSetting().getValue(),
-                Settings.instance().getChromeDriverGhostModeSetting().getValue(),
-                VideoRowController.this
-            );
-        }
+        updateUI();
     }
 
     /**
-     * Stops the download of the video.
+     * Returns the video presented by this row.
+     * @return the video
      */
-    private void abortVideoDownload() {
-        if (mDownloader == null) {
-            L.warn("Can't abort download since it is not started yet!");
-            return;
-        }
-
-        mDownloader.abortDownload();
+    public VideoDownload getDownload() {
+        return mDownload;
     }
 
     /**
      * Opens the folder where video has been download to.
      */
     private void openDownloadFolder() {
-        ThreadUtil.start(() -> {
+        WorkloadExecutors.instance().execute(Workload.Background, () -> {
             if (!Desktop.isDesktopSupported()) {
                 L.warn("Desktop is not supported: folder can't be opened");
                 return;
             }
 
+            // The folder of the download is used instead of retrieving the
+            // path from setting since the setting could have been changed
+            // after the video download
+            File downloadFolder = mDownload.getDownloadFolder();
+
             try {
-                // mDownloadFolder is kept instead of retrieving the
-                // path from setting since the setting could have been changed
-                // after the video download
-                L.debug("Trying to open " + mDownloadFolder
+                L.debug("Trying to open " + downloadFolder
                     + " via default file explorer");
-                Desktop.getDesktop().open(mDownloadFolder);
+                Desktop.getDesktop().open(downloadFolder);
             } catch (IOException e) {
-                L.warn("Folder " + mDownloadFolder.getAbsolutePath() + " can't be opened");
+                L.warn("Folder " + downloadFolder.getAbsolutePath() + " can't be opened");
             }
         });
     }
 
-    private void changeStateAndUpdateUI(VideoDownloadState state, boolean fromUIThread) {
-        L.debug("Changing video row state to: " + state +
-                " (updating from ui thread? = " + fromUIThread + ")");
-        mCurrentVideoState = state;
-        updateUI(fromUIThread);
-    }
-
-    private void updateUI(boolean fromUIThread) {
-        if (fromUIThread)
-            updateUI();
+    /**
+     * Runs the given action in the JavaFX application thread.
+     * @param action the action
+     */
+    private static void runOnUIThread(Runnable action) {
+        if (Platform.isFxApplicationThread())
+            action.run();
         else
-            Platform.runLater(this::updateUI);
+            Platform.runLater(action);
     }
 
     private void updateUI() {
+        DownloadState state = mDownload.getState();
+
         // BEGIN Button
 
         String buttonTooltip = null;
         Image buttonImage = null;
 
-        if (mCurrentVideoState == VideoDownloadState.ToDownload ||
-            mCurrentVideoState == VideoDownloadState.Aborted) {
+        if (state == DownloadState.ToDownload ||
+            state == DownloadState.Aborted) {
             buttonTooltip = "Download";
             buttonImage = Resources.UI.START;
         }
-        else if (mCurrentVideoState == VideoDownloadState.Downloading) {
+        else if (state == DownloadState.Downloading) {
             buttonTooltip = "Stop download";
             buttonImage = Resources.UI.STOP;
 
         }
-        else if (mCurrentVideoState == VideoDownloadState.Downloaded) {
+        else if (state == DownloadState.Downloaded) {
             buttonTooltip = "Open video folder";
             buttonImage = Resources.UI.OPEN_FOLDER;
         }
@@ -407,7 +250,7 @@ public class VideoRowController
 
         // Don't let the user do something in transactional phases (.Initializing)
 
-        boolean initialiazing = mCurrentVideoState == VideoDownloadState.Initializing;
+        boolean initialiazing = state == DownloadState.Initializing;
 
         FXUtil.setExistent(uiStartStopOpen, !initialiazing);
         FXUtil.setExistent(uiPreDownloadSpinner, initialiazing);
@@ -416,33 +259,34 @@ public class VideoRowController
 
         // BEGIN Percentage bar
 
-        if (mCurrentVideoState == VideoDownloadState.Downloading)
+        if (state == DownloadState.Downloading)
             // Removes any style (in case of resumed download the bar was orange)
             FXUtil.setClass(uiPercentage, "percentage-bar-background");
-        else if (mCurrentVideoState == VideoDownloadState.Downloaded) {
+        else if (state == DownloadState.Downloaded) {
             FXUtil.addClass(uiPercentage, "finished");
             AnchorPane.setRightAnchor(uiPercentage, (double) 0); // Attach to right
         }
-        else if (mCurrentVideoState == VideoDownloadState.Aborted)
+        else if (state == DownloadState.Aborted) {
             FXUtil.addClass(uiPercentage, "aborted");
+            // Shows the progress reached before the abort
+            applyProgress();
+        }
 
         // END Percentage bar
 
         // BEGIN Video info
 
-        if (mVideoInfo != null) {
-            if (StringUtil.isValid(mVideoInfo.title))
-                onVideoTitleDetected(mVideoInfo.title);
-            if (mVideoInfo.size > 0)
-                onVideoSizeDetected(mVideoInfo.size, true);
-        }
+        updateVideoInfo();
 
         // END Video info
 
         // BEGIN Download finished
 
-        if (mCurrentVideoState == VideoDownloadState.Downloaded) {
-            uiCurrent.setText(String.valueOf(mVideoInfo.size / M));
+        DownloadableVideoInfo videoInfo = mDownload.getVideoInfo();
+
+        if (state == DownloadState.Downloaded) {
+            if (videoInfo != null)
+                uiCurrent.setText(String.valueOf(videoInfo.size / M));
             uiSpeedContainer.setVisible(false);
         }
 
@@ -451,130 +295,109 @@ public class VideoRowController
         // BEGIN Download info
 
         uiDownloadInfo.setVisible(
-            mCurrentVideoState == VideoDownloadState.Downloading ||
-            mCurrentVideoState == VideoDownloadState.Aborted
+            state == DownloadState.Downloading ||
+            state == DownloadState.Aborted
         );
 
         // END Download info
     }
 
-    @Override
-    public void onVideoDownloadStarted() {
-        L.info("Download of " + mVideoInfo.title + " is actually started");
-        mLastDownloadChunkMillis = System.currentTimeMillis();
-        changeStateAndUpdateUI(VideoDownloadState.Downloading, false);
-    }
+    private void updateVideoInfo() {
+        DownloadableVideoInfo videoInfo = mDownload.getVideoInfo();
 
-    @Override
-    public void onVideoDownloadProgress(long downloadedBytes, long millis) {
-        if (mCurrentVideoState != VideoDownloadState.Downloading) {
-            L.warn("Video download progress callback received even if the " +
-                   "video is not downloading; doing nothing");
+        if (videoInfo == null)
             return;
-        }
-
-        L.verbose("Downloaded bytes: " + downloadedBytes + " of " + mVideoInfo.size);
-
-        long deltaMillis = millis - mLastDownloadChunkMillis;
-        long deltaBytes = downloadedBytes - mLastDownloadChunkBytes;
-
-        mLastDownloadChunkBytes = downloadedBytes;
-        mLastDownloadChunkMillis = millis;
 
-        // deltaMillis : deltaBytes = 1000 : mLastBytesPerSecond
-        // mLastBytesPerSecond = deltaBytes  * 1000 / deltaMillis
+        if (StringUtil.isValid(videoInfo.title))
+            uiTitle.setText(videoInfo.title);
 
-        int kilobytesPerSecond = Integer.max(0, (int) (deltaBytes / deltaMillis));
-        mLastBytesPerSecond = Integer.max(0, (int) (deltaBytes * 1000 / deltaMillis));
+        if (videoInfo.size > 0) {
+            String videoSizeString = String.valueOf(videoInfo.size / M);
+            uiSize.setText(mDownload.isSizeCertain() ? videoSizeString : "~" + videoSizeString);
+        }
+    }
 
-        L.verbose("Delta time: " + deltaMillis);
-        L.verbose("Delta bytes: " + deltaBytes);
-        L.verbose("KB/s = dt/dbytes = " + kilobytesPerSecond);
+    /**
+     * Applies the latest download progress and speed of the video to the UI.
+     * <p>
+     * Must be called from the JavaFX application thread.
+     */
+    void applyProgress() {
+        long downloadedBytes = mDownload.getDownloadedBytes();
 
-        double rateo = (double) downloadedBytes / (double) mVideoInfo.size;
-        double percentage = rateo * 100;
+        long megabytes = downloadedBytes / M;
+        if (megabytes != mDisplayedMegabytes) {
+            mDisplayedMegabytes = megabytes;
+            uiCurrent.setText(String.valueOf(megabytes));
+        }
 
-        L.verbose("Download percentage = " + String.format("%1$,.2f", percentage) + "%");
+        long kilobytesPerSecond = Math.max(0, mDownload.getInstantBandwidth() / 1000);
+        if (kilobytesPerSecond != mDisplayedKilobytesPerSecond) {
+            mDisplayedKilobytesPerSecond = kilobytesPerSecond;
+            uiSpeed.setText(String.valueOf(kilobytesPerSecond));
+        }
 
-        double parentWidth = uiRoot.getWidth();
-        double percentageBarWidth = parentWidth *
-            /* rateo */ (double) downloadedBytes / (double) mVideoInfo.size;
+        DownloadableVideoInfo videoInfo = mDownload.getVideoInfo();
 
-        Platform.runLater(() -> {
-            uiCurrent.setText(String.valueOf(downloadedBytes / M));
+        if (videoInfo != null && videoInfo.size > 0) {
+            double parentWidth = uiRoot.getWidth();
+            double rateo = Math.min(1, (double) downloadedBytes / (double) videoInfo.size);
 
-            if (kilobytesPerSecond >= 0) {
-                uiSpeed.setText(String.valueOf(kilobytesPerSecond));
-            } else {
-                L.warn("Download speed below 0; WTF?");
-                uiSpeed.setText("0");
-            }
+            AnchorPane.setRightAnchor(uiPercentage, parentWidth - parentWidth * rateo);
+        }
+    }
 
-            double newPercentageBarAnchor = parentWidth - percentageBarWidth;
+    @Override
+    public void onStateChanged(VideoDownload download, DownloadState state) {
+        L.debug("Updating video row to state: " + state);
 
-            // Progress bar should always go forward
-            // Double rightAnchor = AnchorPane.getRightAnchor(uiPercentage);
+        // Progress is applied by the ProgressPulse while downloading
+        if (state == DownloadState.Downloading)
+            ProgressPulse.instance().register(this);
+        else
+            ProgressPulse.instance().unregister(this);
 
-            // if (rightAnchor == null
-                // Allow negative progress in case of resumed download
-                // that doesn't support resume (VVVVID)
-                /*|| newPercentageBarAnchor < rightAnchor*/
-            //    )
-                AnchorPane.setRightAnchor(
-                    uiPercentage,
-                    newPercentageBarAnchor
-                );
-        });
+        runOnUIThread(this::updateUI);
     }
 
     @Override
-    public void onVideoDownloadFinished() {
-        L.info("Download of " + mVideoInfo.title + " is finished");
-        changeStateAndUpdateUI(VideoDownloadState.Downloaded, false);
-        notifyDownloadEnd();
+    public void onInfoChanged(VideoDownload download) {
+        runOnUIThread(this::updateVideoInfo);
     }
 
     @Override
-    public void onVideoDownloadAborted() {
-        L.info("Download of " + mVideoInfo.title + " has been aborted");
-        changeStateAndUpdateUI(VideoDownloadState.Aborted, false);
+    public void onProgress(VideoDownload download, long downloadedBytes) {
+        // Applied to the UI by the ProgressPulse
     }
 
     @Override
-    public void onVideoTitleDetected(String title) {
-        if (mVideoInfo == null)
-            mVideoInfo = new DownloadableVideoInfo();
-        mVideoInfo.title = title;
-        Platform.runLater(() -> uiTitle.setText(title));
+    public void onConcurrencyChanged(VideoDownload download, int concurrentRequests) {
+        runOnUIThread(() -> {
+            uiConcurrency.setText(concurrentRequests + " parallel segments");
+            FXUtil.setExistent(uiConcurrency, true);
+        });
     }
 
     @Override
-    public void onVideoSizeDetected(long videoSizeBytes, boolean certainly) {
-        if (mVideoInfo == null)
-            mVideoInfo = new DownloadableVideoInfo();
-        mVideoInfo.size = videoSizeBytes;
-        final String videoSizeString = String.valueOf(mVideoInfo.size / M);
-
-        Platform.runLater(() ->
-            uiSize.setText(
-                certainly ?
-                    videoSizeString :
-                    "~" + videoSizeString));
+    public void onConversionFailed(VideoDownload download) {
+        runOnUIThread(AlertInstance.MP4ConversionFailed::show);
     }
 
     /**
-     * Notifies the observer about download end.
+     * Returns the logo associated with the given provider.
+     * @param provider the provider
+     * @return the provider's logo
      */
-    private void notifyDownloadEnd() {
-        // Notify the observer
-        if (mObserver == null) {
-            L.warn("Null observer of video row, can't notify");
-            return;
+    private static Image getLogo(VideoProvider provider) {
+        switch (provider) {
+        case Openload:
+            return Resources.UI.OPENLOAD;
+        case VVVVID:
+            return Resources.UI.VVVVID;
+        case Streamango:
+            return Resources.UI.STREAMANGO;
         }
-
-        L.debug("Notifying observer about download end");
-
-        mObserver.onDownloadEnd(this);
+        return null;
     }
 
     /**
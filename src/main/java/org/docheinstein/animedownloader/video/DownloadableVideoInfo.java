@@ -17,12 +17,16 @@ public class DownloadableVideoInfo {
     /** Size in byte of the video. */
     public long size = 0; // bytes
 
+    /** Whether the server of the direct link accepts byte range requests. */
+    public boolean acceptRanges = false;
+
     @Override
     public String toString() {
         return
             "[DIRECT_LINK]: " + directLink + "\n" +
             "[FILENAME]: " + filename + "\n" +
             "[TITLE]: " + title + "\n" +
-            "[SIZE]: " + size;
+            "[SIZE]: " + size + "\n" +
+            "[ACCEPT_RANGES]: " + acceptRanges;
     }
 }
@@ -0,0 +1,353 @@
+package org.docheinstein.animedownloader.video;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.animedownloader.metrics.Metrics;
+import org.docheinstein.commons.logger.DocLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persistent cache of the resolved video info (direct link, filename, size),
+ * keyed by the url of the video page.
+ * <p>
+ * A cached entry is handed out only if it is not much older than the time to
+ * live of its provider and if a cheap HEAD request confirms that the direct link
+ * is still valid; this allows to skip the browser entirely for re-pasted
+ * or retried videos.
+ * <p>
+ * The time to live of each provider starts from
+ * {@link VideoProvider#getDefaultResolutionTTLSeconds()} and is learned from
+ * the outcome of the revalidations.
+ */
+public class ResolutionCache {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(ResolutionCache.class);
+
+    private static final ResolutionCache INSTANCE = new ResolutionCache();
+
+    /** User agent used for the revalidation requests. */
+    private static final String USER_AGENT = "curl/7.52.1";
+
+    /** Connection/read timeout of the revalidation requests. */
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Cached resolution of a video page.
+     */
+    private static class Entry {
+        String provider;
+        String directLink;
+        String filename;
+        String title;
+        long size;
+        boolean acceptRanges;
+        long resolvedAtMillis;
+    }
+
+    /**
+     * Content of the cache file.
+     */
+    private static class Content {
+        Map<String, Entry> entries = new HashMap<>();
+        Map<String, Long> ttlSeconds = new HashMap<>();
+    }
+
+    private final Gson mGson = new GsonBuilder().setPrettyPrinting().create();
+
+    /** Current content of the cache. */
+    private Content mContent;
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the instance of this class.
+     */
+    public static ResolutionCache instance() {
+        return INSTANCE;
+    }
+
+    private ResolutionCache() {
+        mContent = load();
+    }
+
+    /**
+     * Returns the cached video info for the given page url, if it is not
+     * expired and its direct link is still valid.
+     * <p>
+     * Entries older than the time to live are revalidated as well, up to
+     * {@link Config.ResolutionCache#PROBE_TTL_FACTOR} times the time to live,
+     * so that a longer time to live can be learned.
+     * <p>
+     * This performs a HEAD request, thus should not be called from the
+     * UI thread.
+     * @param url the url of the video page
+     * @return the cached video info or null if there is no valid cached info
+     */
+    public DownloadableVideoInfo get(String url) {
+        Entry entry;
+        VideoProvider provider;
+        long ttlSeconds;
+
+        synchronized (this) {
+            entry = mContent.entries.get(url);
+
+            if (entry == null)
+                return null;
+
+            provider = parseProvider(entry.provider);
+            ttlSeconds = getTTLSeconds(provider);
+        }
+
+        long ageSeconds = (System.currentTimeMillis() - entry.resolvedAtMillis) / 1000;
+
+        // Entries a bit older than the ttl are revalidated anyway, otherwise
+        // the ttl could never grow
+        long probeSeconds = Math.min(
+            ttlSeconds * Config.ResolutionCache.PROBE_TTL_FACTOR,
+            Config.ResolutionCache.MAX_TTL_SECONDS);
+
+        if (provider == null || ageSeconds > probeSeconds) {
+            L.debug("Cached resolution of " + url + " is expired (age " +
+                ageSeconds + "s, ttl " + ttlSeconds + "s)");
+            invalidate(url);
+            return null;
+        }
+
+        boolean valid = revalidate(entry, provider);
+
+        synchronized (this) {
+            boolean changed = learnTTL(provider, ageSeconds, valid);
+
+            if (!valid) {
+                L.debug("Cached direct link of " + url + " is not valid anymore");
+                mContent.entries.remove(url);
+                changed = true;
+            }
+
+            if (changed)
+                save();
+
+            if (!valid)
+                return null;
+        }
+
+        L.debug("Using cached resolution of " + url + " (age " + ageSeconds + "s)");
+
+        DownloadableVideoInfo videoInfo = new DownloadableVideoInfo();
+        videoInfo.directLink = entry.directLink;
+        videoInfo.filename = entry.filename;
+        videoInfo.title = entry.title;
+        videoInfo.size = entry.size;
+        videoInfo.acceptRanges = entry.acceptRanges;
+
+        return videoInfo;
+    }
+
+    /**
+     * Caches the video info resolved for the given page url.
+     * <p>
+     * Info without a direct link are ignored.
+     * @param url the url of the video page
+     * @param videoInfo the resolved video info
+     */
+    public synchronized void put(String url, DownloadableVideoInfo videoInfo) {
+        VideoProvider provider = VideoProvider.getProviderForURL(url);
+
+        if (provider == null || videoInfo == null || videoInfo.directLink == null)
+            return;
+
+        Entry entry = new Entry();
+        entry.provider = provider.name();
+        entry.directLink = videoInfo.directLink;
+        entry.filename = videoInfo.filename;
+        entry.title = videoInfo.title;
+        entry.size = videoInfo.size;
+        entry.acceptRanges = videoInfo.acceptRanges;
+        entry.resolvedAtMillis = System.currentTimeMillis();
+
+        mContent.entries.put(url, entry);
+
+        save();
+    }
+
+    /**
+     * Removes the cached info for the given page url.
+     * @param url the url of the video page
+     */
+    public synchronized void invalidate(String url) {
+        if (mContent.entries.remove(url) != null)
+            save();
+    }
+
+    /**
+     * Returns the provider with the given name.
+     * @param name the name of the provider
+     * @return the provider or null if there is no provider with the given name
+     */
+    private static VideoProvider parseProvider(String name) {
+        if (name == null)
+            return null;
+
+        try {
+            return VideoProvider.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the current time to live of the resolutions of the given provider.
+     * @param provider the provider
+     * @return the time to live in seconds
+     */
+    private long getTTLSeconds(VideoProvider provider) {
+        if (provider == null)
+            return 0;
+
+        return mContent.ttlSeconds.getOrDefault(
+            provider.name(), provider.getDefaultResolutionTTLSeconds());
+    }
+
+    /**
+     * Adjusts the time to live of the provider based on the outcome of
+     * a revalidation: a link still valid at a certain age lives at least
+     * that long, while an invalid one lives less.
+     * @param provider the provider
+     * @param ageSeconds the age of the revalidated link
+     * @param valid whether the link was still valid
+     * @return whether the time to live is changed
+     */
+    private boolean learnTTL(VideoProvider provider, long ageSeconds, boolean valid) {
+        long ttl = getTTLSeconds(provider);
+        long learnedTTL = valid ? Math.max(ttl, ageSeconds) : Math.min(ttl, ageSeconds);
+
+        learnedTTL = Math.max(
+            Config.ResolutionCache.MIN_TTL_SECONDS,
+            Math.min(Config.ResolutionCache.MAX_TTL_SECONDS, learnedTTL));
+
+        if (learnedTTL != ttl) {
+            L.debug("Learned resolution ttl for " + provider + ": " + learnedTTL + "s");
+            mContent.ttlSeconds.put(provider.name(), learnedTTL);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks with a HEAD request whether the direct link of the entry
+     * is still valid.
+     * @param entry the cached entry
+     * @param provider the provider of the entry
+     * @return whether the direct link is still valid
+     */
+    private static boolean revalidate(Entry entry, VideoProvider provider) {
+        HttpURLConnection connection = null;
+
+        long headStart = System.nanoTime();
+
+        try {
+            connection = (HttpURLConnection) new URL(entry.directLink).openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setRequestProperty("Accept", "*/*");
+
+            int responseCode = connection.getResponseCode();
+
+            if (responseCode != HttpURLConnection.HTTP_OK)
+                return false;
+
+            // The size of segmented videos is just an estimation
+            if (provider.isSingleFile() && entry.size > 0) {
+                long contentLength = connection.getContentLengthLong();
+                if (contentLength > 0 && contentLength != entry.size)
+                    return false;
+            }
+
+            return true;
+        } catch (IOException e) {
+            L.debug("Revalidation of " + entry.directLink + " failed: " + e.getMessage());
+            return false;
+        } finally {
+            if (connection != null)
+                connection.disconnect();
+
+            Metrics.instance().timer("http.head").recordMillisSince(headStart);
+        }
+    }
+
+    /**
+     * Loads the cache from its file, discarding the entries older than the
+     * maximum time to live.
+     * @return the content of the cache
+     */
+    private Content load() {
+        File cacheFile = Config.Files.RESOLUTION_CACHE;
+
+        Content content = null;
+
+        if (cacheFile.exists()) {
+            try (Reader reader = Files.newBufferedReader(
+                cacheFile.toPath(), StandardCharsets.UTF_8)) {
+                content = mGson.fromJson(reader, Content.class);
+            } catch (IOException | JsonParseException e) {
+                L.warn("Resolution cache can't be read; starting with an empty cache", e);
+            }
+        }
+
+        if (content == null)
+            content = new Content();
+        if (content.entries == null)
+            content.entries = new HashMap<>();
+        if (content.ttlSeconds == null)
+            content.ttlSeconds = new HashMap<>();
+
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = content.entries.values().iterator();
+        while (it.hasNext()) {
+            if ((now - it.next().resolvedAtMillis) / 1000 > Config.ResolutionCache.MAX_TTL_SECONDS)
+                it.remove();
+        }
+
+        L.debug("Loaded " + content.entries.size() + " cached resolutions");
+
+        return content;
+    }
+
+    /**
+     * Saves the cache to its file, atomically.
+     */
+    private void save() {
+        File cacheFile = Config.Files.RESOLUTION_CACHE;
+        File tmpFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+
+        try {
+            try (Writer writer = Files.newBufferedWriter(
+                tmpFile.toPath(), StandardCharsets.UTF_8)) {
+                mGson.toJson(mContent, writer);
+            }
+
+            Files.move(tmpFile.toPath(), cacheFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            L.warn("Resolution cache can't be saved", e);
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package org.docheinstein.animedownloader.video;
 
-import javafx.scene.image.Image;
+import org.docheinstein.animedownloader.downloader.base.VideoLinkResolver;
+import org.docheinstein.animedownloader.downloader.openload.OpenloadHttpResolver;
+import org.docheinstein.animedownloader.downloader.streamango.StreamangoHttpResolver;
 import org.docheinstein.animedownloader.downloader.streamango.StreamangoMarionette;
 import org.docheinstein.animedownloader.downloader.vvvvid.VVVVIDMarionette;
 import org.docheinstein.commons.types.StringUtil;
-import org.docheinstein.animedownloader.commons.constants.Resources;
+import org.docheinstein.animedownloader.commons.constants.Config;
 import org.docheinstein.animedownloader.downloader.base.ChromeMarionetteDownloader;
 import org.docheinstein.animedownloader.downloader.base.VideoDownloadObserver;
 import org.docheinstein.animedownloader.downloader.openload.OpenloadMarionette;
@@ -46,33 +48,26 @@ public enum  VideoProvider {
      * to this provider.
      * @param downloadUrl the video url
      * @param downloadFolder the download folder
-     * @param driverPath the path of the chrome driver
-     * @param ghostMode whether the chrome driver should be started in ghost mode
      * @param downloadObserver the observer of the download
      * @return the appropriate downloader for this provider
      */
     public ChromeMarionetteDownloader createDownloader(
         String downloadUrl,
         File downloadFolder,
-        File driverPath,
-        boolean ghostMode,
         VideoDownloadObserver downloadObserver
     ) {
         switch (this) {
         case Openload:
             return new OpenloadMarionette(
                 downloadUrl, downloadFolder,
-                driverPath, ghostMode,
                 downloadObserver);
         case VVVVID:
             return new VVVVIDMarionette(
                 downloadUrl, downloadFolder,
-                driverPath, ghostMode,
                 downloadObserver);
         case Streamango:
             return new StreamangoMarionette(
                 downloadUrl, downloadFolder,
-                driverPath, ghostMode,
                 downloadObserver);
         }
 
@@ -80,18 +75,49 @@ public enum  VideoProvider {
     }
 
     /**
-     * Returns the logo associated with this provider.
-     * @return the provider's logo
+     * Returns a resolver able to figure out the direct link of a video
+     * that belongs to this provider without a browser.
+     * @return the browser-free resolver for this provider, or null if
+     *         the videos of this provider can be resolved only by its
+     *         downloader
      */
-    public Image getLogo() {
+    public VideoLinkResolver createResolver() {
         switch (this) {
         case Openload:
-            return Resources.UI.OPENLOAD;
-        case VVVVID:
-            return Resources.UI.VVVVID;
+            return new OpenloadHttpResolver();
         case Streamango:
-            return Resources.UI.STREAMANGO;
+            return new StreamangoHttpResolver();
+        case VVVVID:
+            // The segments are requested by the player only
+            return null;
         }
+
         return null;
     }
+
+    /**
+     * Returns whether the videos of this provider are downloaded as a single
+     * file (and not as a list of segments).
+     * @return whether the videos of this provider are single files
+     */
+    public boolean isSingleFile() {
+        return this != VVVVID;
+    }
+
+    /**
+     * Returns the initial time to live of the direct links resolved
+     * for this provider.
+     * @return the default resolution ttl in seconds
+     */
+    public long getDefaultResolutionTTLSeconds() {
+        switch (this) {
+        case Openload:
+            return Config.ResolutionCache.OPENLOAD_TTL_SECONDS;
+        case VVVVID:
+            return Config.ResolutionCache.VVVVID_TTL_SECONDS;
+        case Streamango:
+            return Config.ResolutionCache.STREAMANGO_TTL_SECONDS;
+        }
+        return Config.ResolutionCache.MIN_TTL_SECONDS;
+    }
 }
@@ -0,0 +1,653 @@
+package org.docheinstein.animedownloader.video;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.docheinstein.animedownloader.commons.constants.Config;
+import org.docheinstein.commons.file.FileUtil;
+import org.docheinstein.commons.file.KeyValueFileHandler;
+import org.docheinstein.commons.logger.DocLogger;
+import org.docheinstein.commons.types.StringUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent queue of the videos added to the download list, together with
+ * the state of their downloads.
+ * <p>
+ * The queue is stored in a single append-only journal, one JSON record for
+ * each line: every change appends a record, and the queue is rebuilt at
+ * startup by replaying the journal with a single sequential read.
+ * Records are written in batches by a background thread and synced to
+ * the disk once per batch; when the journal holds too many stale records
+ * it is compacted by atomically replacing it with a snapshot of the queue.
+ * <p>
+ * The videos stored by the previous versions, one file for each video,
+ * are imported into the journal the first time it is loaded.
+ */
+public class VideoQueueStore {
+
+    private static final DocLogger L =
+        DocLogger.createForClass(VideoQueueStore.class);
+
+    private static final VideoQueueStore INSTANCE = new VideoQueueStore();
+
+    /**
+     * Persisted state of the download of a video.
+     */
+    public enum State {
+        /** The video should still be downloaded. */
+        ToDownload,
+
+        /** The download of the video was in progress. */
+        Downloading,
+
+        /** The download of the video has been aborted. */
+        Aborted
+    }
+
+    /**
+     * Video of the queue.
+     */
+    public static class QueuedVideo {
+        /** Identifier of the video. */
+        public final String identifier;
+
+        /** Url of the video page. */
+        public final String url;
+
+        /** Info of the video, if retrieved. */
+        public DownloadableVideoInfo videoInfo;
+
+        /** State of the download. */
+        public State state = State.ToDownload;
+
+        /** Amount of bytes downloaded so far. */
+        public long downloadedBytes = 0;
+
+        QueuedVideo(String identifier, String url) {
+            this.identifier = identifier;
+            this.url = url;
+        }
+    }
+
+    /** Operations of the records. */
+    private static final String OP_PUT = "put";
+    private static final String OP_STATE = "state";
+    private static final String OP_REMOVE = "remove";
+
+    /**
+     * Record of the journal.
+     */
+    private static class Record {
+        String op;
+        String id;
+        String url;
+        String title;
+        String filename;
+        String directLink;
+        Long size;
+        Boolean acceptRanges;
+        String state;
+        Long bytes;
+    }
+
+    private final Gson mGson = new Gson();
+
+    /** File of the journal; the legacy video files are in its folder. */
+    private final File mJournalFile;
+
+    /** Current content of the queue, in insertion order (guarded by this). */
+    private final Map<String, QueuedVideo> mVideos = new LinkedHashMap<>();
+
+    /** Records not written yet (guarded by this). */
+    private List<Record> mPendingRecords = new ArrayList<>();
+
+    /** Latest progress not written yet for each video (guarded by this). */
+    private final Map<String, Long> mPendingProgress = new LinkedHashMap<>();
+
+    /** Amount of records currently in the journal file (writer thread only). */
+    private int mJournalRecords = 0;
+
+    /** Channel of the journal opened for append (writer thread only). */
+    private FileChannel mJournal;
+
+    /** Whether the queue has been loaded. */
+    private boolean mLoaded = false;
+
+    /** Thread that writes the journal. */
+    private final ScheduledExecutorService mWriter;
+
+    /**
+     * Returns the unique instance of this class.
+     * @return the instance of this class.
+     */
+    public static VideoQueueStore instance() {
+        return INSTANCE;
+    }
+
+    private VideoQueueStore() {
+        this(Config.Files.VIDEO_QUEUE_JOURNAL);
+
+        mWriter.scheduleWithFixedDelay(
+            this::flush,
+            Config.VideoQueue.FLUSH_PERIOD_MILLIS,
+            Config.VideoQueue.FLUSH_PERIOD_MILLIS,
+            TimeUnit.MILLISECONDS
+        );
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    /**
+     * Creates a store for the given journal whose records are written
+     * only by {@link #shutdown()}.
+     * @param journalFile the file of the journal
+     */
+    VideoQueueStore(File journalFile) {
+        mJournalFile = journalFile;
+
+        mWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "video-queue-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads the queue from the journal, importing the legacy video files
+     * if the journal doesn't exist yet.
+     * <p>
+     * Videos whose download was in progress are returned as still to
+     * download.
+     * @return the videos of the queue, in insertion order
+     */
+    public synchronized List<QueuedVideo> load() {
+        if (!mLoaded) {
+            mLoaded = true;
+
+            if (FileUtil.exists(mJournalFile))
+                replayJournal();
+            else
+                importLegacyVideos();
+        }
+
+        List<QueuedVideo> videos = new ArrayList<>(mVideos.values());
+
+        for (QueuedVideo video : videos) {
+            if (video.state == State.Downloading)
+                video.state = State.ToDownload;
+        }
+
+        return videos;
+    }
+
+    /**
+     * Adds a video to the queue, or replaces its info if it already exists.
+     * @param identifier the identifier of the video
+     * @param url the url of the video page
+     * @param videoInfo the info of the video
+     */
+    public synchronized void put(String identifier, String url,
+                                 DownloadableVideoInfo videoInfo) {
+        L.debug("Storing video with following details\n" +
+            "[ID] " + identifier + "\n" +
+            "[URL] " + url + "\n" +
+            videoInfo);
+
+        QueuedVideo video = mVideos.get(identifier);
+
+        if (video == null) {
+            video = new QueuedVideo(identifier, url);
+            mVideos.put(identifier, video);
+        }
+
+        video.videoInfo = videoInfo;
+
+        mPendingRecords.add(newPutRecord(video));
+    }
+
+    /**
+     * Changes the download state of a video of the queue.
+     * @param identifier the identifier of the video
+     * @param state the new state
+     * @param downloadedBytes the amount of bytes downloaded so far
+     */
+    public synchronized void updateState(String identifier, State state,
+                                         long downloadedBytes) {
+        QueuedVideo video = mVideos.get(identifier);
+
+        if (video == null)
+            return;
+
+        video.state = state;
+        video.downloadedBytes = downloadedBytes;
+
+        mPendingProgress.remove(identifier);
+        mPendingRecords.add(newStateRecord(video));
+    }
+
+    /**
+     * Updates the amount of downloaded bytes of a video of the queue.
+     * <p>
+     * Consecutive updates of the same video are coalesced, only the latest
+     * one is written to the journal.
+     * @param identifier the identifier of the video
+     * @param downloadedBytes the amount of bytes downloaded so far
+     */
+    public synchronized void updateProgress(String identifier, long downloadedBytes) {
+        QueuedVideo video = mVideos.get(identifier);
+
+        if (video == null)
+            return;
+
+        video.downloadedBytes = downloadedBytes;
+
+        mPendingProgress.put(identifier, downloadedBytes);
+    }
+
+    /**
+     * Removes a video from the queue.
+     * @param identifier the identifier of the video
+     */
+    public synchronized void remove(String identifier) {
+        L.debug("Removing stored video with identifier: " + identifier);
+
+        if (mVideos.remove(identifier) == null)
+            return;
+
+        Record record = new Record();
+        record.op = OP_REMOVE;
+        record.id = identifier;
+
+        mPendingProgress.remove(identifier);
+        mPendingRecords.add(record);
+    }
+
+    /**
+     * Writes the pending records to the journal, syncing them to the disk,
+     * and compacts the journal if needed.
+     * <p>
+     * This is called periodically by the writer thread.
+     */
+    private void flush() {
+        List<Record> records;
+        int liveVideos;
+
+        synchronized (this) {
+            for (Map.Entry<String, Long> progress : mPendingProgress.entrySet()) {
+                QueuedVideo video = mVideos.get(progress.getKey());
+                if (video != null)
+                    mPendingRecords.add(newStateRecord(video));
+            }
+
+            mPendingProgress.clear();
+
+            if (mPendingRecords.isEmpty())
+                return;
+
+            records = mPendingRecords;
+            mPendingRecords = new ArrayList<>();
+            liveVideos = mVideos.size();
+        }
+
+        try {
+            append(records);
+        } catch (IOException e) {
+            L.error("Error occurred while writing the video queue journal", e);
+            closeJournal();
+
+            // Written again with the next flush, before the newer records
+            synchronized (this) {
+                mPendingRecords.addAll(0, records);
+            }
+
+            return;
+        }
+
+        if (mJournalRecords >= Config.VideoQueue.COMPACTION_MIN_RECORDS &&
+            mJournalRecords >= liveVideos * Config.VideoQueue.COMPACTION_RATIO) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // The journal is still valid, just not compacted
+                L.error("Error occurred while compacting the video queue journal", e);
+            }
+        }
+    }
+
+    /**
+     * Appends the given records to the journal and syncs it.
+     * @param records the records to append
+     * @throws IOException if the journal can't be written
+     */
+    private void append(List<Record> records) throws IOException {
+        StringBuilder lines = new StringBuilder();
+
+        for (Record record : records)
+            lines.append(mGson.toJson(record)).append('\n');
+
+        if (mJournal == null)
+            mJournal = openJournal();
+
+        ByteBuffer buffer = ByteBuffer.wrap(
+            lines.toString().getBytes(StandardCharsets.UTF_8));
+
+        while (buffer.hasRemaining())
+            mJournal.write(buffer);
+
+        mJournal.force(false);
+
+        mJournalRecords += records.size();
+
+        L.verbose("Written " + records.size() + " records to the video queue journal");
+    }
+
+    /**
+     * Opens the journal for append.
+     * <p>
+     * If the last record is truncated (e.g. by a crash or by a failed
+     * write) it is cut away, so that the next record starts on its own line.
+     * @return the channel of the journal, positioned at its end
+     * @throws IOException if the journal can't be opened
+     */
+    private FileChannel openJournal() throws IOException {
+        FileChannel journal = FileChannel.open(
+            mJournalFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        );
+
+        try {
+            long size = journal.size();
+            long end = size;
+            ByteBuffer b = ByteBuffer.allocate(1);
+
+            // Seeks the end of the last complete line
+            while (end > 0) {
+                b.clear();
+                journal.read(b, end - 1);
+
+                if (b.get(0) == '\n')
+                    break;
+
+                end--;
+            }
+
+            if (end < size) {
+                L.warn("Cutting truncated record at the end of the video queue journal");
+                journal.truncate(end);
+                journal.force(false);
+            }
+
+            journal.position(end);
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+
+        return journal;
+    }
+
+    /**
+     * Replaces the journal with a snapshot of the current queue.
+     * @throws IOException if the journal can't be written
+     */
+    private void compact() throws IOException {
+        List<Record> snapshot = new ArrayList<>();
+        int includedRecords;
+
+        synchronized (this) {
+            // Pending records are included in the snapshot, but they are
+            // discarded only once the snapshot replaces the journal
+            includedRecords = mPendingRecords.size();
+
+            for (QueuedVideo video : mVideos.values()) {
+                snapshot.add(newPutRecord(video));
+                snapshot.add(newStateRecord(video));
+            }
+        }
+
+        L.debug("Compacting video queue journal from " + mJournalRecords +
+            " to " + snapshot.size() + " records");
+
+        File tmpFile = new File(mJournalFile.getAbsolutePath() + ".tmp");
+
+        StringBuilder lines = new StringBuilder();
+        for (Record record : snapshot)
+            lines.append(mGson.toJson(record)).append('\n');
+
+        try (FileChannel tmp = FileChannel.open(
+            tmpFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer buffer = ByteBuffer.wrap(
+                lines.toString().getBytes(StandardCharsets.UTF_8));
+
+            while (buffer.hasRemaining())
+                tmp.write(buffer);
+
+            tmp.force(false);
+        }
+
+        closeJournal();
+
+        Files.move(tmpFile.toPath(), mJournalFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+
+        mJournalRecords = snapshot.size();
+
+        synchronized (this) {
+            // Records added in the meanwhile are after the included ones
+            mPendingRecords.subList(0, includedRecords).clear();
+        }
+    }
+
+    /**
+     * Rebuilds the queue by replaying the records of the journal.
+     */
+    private void replayJournal() {
+        int records = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(
+            mJournalFile.toPath(), StandardCharsets.UTF_8)) {
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+
+                records++;
+
+                try {
+                    apply(mGson.fromJson(line, Record.class));
+                } catch (JsonParseException e) {
+                    // e.g. the last record, if truncated by a crash
+                    L.warn("Skipping malformed record of the video queue journal");
+                }
+            }
+        } catch (IOException e) {
+            L.error("Error occurred while reading the video queue journal", e);
+        }
+
+        final int replayedRecords = records;
+        mWriter.execute(() -> mJournalRecords += replayedRecords);
+
+        L.debug("Loaded " + mVideos.size() + " videos from " + records +
+            " records of the video queue journal");
+    }
+
+    /**
+     * Applies a record of the journal to the queue.
+     * @param record the record
+     */
+    private void apply(Record record) {
+        if (record == null || record.op == null || record.id == null)
+            return;
+
+        switch (record.op) {
+        case OP_PUT:
+            QueuedVideo video = mVideos.get(record.id);
+
+            if (video == null) {
+                video = new QueuedVideo(record.id, record.url);
+                mVideos.put(record.id, video);
+            }
+
+            DownloadableVideoInfo videoInfo = new DownloadableVideoInfo();
+            videoInfo.title = record.title;
+            videoInfo.filename = record.filename;
+            videoInfo.directLink = record.directLink;
+            videoInfo.size = record.size != null ? record.size : 0;
+            videoInfo.acceptRanges = record.acceptRanges != null && record.acceptRanges;
+
+            video.videoInfo = videoInfo;
+            break;
+        case OP_STATE:
+            QueuedVideo stateVideo = mVideos.get(record.id);
+
+            if (stateVideo == null)
+                break;
+
+            try {
+                stateVideo.state = State.valueOf(record.state);
+            } catch (IllegalArgumentException | NullPointerException e) {
+                stateVideo.state = State.ToDownload;
+            }
+
+            stateVideo.downloadedBytes = record.bytes != null ? record.bytes : 0;
+            break;
+        case OP_REMOVE:
+            mVideos.remove(record.id);
+            break;
+        }
+    }
+
+    /**
+     * Imports the videos stored with the legacy layout, one key-value file
+     * for each video named by its identifier, and deletes the files once
+     * they are written to the journal.
+     */
+    private void importLegacyVideos() {
+        File[] legacyVideos = mJournalFile.getAbsoluteFile().getParentFile().listFiles(
+            file -> file.isFile() && file.getName().matches("\\d+"));
+
+        if (legacyVideos == null || legacyVideos.length == 0)
+            return;
+
+        Arrays.sort(legacyVideos);
+
+        L.info("Importing " + legacyVideos.length + " videos into the video queue journal");
+
+        for (File legacyVideo : legacyVideos) {
+            Map<String, String> videoKeyVals = new KeyValueFileHandler(
+                legacyVideo, Config.VideoCache.SEPARATOR
+            ).readAll();
+
+            DownloadableVideoInfo videoInfo = new DownloadableVideoInfo();
+
+            videoInfo.title = videoKeyVals.get(Config.VideoCache.KEY_TITLE);
+            videoInfo.filename = videoKeyVals.get(Config.VideoCache.KEY_FILENAME);
+            videoInfo.directLink = videoKeyVals.get(Config.VideoCache.KEY_DIRECT_LINK);
+
+            String sizeStr = videoKeyVals.get(Config.VideoCache.KEY_SIZE);
+            videoInfo.size = StringUtil.isValid(sizeStr) ? Long.valueOf(sizeStr) : 0;
+
+            videoInfo.acceptRanges = Boolean.valueOf(
+                videoKeyVals.get(Config.VideoCache.KEY_ACCEPT_RANGES));
+
+            put(legacyVideo.getName(),
+                videoKeyVals.get(Config.VideoCache.KEY_URL), videoInfo);
+        }
+
+        // The legacy files are deleted only once the journal is on the disk
+        mWriter.execute(() -> {
+            flush();
+
+            if (!FileUtil.exists(mJournalFile)) {
+                L.warn("Video queue journal not written, legacy videos are kept");
+                return;
+            }
+
+            for (File legacyVideo : legacyVideos)
+                FileUtil.delete(legacyVideo);
+        });
+    }
+
+    private static Record newPutRecord(QueuedVideo video) {
+        Record record = new Record();
+        record.op = OP_PUT;
+        record.id = video.identifier;
+        record.url = video.url;
+
+        if (video.videoInfo != null) {
+            record.title = video.videoInfo.title;
+            record.filename = video.videoInfo.filename;
+            record.directLink = video.videoInfo.directLink;
+            record.size = video.videoInfo.size;
+            record.acceptRanges = video.videoInfo.acceptRanges;
+        }
+
+        return record;
+    }
+
+    private static Record newStateRecord(QueuedVideo video) {
+        Record record = new Record();
+        record.op = OP_STATE;
+        record.id = video.identifier;
+        record.state = video.state.name();
+        record.bytes = video.downloadedBytes;
+        return record;
+    }
+
+    private void closeJournal() {
+        if (mJournal == null)
+            return;
+
+        try {
+            mJournal.close();
+        } catch (IOException e) {
+            L.warn("Video queue journal can't be closed", e);
+        }
+
+        mJournal = null;
+    }
+
+    /**
+     * Writes the pending records before the application exits.
+     */
+    void shutdown() {
+        mWriter.shutdown();
+
+        try {
+            mWriter.awaitTermination(
+                Config.VideoQueue.FLUSH_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The writer thread is done, the journal can be accessed from here
+        flush();
+        closeJournal();
+    }
+}
@@ -0,0 +1,130 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link ResumeValidators}.
+ */
+public class ResumeValidatorsTest {
+
+    private static final String ETAG = "\"abc\"";
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    private Path mFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = Files.createTempDirectory("resume-validators");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(mFolder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void matchesTheSameResource() {
+        assertTrue(newValidators(1000, ETAG, LAST_MODIFIED).matches(
+            newValidators(1000, ETAG, LAST_MODIFIED)));
+    }
+
+    @Test
+    public void doesNotMatchADifferentSize() {
+        assertFalse(newValidators(1000, ETAG, null).matches(
+            newValidators(2000, ETAG, null)));
+    }
+
+    @Test
+    public void doesNotMatchADifferentEntityTag() {
+        assertFalse(newValidators(1000, ETAG, LAST_MODIFIED).matches(
+            newValidators(1000, "\"def\"", LAST_MODIFIED)));
+    }
+
+    @Test
+    public void comparesTheLastModifiedWithoutEntityTag() {
+        assertFalse(newValidators(1000, null, LAST_MODIFIED).matches(
+            newValidators(1000, ETAG, "Thu, 22 Oct 2015 07:28:00 GMT")));
+    }
+
+    @Test
+    public void ignoresTheUnknownValidators() {
+        // e.g. the HEAD failed and only the size is known
+        assertTrue(newValidators(1000, ETAG, LAST_MODIFIED).matches(
+            ResumeValidators.fromSize(0, false)));
+        assertFalse(newValidators(1000, ETAG, LAST_MODIFIED).matches(null));
+    }
+
+    @Test
+    public void resumesOnlyWithAStrongValidator() {
+        assertTrue(newValidators(1000, ETAG, null).canResume());
+        assertTrue(newValidators(1000, "W/" + ETAG, LAST_MODIFIED).canResume());
+        assertFalse(newValidators(1000, "W/" + ETAG, null).canResume());
+        assertFalse(newValidators(0, ETAG, null).canResume());
+        assertFalse(ResumeValidators.fromSize(1000, true).canResume());
+    }
+
+    @Test
+    public void readsTheHeadersIgnoringTheirCase() {
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("etag", Collections.singletonList(ETAG));
+        headers.put("accept-ranges", Collections.singletonList("bytes"));
+
+        ResumeValidators validators = ResumeValidators.fromHeaders(1000, headers);
+
+        assertEquals(ETAG, validators.getIfRange());
+        assertTrue(validators.canResume());
+    }
+
+    @Test
+    public void storesTheValidatorsBesideTheFile() throws IOException {
+        File file = new File(mFolder.toFile(), "video.mp4");
+        Files.write(file.toPath(), "partial".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(ResumeValidators.load(file));
+
+        newValidators(1000, ETAG, LAST_MODIFIED).save(file);
+
+        ResumeValidators loaded = ResumeValidators.load(file);
+
+        assertTrue(loaded.matches(newValidators(1000, ETAG, LAST_MODIFIED)));
+        assertEquals(1000, loaded.getSize());
+
+        ResumeValidators.delete(file);
+
+        assertNull(ResumeValidators.load(file));
+    }
+
+    private static ResumeValidators newValidators(long size, String etag, String lastModified) {
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("Accept-Ranges", Collections.singletonList("bytes"));
+
+        if (etag != null)
+            headers.put("ETag", Collections.singletonList(etag));
+
+        if (lastModified != null)
+            headers.put("Last-Modified", Collections.singletonList(lastModified));
+
+        return ResumeValidators.fromHeaders(size, headers);
+    }
+}
@@ -0,0 +1,174 @@
+package org.docheinstein.animedownloader.downloader.base;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link SegmentManifest} together with the
+ * {@link SegmentFileSink} that records the segments in it.
+ */
+public class SegmentManifestTest {
+
+    private static final int SEGMENT_COUNT = 40;
+    private static final int SEGMENT_SIZE = 100;
+
+    private Path mFolder;
+    private File mDataFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = Files.createTempDirectory("segment-manifest");
+        mDataFile = new File(mFolder.toFile(), "video.ts.part");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(mFolder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void resumesAfterTheWrittenSegments() throws IOException {
+        writeSegments(newPlaylist("token-1"), 25);
+
+        // The tokens of the links change, the playlist is the same
+        SegmentManifest manifest = SegmentManifest.open(mDataFile, newPlaylist("token-2"));
+
+        assertEquals(25, manifest.getCompletedSegments());
+        assertEquals(25 * SEGMENT_SIZE, manifest.getCompletedBytes());
+        assertFalse(manifest.isComplete());
+        manifest.close();
+    }
+
+    @Test
+    public void recognizesTheCompleteDownload() throws IOException {
+        writeSegments(newPlaylist("token"), SEGMENT_COUNT);
+
+        SegmentManifest manifest = SegmentManifest.open(mDataFile, newPlaylist("token"));
+
+        assertTrue(manifest.isComplete());
+        manifest.close();
+    }
+
+    @Test
+    public void truncatesTheDataAfterTheLastCompleteSegment() throws IOException {
+        writeSegments(newPlaylist("token"), 25);
+
+        // A crash in the middle of a segment
+        try (RandomAccessFile data = new RandomAccessFile(mDataFile, "rw")) {
+            data.setLength(10 * SEGMENT_SIZE + SEGMENT_SIZE / 2);
+        }
+
+        SegmentManifest manifest = SegmentManifest.open(mDataFile, newPlaylist("token"));
+
+        assertEquals(10, manifest.getCompletedSegments());
+        assertEquals(10 * SEGMENT_SIZE, mDataFile.length());
+        manifest.close();
+    }
+
+    @Test
+    public void dropsTheSegmentsAfterACorruptedOne() throws IOException {
+        writeSegments(newPlaylist("token"), 25);
+
+        try (RandomAccessFile data = new RandomAccessFile(mDataFile, "rw")) {
+            data.seek(7 * SEGMENT_SIZE + 3);
+            data.write(0xFF);
+        }
+
+        SegmentManifest manifest = SegmentManifest.open(mDataFile, newPlaylist("token"));
+
+        assertEquals(7, manifest.getCompletedSegments());
+        assertEquals(7 * SEGMENT_SIZE, mDataFile.length());
+        manifest.close();
+    }
+
+    @Test
+    public void ignoresTheTruncatedRecord() throws IOException {
+        writeSegments(newPlaylist("token"), 25);
+
+        Files.write(SegmentManifest.getManifestFile(mDataFile).toPath(),
+            "{\"index\":25,\"si".getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+
+        SegmentManifest manifest = SegmentManifest.open(mDataFile, newPlaylist("token"));
+
+        assertEquals(25, manifest.getCompletedSegments());
+        manifest.close();
+
+        // The manifest is rewritten without the truncated record
+        writeSegments(newPlaylist("token"), SEGMENT_COUNT);
+
+        manifest = SegmentManifest.open(mDataFile, newPlaylist("token"));
+
+        assertTrue(manifest.isComplete());
+        manifest.close();
+    }
+
+    @Test
+    public void startsFromScratchForADifferentPlaylist() throws IOException {
+        writeSegments(newPlaylist("token"), 25);
+
+        List<String> otherPlaylist = newPlaylist("token");
+        otherPlaylist.set(3, "http://example.com/other/segment-3.ts?token");
+
+        SegmentManifest manifest = SegmentManifest.open(mDataFile, otherPlaylist);
+
+        assertEquals(0, manifest.getCompletedSegments());
+        assertEquals(0, mDataFile.length());
+        manifest.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSegmentsOutOfOrder() throws IOException {
+        try (SegmentManifest manifest = SegmentManifest.open(mDataFile, newPlaylist("token"))) {
+            manifest.onSegmentWritten(1, newSegment(1));
+        }
+    }
+
+    /**
+     * Writes the segments of the playlist, from the ones already in the
+     * data file up to the given one, as a download would do.
+     */
+    private void writeSegments(List<String> playlist, int lastSegment) throws IOException {
+        SegmentManifest manifest = SegmentManifest.open(mDataFile, playlist);
+
+        try (SegmentFileSink sink = new SegmentFileSink(mDataFile, manifest)) {
+            for (int i = manifest.getCompletedSegments(); i < lastSegment; i++)
+                sink.onSegmentDownloaded(i, newSegment(i));
+        }
+
+        manifest.close();
+    }
+
+    private static List<String> newPlaylist(String token) {
+        List<String> playlist = new ArrayList<>();
+        for (int i = 0; i < SEGMENT_COUNT; i++)
+            playlist.add("http://example.com/video/segment-" + i + ".ts?" + token);
+        return playlist;
+    }
+
+    private static byte[] newSegment(int index) {
+        byte[] segment = new byte[SEGMENT_SIZE];
+        for (int i = 0; i < segment.length; i++)
+            segment[i] = (byte) (index * 31 + i);
+        return segment;
+    }
+}
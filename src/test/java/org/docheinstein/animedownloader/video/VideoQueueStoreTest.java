@@ -0,0 +1,144 @@
+package org.docheinstein.animedownloader.video;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link VideoQueueStore}, on a journal in a temporary folder.
+ */
+public class VideoQueueStoreTest {
+
+    private Path mFolder;
+    private File mJournal;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = Files.createTempDirectory("video-queue");
+        mJournal = new File(mFolder.toFile(), "queue.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(mFolder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void replaysTheQueue() {
+        VideoQueueStore store = new VideoQueueStore(mJournal);
+        store.load();
+        store.put("1", "url-1", newVideoInfo("first"));
+        store.put("2", "url-2", newVideoInfo("second"));
+        store.put("3", "url-3", newVideoInfo("third"));
+        store.updateState("2", VideoQueueStore.State.Aborted, 100);
+        store.updateProgress("2", 200);
+        store.remove("3");
+        store.shutdown();
+
+        List<VideoQueueStore.QueuedVideo> videos = reload();
+
+        assertEquals(2, videos.size());
+        assertEquals("1", videos.get(0).identifier);
+        assertEquals("second", videos.get(1).videoInfo.title);
+        assertEquals(VideoQueueStore.State.Aborted, videos.get(1).state);
+        assertEquals(200, videos.get(1).downloadedBytes);
+    }
+
+    @Test
+    public void restartsTheDownloadsInProgress() {
+        VideoQueueStore store = new VideoQueueStore(mJournal);
+        store.load();
+        store.put("1", "url-1", newVideoInfo("first"));
+        store.updateState("1", VideoQueueStore.State.Downloading, 100);
+        store.shutdown();
+
+        List<VideoQueueStore.QueuedVideo> videos = reload();
+
+        assertEquals(VideoQueueStore.State.ToDownload, videos.get(0).state);
+        assertEquals(100, videos.get(0).downloadedBytes);
+    }
+
+    @Test
+    public void cutsTheTruncatedRecord() throws IOException {
+        VideoQueueStore store = new VideoQueueStore(mJournal);
+        store.load();
+        store.put("1", "url-1", newVideoInfo("first"));
+        store.put("2", "url-2", newVideoInfo("second"));
+        store.shutdown();
+
+        // A crash in the middle of a write
+        Files.write(mJournal.toPath(),
+            "{\"op\":\"put\",\"id\":\"3\",\"ur".getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+
+        store = new VideoQueueStore(mJournal);
+        assertEquals(2, store.load().size());
+        store.put("4", "url-4", newVideoInfo("fourth"));
+        store.shutdown();
+
+        List<String> lines = Files.readAllLines(mJournal.toPath(), StandardCharsets.UTF_8);
+
+        assertEquals(3, lines.size());
+        for (String line : lines)
+            assertTrue(line, line.startsWith("{") && line.endsWith("}"));
+
+        List<VideoQueueStore.QueuedVideo> videos = reload();
+
+        assertEquals(3, videos.size());
+        assertEquals("4", videos.get(2).identifier);
+    }
+
+    @Test
+    public void compactsTheJournal() throws IOException {
+        VideoQueueStore store = new VideoQueueStore(mJournal);
+        store.load();
+
+        for (int i = 0; i < 300; i++)
+            store.put(String.valueOf(i), "url-" + i, newVideoInfo("video-" + i));
+
+        for (int i = 0; i < 295; i++)
+            store.remove(String.valueOf(i));
+
+        store.shutdown();
+
+        // A put and a state record for each live video
+        assertEquals(10, Files.readAllLines(mJournal.toPath(), StandardCharsets.UTF_8).size());
+
+        List<VideoQueueStore.QueuedVideo> videos = reload();
+
+        assertEquals(5, videos.size());
+        assertEquals("295", videos.get(0).identifier);
+        assertEquals("video-299", videos.get(4).videoInfo.title);
+    }
+
+    private List<VideoQueueStore.QueuedVideo> reload() {
+        VideoQueueStore store = new VideoQueueStore(mJournal);
+        List<VideoQueueStore.QueuedVideo> videos = store.load();
+        store.shutdown();
+        return videos;
+    }
+
+    private static DownloadableVideoInfo newVideoInfo(String title) {
+        DownloadableVideoInfo videoInfo = new DownloadableVideoInfo();
+        videoInfo.title = title;
+        videoInfo.filename = title + ".mp4";
+        videoInfo.directLink = "http://example.com/" + title + ".mp4";
+        videoInfo.size = 1000;
+        return videoInfo;
+    }
+}